@@ -244,7 +244,11 @@ def _strip_incompatible_annotation(ctx, name, java_srcs, mnemonic, strip_annotat
         executable = ctx.executable._j2cl_stripper,
         arguments = [args],
         env = dict(LANG = "en_US.UTF-8"),
-        execution_requirements = {"supports-workers": "1"},
+        # The stripper keeps no state across requests, so requests can share a worker process.
+        execution_requirements = {
+            "supports-workers": "1",
+            "supports-multiplex-workers": "1",
+        },
         mnemonic = mnemonic,
     )
 
@@ -332,7 +336,12 @@ def _j2cl_transpile(
         executable = j2cl_transpiler_override or ctx.executable._j2cl_transpiler,
         arguments = [args],
         env = dict(LANG = "en_US.UTF-8"),
-        execution_requirements = {"supports-workers": "1"},
+        # Each request is transpiled on its own thread and the caches shared by requests are thread
+        # safe, so requests can share a worker process.
+        execution_requirements = {
+            "supports-workers": "1",
+            "supports-multiplex-workers": "1",
+        },
         mnemonic = "J2cl" if backend == "CLOSURE" else "J2wasm",
     )
 
@@ -123,7 +123,10 @@ def _impl_j2wasm_application(ctx):
             executable = ctx.executable._j2cl_transpiler,
             arguments = [args],
             env = dict(LANG = "en_US.UTF-8"),
-            execution_requirements = {"supports-workers": "1"},
+            execution_requirements = {
+                "supports-workers": "1",
+                "supports-multiplex-workers": "1",
+            },
             mnemonic = "J2wasmTranspile",
         )
 
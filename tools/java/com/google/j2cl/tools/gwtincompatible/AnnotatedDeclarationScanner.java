@@ -0,0 +1,565 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.tools.gwtincompatible;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.tools.gwtincompatible.GwtIncompatibleStripper.StrippedRange;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.ToolFactory;
+import org.eclipse.jdt.core.compiler.IScanner;
+import org.eclipse.jdt.core.compiler.ITerminalSymbols;
+import org.eclipse.jdt.core.compiler.InvalidInputException;
+
+/**
+ * Computes the ranges that the stripper blanks out from the tokens of a file, without parsing it.
+ *
+ * <p>The scanner follows the structure of type declarations and their members, which is all that
+ * is needed to find the declarations marked with the annotation and the imports they leave
+ * unused. Whenever the result might differ from the one computed from the JDT AST, e.g. if the
+ * annotation is used anywhere but in the modifiers of a member, or if the extent of a declaration
+ * depends on how JDT attaches comments to it, the scanner gives up and the file is parsed instead.
+ */
+final class AnnotatedDeclarationScanner {
+
+  /**
+   * Returns the ranges to blank out sorted by position, or null if they need to be computed from
+   * the AST.
+   */
+  @Nullable
+  static ImmutableList<StrippedRange> scan(String fileContent, String annotationName) {
+    AnnotatedDeclarationScanner scanner =
+        new AnnotatedDeclarationScanner(fileContent, annotationName);
+    try {
+      scanner.tokenize();
+      return scanner.scanCompilationUnit();
+    } catch (InvalidInputException | UnrecognizedSourceException e) {
+      return null;
+    }
+  }
+
+  // Kinds of comments between a token and the previous one.
+  private static final int NO_COMMENT = 0;
+  private static final int SINGLE_JAVADOC = 1;
+  private static final int OTHER_COMMENTS = 2;
+
+  private final String fileContent;
+  private final String annotationName;
+
+  // The tokens of the file other than comments.
+  private int tokenCount;
+  private int[] tokenTypes = new int[256];
+  private int[] tokenStarts = new int[256];
+  private int[] tokenEnds = new int[256];
+  private String[] identifiers = new String[256];
+  // Comments preceding each token, and where the first one starts.
+  private int[] leadingCommentKinds = new int[256];
+  private int[] leadingCommentStarts = new int[256];
+
+  // Tokens that start a use of the annotation, and those found in the modifiers of a member.
+  private final List<Integer> annotationUses = new ArrayList<>();
+  private final Set<Integer> recognizedAnnotationUses = new HashSet<>();
+
+  private final List<ImportInfo> imports = new ArrayList<>();
+  private final List<StrippedRange> strippedDeclarations = new ArrayList<>();
+
+  private AnnotatedDeclarationScanner(String fileContent, String annotationName) {
+    this.fileContent = fileContent;
+    this.annotationName = annotationName;
+  }
+
+  private void tokenize() throws InvalidInputException {
+    IScanner scanner =
+        ToolFactory.createScanner(
+            /* tokenizeComments= */ true,
+            /* tokenizeWhiteSpace= */ false,
+            /* recordLineSeparator= */ false,
+            JavaCore.VERSION_11);
+    scanner.setSource(fileContent.toCharArray());
+    int commentKind = NO_COMMENT;
+    int commentStart = -1;
+    while (true) {
+      int tokenType = scanner.getNextToken();
+      int start = scanner.getCurrentTokenStartPosition();
+      switch (tokenType) {
+        case ITerminalSymbols.TokenNameCOMMENT_JAVADOC:
+        case ITerminalSymbols.TokenNameCOMMENT_BLOCK:
+        case ITerminalSymbols.TokenNameCOMMENT_LINE:
+          if (commentKind == NO_COMMENT) {
+            commentStart = start;
+          }
+          commentKind =
+              commentKind == NO_COMMENT && tokenType == ITerminalSymbols.TokenNameCOMMENT_JAVADOC
+                  ? SINGLE_JAVADOC
+                  : OTHER_COMMENTS;
+          continue;
+        default:
+          break;
+      }
+      if (tokenCount == tokenTypes.length) {
+        growTokenArrays();
+      }
+      tokenTypes[tokenCount] = tokenType;
+      tokenStarts[tokenCount] = start;
+      tokenEnds[tokenCount] = scanner.getCurrentTokenEndPosition() + 1;
+      identifiers[tokenCount] =
+          tokenType == ITerminalSymbols.TokenNameIdentifier
+              ? new String(scanner.getCurrentTokenSource())
+              : null;
+      leadingCommentKinds[tokenCount] = commentKind;
+      leadingCommentStarts[tokenCount] = commentStart;
+      tokenCount++;
+      commentKind = NO_COMMENT;
+      if (tokenType == ITerminalSymbols.TokenNameEOF) {
+        break;
+      }
+    }
+    // Pad with end of file tokens so that the scanning can look a few tokens ahead freely.
+    if (tokenCount + 2 > tokenTypes.length) {
+      growTokenArrays();
+    }
+    tokenTypes[tokenCount] = ITerminalSymbols.TokenNameEOF;
+    tokenTypes[tokenCount + 1] = ITerminalSymbols.TokenNameEOF;
+  }
+
+  private void growTokenArrays() {
+    int length = tokenTypes.length * 2;
+    tokenTypes = Arrays.copyOf(tokenTypes, length);
+    tokenStarts = Arrays.copyOf(tokenStarts, length);
+    tokenEnds = Arrays.copyOf(tokenEnds, length);
+    identifiers = Arrays.copyOf(identifiers, length);
+    leadingCommentKinds = Arrays.copyOf(leadingCommentKinds, length);
+    leadingCommentStarts = Arrays.copyOf(leadingCommentStarts, length);
+  }
+
+  private ImmutableList<StrippedRange> scanCompilationUnit() {
+    findAnnotationUses();
+
+    int index = 0;
+    if (tokenTypes[index] == ITerminalSymbols.TokenNamepackage) {
+      index = skipTo(index, ITerminalSymbols.TokenNameSEMICOLON) + 1;
+    }
+    while (tokenTypes[index] == ITerminalSymbols.TokenNameimport
+        || tokenTypes[index] == ITerminalSymbols.TokenNameSEMICOLON) {
+      index =
+          tokenTypes[index] == ITerminalSymbols.TokenNameimport
+              ? scanImport(index)
+              : index + 1;
+    }
+    while (tokenTypes[index] != ITerminalSymbols.TokenNameEOF) {
+      index =
+          tokenTypes[index] == ITerminalSymbols.TokenNameSEMICOLON
+              ? index + 1
+              : scanMember(index, /* isEnumConstant= */ false);
+    }
+
+    // Uses of the annotation in places other than the modifiers of a member are not understood
+    // unless they are removed anyway.
+    for (int annotationUse : annotationUses) {
+      if (!recognizedAnnotationUses.contains(annotationUse)
+          && !isStripped(tokenStarts[annotationUse])) {
+        throw new UnrecognizedSourceException();
+      }
+    }
+
+    ImmutableList.Builder<StrippedRange> strippedRanges = ImmutableList.builder();
+    // Imports are before any declaration, so the ranges remain sorted by position.
+    strippedRanges.addAll(getUnusedImports());
+    strippedRanges.addAll(strippedDeclarations);
+    return strippedRanges.build();
+  }
+
+  /** Finds all the annotations whose simple name is the annotation being stripped. */
+  private void findAnnotationUses() {
+    for (int index = 0; index < tokenCount; index++) {
+      if (tokenTypes[index] != ITerminalSymbols.TokenNameAT
+          || tokenTypes[index + 1] != ITerminalSymbols.TokenNameIdentifier) {
+        continue;
+      }
+      if (getAnnotationSimpleName(index).equals(annotationName)) {
+        annotationUses.add(index);
+      }
+    }
+  }
+
+  private int scanImport(int index) {
+    int start = tokenStarts[index];
+    String simpleName = null;
+    boolean isOnDemand = false;
+    for (index++; tokenTypes[index] != ITerminalSymbols.TokenNameSEMICOLON; index++) {
+      switch (tokenTypes[index]) {
+        case ITerminalSymbols.TokenNameIdentifier:
+          simpleName = identifiers[index];
+          break;
+        case ITerminalSymbols.TokenNameMULTIPLY:
+          isOnDemand = true;
+          break;
+        case ITerminalSymbols.TokenNameDOT:
+        case ITerminalSymbols.TokenNamestatic:
+          break;
+        default:
+          throw new UnrecognizedSourceException();
+      }
+    }
+    if (simpleName == null) {
+      throw new UnrecognizedSourceException();
+    }
+    imports.add(new ImportInfo(start, tokenEnds[index], simpleName, isOnDemand));
+    return index + 1;
+  }
+
+  /**
+   * Scans a type declaration or a member of a type, including enum constants, and returns the index
+   * of the token that follows it.
+   */
+  private int scanMember(int index, boolean isEnumConstant) {
+    int first = index;
+    boolean isAnnotated = false;
+    while (true) {
+      int tokenType = tokenTypes[index];
+      if (tokenType == ITerminalSymbols.TokenNameAT
+          && tokenTypes[index + 1] == ITerminalSymbols.TokenNameIdentifier) {
+        if (getAnnotationSimpleName(index).equals(annotationName)) {
+          isAnnotated = true;
+          recognizedAnnotationUses.add(index);
+        }
+        index = skipAnnotation(index);
+      } else if (!isEnumConstant && isModifier(tokenType)) {
+        index++;
+      } else {
+        break;
+      }
+    }
+
+    int last;
+    if (isEnumConstant) {
+      last = scanEnumConstant(index, isAnnotated);
+    } else if (isTypeDeclarationStart(index)) {
+      last = scanTypeDeclaration(index, isAnnotated);
+    } else if (tokenTypes[index] == ITerminalSymbols.TokenNameLBRACE) {
+      // An initializer, which can't be annotated.
+      if (isAnnotated) {
+        throw new UnrecognizedSourceException();
+      }
+      last = findClosingToken(index);
+    } else if (tokenTypes[index] == ITerminalSymbols.TokenNamepackage
+        || tokenTypes[index] == ITerminalSymbols.TokenNameimport) {
+      // An annotated package declaration, or an import that follows it.
+      throw new UnrecognizedSourceException();
+    } else {
+      last = findEndOfMethodOrField(index);
+    }
+
+    if (isAnnotated) {
+      strippedDeclarations.add(
+          new StrippedRange(getDeclarationStart(first), tokenEnds[last], isEnumConstant));
+    }
+    return last + 1;
+  }
+
+  private int scanTypeDeclaration(int index, boolean isAnnotated) {
+    boolean isEnum = tokenTypes[index] == ITerminalSymbols.TokenNameenum;
+    int bodyStart = index;
+    while (tokenTypes[bodyStart] != ITerminalSymbols.TokenNameLBRACE) {
+      switch (tokenTypes[bodyStart]) {
+        case ITerminalSymbols.TokenNameLPAREN:
+          bodyStart = findClosingToken(bodyStart) + 1;
+          break;
+        case ITerminalSymbols.TokenNameSEMICOLON:
+        case ITerminalSymbols.TokenNameRBRACE:
+        case ITerminalSymbols.TokenNameEOF:
+          throw new UnrecognizedSourceException();
+        default:
+          bodyStart++;
+      }
+    }
+    if (isAnnotated) {
+      return findClosingToken(bodyStart);
+    }
+    return isEnum ? scanEnumBody(bodyStart + 1) : scanClassBody(bodyStart + 1);
+  }
+
+  /** Scans the members of a class body and returns the index of its closing brace. */
+  private int scanClassBody(int index) {
+    while (tokenTypes[index] != ITerminalSymbols.TokenNameRBRACE) {
+      if (tokenTypes[index] == ITerminalSymbols.TokenNameEOF) {
+        throw new UnrecognizedSourceException();
+      }
+      index =
+          tokenTypes[index] == ITerminalSymbols.TokenNameSEMICOLON
+              ? index + 1
+              : scanMember(index, /* isEnumConstant= */ false);
+    }
+    return index;
+  }
+
+  /** Scans the constants and members of an enum body and returns the index of its closing brace. */
+  private int scanEnumBody(int index) {
+    while (true) {
+      switch (tokenTypes[index]) {
+        case ITerminalSymbols.TokenNameRBRACE:
+          return index;
+        case ITerminalSymbols.TokenNameSEMICOLON:
+          return scanClassBody(index + 1);
+        case ITerminalSymbols.TokenNameCOMMA:
+          index++;
+          break;
+        case ITerminalSymbols.TokenNameIdentifier:
+        case ITerminalSymbols.TokenNameAT:
+          index = scanMember(index, /* isEnumConstant= */ true);
+          break;
+        default:
+          throw new UnrecognizedSourceException();
+      }
+    }
+  }
+
+  /** Returns the index of the last token of an enum constant that starts with its name. */
+  private int scanEnumConstant(int index, boolean isAnnotated) {
+    if (tokenTypes[index] != ITerminalSymbols.TokenNameIdentifier) {
+      throw new UnrecognizedSourceException();
+    }
+    int last = index;
+    if (tokenTypes[last + 1] == ITerminalSymbols.TokenNameLPAREN) {
+      last = findClosingToken(last + 1);
+    }
+    if (tokenTypes[last + 1] == ITerminalSymbols.TokenNameLBRACE) {
+      last = isAnnotated ? findClosingToken(last + 1) : scanClassBody(last + 2);
+    }
+    switch (tokenTypes[last + 1]) {
+      case ITerminalSymbols.TokenNameCOMMA:
+      case ITerminalSymbols.TokenNameSEMICOLON:
+      case ITerminalSymbols.TokenNameRBRACE:
+        return last;
+      default:
+        throw new UnrecognizedSourceException();
+    }
+  }
+
+  /**
+   * Returns the index of the token that ends a method, constructor or field declaration, i.e. the
+   * closing brace of the body or the semicolon.
+   */
+  private int findEndOfMethodOrField(int index) {
+    // Braces that follow an '=' or a 'default' belong to an initializer or a default value.
+    boolean isInInitializer = false;
+    while (true) {
+      switch (tokenTypes[index]) {
+        case ITerminalSymbols.TokenNameSEMICOLON:
+          return index;
+        case ITerminalSymbols.TokenNameEQUAL:
+        case ITerminalSymbols.TokenNamedefault:
+          isInInitializer = true;
+          index++;
+          break;
+        case ITerminalSymbols.TokenNameLBRACE:
+          if (!isInInitializer) {
+            return findClosingToken(index);
+          }
+          index = findClosingToken(index) + 1;
+          break;
+        case ITerminalSymbols.TokenNameLPAREN:
+        case ITerminalSymbols.TokenNameLBRACKET:
+          index = findClosingToken(index) + 1;
+          break;
+        case ITerminalSymbols.TokenNameRPAREN:
+        case ITerminalSymbols.TokenNameRBRACKET:
+        case ITerminalSymbols.TokenNameRBRACE:
+        case ITerminalSymbols.TokenNameEOF:
+          throw new UnrecognizedSourceException();
+        default:
+          index++;
+      }
+    }
+  }
+
+  /** Returns the index of the token that closes the parenthesis or bracket at {@code index}. */
+  private int findClosingToken(int index) {
+    int depth = 0;
+    for (; ; index++) {
+      switch (tokenTypes[index]) {
+        case ITerminalSymbols.TokenNameLPAREN:
+        case ITerminalSymbols.TokenNameLBRACKET:
+        case ITerminalSymbols.TokenNameLBRACE:
+          depth++;
+          break;
+        case ITerminalSymbols.TokenNameRPAREN:
+        case ITerminalSymbols.TokenNameRBRACKET:
+        case ITerminalSymbols.TokenNameRBRACE:
+          if (--depth == 0) {
+            return index;
+          }
+          break;
+        case ITerminalSymbols.TokenNameEOF:
+          throw new UnrecognizedSourceException();
+        default:
+          break;
+      }
+    }
+  }
+
+  private int skipTo(int index, int tokenType) {
+    while (tokenTypes[index] != tokenType) {
+      if (tokenTypes[index] == ITerminalSymbols.TokenNameEOF) {
+        throw new UnrecognizedSourceException();
+      }
+      index++;
+    }
+    return index;
+  }
+
+  /** Returns the index of the token that follows the annotation that starts at {@code index}. */
+  private int skipAnnotation(int index) {
+    index += 2;
+    while (tokenTypes[index] == ITerminalSymbols.TokenNameDOT
+        && tokenTypes[index + 1] == ITerminalSymbols.TokenNameIdentifier) {
+      index += 2;
+    }
+    if (tokenTypes[index] == ITerminalSymbols.TokenNameLPAREN) {
+      index = findClosingToken(index) + 1;
+    }
+    return index;
+  }
+
+  private String getAnnotationSimpleName(int index) {
+    index++;
+    while (tokenTypes[index + 1] == ITerminalSymbols.TokenNameDOT
+        && tokenTypes[index + 2] == ITerminalSymbols.TokenNameIdentifier) {
+      index += 2;
+    }
+    return identifiers[index];
+  }
+
+  private boolean isTypeDeclarationStart(int index) {
+    switch (tokenTypes[index]) {
+      case ITerminalSymbols.TokenNameclass:
+      case ITerminalSymbols.TokenNameinterface:
+      case ITerminalSymbols.TokenNameenum:
+        return true;
+      case ITerminalSymbols.TokenNameAT:
+        return tokenTypes[index + 1] == ITerminalSymbols.TokenNameinterface;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isModifier(int tokenType) {
+    switch (tokenType) {
+      case ITerminalSymbols.TokenNamepublic:
+      case ITerminalSymbols.TokenNameprotected:
+      case ITerminalSymbols.TokenNameprivate:
+      case ITerminalSymbols.TokenNamestatic:
+      case ITerminalSymbols.TokenNamefinal:
+      case ITerminalSymbols.TokenNameabstract:
+      case ITerminalSymbols.TokenNamenative:
+      case ITerminalSymbols.TokenNamesynchronized:
+      case ITerminalSymbols.TokenNametransient:
+      case ITerminalSymbols.TokenNamevolatile:
+      case ITerminalSymbols.TokenNamestrictfp:
+      case ITerminalSymbols.TokenNamedefault:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Returns where the declaration that starts at the token at {@code index} starts for JDT, which
+   * includes its javadoc.
+   */
+  private int getDeclarationStart(int index) {
+    switch (leadingCommentKinds[index]) {
+      case NO_COMMENT:
+        return tokenStarts[index];
+      case SINGLE_JAVADOC:
+        return leadingCommentStarts[index];
+      default:
+        // Whether other comments are part of the declaration depends on JDT internals.
+        throw new UnrecognizedSourceException();
+    }
+  }
+
+  private boolean isStripped(int position) {
+    for (StrippedRange strippedRange : strippedDeclarations) {
+      if (strippedRange.start <= position && position < strippedRange.end) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the imports that are not referenced by the code that is kept, with the same criteria
+   * as {@link UnusedImportsNodeCollector}.
+   */
+  private List<StrippedRange> getUnusedImports() {
+    // Names that are not qualified are always visited by the collector. Names that follow a dot
+    // are only visited if they are not part of a qualified name, which can't be told apart here.
+    Set<String> unqualifiedNames = new HashSet<>();
+    Set<String> qualifiedNames = new HashSet<>();
+    int importsStart = imports.isEmpty() ? 0 : imports.get(0).start;
+    int importsEnd = imports.isEmpty() ? 0 : imports.get(imports.size() - 1).end;
+    for (int index = 0; index < tokenCount; index++) {
+      if (tokenTypes[index] != ITerminalSymbols.TokenNameIdentifier
+          || (importsStart <= tokenStarts[index] && tokenStarts[index] < importsEnd)
+          || isStripped(tokenStarts[index])) {
+        continue;
+      }
+      if (index > 0 && tokenTypes[index - 1] == ITerminalSymbols.TokenNameDOT) {
+        qualifiedNames.add(identifiers[index]);
+      } else {
+        unqualifiedNames.add(identifiers[index]);
+      }
+    }
+
+    List<StrippedRange> unusedImports = new ArrayList<>();
+    for (ImportInfo importInfo : imports) {
+      if (importInfo.isOnDemand || unqualifiedNames.contains(importInfo.simpleName)) {
+        continue;
+      }
+      if (qualifiedNames.contains(importInfo.simpleName)) {
+        throw new UnrecognizedSourceException();
+      }
+      unusedImports.add(
+          new StrippedRange(importInfo.start, importInfo.end, /* isEnumConstant= */ false));
+    }
+    return unusedImports;
+  }
+
+  private static final class ImportInfo {
+    private final int start;
+    private final int end;
+    private final String simpleName;
+    private final boolean isOnDemand;
+
+    private ImportInfo(int start, int end, String simpleName, boolean isOnDemand) {
+      this.start = start;
+      this.end = end;
+      this.simpleName = simpleName;
+      this.isOnDemand = isOnDemand;
+    }
+  }
+
+  /** Thrown when the source has a construct that the scanner does not handle. */
+  private static final class UnrecognizedSourceException extends RuntimeException {
+    private UnrecognizedSourceException() {
+      super(null, null, /* enableSuppression= */ false, /* writableStackTrace= */ false);
+    }
+  }
+}
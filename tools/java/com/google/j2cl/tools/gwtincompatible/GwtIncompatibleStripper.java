@@ -17,21 +17,28 @@ import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.io.MoreFiles;
+import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.OutputUtils;
 import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourceUtils;
 import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.TransferableThreadLocal;
+import com.google.j2cl.common.ZipFiles;
 import com.google.j2cl.transpiler.frontend.jdt.AnnotatedNodeCollector;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
@@ -47,10 +54,20 @@ import org.eclipse.jdt.core.dom.ImportDeclaration;
  */
 public final class GwtIncompatibleStripper {
 
+  private static final ImmutableMap<String, String> COMPILER_OPTIONS =
+      ImmutableMap.of(
+          JavaCore.COMPILER_SOURCE,
+          JavaCore.VERSION_11,
+          JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM,
+          JavaCore.VERSION_11,
+          JavaCore.COMPILER_COMPLIANCE,
+          JavaCore.VERSION_11);
+
   static void strip(List<String> files, Path outputPath, Problems problems, String annotationName) {
     try (Output out = OutputUtils.initOutput(outputPath, problems)) {
+      // Source jars are read in place; most of their entries are copied unchanged.
       List<FileInfo> allPaths =
-          SourceUtils.getAllSources(files, problems)
+          SourceUtils.getAllSources(files, /* readArchivesInPlace= */ true, problems)
               .filter(f -> f.targetPath().endsWith(".java"))
               .collect(toImmutableList());
       preprocessFiles(allPaths, out, problems, annotationName);
@@ -60,18 +77,53 @@ public final class GwtIncompatibleStripper {
   /** Preprocess all provided files and put them to provided output path. */
   private static void preprocessFiles(
       List<FileInfo> fileInfos, Output output, Problems problems, String annotationName) {
-    for (FileInfo fileInfo : fileInfos) {
-      String processedFileContent;
-      try {
-        String fileContent = MoreFiles.asCharSource(Paths.get(fileInfo.sourcePath()), UTF_8).read();
-        processedFileContent = strip(fileContent, annotationName);
-      } catch (IOException e) {
-        problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
-        return;
+    ExecutorService executorService =
+        Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    // Keep the source archives open while their entries are read, so that each one is only opened
+    // once.
+    try (ZipFiles.OpenArchives openArchives = ZipFiles.openArchives()) {
+      byte[] annotationNameBytes = annotationName.getBytes(UTF_8);
+      // The pool threads report their output to the same worker request as this thread, and read
+      // from the same open archives.
+      TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+      List<Future<byte[]>> processedFileContents = new ArrayList<>();
+      for (FileInfo fileInfo : fileInfos) {
+        processedFileContents.add(
+            executorService.submit(
+                snapshot.wrap(
+                    () -> {
+                      byte[] fileBytes = SourceUtils.asByteSource(fileInfo.sourcePath()).read();
+                      // Files that don't mention the annotation are copied byte for byte, without
+                      // decoding them. The name is ASCII and can't be part of a multibyte
+                      // character.
+                      if (Bytes.indexOf(fileBytes, annotationNameBytes) == -1) {
+                        return fileBytes;
+                      }
+                      String fileContent = new String(fileBytes, UTF_8);
+                      String processedFileContent = strip(fileContent, annotationName);
+                      return processedFileContent.equals(fileContent)
+                          ? fileBytes
+                          : processedFileContent.getBytes(UTF_8);
+                    })));
       }
 
-      // Write the processed file to output
-      output.write(fileInfo.originalPath(), processedFileContent);
+      // Write the processed files in order, so that the output is deterministic.
+      for (int i = 0; i < fileInfos.size(); i++) {
+        byte[] processedFileContent;
+        try {
+          processedFileContent = Uninterruptibles.getUninterruptibly(processedFileContents.get(i));
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            problems.fatal(FatalError.CANNOT_OPEN_FILE, e.getCause().toString());
+            return;
+          }
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new AssertionError(e.getCause());
+        }
+        output.write(fileInfos.get(i).originalPath(), processedFileContent);
+      }
+    } finally {
+      executorService.shutdownNow();
     }
   }
 
@@ -81,48 +133,25 @@ public final class GwtIncompatibleStripper {
       return fileContent;
     }
 
-    Map<String, String> compilerOptions = new HashMap<>();
-    compilerOptions.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_11);
-    compilerOptions.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_11);
-    compilerOptions.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_11);
-
-    // Parse the file.
-    ASTParser parser = ASTParser.newParser(AST.JLS11);
-    parser.setCompilerOptions(compilerOptions);
-    parser.setResolveBindings(false);
-    parser.setSource(fileContent.toCharArray());
-    CompilationUnit compilationUnit = (CompilationUnit) parser.createAST(null);
-
-    // Find all the declarations with the annotation name
-    AnnotatedNodeCollector gwtIncompatibleVisitor = new AnnotatedNodeCollector(annotationName);
-    compilationUnit.accept(gwtIncompatibleVisitor);
-    List<ASTNode> gwtIncompatibleNodes = gwtIncompatibleVisitor.getNodes();
-
-    // Delete the gwtIncompatible nodes.
-    for (ASTNode gwtIncompatibleNode : gwtIncompatibleNodes) {
-      gwtIncompatibleNode.delete();
+    List<StrippedRange> rangesToStrip =
+        AnnotatedDeclarationScanner.scan(fileContent, annotationName);
+    if (rangesToStrip == null) {
+      // The source is not simple enough to be handled by just looking at its tokens.
+      rangesToStrip = getRangesToStripFromAst(fileContent, annotationName);
     }
-
-    // Gets all the imports that are no longer needed.
-    UnusedImportsNodeCollector unusedImportsNodeCollector = new UnusedImportsNodeCollector();
-    compilationUnit.accept(unusedImportsNodeCollector);
-    List<ImportDeclaration> unusedImportsNodes = unusedImportsNodeCollector.getUnusedImports();
-
-    // Wrap all the not needed nodes inside comments in the original source
-    // (so we can preserve line numbers and have accurate source maps).
-    List<ASTNode> nodesToWrap = Lists.newArrayList(unusedImportsNodes);
-    nodesToWrap.addAll(gwtIncompatibleNodes);
-    if (nodesToWrap.isEmpty()) {
+    if (rangesToStrip.isEmpty()) {
       // Nothing was changed.
       return fileContent;
     }
 
-    // Precondition: Node ranges must not overlap and they must be sorted by position.
+    // Wrap all the not needed ranges inside comments in the original source
+    // (so we can preserve line numbers and have accurate source maps).
+    // Precondition: Ranges must not overlap and they must be sorted by position.
     StringBuilder newFileContent = new StringBuilder();
     int currentPosition = 0;
-    for (ASTNode nodeToWrap : nodesToWrap) {
-      int startPosition = nodeToWrap.getStartPosition();
-      int endPosition = startPosition + nodeToWrap.getLength();
+    for (StrippedRange rangeToStrip : rangesToStrip) {
+      int startPosition = rangeToStrip.start;
+      int endPosition = rangeToStrip.end;
       checkState(
           currentPosition <= startPosition,
           "Unexpected node position: %s, must be >= %s",
@@ -135,7 +164,7 @@ public final class GwtIncompatibleStripper {
       for (char c : fileContent.substring(startPosition, endPosition).toCharArray()) {
         strippedCodeBuilder.append(Character.isWhitespace(c) ? c : ' ');
       }
-      if (nodeToWrap instanceof EnumConstantDeclaration) {
+      if (rangeToStrip.isEnumConstant) {
         // HACK: We assume that if there is a comma, it directly follows the enum constant and we
         // remove it. In practice this should work for most cases since if there is a comma
         // following the constant, the formatter will have it adjacent to the constant. If this is
@@ -154,5 +183,56 @@ public final class GwtIncompatibleStripper {
     return newFileContent.toString();
   }
 
+  /** Returns the ranges to strip from the file, sorted by position, by parsing it. */
+  private static List<StrippedRange> getRangesToStripFromAst(
+      String fileContent, String annotationName) {
+    // Parse the file.
+    ASTParser parser = ASTParser.newParser(AST.JLS11);
+    parser.setCompilerOptions(COMPILER_OPTIONS);
+    parser.setResolveBindings(false);
+    parser.setSource(fileContent.toCharArray());
+    CompilationUnit compilationUnit = (CompilationUnit) parser.createAST(null);
+
+    // Find all the declarations with the annotation name
+    AnnotatedNodeCollector gwtIncompatibleVisitor = new AnnotatedNodeCollector(annotationName);
+    compilationUnit.accept(gwtIncompatibleVisitor);
+    List<ASTNode> gwtIncompatibleNodes = gwtIncompatibleVisitor.getNodes();
+
+    // Delete the gwtIncompatible nodes.
+    for (ASTNode gwtIncompatibleNode : gwtIncompatibleNodes) {
+      gwtIncompatibleNode.delete();
+    }
+
+    // Gets all the imports that are no longer needed.
+    UnusedImportsNodeCollector unusedImportsNodeCollector = new UnusedImportsNodeCollector();
+    compilationUnit.accept(unusedImportsNodeCollector);
+    List<ImportDeclaration> unusedImportsNodes = unusedImportsNodeCollector.getUnusedImports();
+
+    List<ASTNode> nodesToWrap = Lists.newArrayList(unusedImportsNodes);
+    nodesToWrap.addAll(gwtIncompatibleNodes);
+    return nodesToWrap.stream()
+        .map(
+            n ->
+                new StrippedRange(
+                    n.getStartPosition(),
+                    n.getStartPosition() + n.getLength(),
+                    n instanceof EnumConstantDeclaration))
+        .collect(toImmutableList());
+  }
+
+  /** A range of the source that is blanked out. */
+  static final class StrippedRange {
+    final int start;
+    final int end;
+    // Whether the range is an enum constant, whose separating comma needs to be removed as well.
+    final boolean isEnumConstant;
+
+    StrippedRange(int start, int end, boolean isEnumConstant) {
+      this.start = start;
+      this.end = end;
+      this.isEnumConstant = isEnumConstant;
+    }
+  }
+
   private GwtIncompatibleStripper() {}
 }
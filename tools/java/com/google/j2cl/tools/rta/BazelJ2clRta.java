@@ -21,6 +21,7 @@ import com.google.common.io.CharSink;
 import com.google.common.io.Files;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.bazel.BazelWorker;
 import com.google.j2cl.common.bazel.FileCache;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
@@ -68,8 +69,12 @@ final class BazelJ2clRta extends BazelWorker {
 
   @Override
   protected void run(Problems problems) {
+    // The common pool threads report their output to the same worker request as this thread.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
     List<LibraryInfo> libraryInfos =
-        inputs.parallelStream().map(libraryInfoCache::get).collect(toImmutableList());
+        inputs.parallelStream()
+            .map(i -> snapshot.callWith(() -> libraryInfoCache.get(i)))
+            .collect(toImmutableList());
 
     RtaResult rtaResult = RapidTypeAnalyser.analyse(libraryInfos, keepJsTypeInterfaces);
 
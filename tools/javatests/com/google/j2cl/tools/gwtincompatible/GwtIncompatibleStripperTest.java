@@ -177,6 +177,31 @@ public class GwtIncompatibleStripperTest {
     assertEquals(after, GwtIncompatibleStripper.strip(before, "GwtIncompatible"));
   }
 
+  @Test
+  public void testProcessEnumConstantWithArguments() {
+    String before =
+        Joiner.on("\n")
+            .join(
+                "public enum Foo {",
+                "  A(1),",
+                "  @GwtIncompatible",
+                "  B(2) {},",
+                "  C(3);",
+                "  Foo(int i) {}",
+                "}");
+    String after =
+        Joiner.on("\n")
+            .join(
+                "public enum Foo {",
+                "  A(1),",
+                Strings.repeat(" ", "  @GwtIncompatible".length()),
+                Strings.repeat(" ", "  B(2) {},".length()),
+                "  C(3);",
+                "  Foo(int i) {}",
+                "}");
+    assertEquals(after, GwtIncompatibleStripper.strip(before, "GwtIncompatible"));
+  }
+
   @Test
   public void testProcessAnnotationMember() {
     String before =
@@ -239,6 +264,56 @@ public class GwtIncompatibleStripperTest {
     assertEquals(after, GwtIncompatibleStripper.strip(before, "GwtIncompatible"));
   }
 
+  @Test
+  public void testProcessJavadoc() {
+    String before =
+        Joiner.on("\n")
+            .join(
+                "public class Foo {",
+                "  /** Not supported. */",
+                "  @GwtIncompatible",
+                "  public void n() {}",
+                "}");
+    String after =
+        Joiner.on("\n")
+            .join(
+                "public class Foo {",
+                Strings.repeat(" ", "  /** Not supported. */".length()),
+                Strings.repeat(" ", "  @GwtIncompatible".length()),
+                Strings.repeat(" ", "  public void n() {}".length()),
+                "}");
+    assertEquals(after, GwtIncompatibleStripper.strip(before, "GwtIncompatible"));
+  }
+
+  @Test
+  public void testProcessAnonymousClassMember() {
+    String before =
+        Joiner.on("\n")
+            .join(
+                "public class Foo {",
+                "  Object o = new Object() {",
+                "    @GwtIncompatible",
+                "    public void n() {}",
+                "  };",
+                "}");
+    String after =
+        Joiner.on("\n")
+            .join(
+                "public class Foo {",
+                "  Object o = new Object() {",
+                Strings.repeat(" ", "    @GwtIncompatible".length()),
+                Strings.repeat(" ", "    public void n() {}".length()),
+                "  };",
+                "}");
+    assertEquals(after, GwtIncompatibleStripper.strip(before, "GwtIncompatible"));
+  }
+
+  @Test
+  public void testNoProcessComment() {
+    String content = "// Not @GwtIncompatible.\npublic class Foo {}";
+    assertEquals(content, GwtIncompatibleStripper.strip(content, "GwtIncompatible"));
+  }
+
   @Test
   public void testNestedComment() {
     String before =
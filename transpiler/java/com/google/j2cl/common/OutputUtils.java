@@ -20,9 +20,17 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.j2cl.common.Problems.FatalError;
 import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
@@ -32,8 +40,16 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
 
 /** Utilities for tools to process output. */
@@ -41,13 +57,22 @@ public class OutputUtils {
 
   /** Abstract output of a command. */
   public static class Output implements AutoCloseable {
-    private final ExecutorService fileService = Executors.newSingleThreadExecutor();
-    private final Problems problems;
+    // Writes the files of a directory output; null for outputs that override how files are
+    // written.
+    @Nullable private final ExecutorService fileService;
+    final Problems problems;
     private final Path root;
+    // Archives that files are copied from, kept open until the output is closed.
+    private final Map<String, ZipFile> archiveByPath = new ConcurrentHashMap<>();
 
     private Output(Problems problems, Path root) {
+      this(problems, root, Executors.newSingleThreadExecutor());
+    }
+
+    private Output(Problems problems, Path root, @Nullable ExecutorService fileService) {
       this.problems = problems;
       this.root = root;
+      this.fileService = fileService;
     }
 
     public void write(String path, byte[] content) {
@@ -65,23 +90,134 @@ public class OutputUtils {
     }
 
     public void copyFile(String fromAbsolute, String to) {
-      Path fromPath = Paths.get(fromAbsolute);
       Path toPath = root.resolve(to);
+      if (SourceUtils.isArchiveEntryPath(fromAbsolute)) {
+        fileService.execute(() -> copyArchiveEntry(fromAbsolute, toPath));
+        return;
+      }
+      Path fromPath = Paths.get(fromAbsolute);
       fileService.execute(() -> OutputUtils.copyFile(fromPath, toPath, problems));
     }
 
+    private void copyArchiveEntry(String from, Path to) {
+      try {
+        OutputUtils.copyArchiveEntry(
+            getArchive(SourceUtils.getArchivePath(from)), SourceUtils.getEntryName(from), to);
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_COPY_FILE, e.toString());
+      }
+    }
+
+    /** Returns the archive at {@code archivePath}, opening it if necessary. */
+    ZipFile getArchive(String archivePath) throws IOException {
+      try {
+        return archiveByPath.computeIfAbsent(
+            archivePath,
+            p -> {
+              try {
+                return new ZipFile(p);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
     @Override
     public void close() {
-      try {
-        fileService.shutdown();
-        fileService.awaitTermination(Long.MAX_VALUE, SECONDS);
-      } catch (InterruptedException ie) {
-        // Preserve interrupt status
-        Thread.currentThread().interrupt();
+      if (fileService != null) {
+        try {
+          fileService.shutdown();
+          fileService.awaitTermination(Long.MAX_VALUE, SECONDS);
+        } catch (InterruptedException ie) {
+          // Preserve interrupt status
+          Thread.currentThread().interrupt();
+        }
+      }
+      for (ZipFile archive : archiveByPath.values()) {
+        try {
+          archive.close();
+        } catch (IOException e) {
+          problems.fatal(FatalError.CANNOT_CLOSE_ZIP, e.getMessage());
+        }
       }
     }
   }
 
+  /**
+   * Output that is kept in memory, so that it can be compared with another output or kept around
+   * before being written.
+   */
+  public static final class InMemoryOutput extends Output {
+    // Kept in insertion order so that replaying the output writes the files in the original order.
+    private final Map<String, byte[]> contentByPath =
+        Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, String> copiedFromByPath =
+        Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public InMemoryOutput(Problems problems) {
+      super(problems, null, /* fileService= */ null);
+    }
+
+    @Override
+    public void write(String path, byte[] content) {
+      contentByPath.put(path, content);
+    }
+
+    @Override
+    public void write(String path, ImmutableList<String> contentChunks) {
+      contentByPath.put(path, String.join("", contentChunks).getBytes(UTF_8));
+    }
+
+    @Override
+    public void copyFile(String fromAbsolute, String to) {
+      copiedFromByPath.put(to, fromAbsolute);
+    }
+
+    /** Returns the paths whose contents are not the same in both outputs. */
+    public ImmutableSortedSet<String> getDifferingPaths(InMemoryOutput other) {
+      ImmutableSortedSet.Builder<String> differingPaths = ImmutableSortedSet.naturalOrder();
+      for (String path : Sets.union(contentByPath.keySet(), other.contentByPath.keySet())) {
+        byte[] content = contentByPath.get(path);
+        byte[] otherContent = other.contentByPath.get(path);
+        if (content == null || otherContent == null || !Arrays.equals(content, otherContent)) {
+          differingPaths.add(path);
+        }
+      }
+      for (String path : Sets.union(copiedFromByPath.keySet(), other.copiedFromByPath.keySet())) {
+        if (!Objects.equals(copiedFromByPath.get(path), other.copiedFromByPath.get(path))) {
+          differingPaths.add(path);
+        }
+      }
+      return differingPaths.build();
+    }
+
+    /** Returns the number of bytes of content held by this output. */
+    public long getByteCount() {
+      synchronized (contentByPath) {
+        return contentByPath.values().stream().mapToLong(content -> content.length).sum();
+      }
+    }
+
+    /** Writes the contents of this output into {@code output}. */
+    public void writeTo(Output output) {
+      contentByPath.forEach(output::write);
+      copiedFromByPath.forEach((to, from) -> output.copyFile(from, to));
+    }
+  }
+
+  // Writes zip outputs through a zip file system, as opposed to compressing entries in parallel and
+  // streaming them into the zip on close.
+  private static final boolean USE_ZIP_FILE_SYSTEM_OUTPUT =
+      Boolean.getBoolean("j2cl.zipFileSystemOutput");
+
+  // Memory budget in megabytes for the compressed entries of a zip output, beyond which they are
+  // spilled to a temporary file until the zip is written.
+  private static final long ZIP_OUTPUT_BUFFER_SIZE_MB =
+      Long.getLong("j2cl.zipoutputbuffersize", 256);
+
   public static Output initOutput(Path output, Problems problems) {
     return output.toString().endsWith(".zip") || output.toString().endsWith(".jar")
         ? getZipOutput(output, problems)
@@ -96,7 +232,104 @@ public class OutputUtils {
     return new Output(problems, output);
   }
 
+  /** Output that compresses entries in parallel and writes them into a zip file on close. */
+  private static final class ZipOutput extends Output {
+    private static final int COMPRESSION_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private final ExecutorService compressionService =
+        Executors.newFixedThreadPool(COMPRESSION_PARALLELISM);
+    private final StreamingZipWriter zipWriter;
+
+    private ZipOutput(Problems problems, Path output) {
+      super(problems, output, /* fileService= */ null);
+      this.zipWriter =
+          new StreamingZipWriter(
+              output,
+              compressionService,
+              // Keep a window of entries waiting for each compression thread.
+              COMPRESSION_PARALLELISM * 2,
+              ZIP_OUTPUT_BUFFER_SIZE_MB << 20,
+              getTimestamp());
+    }
+
+    @Override
+    public void write(String path, byte[] content) {
+      zipWriter.add(path, getTimestamp(), outputStream -> outputStream.write(content));
+    }
+
+    @Override
+    public void write(String path, ImmutableList<String> contentChunks) {
+      zipWriter.add(
+          path,
+          getTimestamp(),
+          outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8));
+            for (String chunk : contentChunks) {
+              writer.append(chunk);
+            }
+            writer.flush();
+          });
+    }
+
+    @Override
+    public void copyFile(String fromAbsolute, String to) {
+      try {
+        if (SourceUtils.isArchiveEntryPath(fromAbsolute)) {
+          ZipFile archive = getArchive(SourceUtils.getArchivePath(fromAbsolute));
+          String entryName = SourceUtils.getEntryName(fromAbsolute);
+          ZipEntry entry = archive.getEntry(entryName);
+          if (entry == null) {
+            throw new FileNotFoundException(entryName + " not found in " + archive.getName());
+          }
+          zipWriter.add(
+              to,
+              DETERMINISTIC_TIMESTAMPS ? getTimestamp() : entry.getLastModifiedTime(),
+              outputStream -> {
+                try (InputStream inputStream = archive.getInputStream(entry)) {
+                  ByteStreams.copy(inputStream, outputStream);
+                }
+              });
+        } else {
+          Path fromPath = Paths.get(fromAbsolute);
+          zipWriter.add(
+              to,
+              DETERMINISTIC_TIMESTAMPS ? getTimestamp() : Files.getLastModifiedTime(fromPath),
+              outputStream -> Files.copy(fromPath, outputStream));
+        }
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_COPY_FILE, e.toString());
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        zipWriter.close();
+      } catch (IOException e) {
+        problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
+      } finally {
+        compressionService.shutdownNow();
+        super.close();
+      }
+    }
+
+    private static FileTime getTimestamp() {
+      // Wipe entries modification time so that input->output mapping is stable
+      // regardless of the time of day.
+      return DETERMINISTIC_TIMESTAMPS
+          ? FileTime.fromMillis(0)
+          : FileTime.fromMillis(System.currentTimeMillis());
+    }
+  }
+
   private static Output getZipOutput(Path output, Problems problems) {
+    if (!USE_ZIP_FILE_SYSTEM_OUTPUT) {
+      if (Files.isDirectory(output)) {
+        problems.fatal(FatalError.OUTPUT_LOCATION, output);
+      }
+      return new ZipOutput(problems, output);
+    }
+
     FileSystem newFileSystem = initZipOutput(output, problems);
 
     return new Output(problems, newFileSystem.getPath("/")) {
@@ -172,6 +405,24 @@ public class OutputUtils {
     }
   }
 
+  private static void copyArchiveEntry(ZipFile archive, String entryName, Path to)
+      throws IOException {
+    ZipEntry entry = archive.getEntry(entryName);
+    if (entry == null) {
+      throw new FileNotFoundException(entryName + " not found in " + archive.getName());
+    }
+    createDirectories(to.getParent());
+    try (InputStream inputStream = archive.getInputStream(entry)) {
+      Files.copy(inputStream, to, StandardCopyOption.REPLACE_EXISTING);
+    }
+    if (entry.getLastModifiedTime() != null) {
+      Files.setLastModifiedTime(to, entry.getLastModifiedTime());
+    }
+    // Wipe entries modification time so that input->output mapping is stable
+    // regardless of the time of day.
+    maybeResetAllTimeStamps(to);
+  }
+
   private static final boolean DETERMINISTIC_TIMESTAMPS =
       Boolean.getBoolean("j2cl.deterministicTimestamps");
 
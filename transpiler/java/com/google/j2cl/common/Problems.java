@@ -143,7 +143,7 @@ public class Problems {
       problem(
           severity,
           // SourcePosition lines are 0 based.
-          sourcePosition.getStartFilePosition().getLine() + 1,
+          sourcePosition.getStartLine() + 1,
           sourcePosition.getFilePath(),
           detailMessage,
           args);
@@ -176,6 +176,28 @@ public class Problems {
     problemsBySeverity.put(severity, message);
   }
 
+  /** Records all the problems reported to {@code other}, preserving their order. */
+  public void addAll(Problems other) {
+    problemsBySeverity.putAll(other.problemsBySeverity);
+  }
+
+  /**
+   * Returns the problems that were reported at a source position in a file with the same name as
+   * {@code filePath}, preserving their order.
+   */
+  public Problems getProblemsInFile(String filePath) {
+    String fileName = filePath.substring(filePath.lastIndexOf('/') + 1);
+    Problems problemsInFile = new Problems();
+    synchronized (problemsBySeverity) {
+      for (Map.Entry<Severity, String> entry : problemsBySeverity.entries()) {
+        if (entry.getValue().startsWith(entry.getKey().getMessagePrefix() + ":" + fileName + ":")) {
+          problemsInFile.problem(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+    return problemsInFile;
+  }
+
   @FormatMethod
   public void info(String detailMessage, Object... args) {
     problem(Severity.INFO, String.format(detailMessage, args));
@@ -25,19 +25,49 @@ import javax.annotation.Nullable;
 /**
  * Describes the location of a node in the original source in the form of a range
  * (line,column)-(line,column); where both line and column are zero-based.
+ *
+ * <p>There is one of these for almost every node in the AST and for every mapping in the source
+ * maps, so the line and column of each end of the range are packed in a single long and the file
+ * paths are interned. {@link FilePosition}s are only created on demand as views of the range; hot
+ * code should prefer the primitive accessors.
  */
 @AutoValue
 public abstract class SourcePosition implements Comparable<SourcePosition> {
 
-  public static final SourcePosition NONE =
-      newBuilder()
-          .setStartFilePosition(FilePosition.NONE)
-          .setEndFilePosition(FilePosition.NONE)
-          .build();
+  // Interned per compilation, all the positions in a library refer to a handful of files.
+  private static final ThreadLocalInterner<String> pathInterner = new ThreadLocalInterner<>();
+
+  public static final SourcePosition NONE = create(-1, -1, -1, -1, -1, -1);
+
+  /** Creates a range that is not associated with a file, e.g. a range in the generated output. */
+  public static SourcePosition create(
+      int startLine,
+      int startColumn,
+      int startOffset,
+      int endLine,
+      int endColumn,
+      int endOffset) {
+    return new AutoValue_SourcePosition(
+        pack(startLine, startColumn),
+        pack(endLine, endColumn),
+        startOffset,
+        endOffset,
+        null,
+        null,
+        null);
+  }
+
+  /** The start line in the upper half and the start column in the lower half. */
+  abstract long getPackedStart();
 
-  public abstract FilePosition getStartFilePosition();
+  /** The end line in the upper half and the end column in the lower half. */
+  abstract long getPackedEnd();
 
-  public abstract FilePosition getEndFilePosition();
+  /** Returns the character offset of the start of the range. */
+  public abstract int getStartOffset();
+
+  /** Returns the character offset right after the end of the range. */
+  public abstract int getEndOffset();
 
   @Nullable
   public abstract String getFilePath();
@@ -48,6 +78,38 @@ public abstract class SourcePosition implements Comparable<SourcePosition> {
   @Nullable
   public abstract String getPackageRelativePath();
 
+  public int getStartLine() {
+    return unpackLine(getPackedStart());
+  }
+
+  public int getStartColumn() {
+    return unpackColumn(getPackedStart());
+  }
+
+  public int getEndLine() {
+    return unpackLine(getPackedEnd());
+  }
+
+  public int getEndColumn() {
+    return unpackColumn(getPackedEnd());
+  }
+
+  public FilePosition getStartFilePosition() {
+    return FilePosition.newBuilder()
+        .setLine(getStartLine())
+        .setColumn(getStartColumn())
+        .setByteOffset(getStartOffset())
+        .build();
+  }
+
+  public FilePosition getEndFilePosition() {
+    return FilePosition.newBuilder()
+        .setLine(getEndLine())
+        .setColumn(getEndColumn())
+        .setByteOffset(getEndOffset())
+        .build();
+  }
+
   @Override
   public int compareTo(SourcePosition o) {
     if (getFilePath() != null) {
@@ -56,7 +118,7 @@ public abstract class SourcePosition implements Comparable<SourcePosition> {
         return pathComparisonResult;
       }
     }
-    return getStartFilePosition().compareTo(o.getStartFilePosition());
+    return comparePacked(getPackedStart(), o.getPackedStart());
   }
 
   @Memoized
@@ -66,6 +128,47 @@ public abstract class SourcePosition implements Comparable<SourcePosition> {
     return filePath == null ? filePath : new File(filePath).getName();
   }
 
+  @Override
+  public final String toString() {
+    return "SourcePosition{startFilePosition=("
+        + getStartLine()
+        + ":"
+        + getStartColumn()
+        + "), endFilePosition=("
+        + getEndLine()
+        + ":"
+        + getEndColumn()
+        + "), filePath="
+        + getFilePath()
+        + ", name="
+        + getName()
+        + ", packageRelativePath="
+        + getPackageRelativePath()
+        + "}";
+  }
+
+  private static long pack(int line, int column) {
+    return ((long) line << 32) | (column & 0xFFFFFFFFL);
+  }
+
+  private static int unpackLine(long packed) {
+    return (int) (packed >> 32);
+  }
+
+  private static int unpackColumn(long packed) {
+    return (int) packed;
+  }
+
+  /** Compares by line and then by column, like {@link FilePosition#compareTo}. */
+  private static int comparePacked(long packed, long otherPacked) {
+    int line = unpackLine(packed);
+    int otherLine = unpackLine(otherPacked);
+    if (line != otherLine) {
+      return line - otherLine;
+    }
+    return unpackColumn(packed) - unpackColumn(otherPacked);
+  }
+
   abstract Builder toBuilder();
 
   public static Builder newBuilder() {
@@ -76,9 +179,31 @@ public abstract class SourcePosition implements Comparable<SourcePosition> {
   @AutoValue.Builder
   public abstract static class Builder {
 
-    public abstract Builder setStartFilePosition(FilePosition filePosition);
+    public Builder setStartFilePosition(FilePosition filePosition) {
+      return setStartPosition(
+          filePosition.getLine(), filePosition.getColumn(), filePosition.getByteOffset());
+    }
 
-    public abstract Builder setEndFilePosition(FilePosition filePosition);
+    public Builder setEndFilePosition(FilePosition filePosition) {
+      return setEndPosition(
+          filePosition.getLine(), filePosition.getColumn(), filePosition.getByteOffset());
+    }
+
+    public Builder setStartPosition(int line, int column, int offset) {
+      return setPackedStart(pack(line, column)).setStartOffset(offset);
+    }
+
+    public Builder setEndPosition(int line, int column, int offset) {
+      return setPackedEnd(pack(line, column)).setEndOffset(offset);
+    }
+
+    abstract Builder setPackedStart(long packedStart);
+
+    abstract Builder setPackedEnd(long packedEnd);
+
+    abstract Builder setStartOffset(int startOffset);
+
+    abstract Builder setEndOffset(int endOffset);
 
     public abstract Builder setFilePath(String filePath);
 
@@ -86,13 +211,24 @@ public abstract class SourcePosition implements Comparable<SourcePosition> {
 
     public abstract Builder setName(String name);
 
+    @Nullable
+    abstract String getFilePath();
+
+    @Nullable
+    abstract String getPackageRelativePath();
+
     abstract SourcePosition autoBuild();
 
     public SourcePosition build() {
+      if (getFilePath() != null) {
+        setFilePath(pathInterner.intern(getFilePath()));
+      }
+      if (getPackageRelativePath() != null) {
+        setPackageRelativePath(pathInterner.intern(getPackageRelativePath()));
+      }
       SourcePosition sourcePosition = autoBuild();
       checkState(
-          sourcePosition.getStartFilePosition().compareTo(sourcePosition.getEndFilePosition())
-              <= 0);
+          comparePacked(sourcePosition.getPackedStart(), sourcePosition.getPackedEnd()) <= 0);
       return sourcePosition;
     }
 
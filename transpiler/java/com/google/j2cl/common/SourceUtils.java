@@ -15,16 +15,23 @@
  */
 package com.google.j2cl.common;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import com.google.common.io.MoreFiles;
 import com.google.j2cl.common.Problems.FatalError;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
@@ -44,10 +51,11 @@ public class SourceUtils {
     }
 
     /**
-     * The location of the file on disk, for the purpose of reading its contents.
+     * The location of the file, for the purpose of reading its contents.
      *
-     * <p>This might be the original file path or a path in a temp directory where the file was
-     * extracted from a zip file for example.
+     * <p>This might be the original file path, a path in a temp directory where the file was
+     * extracted from a zip file or a path to an entry in a zip file (see {@link
+     * SourceUtils#isArchiveEntryPath}). Use {@link SourceUtils#asByteSource} to read the contents.
      */
     public abstract String sourcePath();
 
@@ -68,9 +76,42 @@ public class SourceUtils {
 
   private static final String TEMP_ROOT = "j2cl_sources";
 
+  /** Separates the path of an archive from the name of an entry in it. */
+  private static final String ARCHIVE_ENTRY_SEPARATOR = "!/";
+
   /** Returns all individual sources where source jars extracted and flattened. */
   @Nullable
   public static Stream<FileInfo> getAllSources(List<String> sources, Problems problems) {
+    return getAllSources(sources, /* readArchivesInPlace= */ false, problems);
+  }
+
+  /**
+   * Returns all individual sources where source jars are flattened.
+   *
+   * <p>If {@code readArchivesInPlace} is true the entries of source jars are referred to by their
+   * location in the jar instead of being extracted, and can only be read by consumers that go
+   * through {@link #asByteSource}.
+   */
+  @Nullable
+  public static Stream<FileInfo> getAllSources(
+      List<String> sources, boolean readArchivesInPlace, Problems problems) {
+    if (readArchivesInPlace) {
+      List<FileInfo> fileInfos = new ArrayList<>();
+      // Entries with the same name in different archives used to be extracted to the same file,
+      // where the last one wins. Keep it that way.
+      Map<String, FileInfo> archiveEntryByName = new LinkedHashMap<>();
+      for (String f : sources) {
+        if (isArchive(f)) {
+          listZip(f, problems).forEach(e -> archiveEntryByName.put(e.originalPath(), e));
+        } else {
+          fileInfos.add(FileInfo.create(f, f, getJavaPath(f)));
+        }
+      }
+      return Stream.concat(fileInfos.stream(), archiveEntryByName.values().stream())
+          .sorted()
+          .distinct();
+    }
+
     // Make sure to extract all of the Jars into a single temp dir so that when later sorting
     // sourceFilePaths there is no instability introduced by differences in randomly generated
     // temp dir prefixes.
@@ -91,7 +132,7 @@ public class SourceUtils {
     return sources.stream()
         .flatMap(
             f ->
-                f.endsWith("jar") || f.endsWith("zip")
+                isArchive(f)
                     ? extractZip(f, sourcesDir, problems).stream()
                     : Stream.of(FileInfo.create(f, f, getJavaPath(f))))
         .sorted()
@@ -109,6 +150,52 @@ public class SourceUtils {
     }
   }
 
+  @Nullable
+  private static ImmutableList<FileInfo> listZip(String zipPath, Problems problems) {
+    try {
+      return ZipFiles.listFiles(new File(zipPath));
+    } catch (IOException e) {
+      problems.fatal(FatalError.CANNOT_EXTRACT_ZIP, zipPath);
+      return null;
+    }
+  }
+
+  private static boolean isArchive(String path) {
+    return path.endsWith("jar") || path.endsWith("zip");
+  }
+
+  /** Returns the path that refers to {@code entryName} in the archive at {@code archivePath}. */
+  public static String getArchiveEntryPath(String archivePath, String entryName) {
+    return archivePath + ARCHIVE_ENTRY_SEPARATOR + entryName;
+  }
+
+  /** Returns whether the path refers to an entry in an archive rather than to a file on disk. */
+  public static boolean isArchiveEntryPath(String path) {
+    int separatorIndex = path.indexOf(ARCHIVE_ENTRY_SEPARATOR);
+    return separatorIndex != -1 && isArchive(path.substring(0, separatorIndex));
+  }
+
+  /** Returns the path of the archive from a path that refers to an entry in it. */
+  public static String getArchivePath(String archiveEntryPath) {
+    checkArgument(isArchiveEntryPath(archiveEntryPath), archiveEntryPath);
+    return archiveEntryPath.substring(0, archiveEntryPath.indexOf(ARCHIVE_ENTRY_SEPARATOR));
+  }
+
+  /** Returns the name of the entry from a path that refers to an entry in an archive. */
+  public static String getEntryName(String archiveEntryPath) {
+    checkArgument(isArchiveEntryPath(archiveEntryPath), archiveEntryPath);
+    return archiveEntryPath.substring(
+        archiveEntryPath.indexOf(ARCHIVE_ENTRY_SEPARATOR) + ARCHIVE_ENTRY_SEPARATOR.length());
+  }
+
+  /** Returns a byte source for a file on disk or for an entry in an archive. */
+  public static ByteSource asByteSource(String path) {
+    if (isArchiveEntryPath(path)) {
+      return ZipFiles.asByteSource(new File(getArchivePath(path)), getEntryName(path));
+    }
+    return MoreFiles.asByteSource(Paths.get(path));
+  }
+
   /**
    * Returns the relative path from java source root.
    *
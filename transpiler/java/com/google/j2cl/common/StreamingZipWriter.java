@@ -0,0 +1,444 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip file whose entries are compressed in parallel and written in sorted order.
+ *
+ * <p>Entries are compressed as soon as they are added and kept in memory until the zip is written
+ * on {@link #close}. Once the compressed entries exceed the memory budget, further entries are
+ * spilled to a temporary file. The number of entries waiting to be compressed is bounded as well,
+ * since their uncompressed content is held by the tasks; adding an entry blocks until there is
+ * room. Entries are written sorted by name, together with entries for all their parent
+ * directories, so that the output does not depend on the order in which the entries were added or
+ * compressed.
+ */
+final class StreamingZipWriter implements AutoCloseable {
+
+  /** Writes the uncompressed content of an entry. */
+  interface ContentWriter {
+    void writeTo(OutputStream outputStream) throws IOException;
+  }
+
+  private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int EXTENDED_TIMESTAMP_EXTRA_ID = 0x5455;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final int VERSION_DEFAULT = 20;
+  private static final int VERSION_ZIP64 = 45;
+  private static final int FLAG_UTF8_NAMES = 0x0800;
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+  private static final int DIRECTORY_ATTRIBUTE = 0x10;
+  private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+  private static final int ZIP32_ENTRY_COUNT_LIMIT = 0xFFFF;
+
+  private final Path output;
+  private final ExecutorService executorService;
+  private final long maxBufferedBytes;
+  private final Semaphore pendingEntryPermits;
+  private final FileTime directoryLastModified;
+  private final Map<String, Future<CompressedEntry>> entryByName = new ConcurrentHashMap<>();
+  private final AtomicLong bufferedBytes = new AtomicLong();
+  // Lazily created file that holds the compressed data that does not fit in the memory budget.
+  private Path spillFile;
+  private FileChannel spillChannel;
+
+  StreamingZipWriter(
+      Path output,
+      ExecutorService executorService,
+      int maxPendingEntries,
+      long maxBufferedBytes,
+      FileTime directoryLastModified) {
+    this.output = output;
+    this.executorService = executorService;
+    this.pendingEntryPermits = new Semaphore(maxPendingEntries);
+    this.maxBufferedBytes = maxBufferedBytes;
+    this.directoryLastModified = directoryLastModified;
+  }
+
+  /**
+   * Adds an entry to the zip, replacing any previous entry with the same name. The content is
+   * compressed asynchronously.
+   */
+  void add(String name, FileTime lastModified, ContentWriter contentWriter) {
+    pendingEntryPermits.acquireUninterruptibly();
+    Future<CompressedEntry> entry;
+    try {
+      entry =
+          executorService.submit(
+              () -> {
+                try {
+                  return compress(name, lastModified, contentWriter);
+                } finally {
+                  pendingEntryPermits.release();
+                }
+              });
+    } catch (RuntimeException e) {
+      pendingEntryPermits.release();
+      throw e;
+    }
+    Future<CompressedEntry> replacedEntry = entryByName.put(name, entry);
+    if (replacedEntry != null) {
+      discard(replacedEntry);
+    }
+  }
+
+  /** Releases the memory held by an entry that was replaced and will not be written. */
+  private void discard(Future<CompressedEntry> future) {
+    CompressedEntry entry;
+    try {
+      entry = Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      // The entry is not written, so its failure is irrelevant.
+      return;
+    }
+    if (entry.data != null) {
+      entry.data = null;
+      bufferedBytes.addAndGet(-entry.compressedSize);
+    }
+  }
+
+  private CompressedEntry compress(String name, FileTime lastModified, ContentWriter contentWriter)
+      throws IOException {
+    ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, /* nowrap= */ true);
+    try {
+      CountingOutputStream countingStream =
+          new CountingOutputStream(new DeflaterOutputStream(compressedBytes, deflater, 8192));
+      CheckedOutputStream checkedStream = new CheckedOutputStream(countingStream, new CRC32());
+      contentWriter.writeTo(checkedStream);
+      checkedStream.close();
+      CompressedEntry entry =
+          new CompressedEntry(
+              name,
+              lastModified,
+              checkedStream.getChecksum().getValue(),
+              countingStream.getCount(),
+              compressedBytes.toByteArray());
+      if (bufferedBytes.addAndGet(entry.compressedSize) > maxBufferedBytes) {
+        spill(entry);
+      }
+      return entry;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private synchronized void spill(CompressedEntry entry) throws IOException {
+    if (spillChannel == null) {
+      spillFile = Files.createTempFile("j2cl_output", ".spill");
+      spillChannel =
+          FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    entry.spillOffset = spillChannel.size();
+    ByteBuffer buffer = ByteBuffer.wrap(entry.data);
+    while (buffer.hasRemaining()) {
+      spillChannel.write(buffer, entry.spillOffset + buffer.position());
+    }
+    entry.data = null;
+    bufferedBytes.addAndGet(-entry.compressedSize);
+  }
+
+  /** Waits for all entries to be compressed and writes the zip file. */
+  @Override
+  public void close() throws IOException {
+    try {
+      NavigableMap<String, CompressedEntry> sortedEntryByName = new TreeMap<>();
+      for (Map.Entry<String, Future<CompressedEntry>> entry : entryByName.entrySet()) {
+        sortedEntryByName.put(entry.getKey(), getUninterruptibly(entry.getValue()));
+        addParentDirectories(entry.getKey(), sortedEntryByName);
+      }
+      try (OutputStream outputStream =
+          new BufferedOutputStream(Files.newOutputStream(output), 1 << 16)) {
+        writeZip(new ZipDataOutput(outputStream), sortedEntryByName.values());
+      }
+    } finally {
+      if (spillChannel != null) {
+        spillChannel.close();
+        Files.deleteIfExists(spillFile);
+      }
+    }
+  }
+
+  private void addParentDirectories(
+      String name, NavigableMap<String, CompressedEntry> sortedEntryByName) {
+    for (int index = name.lastIndexOf('/', name.length() - 2);
+        index != -1;
+        index = name.lastIndexOf('/', index - 1)) {
+      String directoryName = name.substring(0, index + 1);
+      if (sortedEntryByName.putIfAbsent(
+              directoryName, CompressedEntry.createDirectory(directoryName, directoryLastModified))
+          != null) {
+        // The rest of the parents were added with the directory.
+        return;
+      }
+    }
+  }
+
+  private void writeZip(ZipDataOutput out, Collection<CompressedEntry> entries)
+      throws IOException {
+    for (CompressedEntry entry : entries) {
+      entry.localHeaderOffset = out.position;
+      writeLocalFileHeader(out, entry);
+      writeData(out, entry);
+    }
+
+    long centralDirectoryOffset = out.position;
+    for (CompressedEntry entry : entries) {
+      writeCentralDirectoryHeader(out, entry);
+    }
+    long centralDirectorySize = out.position - centralDirectoryOffset;
+
+    boolean needsZip64 =
+        entries.size() >= ZIP32_ENTRY_COUNT_LIMIT
+            || centralDirectoryOffset >= ZIP32_LIMIT
+            || centralDirectorySize >= ZIP32_LIMIT;
+    if (needsZip64) {
+      long zip64EndOffset = out.position;
+      out.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      out.writeLong(44); // Size of the remaining record.
+      out.writeShort(VERSION_ZIP64);
+      out.writeShort(VERSION_ZIP64);
+      out.writeInt(0); // Number of this disk.
+      out.writeInt(0); // Disk where the central directory starts.
+      out.writeLong(entries.size());
+      out.writeLong(entries.size());
+      out.writeLong(centralDirectorySize);
+      out.writeLong(centralDirectoryOffset);
+
+      out.writeInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+      out.writeInt(0); // Disk with the zip64 end of central directory.
+      out.writeLong(zip64EndOffset);
+      out.writeInt(1); // Total number of disks.
+    }
+
+    out.writeInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    out.writeShort(0); // Number of this disk.
+    out.writeShort(0); // Disk where the central directory starts.
+    out.writeShort(needsZip64 ? ZIP32_ENTRY_COUNT_LIMIT : entries.size());
+    out.writeShort(needsZip64 ? ZIP32_ENTRY_COUNT_LIMIT : entries.size());
+    out.writeInt(needsZip64 ? ZIP32_LIMIT : centralDirectorySize);
+    out.writeInt(needsZip64 ? ZIP32_LIMIT : centralDirectoryOffset);
+    out.writeShort(0); // Comment length.
+  }
+
+  private static void writeLocalFileHeader(ZipDataOutput out, CompressedEntry entry)
+      throws IOException {
+    checkEntrySize(entry);
+    out.writeInt(LOCAL_FILE_HEADER_SIGNATURE);
+    out.writeShort(VERSION_DEFAULT);
+    out.writeShort(FLAG_UTF8_NAMES);
+    out.writeShort(entry.getMethod());
+    out.writeInt(toDosTime(entry.lastModified));
+    out.writeInt(entry.crc);
+    out.writeInt(entry.compressedSize);
+    out.writeInt(entry.size);
+    out.writeShort(entry.nameBytes.length);
+    out.writeShort(9); // Extended timestamp.
+    out.write(entry.nameBytes);
+    writeExtendedTimestamp(out, entry);
+  }
+
+  private void writeData(ZipDataOutput out, CompressedEntry entry) throws IOException {
+    if (entry.data != null) {
+      out.write(entry.data);
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) entry.compressedSize);
+    while (buffer.hasRemaining()) {
+      if (spillChannel.read(buffer, entry.spillOffset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of spill file for " + entry.name);
+      }
+    }
+    out.write(buffer.array());
+  }
+
+  private static void writeCentralDirectoryHeader(ZipDataOutput out, CompressedEntry entry)
+      throws IOException {
+    boolean needsZip64 = entry.localHeaderOffset >= ZIP32_LIMIT;
+    out.writeInt(CENTRAL_DIRECTORY_HEADER_SIGNATURE);
+    out.writeShort(needsZip64 ? VERSION_ZIP64 : VERSION_DEFAULT); // Version made by.
+    out.writeShort(needsZip64 ? VERSION_ZIP64 : VERSION_DEFAULT); // Version needed.
+    out.writeShort(FLAG_UTF8_NAMES);
+    out.writeShort(entry.getMethod());
+    out.writeInt(toDosTime(entry.lastModified));
+    out.writeInt(entry.crc);
+    out.writeInt(entry.compressedSize);
+    out.writeInt(entry.size);
+    out.writeShort(entry.nameBytes.length);
+    out.writeShort(9 + (needsZip64 ? 12 : 0));
+    out.writeShort(0); // Comment length.
+    out.writeShort(0); // Disk number.
+    out.writeShort(0); // Internal attributes.
+    out.writeInt(entry.isDirectory() ? DIRECTORY_ATTRIBUTE : 0);
+    out.writeInt(needsZip64 ? ZIP32_LIMIT : entry.localHeaderOffset);
+    out.write(entry.nameBytes);
+    writeExtendedTimestamp(out, entry);
+    if (needsZip64) {
+      out.writeShort(ZIP64_EXTRA_ID);
+      out.writeShort(8);
+      out.writeLong(entry.localHeaderOffset);
+    }
+  }
+
+  private static void writeExtendedTimestamp(ZipDataOutput out, CompressedEntry entry)
+      throws IOException {
+    out.writeShort(EXTENDED_TIMESTAMP_EXTRA_ID);
+    out.writeShort(5);
+    out.writeByte(1); // Only the modification time is present.
+    out.writeInt(entry.lastModified.toMillis() / 1000);
+  }
+
+  private static void checkEntrySize(CompressedEntry entry) throws IOException {
+    if (entry.size >= ZIP32_LIMIT || entry.compressedSize >= ZIP32_LIMIT) {
+      throw new IOException("Entry too large for zip output: " + entry.name);
+    }
+  }
+
+  /** Returns the time in the MS-DOS format used by zip files. */
+  private static long toDosTime(FileTime fileTime) {
+    LocalDateTime time =
+        LocalDateTime.ofInstant(fileTime.toInstant(), ZoneId.systemDefault());
+    if (time.getYear() < 1980) {
+      // Earliest time representable, the extended timestamp keeps the actual value.
+      return (1 << 21) | (1 << 16);
+    }
+    return ((time.getYear() - 1980) << 25)
+        | (time.getMonthValue() << 21)
+        | (time.getDayOfMonth() << 16)
+        | (time.getHour() << 11)
+        | (time.getMinute() << 5)
+        | (time.getSecond() >> 1);
+  }
+
+  private static CompressedEntry getUninterruptibly(Future<CompressedEntry> future)
+      throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    }
+  }
+
+  private static final class CompressedEntry {
+    private final String name;
+    private final byte[] nameBytes;
+    private final FileTime lastModified;
+    private final long crc;
+    private final long size;
+    private final long compressedSize;
+    // The compressed data, or null if it was spilled to disk.
+    private byte[] data;
+    private long spillOffset;
+    private long localHeaderOffset;
+
+    private CompressedEntry(
+        String name, FileTime lastModified, long crc, long size, byte[] data) {
+      this.name = name;
+      this.nameBytes = name.getBytes(UTF_8);
+      this.lastModified = lastModified;
+      this.crc = crc;
+      this.size = size;
+      this.compressedSize = data.length;
+      this.data = data;
+    }
+
+    private static CompressedEntry createDirectory(String name, FileTime lastModified) {
+      return new CompressedEntry(name, lastModified, 0, 0, new byte[0]);
+    }
+
+    private boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    private int getMethod() {
+      return isDirectory() ? METHOD_STORED : METHOD_DEFLATED;
+    }
+  }
+
+  /** Writes little endian values and keeps track of the position in the output. */
+  private static final class ZipDataOutput {
+    private final OutputStream outputStream;
+    private long position;
+
+    private ZipDataOutput(OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    private void writeByte(int value) throws IOException {
+      outputStream.write(value);
+      position++;
+    }
+
+    private void writeShort(int value) throws IOException {
+      writeByte(value & 0xFF);
+      writeByte((value >>> 8) & 0xFF);
+    }
+
+    private void writeInt(long value) throws IOException {
+      writeShort((int) (value & 0xFFFF));
+      writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+      writeInt(value & ZIP32_LIMIT);
+      writeInt(value >>> 32);
+    }
+
+    private void write(byte[] bytes) throws IOException {
+      outputStream.write(bytes);
+      position += bytes.length;
+    }
+  }
+}
@@ -18,12 +18,18 @@ package com.google.j2cl.common;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
 
-/** An interner that provides per thread isolation. */
+/**
+ * An interner that provides per compilation isolation.
+ *
+ * <p>Each thread has its own interner, except for the helper threads of a compilation which share
+ * the one of the compilation thread through {@link TransferableThreadLocal#capture}; the interner
+ * is thread safe so they can use it concurrently.
+ */
 // TODO(rlubble): This class should extend com.google.common.collect.Interner<T> but that class
 // is marked @GwtIncompatible.
 public class ThreadLocalInterner<T> {
   private final ThreadLocal<Interner<T>> interner =
-      ThreadLocal.withInitial(Interners::newStrongInterner);
+      TransferableThreadLocal.withInitial(Interners::newStrongInterner);
 
   public T intern(T t) {
     return interner.get().intern(t);
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * A thread local whose value can be captured in one thread and installed in another.
+ *
+ * <p>The compiler keeps its per compilation state in thread locals. Helper threads that work on
+ * behalf of a compilation need to see the same state as the thread that owns the compilation; a
+ * {@link Snapshot} taken on the owning thread provides that.
+ *
+ * <p>A few thread locals describe the context a compilation runs in rather than the compilation
+ * itself, e.g. the worker request its output belongs to. Those are created with {@link
+ * #forContext} and are the only ones carried over to a new compilation by {@link
+ * #captureContext}.
+ *
+ * <p>A null value is indistinguishable from an unset one, so that only the values that were
+ * actually computed are captured; the initial value is computed on first access in each thread.
+ */
+public class TransferableThreadLocal<T> extends ThreadLocal<T> {
+  /**
+   * All the transferable thread locals. They are held weakly since not all of them are static, e.g.
+   * the ones owned by an object that is discarded.
+   */
+  private static final Set<TransferableThreadLocal<?>> allThreadLocals =
+      Collections.newSetFromMap(new MapMaker().weakKeys().makeMap());
+
+  private final Supplier<? extends T> initialValueSupplier;
+  private final boolean isContext;
+
+  public TransferableThreadLocal() {
+    this(() -> null, false);
+  }
+
+  private TransferableThreadLocal(Supplier<? extends T> initialValueSupplier, boolean isContext) {
+    this.initialValueSupplier = initialValueSupplier;
+    this.isContext = isContext;
+    allThreadLocals.add(this);
+  }
+
+  public static <T> TransferableThreadLocal<T> withInitial(Supplier<? extends T> supplier) {
+    return new TransferableThreadLocal<>(supplier, false);
+  }
+
+  /** Creates a thread local for the context of a compilation, see {@link #captureContext}. */
+  public static <T> TransferableThreadLocal<T> forContext() {
+    return new TransferableThreadLocal<>(() -> null, true);
+  }
+
+  @Override
+  public T get() {
+    T value = getIfSet();
+    if (value == null) {
+      value = initialValueSupplier.get();
+      if (value != null) {
+        set(value);
+      }
+    }
+    return value;
+  }
+
+  /** Returns the value in the current thread without computing the initial value. */
+  private T getIfSet() {
+    return super.get();
+  }
+
+  /** The values of all transferable thread locals as seen by a particular thread. */
+  public static final class Snapshot {
+    private final ImmutableMap<TransferableThreadLocal<?>, Object> valueByThreadLocal;
+
+    private Snapshot(ImmutableMap<TransferableThreadLocal<?>, Object> valueByThreadLocal) {
+      this.valueByThreadLocal = valueByThreadLocal;
+    }
+
+    /**
+     * Runs {@code runnable} in the current thread with the values from the snapshot installed.
+     *
+     * <p>The values the thread had before are restored afterwards, so the snapshot can also be used
+     * in the thread it was captured from, e.g. by parallel streams that run part of the work in the
+     * calling thread.
+     */
+    public void runWith(Runnable runnable) {
+      callWith(
+          () -> {
+            runnable.run();
+            return null;
+          });
+    }
+
+    /** Like {@link #runWith} but returns the value computed by {@code supplier}. */
+    public <V> V callWith(Supplier<V> supplier) {
+      Map<TransferableThreadLocal<?>, Object> previousValueByThreadLocal = installValues();
+      try {
+        return supplier.get();
+      } finally {
+        restoreValues(previousValueByThreadLocal);
+      }
+    }
+
+    /** Returns a callable that calls {@code callable} with the values of the snapshot installed. */
+    public <V> Callable<V> wrap(Callable<V> callable) {
+      return () -> {
+        Map<TransferableThreadLocal<?>, Object> previousValueByThreadLocal = installValues();
+        try {
+          return callable.call();
+        } finally {
+          restoreValues(previousValueByThreadLocal);
+        }
+      };
+    }
+
+    /** Installs the values of the snapshot and returns the ones they replaced. */
+    private Map<TransferableThreadLocal<?>, Object> installValues() {
+      Map<TransferableThreadLocal<?>, Object> previousValueByThreadLocal = new HashMap<>();
+      for (TransferableThreadLocal<?> threadLocal : valueByThreadLocal.keySet()) {
+        previousValueByThreadLocal.put(threadLocal, threadLocal.getIfSet());
+      }
+      valueByThreadLocal.forEach(Snapshot::install);
+      return previousValueByThreadLocal;
+    }
+
+    private static void restoreValues(
+        Map<TransferableThreadLocal<?>, Object> previousValueByThreadLocal) {
+      previousValueByThreadLocal.forEach(
+          (threadLocal, previousValue) -> {
+            if (previousValue == null) {
+              threadLocal.remove();
+            } else {
+              install(threadLocal, previousValue);
+            }
+          });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void install(TransferableThreadLocal<T> threadLocal, Object value) {
+      threadLocal.set((T) value);
+    }
+  }
+
+  /**
+   * Captures the values that are set for the transferable thread locals in the current thread.
+   *
+   * <p>Thread locals that were not used in the current thread are not captured, and compute their
+   * initial value independently in each thread they are used.
+   */
+  public static Snapshot capture() {
+    return capture(false);
+  }
+
+  /**
+   * Captures the values that are set for the context thread locals in the current thread, which is
+   * what a compilation started from the current thread needs; the state of the compilation that
+   * might be running in the current thread is not captured.
+   */
+  public static Snapshot captureContext() {
+    return capture(true);
+  }
+
+  private static Snapshot capture(boolean contextOnly) {
+    ImmutableMap.Builder<TransferableThreadLocal<?>, Object> valueByThreadLocal =
+        ImmutableMap.builder();
+    for (TransferableThreadLocal<?> threadLocal : allThreadLocals) {
+      if (contextOnly && !threadLocal.isContext) {
+        continue;
+      }
+      Object value = threadLocal.getIfSet();
+      if (value != null) {
+        valueByThreadLocal.put(threadLocal, value);
+      }
+    }
+    return new Snapshot(valueByThreadLocal.build());
+  }
+}
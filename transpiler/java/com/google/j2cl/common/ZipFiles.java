@@ -26,15 +26,83 @@ import com.google.common.io.ByteSource;
 import com.google.common.io.Files;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
 
 /** Small fill in for io.ZipFiles since it's not open source yet. */
 public class ZipFiles {
 
+  /** The archives kept open by the compilation running in the current thread, if any. */
+  private static final TransferableThreadLocal<OpenArchives> openArchivesStorage =
+      new TransferableThreadLocal<>();
+
+  /**
+   * Archives kept open while a compilation reads their entries, so that each archive is opened once
+   * instead of once per entry read.
+   *
+   * <p>The archives are closed when this is closed, which invalidates the streams open on them.
+   */
+  public static final class OpenArchives implements AutoCloseable {
+    private final Map<File, ZipFile> archiveByFile = new ConcurrentHashMap<>();
+    @Nullable private final OpenArchives previous;
+
+    private OpenArchives(@Nullable OpenArchives previous) {
+      this.previous = previous;
+    }
+
+    private ZipFile getArchive(File zipFile) throws IOException {
+      try {
+        return archiveByFile.computeIfAbsent(
+            zipFile,
+            f -> {
+              try {
+                return new ZipFile(f);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        openArchivesStorage.remove();
+      } else {
+        openArchivesStorage.set(previous);
+      }
+      for (ZipFile archive : archiveByFile.values()) {
+        try {
+          archive.close();
+        } catch (IOException e) {
+          // Nothing to do, the archive was only read.
+        }
+      }
+    }
+  }
+
+  /**
+   * Keeps the archives read by {@link #asByteSource(File, String)} in the current thread, and in
+   * the threads that run with its {@link TransferableThreadLocal.Snapshot}, open until the returned
+   * instance is closed.
+   */
+  public static OpenArchives openArchives() {
+    OpenArchives openArchives = new OpenArchives(openArchivesStorage.get());
+    openArchivesStorage.set(openArchives);
+    return openArchives;
+  }
+
   private static final class ZipEntryByteSource extends ByteSource {
 
     private final ZipFile file;
@@ -92,6 +160,79 @@ public class ZipFiles {
     return results.build();
   }
 
+  /**
+   * Lists the files in the given zip file without extracting them.
+   *
+   * <p>The source path of each file refers to the entry in the zip file, see {@link
+   * SourceUtils#getArchiveEntryPath}.
+   */
+  public static ImmutableList<FileInfo> listFiles(File zipFile) throws IOException {
+    checkNotNull(zipFile);
+    ImmutableList.Builder<FileInfo> results = new ImmutableList.Builder<>();
+    try (ZipFile zipFileObj = new ZipFile(zipFile)) {
+      for (ZipEntry entry : entries(zipFileObj)) {
+        checkName(entry.getName());
+        if (!entry.isDirectory()) {
+          results.add(
+              FileInfo.create(
+                  SourceUtils.getArchiveEntryPath(zipFile.getPath(), entry.getName()),
+                  entry.getName()));
+        }
+      }
+    }
+    return results.build();
+  }
+
+  /**
+   * Returns a new {@link ByteSource} for reading the contents of the given entry in the given zip
+   * file. The zip file is opened for each read, unless it is kept open by {@link #openArchives}.
+   */
+  public static ByteSource asByteSource(File zipFile, String entryName) {
+    checkNotNull(zipFile);
+    checkNotNull(entryName);
+    return new ByteSource() {
+      @Override
+      public InputStream openStream() throws IOException {
+        OpenArchives openArchives = openArchivesStorage.get();
+        if (openArchives != null) {
+          ZipFile zipFileObj = openArchives.getArchive(zipFile);
+          return zipFileObj.getInputStream(getEntry(zipFileObj, entryName));
+        }
+        ZipFile zipFileObj = new ZipFile(zipFile);
+        ZipEntry entry;
+        try {
+          entry = getEntry(zipFileObj, entryName);
+        } catch (FileNotFoundException e) {
+          zipFileObj.close();
+          throw e;
+        }
+        return new FilterInputStream(zipFileObj.getInputStream(entry)) {
+          @Override
+          public void close() throws IOException {
+            try {
+              super.close();
+            } finally {
+              zipFileObj.close();
+            }
+          }
+        };
+      }
+
+      @Override
+      public String toString() {
+        return "ZipFiles.asByteSource(" + zipFile + ", " + entryName + ")";
+      }
+    };
+  }
+
+  private static ZipEntry getEntry(ZipFile zipFile, String entryName) throws IOException {
+    ZipEntry entry = zipFile.getEntry(entryName);
+    if (entry == null) {
+      throw new FileNotFoundException(entryName + " not found in " + zipFile.getName());
+    }
+    return entry;
+  }
+
   /**
    * Returns a new {@link ByteSource} for reading the contents of the given entry in the given zip
    * file.
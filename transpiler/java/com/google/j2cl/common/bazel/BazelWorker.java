@@ -15,20 +15,29 @@
  */
 package com.google.j2cl.common.bazel;
 
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 import com.google.common.io.Files;
+import com.google.devtools.build.lib.worker.WorkerProtocol.Input;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
 import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.TransferableThreadLocal;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Supplier;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -37,12 +46,31 @@ import org.kohsuke.args4j.CmdLineParser;
  * A base class for running processes as blaze workers. Used for both the transpiler
  * and @GwtIncompatible stripper tool.
  *
+ * <p>Supports multiplexed persistent workers, where several requests are processed concurrently
+ * in the same JVM. Each request gets a fresh instance from the worker supplier, so subclasses only
+ * need to make sure that the state they share across instances is thread safe. Output written to
+ * stdout or stderr is attributed to the request being processed by the current thread; work handed
+ * to other threads needs to carry the request with a {@link TransferableThreadLocal.Snapshot}.
+ *
  * <p>Partially adapted from {@code com.google.devtools.build.buildjar.BazelJavaBuilder}.
  */
 public abstract class BazelWorker {
 
+  private ImmutableMap<String, String> inputDigestsByPath = ImmutableMap.of();
+
   protected abstract void run(Problems problems);
 
+  /**
+   * Returns the digests Bazel provided for the inputs of the request keyed by path, or an empty
+   * map when running outside of a persistent worker.
+   *
+   * <p>The digests are opaque tokens that only change when the contents of the input change, and
+   * can be used to key caches that should survive changes in timestamps.
+   */
+  protected ImmutableMap<String, String> getInputDigestsByPath() {
+    return inputDigestsByPath;
+  }
+
   /**
    * Process the request described by the arguments. Note that you must output errors and warnings
    * via {@link Problems} to avoid interrupting the worker protocol which occurs over stdout.
@@ -86,30 +114,131 @@ public abstract class BazelWorker {
     System.exit(exitCode);
   }
 
-  private static void runPersistentWorker(Supplier<BazelWorker> workerSupplier) throws IOException {
+  @SuppressWarnings("SystemExitOutsideMain")
+  private static void runPersistentWorker(Supplier<BazelWorker> workerSupplier)
+      throws IOException, InterruptedException {
     PrintStream realStdOut = System.out;
+    PrintStream realStdErr = System.err;
 
-    // Ensure we capture stdout/sterr for potential debug/error messages.
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    PrintStream ps = new PrintStream(buffer, true);
+    // Ensure we capture stdout/sterr for potential debug/error messages. Output is captured
+    // separately for each request so that concurrent requests do not interleave their messages.
+    RequestOutputStream requestOutput = new RequestOutputStream(realStdErr);
+    PrintStream ps = new PrintStream(requestOutput, true);
     System.setOut(ps);
     System.setErr(ps);
 
-    while (true) {
-      WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+    // Requests with a non zero id are multiplexed and can be processed concurrently. Bazel bounds
+    // the number of requests in flight, so there is no need to bound the pool here.
+    ExecutorService multiplexService = Executors.newCachedThreadPool();
+    try {
+      while (true) {
+        WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
-      if (request == null) {
-        break;
+        if (request == null) {
+          break;
+        }
+
+        if (request.getRequestId() == 0) {
+          processPersistentRequest(workerSupplier, request, requestOutput, realStdOut);
+        } else {
+          multiplexService.execute(
+              () -> {
+                try {
+                  processPersistentRequest(workerSupplier, request, requestOutput, realStdOut);
+                } catch (IOException e) {
+                  // Bazel would wait forever for the response, fail the worker instead.
+                  e.printStackTrace(realStdErr);
+                  System.exit(1);
+                }
+              });
+        }
       }
+    } finally {
+      // Let the requests in flight finish and send their responses.
+      multiplexService.shutdown();
+      multiplexService.awaitTermination(Long.MAX_VALUE, SECONDS);
+    }
+  }
+
+  private static void processPersistentRequest(
+      Supplier<BazelWorker> workerSupplier,
+      WorkRequest request,
+      RequestOutputStream requestOutput,
+      PrintStream realStdOut)
+      throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    int exitCode;
+    requestOutput.captureInCurrentThread(buffer);
+    try {
+      BazelWorker worker = workerSupplier.get();
+      worker.inputDigestsByPath =
+          request.getInputsList().stream()
+              .collect(
+                  toImmutableMap(
+                      Input::getPath,
+                      i -> BaseEncoding.base16().encode(i.getDigest().toByteArray()),
+                      (first, second) -> first));
+      exitCode = worker.processRequest(request.getArgumentsList());
+    } finally {
+      requestOutput.releaseCurrentThread();
+    }
 
-      int exitCode = workerSupplier.get().processRequest(request.getArgumentsList());
-      WorkResponse.newBuilder()
-          .setOutput(buffer.toString())
-          .setExitCode(exitCode)
-          .build()
-          .writeDelimitedTo(realStdOut);
+    WorkResponse response =
+        WorkResponse.newBuilder()
+            .setOutput(buffer.toString())
+            .setExitCode(exitCode)
+            .setRequestId(request.getRequestId())
+            .build();
+    // Responses to multiplexed requests are written from different threads.
+    synchronized (realStdOut) {
+      response.writeDelimitedTo(realStdOut);
       realStdOut.flush();
-      buffer.reset();
+    }
+  }
+
+  /**
+   * An output stream that routes the output to the buffer of the request being processed by the
+   * current thread.
+   *
+   * <p>The buffer is not inherited by new threads, since pooled threads outlive the request that
+   * created them. Helper threads get it from a snapshot taken when the work is handed to them.
+   * Output from threads that are not processing a request goes to the fallback stream.
+   */
+  private static final class RequestOutputStream extends OutputStream {
+    private final TransferableThreadLocal<OutputStream> currentRequestBuffer =
+        TransferableThreadLocal.forContext();
+    private final OutputStream fallback;
+
+    RequestOutputStream(OutputStream fallback) {
+      this.fallback = fallback;
+    }
+
+    void captureInCurrentThread(ByteArrayOutputStream buffer) {
+      currentRequestBuffer.set(buffer);
+    }
+
+    void releaseCurrentThread() {
+      currentRequestBuffer.remove();
+    }
+
+    private OutputStream getCurrentOutput() {
+      OutputStream buffer = currentRequestBuffer.get();
+      return buffer != null ? buffer : fallback;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      getCurrentOutput().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      getCurrentOutput().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      getCurrentOutput().flush();
     }
   }
 
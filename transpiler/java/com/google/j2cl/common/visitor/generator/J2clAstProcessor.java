@@ -102,6 +102,8 @@ public class J2clAstProcessor extends AbstractProcessor {
             ABSTRACT_REWRITER_TEMPLATE_FILE, "AbstractRewriter", packageName, classes);
         writeGeneralClass(
             PROCESSOR_PRIVATE_CLASS_TEMPLATE_FILE, "ProcessorPrivate", packageName, classes);
+        writeGeneralClass(FUSED_REWRITER_TEMPLATE_FILE, "FusedRewriter", packageName, classes);
+        writeGeneralClass(FUSED_VISITOR_TEMPLATE_FILE, "FusedVisitor", packageName, classes);
       }
 
       // This means that the previous round didn't generate any new sources, so we can't have found
@@ -277,6 +279,10 @@ public class J2clAstProcessor extends AbstractProcessor {
 
   private static final String PROCESSOR_PRIVATE_CLASS_TEMPLATE_FILE = "ProcessorPrivateClass.vm";
 
+  private static final String FUSED_REWRITER_TEMPLATE_FILE = "FusedRewriterClass.vm";
+
+  private static final String FUSED_VISITOR_TEMPLATE_FILE = "FusedVisitorClass.vm";
+
   private static final String VISITABLE_CLASS_TEMPLATE_FILE = "Visitable_Class.vm";
 
   public J2clAstProcessor() {}
@@ -26,6 +26,7 @@ import com.google.j2cl.common.SourceUtils;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import com.google.j2cl.common.bazel.BazelWorker;
 import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
 import com.google.j2cl.transpiler.frontend.Frontend;
 import java.io.File;
 import java.nio.file.Path;
@@ -135,6 +136,62 @@ final class BazelJ2clBuilder extends BazelWorker {
   @Option(name = "-experimentalDefineForWasm", handler = MapOptionHandler.class, hidden = true)
   Map<String, String> definesForWasm = new HashMap<>();
 
+  @Option(
+      name = "-experimentalPassParallelism",
+      usage = "Number of threads used to run normalization passes over compilation units.",
+      hidden = true)
+  int passParallelism = 1;
+
+  @Option(
+      name = "-experimentalParsingParallelism",
+      usage = "Number of batches of sources that are parsed concurrently by the JDT frontend.",
+      hidden = true)
+  int parsingParallelism = 1;
+
+  @Option(
+      name = "-experimentalOutputParallelism",
+      usage = "Number of threads used to generate the outputs of compilation units.",
+      hidden = true)
+  int outputParallelism = 1;
+
+  @Option(
+      name = "-experimentalProfileOutput",
+      usage =
+          "Specifies the file into which to write a Chrome trace of the time and memory spent in"
+              + " each stage and pass; a summary table is written next to it.",
+      hidden = true)
+  Path profileOutput;
+
+  @Option(
+      name = "-experimentalFusePasses",
+      usage = "Runs consecutive local rewrite passes together in a single traversal of the AST.",
+      hidden = true)
+  boolean fuseLocalRewritePasses = false;
+
+  @Option(
+      name = "-experimentalVerifyPassFusion",
+      usage =
+          "Transpiles with and without fusing local rewrite passes and reports an error if the"
+              + " outputs differ.",
+      hidden = true)
+  boolean verifyPassFusion = false;
+
+  @Option(
+      name = "-experimentalIncrementalOutputs",
+      usage =
+          "Reuses the outputs generated for the compilation units whose sources and dependencies"
+              + " did not change since a previous compilation in the same worker.",
+      hidden = true)
+  boolean incrementalOutputs = false;
+
+  @Option(
+      name = "-experimentalStreamOutputs",
+      usage =
+          "Generates the outputs one compilation unit at a time once the passes that need the"
+              + " whole library have run, releasing each unit right after.",
+      hidden = true)
+  boolean streamOutputs = false;
+
   @Override
   protected void run(Problems problems) {
     try (Output out = OutputUtils.initOutput(this.output, problems)) {
@@ -159,7 +216,16 @@ final class BazelJ2clBuilder extends BazelWorker {
     }
 
     ImmutableList<FileInfo> allSources =
-        SourceUtils.getAllSources(this.sources, problems).collect(toImmutableList());
+        SourceUtils.getAllSources(
+                this.sources, javaFrontend.supportsSourcesInArchives(), problems)
+            .collect(toImmutableList());
+    if (!Frontend.KOTLIN.supportsSourcesInArchives()
+        && allSources.stream()
+            .map(FileInfo::sourcePath)
+            .anyMatch(p -> p.endsWith(".kt") && SourceUtils.isArchiveEntryPath(p))) {
+      // Kotlin sources from source jars need to be extracted for the Kotlin frontend.
+      allSources = SourceUtils.getAllSources(this.sources, problems).collect(toImmutableList());
+    }
 
     ImmutableList<FileInfo> allJavaSources =
         allSources.stream()
@@ -194,6 +260,7 @@ final class BazelJ2clBuilder extends BazelWorker {
                 .build())
         .setNativeSources(allNativeSources)
         .setClasspaths(getPathEntries(this.classPath))
+        .setInputDigestsByPath(getInputDigestsByPath())
         .setOutput(output)
         .setTargetLabel(targetLabel)
         .setLibraryInfoOutput(this.libraryInfoOutput)
@@ -209,6 +276,15 @@ final class BazelJ2clBuilder extends BazelWorker {
         .setNullMarkedSupported(this.enableJSpecifySupport)
         .setKotlincOptions(ImmutableList.copyOf(kotlincOptions))
         .setForbiddenAnnotations(ImmutableList.copyOf(forbiddenAnnotations))
+        .setPassParallelism(passParallelism)
+        .setParsingParallelism(parsingParallelism)
+        .setOutputParallelism(outputParallelism)
+        .setProfileOutput(profileOutput)
+        .setFuseLocalRewritePasses(fuseLocalRewritePasses)
+        .setVerifyPassFusion(verifyPassFusion)
+        .setStreamOutputs(streamOutputs)
+        .setCompilationUnitOutputCache(
+            incrementalOutputs ? CompilationUnitOutputCache.create() : null)
         .build(problems);
   }
 
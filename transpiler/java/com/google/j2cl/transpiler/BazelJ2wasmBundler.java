@@ -24,15 +24,17 @@ import static java.lang.String.format;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.SetMultimap;
-import com.google.common.collect.Streams;
 import com.google.common.io.Files;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourcePosition;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.bazel.BazelWorker;
 import com.google.j2cl.common.bazel.FileCache;
 import com.google.j2cl.transpiler.ast.AstUtils;
@@ -57,13 +59,17 @@ import com.google.j2cl.transpiler.backend.wasm.TypeInfo;
 import com.google.j2cl.transpiler.backend.wasm.WasmConstructsGenerator;
 import com.google.j2cl.transpiler.backend.wasm.WasmGenerationEnvironment;
 import com.google.j2cl.transpiler.backend.wasm.WasmGeneratorStage;
-import com.google.j2cl.transpiler.frontend.jdt.JdtEnvironment;
-import com.google.j2cl.transpiler.frontend.jdt.JdtParser;
+import com.google.j2cl.transpiler.frontend.jdt.WellKnownTypesCache;
 import com.google.j2cl.transpiler.passes.RewriteReferenceEqualityOperations;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -74,6 +80,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.MapOptionHandler;
@@ -84,12 +91,19 @@ final class BazelJ2wasmBundler extends BazelWorker {
   private static final int CACHE_SIZE =
       Integer.parseInt(System.getProperty("j2cl.bundler.cachesize", "5000"));
 
-  private static final FileCache<String> moduleContentsCache =
-      new FileCache<>(BazelJ2wasmBundler::readModule, CACHE_SIZE);
-
   private static final FileCache<Summary> summaryCache =
       new FileCache<>(BazelJ2wasmBundler::readSummary, CACHE_SIZE);
 
+  private static final int LINK_STATE_CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.bundler.linkstatecachesize", "4"));
+
+  /**
+   * The link state of the previous bundles by output. An entry is removed while the output is being
+   * bundled, so that concurrent requests for the same output do not share it.
+   */
+  private static final Cache<String, LinkState> linkStateByOutput =
+      CacheBuilder.newBuilder().maximumSize(LINK_STATE_CACHE_SIZE).build();
+
   @Argument(required = true, usage = "The list of modular output directories", multiValued = true)
   List<String> inputs = null;
 
@@ -117,77 +131,185 @@ final class BazelJ2wasmBundler extends BazelWorker {
   @Option(name = "-define", handler = MapOptionHandler.class, hidden = true)
   Map<String, String> defines = new HashMap<>();
 
+  @Option(
+      name = "-incremental",
+      usage = "Reuses the link state of the previous bundle of the same output.",
+      hidden = true)
+  boolean incremental = false;
+
   @Override
   protected void run(Problems problems) {
     createBundle(problems);
   }
 
   private void createBundle(Problems problems) {
-    emitModuleFile(problems);
-    emitJsImportsFile(problems);
+    summaries = loadSummaries();
+    LinkState previousLinkState =
+        incremental ? linkStateByOutput.asMap().remove(output.toString()) : null;
+    LinkState linkState = link(previousLinkState, problems);
+    emitModuleFile(linkState, problems);
+    emitJsImportsFile(linkState, problems);
+    if (incremental && !problems.hasErrors()) {
+      linkStateByOutput.put(output.toString(), linkState);
+    }
+  }
+
+  /**
+   * Links the summaries of the application.
+   *
+   * <p>The results of the previous bundle of the same output are reused for the parts that are
+   * computed from summary contents that did not change. A change in the type hierarchy, which might
+   * shift the itable layout of any type, relinks the types and the code synthesized from them.
+   */
+  private LinkState link(@Nullable LinkState previous, Problems problems) {
+    if (previous != null
+        && (!previous.classPath.equals(classPath)
+            || !previous.defines.equals(defines)
+            || previous.summaries.size() != summaries.size())) {
+      previous = null;
+    }
+
+    TypeGraph typeGraph =
+        isUnchanged(
+                previous,
+                s -> ImmutableList.of(s.getTypeNamesList(), s.getTypesList(), s.getInterfacesList()))
+            ? previous.typeGraph
+            : new TypeGraph(getSummaries());
+
+    SynthesizedCode synthesizedCode =
+        previous != null
+                && previous.typeGraph == typeGraph
+                && isUnchanged(
+                    previous,
+                    s -> ImmutableList.of(s.getStringLiteralsList(), s.getSystemPropertiesList()))
+            ? previous.synthesizedCode
+            : synthesizeCode(typeGraph, problems);
+
+    return new LinkState(
+        classPath,
+        ImmutableMap.copyOf(defines),
+        summaries,
+        typeGraph,
+        synthesizedCode,
+        isUnchanged(previous, Summary::getTypeSnippetsList)
+            ? previous.typeSnippets
+            : getDedupedSnippets(Summary::getTypeSnippetsList),
+        isUnchanged(previous, Summary::getWasmImportSnippetsList)
+            ? previous.wasmImportSnippets
+            : getDedupedSnippets(Summary::getWasmImportSnippetsList),
+        isUnchanged(previous, Summary::getGlobalSnippetsList)
+            ? previous.globalSnippets
+            : getDedupedSnippets(Summary::getGlobalSnippetsList),
+        isUnchanged(previous, Summary::getJsImportSnippetsList)
+            ? previous.jsImportSnippets
+            : getDedupedSnippets(Summary::getJsImportSnippetsList),
+        isUnchanged(previous, Summary::getJsImportRequiresList)
+            ? previous.jsImportRequires
+            : getSummaries()
+                .flatMap(s -> s.getJsImportRequiresList().stream())
+                .distinct()
+                .collect(toImmutableList()));
   }
 
-  private void emitModuleFile(Problems problems) {
-    var typeGraph = new TypeGraph(getSummaries());
+  /**
+   * Whether the contents of the summaries that are relevant to a part of the link state are the
+   * same as in the previous bundle. Summaries that were not reloaded are known to be unchanged, so
+   * only the contents of the reloaded ones are compared.
+   */
+  private boolean isUnchanged(@Nullable LinkState previous, Function<Summary, ?> contentsGetter) {
+    if (previous == null) {
+      return false;
+    }
+    for (int i = 0; i < summaries.size(); i++) {
+      Summary summary = summaries.get(i);
+      Summary previousSummary = previous.summaries.get(i);
+      if (summary != previousSummary
+          && !contentsGetter.apply(summary).equals(contentsGetter.apply(previousSummary))) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    // Create an environment to initialize the well known type descriptors to be able to synthesize
-    // code.
+  private SynthesizedCode synthesizeCode(TypeGraph typeGraph, Problems problems) {
+    // Initialize the well known type descriptors to be able to synthesize code; they are resolved
+    // only once per classpath by a persistent worker.
     // TODO(b/294284380): consider removing JDT and manually synthesizing required types.
     var classPathEntries = Splitter.on(File.pathSeparatorChar).splitToList(this.classPath);
-    new JdtEnvironment(
-        new JdtParser(classPathEntries, problems), TypeDescriptors.getWellKnownTypeNames());
-
-    var referencedSystemProperties =
-        getSummaries()
-            .flatMap(s -> s.getSystemPropertiesList().stream())
-            .collect(
-                toImmutableMap(
-                    SystemPropertyInfo::getPropertyKey,
-                    Function.identity(),
-                    // Properties might be referenced in many times, only some requiring a value;
-                    // keep properties that are required.
-                    (p1, p2) -> p1.getIsRequired() ? p1 : p2))
-            .values();
+    try (WellKnownTypesCache.Lease lease =
+        WellKnownTypesCache.initWellKnownTypes(classPathEntries, problems)) {
+      return synthesizeCode(typeGraph, getReferencedSystemProperties(), problems);
+    }
+  }
 
+  private SynthesizedCode synthesizeCode(
+      TypeGraph typeGraph,
+      Collection<SystemPropertyInfo> referencedSystemProperties,
+      Problems problems) {
     // Synthesize globals and methods for string literals.
     synthesizeStringLiteralGetters(referencedSystemProperties, problems);
 
     var generatorStage = new WasmGeneratorStage(library, problems);
 
-    Stream<String> literalGetterMethods =
+    String literalGlobals = generatorStage.emitToString(g -> g.emitGlobals(library));
+    String exceptionTag = generatorStage.emitToString(WasmConstructsGenerator::emitExceptionTag);
+    String itableInterfaceGetters =
+        typeGraph.getItableInterfaceGetters(generatorStage.getEnvironment());
+    ImmutableList<String> literalGetterMethods =
         compilationUnit.getTypes().stream()
             .flatMap(t -> t.getMethods().stream())
-            .map(m -> generatorStage.emitToString(g -> g.renderMethod(m)));
-
-    String literalGlobals = generatorStage.emitToString(g -> g.emitGlobals(library));
-
-    ImmutableList<String> moduleContents =
-        Streams.concat(
-                Stream.of("(module (rec"),
-                getModuleParts("types"),
-                streamDedupedValues(Summary::getTypeSnippetsList),
-                Stream.of(typeGraph.getTopLevelItableStructDeclaration()),
-                typeGraph.getClasses().stream().map(TypeGraph.Type::getItableStructDeclaration),
-                Stream.of(")"),
-                streamDedupedValues(Summary::getWasmImportSnippetsList),
-                getModuleParts("imports"),
-                Stream.of(generatorStage.emitToString(WasmConstructsGenerator::emitExceptionTag)),
-                getModuleParts("contents"),
-                streamDedupedValues(Summary::getGlobalSnippetsList),
-                Stream.of(typeGraph.getEmptyItableDeclaration()),
-                typeGraph.getClasses().stream().map(TypeGraph.Type::getItableInitialization),
-                Stream.of(literalGlobals),
-                literalGetterMethods,
-                Stream.of(typeGraph.getItableInterfaceGetters(generatorStage.getEnvironment())),
-                Stream.of(")"))
+            .map(m -> generatorStage.emitToString(g -> g.renderMethod(m)))
             .collect(toImmutableList());
 
-    writeToFile(output.toString(), moduleContents, problems);
+    return new SynthesizedCode(
+        literalGlobals, exceptionTag, itableInterfaceGetters, literalGetterMethods);
   }
 
-  private Stream<String> streamDedupedValues(
-      Function<Summary, Collection<SharedSnippet>> snippetGetter) {
-    return getDedupedSnippets(snippetGetter).values().stream();
+  private Collection<SystemPropertyInfo> getReferencedSystemProperties() {
+    return getSummaries()
+        .flatMap(s -> s.getSystemPropertiesList().stream())
+        .collect(
+            toImmutableMap(
+                SystemPropertyInfo::getPropertyKey,
+                Function.identity(),
+                // Properties might be referenced in many times, only some requiring a value;
+                // keep properties that are required.
+                (p1, p2) -> p1.getIsRequired() ? p1 : p2))
+        .values();
+  }
+
+  private void emitModuleFile(LinkState linkState, Problems problems) {
+    TypeGraph typeGraph = linkState.typeGraph;
+    SynthesizedCode synthesizedCode = linkState.synthesizedCode;
+
+    // The module is written part by part; the modular outputs are copied into the module file
+    // without being read, so that the memory needed does not grow with the size of the
+    // application.
+    try (ModuleWriter writer = new ModuleWriter(output)) {
+      writer.write("(module (rec");
+      writer.copy(getModuleParts("types"));
+      writer.write(linkState.typeSnippets.values());
+      writer.write(typeGraph.getTopLevelItableStructDeclaration());
+      for (TypeGraph.Type type : typeGraph.getClasses()) {
+        writer.write(type.getItableStructDeclaration());
+      }
+      writer.write(")");
+      writer.write(linkState.wasmImportSnippets.values());
+      writer.copy(getModuleParts("imports"));
+      writer.write(synthesizedCode.exceptionTag);
+      writer.copy(getModuleParts("contents"));
+      writer.write(linkState.globalSnippets.values());
+      writer.write(typeGraph.getEmptyItableDeclaration());
+      for (TypeGraph.Type type : typeGraph.getClasses()) {
+        writer.write(type.getItableInitialization());
+      }
+      writer.write(synthesizedCode.literalGlobals);
+      writer.write(synthesizedCode.literalGetterMethods);
+      writer.write(synthesizedCode.itableInterfaceGetters);
+      writer.write(")");
+    } catch (IOException e) {
+      problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
+    }
   }
 
   private ImmutableMap<String, String> getDedupedSnippets(
@@ -549,33 +671,97 @@ final class BazelJ2wasmBundler extends BazelWorker {
     }
   }
 
-  private void emitJsImportsFile(Problems problems) {
-    var requiredModules =
-        getSummaries()
-            .flatMap(s -> s.getJsImportRequiresList().stream())
-            .distinct()
-            .collect(toImmutableList());
-
-    var jsImportsContents = getDedupedSnippets(Summary::getJsImportSnippetsList);
-
+  private void emitJsImportsFile(LinkState linkState, Problems problems) {
     writeToFile(
         jsimportPath.toString(),
-        ImmutableList.of(JsImportsGenerator.generateOutputs(requiredModules, jsImportsContents)),
+        ImmutableList.of(
+            JsImportsGenerator.generateOutputs(
+                linkState.jsImportRequires, linkState.jsImportSnippets)),
         problems);
   }
 
-  private Stream<Summary> getSummaries() {
-    return inputs.stream()
+  /** The code synthesized at bundling time, rendered. */
+  private static final class SynthesizedCode {
+    private final String literalGlobals;
+    private final String exceptionTag;
+    private final String itableInterfaceGetters;
+    private final ImmutableList<String> literalGetterMethods;
+
+    private SynthesizedCode(
+        String literalGlobals,
+        String exceptionTag,
+        String itableInterfaceGetters,
+        ImmutableList<String> literalGetterMethods) {
+      this.literalGlobals = literalGlobals;
+      this.exceptionTag = exceptionTag;
+      this.itableInterfaceGetters = itableInterfaceGetters;
+      this.literalGetterMethods = literalGetterMethods;
+    }
+  }
+
+  /**
+   * The result of linking the summaries of an application, which is kept by the worker to relink
+   * the application incrementally.
+   */
+  private static final class LinkState {
+    private final String classPath;
+    private final ImmutableMap<String, String> defines;
+    private final ImmutableList<Summary> summaries;
+    private final TypeGraph typeGraph;
+    private final SynthesizedCode synthesizedCode;
+    private final ImmutableMap<String, String> typeSnippets;
+    private final ImmutableMap<String, String> wasmImportSnippets;
+    private final ImmutableMap<String, String> globalSnippets;
+    private final ImmutableMap<String, String> jsImportSnippets;
+    private final ImmutableList<String> jsImportRequires;
+
+    private LinkState(
+        String classPath,
+        ImmutableMap<String, String> defines,
+        ImmutableList<Summary> summaries,
+        TypeGraph typeGraph,
+        SynthesizedCode synthesizedCode,
+        ImmutableMap<String, String> typeSnippets,
+        ImmutableMap<String, String> wasmImportSnippets,
+        ImmutableMap<String, String> globalSnippets,
+        ImmutableMap<String, String> jsImportSnippets,
+        ImmutableList<String> jsImportRequires) {
+      this.classPath = classPath;
+      this.defines = defines;
+      this.summaries = summaries;
+      this.typeGraph = typeGraph;
+      this.synthesizedCode = synthesizedCode;
+      this.typeSnippets = typeSnippets;
+      this.wasmImportSnippets = wasmImportSnippets;
+      this.globalSnippets = globalSnippets;
+      this.jsImportSnippets = jsImportSnippets;
+      this.jsImportRequires = jsImportRequires;
+    }
+  }
+
+  /** The summaries of the inputs, loaded once per bundle. */
+  private ImmutableList<Summary> summaries;
+
+  /** Loads the summaries of all the inputs in parallel, keeping them in the order of the inputs. */
+  private ImmutableList<Summary> loadSummaries() {
+    // The common pool threads report their output to the same worker request as this thread.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    return inputs.parallelStream()
         .map(d -> format("%s/summary.binpb", d))
         .filter(n -> new File(n).exists())
-        .map(summaryCache::get);
+        .map(n -> snapshot.callWith(() -> summaryCache.get(n)))
+        .collect(toImmutableList());
+  }
+
+  private Stream<Summary> getSummaries() {
+    return summaries.stream();
   }
 
-  private Stream<String> getModuleParts(String name) {
+  private ImmutableList<Path> getModuleParts(String name) {
     return inputs.stream()
-        .map(d -> format("%s/%s.wat", d, name))
-        .filter(n -> new File(n).exists())
-        .map(BazelJ2wasmBundler.moduleContentsCache::get);
+        .map(d -> Path.of(format("%s/%s.wat", d, name)))
+        .filter(java.nio.file.Files::exists)
+        .collect(toImmutableList());
   }
 
   private static Summary readSummary(Path summaryPath) throws IOException {
@@ -584,10 +770,6 @@ final class BazelJ2wasmBundler extends BazelWorker {
     }
   }
 
-  private static String readModule(Path modulePath) throws IOException {
-    return java.nio.file.Files.readString(modulePath);
-  }
-
   private static void writeToFile(String filePath, List<String> contents, Problems problems) {
     try {
       Files.asCharSink(new File(filePath), UTF_8).writeLines(contents);
@@ -596,6 +778,54 @@ final class BazelJ2wasmBundler extends BazelWorker {
     }
   }
 
+  /** Writes the module file in order, one part per line. */
+  private static final class ModuleWriter implements Closeable {
+    private final FileChannel channel;
+    private final Writer writer;
+
+    private ModuleWriter(Path path) throws IOException {
+      this.channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+      this.writer = Channels.newWriter(channel, UTF_8);
+    }
+
+    private void write(String part) throws IOException {
+      writer.write(part);
+      writer.write(System.lineSeparator());
+    }
+
+    private void write(Collection<String> parts) throws IOException {
+      for (String part : parts) {
+        write(part);
+      }
+    }
+
+    /** Copies the contents of the files directly into the module file. */
+    private void copy(List<Path> parts) throws IOException {
+      for (Path part : parts) {
+        // Flush the pending text so that the copied contents are placed after it.
+        writer.flush();
+        try (FileChannel partChannel = FileChannel.open(part, StandardOpenOption.READ)) {
+          long size = partChannel.size();
+          for (long position = 0; position < size; ) {
+            position += partChannel.transferTo(position, size - position, channel);
+          }
+        }
+        writer.write(System.lineSeparator());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Also closes the channel.
+      writer.close();
+    }
+  }
+
   public static void main(String[] workerArgs) throws Exception {
     BazelWorker.start(workerArgs, BazelJ2wasmBundler::new);
   }
@@ -41,7 +41,6 @@ import java.net.URLClassLoader;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.kohsuke.args4j.Option;
 
@@ -83,15 +82,16 @@ final class BazelJ2wasmExportsGenerator extends BazelWorker {
       // Create a parser just to resolve binary names, with no sources to parse.
       // TODO(b/294284380): Make this independent of the frontend.
       JdtParser parser = new JdtParser(classPathEntries, problems);
-      Set<String> wellKnownTypeNames = TypeDescriptors.getWellKnownTypeNames();
-      binaryNames.addAll(wellKnownTypeNames);
+      binaryNames.addAll(TypeDescriptors.getWellKnownTypeNames());
+      // Resolve the well known types together with the exported ones in a single parse.
+      var resolvedBindings = parser.resolveBindings(binaryNames);
+      var environment = new JdtEnvironment(resolvedBindings);
       var bindings =
-          parser.resolveBindings(binaryNames).stream()
+          resolvedBindings.stream()
               // Methods in annotations can not be exported, and additionally the bindings might
               // not be complete and cannot be fully resolved to descriptors.
               .filter(not(ITypeBinding::isAnnotation))
               .collect(toImmutableList());
-      var environment = new JdtEnvironment(parser, wellKnownTypeNames);
 
       var typeDescriptors = environment.createDescriptorsFromBindings(bindings);
 
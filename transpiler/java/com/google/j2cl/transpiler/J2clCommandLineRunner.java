@@ -26,6 +26,7 @@ import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.SourceUtils;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import com.google.j2cl.transpiler.backend.Backend;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
 import com.google.j2cl.transpiler.frontend.Frontend;
 import java.io.File;
 import java.nio.file.Path;
@@ -36,6 +37,7 @@ import java.util.List;
 import java.util.Map;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
+import org.kohsuke.args4j.spi.ExplicitBooleanOptionHandler;
 import org.kohsuke.args4j.spi.MapOptionHandler;
 
 /** A javac-like command line driver for J2clTranspiler. */
@@ -63,7 +65,10 @@ public final class J2clCommandLineRunner extends CommandLineTool {
       usage = "Directory or zip into which to place compiled output.")
   Path output = Paths.get(".");
 
-  @Option(name = "-optimizeautovalue", usage = "Enables optimizations of AutoValue types.")
+  @Option(
+      name = "-optimizeautovalue",
+      handler = ExplicitBooleanOptionHandler.class,
+      usage = "Enables optimizations of AutoValue types, which is the default.")
   boolean optimizeAutoValue = true;
 
   @Option(
@@ -119,6 +124,62 @@ public final class J2clCommandLineRunner extends CommandLineTool {
   @Option(name = "-defineForWasm", handler = MapOptionHandler.class, hidden = true)
   Map<String, String> definesForWasm = new HashMap<>();
 
+  @Option(
+      name = "-passParallelism",
+      usage = "Number of threads used to run normalization passes over compilation units.",
+      hidden = true)
+  int passParallelism = 1;
+
+  @Option(
+      name = "-parsingParallelism",
+      usage = "Number of batches of sources that are parsed concurrently by the JDT frontend.",
+      hidden = true)
+  int parsingParallelism = 1;
+
+  @Option(
+      name = "-outputParallelism",
+      usage = "Number of threads used to generate the outputs of compilation units.",
+      hidden = true)
+  int outputParallelism = 1;
+
+  @Option(
+      name = "-profileOutput",
+      usage =
+          "Specifies the file into which to write a Chrome trace of the time and memory spent in"
+              + " each stage and pass; a summary table is written next to it.",
+      hidden = true)
+  Path profileOutput;
+
+  @Option(
+      name = "-fusePasses",
+      usage = "Runs consecutive local rewrite passes together in a single traversal of the AST.",
+      hidden = true)
+  boolean fuseLocalRewritePasses = false;
+
+  @Option(
+      name = "-verifyPassFusion",
+      usage =
+          "Transpiles with and without fusing local rewrite passes and reports an error if the"
+              + " outputs differ.",
+      hidden = true)
+  boolean verifyPassFusion = false;
+
+  @Option(
+      name = "-streamOutputs",
+      usage =
+          "Generates the outputs one compilation unit at a time once the passes that need the"
+              + " whole library have run, releasing each unit right after.",
+      hidden = true)
+  boolean streamOutputs = false;
+
+  @Option(
+      name = "-incrementalOutputs",
+      usage =
+          "Reuses the outputs generated for the compilation units whose sources and dependencies"
+              + " did not change since a previous compilation in the same process.",
+      hidden = true)
+  boolean incrementalOutputs = false;
+
   private J2clCommandLineRunner() {
     super("j2cl");
   }
@@ -140,7 +201,8 @@ public final class J2clCommandLineRunner extends CommandLineTool {
     }
 
     ImmutableList<FileInfo> allSources =
-        SourceUtils.getAllSources(this.files, problems).collect(toImmutableList());
+        SourceUtils.getAllSources(this.files, frontEnd.supportsSourcesInArchives(), problems)
+            .collect(toImmutableList());
 
     ImmutableList<FileInfo> allJavaSources =
         allSources.stream()
@@ -175,6 +237,15 @@ public final class J2clCommandLineRunner extends CommandLineTool {
         .setWasmEntryPointStrings(ImmutableList.copyOf(wasmEntryPoints))
         .setDefinesForWasm(ImmutableMap.copyOf(definesForWasm))
         .setForbiddenAnnotations(ImmutableList.copyOf(forbiddenAnnotations))
+        .setPassParallelism(passParallelism)
+        .setParsingParallelism(parsingParallelism)
+        .setOutputParallelism(outputParallelism)
+        .setProfileOutput(profileOutput)
+        .setFuseLocalRewritePasses(fuseLocalRewritePasses)
+        .setVerifyPassFusion(verifyPassFusion)
+        .setStreamOutputs(streamOutputs)
+        .setCompilationUnitOutputCache(
+            incrementalOutputs ? CompilationUnitOutputCache.create() : null)
         .build(problems);
   }
 
@@ -13,34 +13,115 @@
  */
 package com.google.j2cl.transpiler;
 
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.j2cl.common.OutputUtils.InMemoryOutput;
 import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SourceUtils;
+import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.TransferableThreadLocal;
+import com.google.j2cl.common.ZipFiles;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.ast.MemberDescriptor;
 import com.google.j2cl.transpiler.ast.MethodDescriptor;
+import com.google.j2cl.transpiler.ast.SpecializationCache;
 import com.google.j2cl.transpiler.ast.TypeDeclaration;
+import com.google.j2cl.transpiler.backend.CompilationUnitOutputGenerator;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
 import com.google.j2cl.transpiler.passes.LibraryNormalizationPass;
+import com.google.j2cl.transpiler.passes.LocalRewritePass;
 import com.google.j2cl.transpiler.passes.NormalizationPass;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /** Translation tool for generating JavaScript source files from Java sources. */
 class J2clTranspiler {
 
   /** Runs the entire J2CL pipeline. */
   static void transpile(J2clTranspilerOptions options, Problems problems) {
+    if (options.getVerifyPassFusion()) {
+      transpileAndVerifyPassFusion(options, problems);
+      return;
+    }
+    transpileOnNewThread(options, problems);
+  }
+
+  /**
+   * Runs the pipeline with and without fusing local rewrite passes, reports the outputs that differ
+   * and writes the output of the fused run.
+   */
+  private static void transpileAndVerifyPassFusion(
+      J2clTranspilerOptions options, Problems problems) {
+    Problems unfusedProblems = new Problems();
+    InMemoryOutput unfusedOutput = new InMemoryOutput(unfusedProblems);
+    try {
+      transpileOnNewThread(
+          options.toBuilder()
+              .setOutput(unfusedOutput)
+              .setProfileOutput(null)
+              .setFuseLocalRewritePasses(false)
+              .setVerifyPassFusion(false)
+              .setCompilationUnitOutputCache(null)
+              .build(unfusedProblems),
+          unfusedProblems);
+    } catch (Problems.Exit e) {
+      // The errors are reported by the fused run as well.
+    } finally {
+      unfusedOutput.close();
+    }
+
+    InMemoryOutput fusedOutput = new InMemoryOutput(problems);
+    try {
+      transpileOnNewThread(
+          options.toBuilder()
+              .setOutput(fusedOutput)
+              .setFuseLocalRewritePasses(true)
+              .setVerifyPassFusion(false)
+              .build(problems),
+          problems);
+    } finally {
+      fusedOutput.close();
+    }
+
+    if (!unfusedProblems.hasErrors()) {
+      for (String path : fusedOutput.getDifferingPaths(unfusedOutput)) {
+        problems.error("Fusing local rewrite passes changed the output '%s'.", path);
+      }
+    }
+    fusedOutput.writeTo(options.getOutput());
+  }
+
+  private static void transpileOnNewThread(J2clTranspilerOptions options, Problems problems) {
     // Compiler has no static state, but rather uses thread local variables.
-    // Because of this, we invoke the compiler on a different thread each time.
+    // Because of this, we invoke the compiler on a different thread each time. The snapshot
+    // carries only the context of the calling thread, e.g. the output of the worker request, and
+    // not the state of a compilation that might have run on it.
     ExecutorService executorService = Executors.newSingleThreadExecutor();
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.captureContext();
     Future<?> result =
-        executorService.submit(() -> new J2clTranspiler(options, problems).transpileImpl());
+        executorService.submit(
+            () -> snapshot.runWith(() -> new J2clTranspiler(options, problems).transpileImpl()));
     // Shutdown the executor service since it will only run a single transpilation. If not shutdown
     // it prevents the JVM from ending the process (see Executors.newFixedThreadPool()). This is not
     // normally observed since the transpiler in normal circumstances ends with System.exit() which
@@ -59,13 +140,28 @@ class J2clTranspiler {
 
   private final J2clTranspilerOptions options;
   private final Problems problems;
+  private final TranspilerProfiler profiler;
 
   private J2clTranspiler(J2clTranspilerOptions options, Problems problems) {
     this.options = options;
     this.problems = problems;
+    this.profiler = TranspilerProfiler.create(options.getProfileOutput());
   }
 
   private void transpileImpl() {
+    // Entries of the source archives are read by many stages, e.g. for native sources and source
+    // maps; each archive is opened once for the whole compilation.
+    try (ZipFiles.OpenArchives openArchives = ZipFiles.openArchives()) {
+      transpileStages();
+    } finally {
+      options.getFrontend().release();
+      profiler.recordCounter("specialization cache hits", SpecializationCache.getHitCount());
+      profiler.recordCounter("specialization cache misses", SpecializationCache.getMissCount());
+      profiler.write(problems);
+    }
+  }
+
+  private void transpileStages() {
     if (options.getBackend().isWasm()) {
       // TODO(b/178738483): Remove hack that makes mangling backend dependent.
       TypeDeclaration.setImplementWasmJsEnumSemantics();
@@ -80,45 +176,248 @@ class J2clTranspiler {
       MemberDescriptor.setClosureManglingPatterns();
     }
 
-    Library library = options.getFrontend().parse(options, problems);
+    Library library;
+    try (TranspilerProfiler.Scope scope = profiler.start(TranspilerProfiler.STAGE, "parse")) {
+      library = options.getFrontend().parse(options, problems);
+    }
     problems.abortIfHasErrors();
+    CompilationUnitOutputGenerator outputGenerator =
+        options.getStreamOutputs()
+            ? options.getBackend().createCompilationUnitOutputGenerator(options, problems)
+            : null;
     if (!library.isEmpty()) {
+      lookUpCachedOutputs(library);
       desugarLibrary(library);
       checkLibrary(library);
-      normalizeLibrary(library);
     }
-    options.getBackend().generateOutputs(options, library, problems);
+    if (outputGenerator != null) {
+      normalizeAndGenerateOutputsPerCompilationUnit(library, outputGenerator);
+    } else {
+      if (!library.isEmpty()) {
+        normalizeLibrary(library);
+      }
+      try (TranspilerProfiler.Scope scope =
+          profiler.start(TranspilerProfiler.STAGE, "generateOutputs")) {
+        options.getBackend().generateOutputs(options, library, problems);
+      }
+    }
 
     // Now we are done, release resources from the frontend if needed.
     library.dispose();
   }
 
+  /**
+   * Looks up the outputs that previous compilations generated for the compilation units of the
+   * library, so that those units are not normalized nor generated again.
+   */
+  private void lookUpCachedOutputs(Library library) {
+    CompilationUnitOutputCache outputCache = options.getCompilationUnitOutputCache();
+    if (outputCache == null
+        || !options.getFrontend().isJavaFrontend()
+        || !options.getBackend().canReuseCompilationUnitOutputs(options)) {
+      return;
+    }
+    try (TranspilerProfiler.Scope scope =
+        profiler.start(TranspilerProfiler.STAGE, "lookUpCachedOutputs")) {
+      String environmentDigest = computeEnvironmentDigest();
+      if (environmentDigest != null) {
+        // The keys are computed before desugaring, while method bodies have their source
+        // positions.
+        outputCache.lookUp(library, environmentDigest, options.getSources());
+        profiler.recordCounter("compilation unit output cache hits", outputCache.getHitCount());
+        profiler.recordCounter(
+            "compilation unit output cache misses", outputCache.getMissCount());
+      }
+    }
+  }
+
+  /**
+   * Returns the digest of all the inputs other than the sources of the library that determine its
+   * output, or null if it cannot be computed.
+   */
+  @Nullable
+  private String computeEnvironmentDigest() {
+    Hasher hasher = Hashing.sha256().newHasher();
+    putStrings(
+        hasher,
+        options.getFrontend().name(),
+        options.getBackend().name(),
+        String.valueOf(options.getTargetLabel()),
+        String.valueOf(options.isNullMarkedSupported()),
+        String.valueOf(options.getOptimizeAutoValue()),
+        String.valueOf(options.getLibraryInfoOutput() != null),
+        String.valueOf(options.getEmitReadableLibraryInfo()),
+        String.valueOf(options.getEmitReadableSourceMap()),
+        String.valueOf(options.getSourceMappingPathPrefix()),
+        String.valueOf(options.getGenerateKytheIndexingMetadata()),
+        String.valueOf(options.getForbiddenAnnotations()));
+
+    try {
+      for (String classpathEntry : options.getClasspaths()) {
+        String digest = options.getInputDigestsByPath().get(classpathEntry);
+        if (digest == null) {
+          BasicFileAttributes attributes =
+              Files.readAttributes(Paths.get(classpathEntry), BasicFileAttributes.class);
+          digest = attributes.size() + ":" + attributes.lastModifiedTime();
+        }
+        putStrings(hasher, classpathEntry, digest);
+      }
+
+      // Native sources are included in the outputs of the units and package-info files determine
+      // the namespace of all the types in their package.
+      for (FileInfo fileInfo :
+          Iterables.concat(
+              options.getNativeSources(),
+              Iterables.filter(
+                  options.getSources(), f -> f.sourcePath().endsWith("package-info.java")))) {
+        String digest = options.getInputDigestsByPath().get(fileInfo.sourcePath());
+        if (digest == null) {
+          digest =
+              SourceUtils.asByteSource(fileInfo.sourcePath()).hash(Hashing.sha256()).toString();
+        }
+        // Sources from archives are extracted to a different directory every time, so only their
+        // target path identifies them across compilations.
+        putStrings(hasher, fileInfo.targetPath(), digest);
+      }
+    } catch (IOException e) {
+      // Let the frontend or the backend report the problem if the input is needed at all.
+      return null;
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void putStrings(Hasher hasher, String... strings) {
+    for (String string : strings) {
+      hasher.putString(string, UTF_8).putByte((byte) 0);
+    }
+  }
+
   private void desugarLibrary(Library library) {
-    runPasses(library, options.getBackend().getDesugaringPassFactories());
+    try (TranspilerProfiler.Scope scope = profiler.start(TranspilerProfiler.STAGE, "desugar")) {
+      runPasses(library, getPassFactories(options.getBackend().getDesugaringPassFactories()));
+    }
   }
 
   private void checkLibrary(Library library) {
-    // Check backend-specific restrictions.
-    options.getBackend().checkRestrictions(options, library, problems);
+    try (TranspilerProfiler.Scope scope =
+        profiler.start(TranspilerProfiler.STAGE, "checkRestrictions")) {
+      // Check backend-specific restrictions.
+      options.getBackend().checkRestrictions(options, library, problems);
+    }
 
     problems.abortIfHasErrors();
   }
 
   private void normalizeLibrary(Library library) {
-    runPasses(library, options.getBackend().getPassFactories(options));
+    try (TranspilerProfiler.Scope scope = profiler.start(TranspilerProfiler.STAGE, "normalize")) {
+      runPasses(
+          getLibraryToNormalize(library),
+          getPassFactories(options.getBackend().getPassFactories(options)));
+    }
+  }
+
+  /**
+   * Normalizes the library up to the last pass that needs the whole library and then finishes
+   * normalizing and generates the outputs one compilation unit at a time, releasing each unit as
+   * soon as its outputs are generated.
+   *
+   * <p>This keeps only one fully normalized unit and its generated outputs alive at a time, instead
+   * of the whole normalized library.
+   */
+  private void normalizeAndGenerateOutputsPerCompilationUnit(
+      Library library, CompilationUnitOutputGenerator outputGenerator) {
+    ImmutableList<Supplier<NormalizationPass>> passFactories =
+        getPassFactories(options.getBackend().getPassFactories(options));
+    int lastLibraryPassIndex = -1;
+    for (int i = 0; i < passFactories.size(); i++) {
+      if (LibraryNormalizationPass.isLibraryPassFactory(passFactories.get(i))) {
+        lastLibraryPassIndex = i;
+      }
+    }
+    ImmutableList<Supplier<NormalizationPass>> unitPassFactories =
+        passFactories.subList(lastLibraryPassIndex + 1, passFactories.size());
+
+    Set<CompilationUnit> compilationUnitsToNormalize = Sets.newIdentityHashSet();
+    compilationUnitsToNormalize.addAll(getLibraryToNormalize(library).getCompilationUnits());
+    if (!library.isEmpty()) {
+      try (TranspilerProfiler.Scope scope =
+          profiler.start(TranspilerProfiler.STAGE, "normalize")) {
+        runPasses(
+            getLibraryToNormalize(library), passFactories.subList(0, lastLibraryPassIndex + 1));
+      }
+    }
+
+    // Take the units out of the library so that each one can be collected once generated.
+    Deque<CompilationUnit> pendingCompilationUnits =
+        new ArrayDeque<>(library.removeCompilationUnits());
+    try (TranspilerProfiler.Scope scope =
+        profiler.start(TranspilerProfiler.STAGE, "normalizeAndGenerateOutputs")) {
+      while (!pendingCompilationUnits.isEmpty()) {
+        CompilationUnit compilationUnit = pendingCompilationUnits.remove();
+        if (compilationUnitsToNormalize.remove(compilationUnit)) {
+          for (Supplier<NormalizationPass> passFactory : unitPassFactories) {
+            NormalizationPass pass = instantiateUnitPass(passFactory);
+            try (TranspilerProfiler.Scope passScope =
+                    profiler.start(TranspilerProfiler.PASS, pass.getClass().getSimpleName());
+                TranspilerProfiler.Scope unitScope =
+                    profiler.start(TranspilerProfiler.UNIT, compilationUnit.getFilePath())) {
+              pass.execute(compilationUnit);
+            }
+            problems.abortIfHasErrors();
+          }
+        }
+        outputGenerator.generateOutputs(compilationUnit);
+      }
+      outputGenerator.finishOutputs();
+    }
+  }
+
+  /** Returns the library with the units whose outputs need to be generated. */
+  private Library getLibraryToNormalize(Library library) {
+    CompilationUnitOutputCache outputCache = options.getCompilationUnitOutputCache();
+    if (outputCache == null) {
+      return library;
+    }
+    // The outputs of the cached units are not generated again, so there is no need to normalize
+    // them.
+    return Library.Builder.from(library)
+        .setCompilationUnits(outputCache.getCompilationUnitsToGenerate(library))
+        .build();
+  }
+
+  private ImmutableList<Supplier<NormalizationPass>> getPassFactories(
+      ImmutableList<Supplier<NormalizationPass>> passFactories) {
+    return options.getFuseLocalRewritePasses()
+        ? LocalRewritePass.fuseConsecutivePasses(passFactories)
+        : passFactories;
   }
 
   private void runPasses(
       Library library, ImmutableList<Supplier<NormalizationPass>> passFactories) {
+    if (options.getPassParallelism() > 1) {
+      new ParallelPassRunner(problems, options.getPassParallelism(), profiler)
+          .runPasses(library, passFactories);
+      return;
+    }
+
     for (Supplier<NormalizationPass> passFactory : passFactories) {
-      NormalizationPass pass = instantiatePass(passFactory);
-      if (pass instanceof LibraryNormalizationPass) {
-        ((LibraryNormalizationPass) pass).execute(library);
+      if (LibraryNormalizationPass.isLibraryPassFactory(passFactory)) {
+        LibraryNormalizationPass pass = (LibraryNormalizationPass) instantiatePass(passFactory);
+        try (TranspilerProfiler.Scope passScope =
+            profiler.start(TranspilerProfiler.PASS, pass.getClass().getSimpleName())) {
+          pass.execute(library);
+        }
         problems.abortIfHasErrors();
         continue;
       }
-      for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
-        instantiatePass(passFactory).execute(compilationUnit);
+      try (TranspilerProfiler.Scope passScope =
+          profiler.start(TranspilerProfiler.PASS, () -> getPassName(passFactory))) {
+        for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+          try (TranspilerProfiler.Scope unitScope =
+              profiler.start(TranspilerProfiler.UNIT, compilationUnit.getFilePath())) {
+            instantiateUnitPass(passFactory).execute(compilationUnit);
+          }
+        }
       }
       problems.abortIfHasErrors();
     }
@@ -129,4 +428,26 @@ class J2clTranspiler {
     pass.setProblems(problems);
     return pass;
   }
+
+  private NormalizationPass instantiateUnitPass(Supplier<NormalizationPass> passFactory) {
+    NormalizationPass pass = instantiatePass(passFactory);
+    checkUnitPass(pass);
+    return pass;
+  }
+
+  /**
+   * Checks that a pass scheduled to run on each unit is not a library pass whose factory was not
+   * created through {@link LibraryNormalizationPass#factory}.
+   */
+  static void checkUnitPass(NormalizationPass pass) {
+    checkState(
+        !(pass instanceof LibraryNormalizationPass),
+        "The factory of %s is not created through LibraryNormalizationPass.factory",
+        pass.getClass().getSimpleName());
+  }
+
+  /** Returns the name of the passes created by {@code passFactory} for profiling. */
+  static String getPassName(Supplier<NormalizationPass> passFactory) {
+    return passFactory.get().getClass().getSimpleName();
+  }
 }
@@ -27,6 +27,7 @@ import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import com.google.j2cl.transpiler.backend.Backend;
 import com.google.j2cl.transpiler.backend.BackendOptions;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
 import com.google.j2cl.transpiler.frontend.Frontend;
 import com.google.j2cl.transpiler.frontend.common.FrontendOptions;
 import java.nio.file.Path;
@@ -44,9 +45,68 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
   public static Builder newBuilder() {
     return new AutoValue_J2clTranspilerOptions.Builder()
         .setOptimizeAutoValue(false)
-        .setNullMarkedSupported(false);
+        .setNullMarkedSupported(false)
+        .setPassParallelism(1)
+        .setParsingParallelism(1)
+        .setOutputParallelism(1)
+        .setFuseLocalRewritePasses(false)
+        .setVerifyPassFusion(false)
+        .setStreamOutputs(false)
+        .setInputDigestsByPath(ImmutableMap.of());
   }
 
+  /**
+   * The number of threads used to run normalization passes over compilation units; 1 runs all
+   * passes on the transpiler thread.
+   */
+  public abstract int getPassParallelism();
+
+  /**
+   * The number of batches of sources that the JDT frontend parses concurrently; 1 parses all the
+   * sources together.
+   */
+  @Override
+  public abstract int getParsingParallelism();
+
+  /**
+   * The number of threads used to generate the outputs of compilation units; 1 generates all the
+   * outputs on the transpiler thread.
+   */
+  @Override
+  public abstract int getOutputParallelism();
+
+  /**
+   * The file into which a trace of the time and memory spent in each stage and pass is written, or
+   * null if the transpiler is not profiled.
+   */
+  @Nullable
+  public abstract Path getProfileOutput();
+
+  /** Whether consecutive local rewrite passes are run together in a single traversal. */
+  public abstract boolean getFuseLocalRewritePasses();
+
+  /**
+   * Whether the library is transpiled both with and without fusing local rewrite passes to check
+   * that the outputs are identical.
+   */
+  public abstract boolean getVerifyPassFusion();
+
+  /**
+   * Whether the outputs are generated one compilation unit at a time once the passes that need the
+   * whole library have run, releasing each unit right after its outputs are generated.
+   */
+  public abstract boolean getStreamOutputs();
+
+  /**
+   * The cache of the outputs of the compilation units from previous compilations, or null if the
+   * outputs are not cached.
+   */
+  @Override
+  @Nullable
+  public abstract CompilationUnitOutputCache getCompilationUnitOutputCache();
+
+  abstract Builder toBuilder();
+
   @Override
   @Nullable
   public abstract ImmutableList<EntryPointPattern> getWasmEntryPointPatterns();
@@ -64,6 +124,8 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
 
     public abstract Builder setClasspaths(List<String> entries);
 
+    public abstract Builder setInputDigestsByPath(ImmutableMap<String, String> digestsByPath);
+
     public abstract Builder setOutput(Output output);
 
     public abstract Builder setTargetLabel(String targetLabel);
@@ -99,6 +161,23 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
 
     public abstract Builder setForbiddenAnnotations(ImmutableList<String> forbiddenAnnotations);
 
+    public abstract Builder setPassParallelism(int passParallelism);
+
+    public abstract Builder setParsingParallelism(int parsingParallelism);
+
+    public abstract Builder setOutputParallelism(int outputParallelism);
+
+    public abstract Builder setProfileOutput(@Nullable Path path);
+
+    public abstract Builder setFuseLocalRewritePasses(boolean b);
+
+    public abstract Builder setVerifyPassFusion(boolean b);
+
+    public abstract Builder setStreamOutputs(boolean b);
+
+    public abstract Builder setCompilationUnitOutputCache(
+        @Nullable CompilationUnitOutputCache compilationUnitOutputCache);
+
     abstract J2clTranspilerOptions autoBuild();
 
     public J2clTranspilerOptions build(Problems problems) {
@@ -112,6 +191,15 @@ public abstract class J2clTranspilerOptions implements FrontendOptions, BackendO
               entryPointPattern.getEntryPointPatternString());
         }
       }
+      if (options.getPassParallelism() < 1) {
+        problems.error("Invalid pass parallelism '%d'.", options.getPassParallelism());
+      }
+      if (options.getParsingParallelism() < 1) {
+        problems.error("Invalid parsing parallelism '%d'.", options.getParsingParallelism());
+      }
+      if (options.getOutputParallelism() < 1) {
+        problems.error("Invalid output parallelism '%d'.", options.getOutputParallelism());
+      }
       problems.abortIfHasErrors();
 
       checkState(
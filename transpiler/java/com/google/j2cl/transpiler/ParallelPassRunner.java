@@ -0,0 +1,161 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.TransferableThreadLocal;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.LazyDescriptorResolver;
+import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.passes.LibraryNormalizationPass;
+import com.google.j2cl.transpiler.passes.NormalizationPass;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Runs normalization passes over the compilation units of a library using a bounded pool of
+ * threads.
+ *
+ * <p>Passes run one after the other as in a sequential run. Passes that only operate on a single
+ * compilation unit are run on all units concurrently; library passes run on the calling thread.
+ * Problems reported while processing each unit are buffered and merged in the same order they would
+ * have been reported in a sequential run, so that the output is deterministic. Each pass is
+ * profiled as a single measurement that includes the work done for it in the pool threads, as in a
+ * sequential run.
+ *
+ * <p>Descriptors created by the frontend are resolved eagerly on the calling thread before any pass
+ * runs concurrently since their lazy properties are backed by frontend state that is not thread
+ * safe.
+ */
+final class ParallelPassRunner {
+  private final Problems problems;
+  private final int parallelism;
+  private final TranspilerProfiler profiler;
+
+  ParallelPassRunner(Problems problems, int parallelism, TranspilerProfiler profiler) {
+    this.problems = problems;
+    this.parallelism = parallelism;
+    this.profiler = profiler;
+  }
+
+  void runPasses(Library library, ImmutableList<Supplier<NormalizationPass>> passFactories) {
+    try (TranspilerProfiler.Scope scope =
+        profiler.start(TranspilerProfiler.STAGE, "resolveLazyDescriptors")) {
+      LazyDescriptorResolver.resolveReachableDescriptors(library);
+    }
+
+    ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+    try {
+      for (Supplier<NormalizationPass> passFactory : passFactories) {
+        if (LibraryNormalizationPass.isLibraryPassFactory(passFactory)) {
+          LibraryNormalizationPass pass = (LibraryNormalizationPass) passFactory.get();
+          pass.setProblems(problems);
+          try (TranspilerProfiler.Scope passScope =
+              profiler.start(TranspilerProfiler.PASS, pass.getClass().getSimpleName())) {
+            pass.execute(library);
+          }
+        } else {
+          try (TranspilerProfiler.Scope passScope =
+              profiler.start(
+                  TranspilerProfiler.PASS, () -> J2clTranspiler.getPassName(passFactory))) {
+            runUnitPass(executorService, library, passFactory, passScope);
+          }
+        }
+        problems.abortIfHasErrors();
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /** Runs a pass that does not require synchronization between compilation units on all units. */
+  private void runUnitPass(
+      ExecutorService executorService,
+      Library library,
+      Supplier<NormalizationPass> passFactory,
+      TranspilerProfiler.Scope passScope) {
+    // The pool threads need to see the same compilation state as the transpiler thread.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    List<CompilationUnit> compilationUnits = library.getCompilationUnits();
+    // Problems reported on each unit, only allocated for the units that got any.
+    Problems[] problemsByUnit = new Problems[compilationUnits.size()];
+
+    List<Future<?>> results = new ArrayList<>();
+    for (int i = 0; i < compilationUnits.size(); i++) {
+      CompilationUnit compilationUnit = compilationUnits.get(i);
+      int unitIndex = i;
+      results.add(
+          executorService.submit(
+              () ->
+                  snapshot.runWith(
+                      () ->
+                          runUnitPass(
+                              compilationUnit,
+                              passFactory,
+                              passScope,
+                              problemsByUnit,
+                              unitIndex))));
+    }
+
+    for (Future<?> result : results) {
+      try {
+        Uninterruptibles.getUninterruptibly(result);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof Problems.Exit) {
+          // A fatal problem was reported by the pass; it is buffered and reported below.
+          continue;
+        }
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new AssertionError(e.getCause());
+      }
+    }
+
+    // Report the problems as if the pass had been run on one unit after the other.
+    for (Problems unitProblems : problemsByUnit) {
+      if (unitProblems != null) {
+        problems.addAll(unitProblems);
+      }
+    }
+  }
+
+  private void runUnitPass(
+      CompilationUnit compilationUnit,
+      Supplier<NormalizationPass> passFactory,
+      TranspilerProfiler.Scope passScope,
+      Problems[] problemsByUnit,
+      int unitIndex) {
+    Problems unitProblems = new Problems();
+    NormalizationPass pass = passFactory.get();
+    J2clTranspiler.checkUnitPass(pass);
+    pass.setProblems(unitProblems);
+    try (TranspilerProfiler.Scope unitScope =
+        profiler.startInHelperThread(
+            passScope, TranspilerProfiler.UNIT, compilationUnit.getFilePath())) {
+      pass.execute(compilationUnit);
+    } finally {
+      // Keep the problems even if the pass aborted with a fatal error so that they are reported.
+      if (unitProblems.hasProblems()) {
+        problemsByUnit[unitIndex] = unitProblems;
+      }
+    }
+  }
+}
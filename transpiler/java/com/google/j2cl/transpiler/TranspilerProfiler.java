@@ -0,0 +1,310 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.j2cl.common.Problems;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Records wall time, CPU time and allocated bytes for the stages of the transpiler, the passes and
+ * the compilation units they process.
+ *
+ * <p>The measurements are written as a Chrome trace event file, that can be loaded in
+ * chrome://tracing or Perfetto, and as a summary table next to it. The summary also lists the
+ * counters recorded during the compilation, e.g. the effectiveness of internal caches.
+ */
+final class TranspilerProfiler {
+  static final String STAGE = "stage";
+  static final String PASS = "pass";
+  static final String UNIT = "unit";
+
+  private static final TranspilerProfiler DISABLED = new TranspilerProfiler(null);
+  private static final Scope DISABLED_SCOPE = DISABLED.new Scope(null, null, null);
+
+  private final Path output;
+  private final long startNanos = System.nanoTime();
+  private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+  private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<>();
+  private final Map<String, Long> counterValueByName = new LinkedHashMap<>();
+
+  /** Returns a profiler that writes to {@code output}, or does nothing if it is null. */
+  static TranspilerProfiler create(@Nullable Path output) {
+    return output == null ? DISABLED : new TranspilerProfiler(output);
+  }
+
+  private TranspilerProfiler(@Nullable Path output) {
+    this.output = output;
+  }
+
+  /** Starts measuring; the measurement is recorded when the returned scope is closed. */
+  Scope start(String category, String name) {
+    return output == null ? DISABLED_SCOPE : new Scope(category, name, null);
+  }
+
+  /** Like {@link #start(String, String)} but only computes the name if profiling is enabled. */
+  Scope start(String category, Supplier<String> nameSupplier) {
+    return output == null ? DISABLED_SCOPE : new Scope(category, nameSupplier.get(), null);
+  }
+
+  /**
+   * Starts measuring work that a helper thread does on behalf of {@code parent}, which was started
+   * in another thread. The CPU time and the allocations are also added to {@code parent} when the
+   * returned scope is closed, so that they are accounted for as if the work was done in its
+   * thread.
+   */
+  Scope startInHelperThread(Scope parent, String category, String name) {
+    return output == null ? DISABLED_SCOPE : new Scope(category, name, parent);
+  }
+
+  /** Records the value of a counter to be reported in the summary. */
+  void recordCounter(String name, long value) {
+    if (output == null) {
+      return;
+    }
+    counterValueByName.put(name, value);
+  }
+
+  /** A measurement in progress. */
+  final class Scope implements AutoCloseable {
+    private final String category;
+    private final String name;
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final long startAllocatedBytes;
+    @Nullable private final Scope parent;
+    private final AtomicLong helperCpuNanos = new AtomicLong();
+    private final AtomicLong helperAllocatedBytes = new AtomicLong();
+
+    private Scope(String category, String name, @Nullable Scope parent) {
+      this.category = category;
+      this.name = name;
+      this.parent = parent;
+      if (category == null) {
+        this.startNanos = 0;
+        this.startCpuNanos = 0;
+        this.startAllocatedBytes = 0;
+        return;
+      }
+      this.startNanos = System.nanoTime();
+      this.startCpuNanos = getCurrentThreadCpuNanos();
+      this.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+    }
+
+    @Override
+    public void close() {
+      if (category == null) {
+        return;
+      }
+      long cpuNanos = getCurrentThreadCpuNanos() - startCpuNanos;
+      long allocatedBytes = getCurrentThreadAllocatedBytes() - startAllocatedBytes;
+      events.add(
+          new Event(
+              category,
+              name,
+              Thread.currentThread().getId(),
+              startNanos - TranspilerProfiler.this.startNanos,
+              System.nanoTime() - startNanos,
+              cpuNanos + helperCpuNanos.get(),
+              allocatedBytes + helperAllocatedBytes.get()));
+      if (parent != null) {
+        parent.helperCpuNanos.addAndGet(cpuNanos);
+        parent.helperAllocatedBytes.addAndGet(allocatedBytes);
+      }
+    }
+  }
+
+  private long getCurrentThreadCpuNanos() {
+    return threadMXBean.isCurrentThreadCpuTimeSupported()
+        ? threadMXBean.getCurrentThreadCpuTime()
+        : 0;
+  }
+
+  private long getCurrentThreadAllocatedBytes() {
+    if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threadMXBean)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  /** Writes the trace and the summary if profiling is enabled. */
+  void write(Problems problems) {
+    if (output == null) {
+      return;
+    }
+    List<Event> sortedEvents = new ArrayList<>(events);
+    sortedEvents.sort(Comparator.comparingLong((Event e) -> e.startNanos));
+    Path summaryOutput = output.resolveSibling(output.getFileName() + ".summary.txt");
+    try {
+      writeTrace(sortedEvents);
+      writeSummary(sortedEvents, counterValueByName, summaryOutput);
+    } catch (IOException e) {
+      problems.warning("Cannot write profile: %s", e.toString());
+    }
+  }
+
+  private void writeTrace(List<Event> sortedEvents) throws IOException {
+    try (BufferedWriter writer = Files.newBufferedWriter(output, UTF_8)) {
+      writer.append("{\"traceEvents\":[");
+      String separator = "\n";
+      for (Event event : sortedEvents) {
+        writer
+            .append(separator)
+            .append(
+                String.format(
+                    Locale.US,
+                    "{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,"
+                        + "\"ts\":%.3f,\"dur\":%.3f,"
+                        + "\"args\":{\"cpuMs\":%.3f,\"allocatedBytes\":%d}}",
+                    escape(event.name),
+                    event.category,
+                    event.threadId,
+                    event.startNanos / 1e3,
+                    event.wallNanos / 1e3,
+                    event.cpuNanos / 1e6,
+                    event.allocatedBytes));
+        separator = ",\n";
+      }
+      writer.append("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+  }
+
+  private static void writeSummary(
+      List<Event> sortedEvents, Map<String, Long> counterValueByName, Path summaryOutput)
+      throws IOException {
+    // Aggregate by category and name, keeping categories in the order of first appearance.
+    Map<String, Map<String, Totals>> totalsByNameByCategory = new LinkedHashMap<>();
+    for (String category : new String[] {STAGE, PASS, UNIT}) {
+      totalsByNameByCategory.put(category, new LinkedHashMap<>());
+    }
+    for (Event event : sortedEvents) {
+      totalsByNameByCategory
+          .computeIfAbsent(event.category, c -> new LinkedHashMap<>())
+          .computeIfAbsent(event.name, n -> new Totals())
+          .add(event);
+    }
+
+    try (BufferedWriter writer = Files.newBufferedWriter(summaryOutput, UTF_8)) {
+      for (Map.Entry<String, Map<String, Totals>> entry : totalsByNameByCategory.entrySet()) {
+        if (entry.getValue().isEmpty()) {
+          continue;
+        }
+        writer.append(
+            String.format(
+                Locale.US,
+                "%-60s %8s %12s %12s %14s%n",
+                entry.getKey(),
+                "count",
+                "wall (ms)",
+                "cpu (ms)",
+                "alloc (MB)"));
+        List<Map.Entry<String, Totals>> totalsByName = new ArrayList<>(entry.getValue().entrySet());
+        totalsByName.sort(
+            Comparator.comparingLong((Map.Entry<String, Totals> e) -> e.getValue().wallNanos)
+                .reversed());
+        for (Map.Entry<String, Totals> totals : totalsByName) {
+          writer.append(
+              String.format(
+                  Locale.US,
+                  "%-60s %8d %12.1f %12.1f %14.1f%n",
+                  totals.getKey(),
+                  totals.getValue().count,
+                  totals.getValue().wallNanos / 1e6,
+                  totals.getValue().cpuNanos / 1e6,
+                  totals.getValue().allocatedBytes / 1e6));
+        }
+        writer.newLine();
+      }
+      if (!counterValueByName.isEmpty()) {
+        writer.append(String.format(Locale.US, "%-60s %14s%n", "counter", "value"));
+        for (Map.Entry<String, Long> counter : counterValueByName.entrySet()) {
+          writer.append(
+              String.format(Locale.US, "%-60s %14d%n", counter.getKey(), counter.getValue()));
+        }
+      }
+    }
+  }
+
+  private static String escape(String string) {
+    StringBuilder sb = new StringBuilder(string.length());
+    for (char c : string.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static final class Event {
+    private final String category;
+    private final String name;
+    private final long threadId;
+    private final long startNanos;
+    private final long wallNanos;
+    private final long cpuNanos;
+    private final long allocatedBytes;
+
+    private Event(
+        String category,
+        String name,
+        long threadId,
+        long startNanos,
+        long wallNanos,
+        long cpuNanos,
+        long allocatedBytes) {
+      this.category = category;
+      this.name = name;
+      this.threadId = threadId;
+      this.startNanos = startNanos;
+      this.wallNanos = wallNanos;
+      this.cpuNanos = cpuNanos;
+      this.allocatedBytes = allocatedBytes;
+    }
+  }
+
+  private static final class Totals {
+    private int count;
+    private long wallNanos;
+    private long cpuNanos;
+    private long allocatedBytes;
+
+    private void add(Event event) {
+      count++;
+      wallNanos += event.wallNanos;
+      cpuNanos += event.cpuNanos;
+      allocatedBytes += event.allocatedBytes;
+    }
+  }
+}
@@ -401,8 +401,8 @@ public abstract class DeclaredTypeDescriptor extends TypeDescriptor
   }
 
   private DeclaredTypeDescriptor applyParameterization(DeclaredTypeDescriptor typeDescriptor) {
-    return typeDescriptor.specializeTypeVariables(
-        TypeDescriptors.mappingFunctionFromMap(getTypeArgumentsByTypeTypeParameter()));
+    return (DeclaredTypeDescriptor)
+        typeDescriptor.specializeTypeVariables(getTypeArgumentsByTypeTypeParameter());
   }
 
   /** Returns the class initializer method descriptor for a particular type. */
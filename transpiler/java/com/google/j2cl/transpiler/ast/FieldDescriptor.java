@@ -22,6 +22,7 @@ import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.j2cl.common.ThreadLocalInterner;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.visitor.Processor;
 import com.google.j2cl.common.visitor.Visitable;
 import java.util.Map;
@@ -37,7 +38,7 @@ public abstract class FieldDescriptor extends MemberDescriptor {
 
   // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
   private static final ThreadLocal<Boolean> ignoreNonNativeJsInfo =
-      ThreadLocal.withInitial(() -> false);
+      TransferableThreadLocal.withInitial(() -> false);
 
   public static void setIgnoreNonNativeJsInfo() {
     ignoreNonNativeJsInfo.set(true);
@@ -198,8 +199,13 @@ public abstract class FieldDescriptor extends MemberDescriptor {
   @Override
   public FieldDescriptor specializeTypeVariables(
       Map<TypeVariable, TypeDescriptor> applySpecializedTypeArgumentByTypeParameters) {
-    return specializeTypeVariables(
-        TypeDescriptors.mappingFunctionFromMap(applySpecializedTypeArgumentByTypeParameters));
+    return SpecializationCache.get(
+        this,
+        applySpecializedTypeArgumentByTypeParameters,
+        () ->
+            specializeTypeVariables(
+                TypeDescriptors.mappingFunctionFromMap(
+                    applySpecializedTypeArgumentByTypeParameters)));
   }
 
   @Override
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.ast;
+
+import static java.lang.String.format;
+
+import com.google.common.collect.Sets;
+import com.google.j2cl.common.InternalCompilerError;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Forces the lazily computed properties of all the descriptors reachable from a library.
+ *
+ * <p>The frontends create type declarations and type variables whose members, supertypes and
+ * bounds are computed on first access by factories that read the frontend bindings and update the
+ * frontend environment caches, neither of which is safe for concurrent use. Resolving them all on
+ * the thread that owns the environment makes the descriptor graph effectively immutable so that it
+ * can be shared by passes or output generation running on a thread pool.
+ *
+ * <p>Note that this resolves the transitive closure of the classpath types that are referenced,
+ * which is usually a much larger set than the one a sequential compilation ends up resolving.
+ */
+public final class LazyDescriptorResolver {
+
+  /** Resolves every descriptor reachable from {@code library} and from the well known types. */
+  public static void resolveReachableDescriptors(Library library) {
+    LazyDescriptorResolver resolver = new LazyDescriptorResolver();
+    resolver.addWellKnownTypes();
+    library.accept(
+        new AbstractVisitor() {
+          @Override
+          public void exitType(Type type) {
+            resolver.add(type.getDeclaration());
+          }
+
+          @Override
+          public void exitTypeDescriptor(TypeDescriptor typeDescriptor) {
+            resolver.add(typeDescriptor);
+          }
+
+          @Override
+          public void exitMemberDescriptor(MemberDescriptor memberDescriptor) {
+            resolver.add(memberDescriptor);
+          }
+
+          @Override
+          public void exitExpression(Expression expression) {
+            resolver.add(expression.getTypeDescriptor());
+          }
+
+          @Override
+          public void exitMethodReference(MethodReference methodReference) {
+            resolver.add(methodReference.getReferencedMethodDescriptor());
+            resolver.add(methodReference.getInterfacedMethodDescriptor());
+          }
+
+          @Override
+          public void exitJavaScriptConstructorReference(
+              JavaScriptConstructorReference constructorReference) {
+            resolver.add(constructorReference.getReferencedTypeDeclaration());
+          }
+        });
+    resolver.resolve();
+  }
+
+  // Identity is used instead of equality because only the instance that memoizes a property is
+  // safe to share; interning keeps the number of distinct instances bounded.
+  private final Set<Object> seen = Sets.newIdentityHashSet();
+  private final Deque<Object> pending = new ArrayDeque<>();
+
+  private LazyDescriptorResolver() {}
+
+  private void addWellKnownTypes() {
+    TypeDescriptors typeDescriptors = TypeDescriptors.get();
+    for (Field field : TypeDescriptors.wellKnownTypeFieldsByQualifiedName.values()) {
+      try {
+        add((TypeDescriptor) field.get(typeDescriptors));
+      } catch (IllegalAccessException e) {
+        throw new InternalCompilerError(
+            e, format("Could not read field for well known type '%s'.", field.getName()));
+      }
+    }
+  }
+
+  private void add(@Nullable Object descriptor) {
+    if (descriptor != null && seen.add(descriptor)) {
+      pending.add(descriptor);
+    }
+  }
+
+  private void addAll(Collection<?> descriptors) {
+    descriptors.forEach(this::add);
+  }
+
+  private void resolve() {
+    while (!pending.isEmpty()) {
+      Object descriptor = pending.poll();
+      if (descriptor instanceof TypeDeclaration) {
+        resolveTypeDeclaration((TypeDeclaration) descriptor);
+      } else if (descriptor instanceof TypeDescriptor) {
+        resolveTypeDescriptor((TypeDescriptor) descriptor);
+      } else if (descriptor instanceof MethodDescriptor) {
+        resolveMethodDescriptor((MethodDescriptor) descriptor);
+      } else if (descriptor instanceof FieldDescriptor) {
+        resolveFieldDescriptor((FieldDescriptor) descriptor);
+      }
+    }
+  }
+
+  private void resolveTypeDeclaration(TypeDeclaration typeDeclaration) {
+    add(typeDeclaration.getEnclosingTypeDeclaration());
+    addAll(typeDeclaration.getTypeParameterDescriptors());
+    add(typeDeclaration.getEnclosingMethodDescriptor());
+    add(typeDeclaration.getSuperTypeDescriptor());
+    addAll(typeDeclaration.getInterfaceTypeDescriptors());
+    addAll(typeDeclaration.getDeclaredMethodDescriptors());
+    add(typeDeclaration.getSingleAbstractMethodDescriptor());
+    addAll(typeDeclaration.getDeclaredFieldDescriptors());
+    addAll(typeDeclaration.getMemberTypeDeclarations());
+  }
+
+  private void resolveTypeDescriptor(TypeDescriptor typeDescriptor) {
+    if (typeDescriptor instanceof DeclaredTypeDescriptor) {
+      DeclaredTypeDescriptor declaredTypeDescriptor = (DeclaredTypeDescriptor) typeDescriptor;
+      add(declaredTypeDescriptor.getTypeDeclaration());
+      addAll(declaredTypeDescriptor.getTypeArgumentDescriptors());
+    } else if (typeDescriptor instanceof ArrayTypeDescriptor) {
+      add(((ArrayTypeDescriptor) typeDescriptor).getComponentTypeDescriptor());
+    } else if (typeDescriptor instanceof TypeVariable) {
+      TypeVariable typeVariable = (TypeVariable) typeDescriptor;
+      add(typeVariable.getUpperBoundTypeDescriptor());
+      add(typeVariable.getLowerBoundTypeDescriptor());
+    } else if (typeDescriptor instanceof IntersectionTypeDescriptor) {
+      addAll(((IntersectionTypeDescriptor) typeDescriptor).getIntersectionTypeDescriptors());
+    } else if (typeDescriptor instanceof UnionTypeDescriptor) {
+      addAll(((UnionTypeDescriptor) typeDescriptor).getUnionTypeDescriptors());
+    }
+  }
+
+  private void resolveMethodDescriptor(MethodDescriptor methodDescriptor) {
+    add(methodDescriptor.getEnclosingTypeDescriptor());
+    add(methodDescriptor.getReturnTypeDescriptor());
+    addAll(methodDescriptor.getParameterTypeDescriptors());
+    addAll(methodDescriptor.getExceptionTypeDescriptors());
+    addAll(methodDescriptor.getTypeParameterTypeDescriptors());
+    addAll(methodDescriptor.getTypeArgumentTypeDescriptors());
+    add(methodDescriptor.getDeclarationDescriptor());
+    add(methodDescriptor.getBridgeOrigin());
+    add(methodDescriptor.getBridgeTarget());
+  }
+
+  private void resolveFieldDescriptor(FieldDescriptor fieldDescriptor) {
+    add(fieldDescriptor.getEnclosingTypeDescriptor());
+    add(fieldDescriptor.getTypeDescriptor());
+    add(fieldDescriptor.getDeclarationDescriptor());
+  }
+}
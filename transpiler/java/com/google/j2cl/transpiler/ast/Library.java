@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.j2cl.common.visitor.Processor;
 import com.google.j2cl.common.visitor.Visitable;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -38,6 +39,16 @@ public class Library extends Node {
     return compilationUnits;
   }
 
+  /**
+   * Removes all the compilation units from the library and returns them, so that the caller can
+   * release them one at a time once they are no longer needed.
+   */
+  public List<CompilationUnit> removeCompilationUnits() {
+    List<CompilationUnit> removedCompilationUnits = compilationUnits;
+    compilationUnits = new ArrayList<>();
+    return removedCompilationUnits;
+  }
+
   public void dispose() {
     if (disposableListener != null) {
       disposableListener.onDispose();
@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.j2cl.common.InternalCompilerError;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.visitor.Processor;
 import com.google.j2cl.common.visitor.Visitable;
 import com.google.j2cl.transpiler.ast.MethodDescriptor.MethodOrigin;
@@ -288,7 +289,7 @@ public abstract class MemberDescriptor
   // TODO(b/178738483): This is a temporary hack to be able to reuse bridging logic in Closure
   // and Wasm.
   private static final ThreadLocal<Boolean> useClosureManglingPatterns =
-      ThreadLocal.withInitial(() -> false);
+      TransferableThreadLocal.withInitial(() -> false);
 
   public static void setClosureManglingPatterns() {
     useClosureManglingPatterns.set(true);
@@ -30,6 +30,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.j2cl.common.ThreadLocalInterner;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.visitor.Processor;
 import com.google.j2cl.common.visitor.Visitable;
 import com.google.j2cl.transpiler.ast.FieldDescriptor.FieldOrigin;
@@ -59,7 +60,7 @@ public abstract class MethodDescriptor extends MemberDescriptor {
     // TODO(b/182341814): This is a temporary hack to be able to disable DoNotAutobox annotations
     //   on wasm
     private static final ThreadLocal<Boolean> ignoreDoNotAutoboxAnnotations =
-        ThreadLocal.withInitial(() -> false);
+        TransferableThreadLocal.withInitial(() -> false);
 
     public static void setIgnoreDoNotAutoboxAnnotations() {
       ignoreDoNotAutoboxAnnotations.set(true);
@@ -215,7 +216,7 @@ public abstract class MethodDescriptor extends MemberDescriptor {
 
   // TODO(b/317164851): Remove hack that makes jsinfo ignored for non-native types in Wasm.
   private static final ThreadLocal<Boolean> ignoreNonNativeJsInfo =
-      ThreadLocal.withInitial(() -> false);
+      TransferableThreadLocal.withInitial(() -> false);
 
   public static void setIgnoreNonNativeJsInfo() {
     ignoreNonNativeJsInfo.set(true);
@@ -1109,8 +1110,13 @@ public abstract class MethodDescriptor extends MemberDescriptor {
   @Override
   public MethodDescriptor specializeTypeVariables(
       Map<TypeVariable, TypeDescriptor> applySpecializedTypeArgumentByTypeParameters) {
-    return specializeTypeVariables(
-        TypeDescriptors.mappingFunctionFromMap(applySpecializedTypeArgumentByTypeParameters));
+    return SpecializationCache.get(
+        this,
+        applySpecializedTypeArgumentByTypeParameters,
+        () ->
+            specializeTypeVariables(
+                TypeDescriptors.mappingFunctionFromMap(
+                    applySpecializedTypeArgumentByTypeParameters)));
   }
 
   @Override
@@ -25,6 +25,7 @@ import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.j2cl.common.SourcePosition;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.transpiler.ast.MethodDescriptor.ParameterDescriptor;
 import com.google.j2cl.transpiler.ast.TypeDescriptors.BootstrapType;
 import java.util.ArrayList;
@@ -686,7 +687,7 @@ public final class RuntimeMethods {
 
   private static final ThreadLocal<Map<TypeDescriptor, Map<String, MethodInfo>>>
       runtimeMethodInfoByMethodNameByType =
-          ThreadLocal.withInitial(
+          TransferableThreadLocal.withInitial(
               () ->
                   ImmutableMap.<TypeDescriptor, Map<String, MethodInfo>>builder()
                       .put(
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.ast;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.j2cl.common.TransferableThreadLocal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the result of specializing a descriptor with a parameterization given as a map.
+ *
+ * <p>The same members and types are specialized with the same parameterizations over and over, e.g.
+ * when computing the declared and polymorphic methods of each parameterized type. The specialized
+ * descriptors are interned, so caching them only avoids recomputing them.
+ */
+public final class SpecializationCache {
+  private static final ThreadLocal<SpecializationCache> specializationCache =
+      TransferableThreadLocal.withInitial(SpecializationCache::new);
+
+  private final ConcurrentMap<Key, Object> specializedDescriptorByKey = new ConcurrentHashMap<>();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private SpecializationCache() {}
+
+  /** Returns the number of specializations that were found in the cache. */
+  public static long getHitCount() {
+    return specializationCache.get().hitCount.get();
+  }
+
+  /** Returns the number of specializations that had to be computed. */
+  public static long getMissCount() {
+    return specializationCache.get().missCount.get();
+  }
+
+  /**
+   * Returns the specialization of {@code descriptor} by {@code parameterization}, computing it with
+   * {@code specializer} if it is not cached.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T get(
+      T descriptor, Map<TypeVariable, TypeDescriptor> parameterization, Supplier<T> specializer) {
+    if (parameterization.isEmpty()) {
+      // Specializing with an empty parameterization is the identity, no need to cache it.
+      return specializer.get();
+    }
+    SpecializationCache cache = specializationCache.get();
+    Object specializedDescriptor =
+        cache.specializedDescriptorByKey.get(new Key(descriptor, parameterization));
+    if (specializedDescriptor != null) {
+      cache.hitCount.incrementAndGet();
+      return (T) specializedDescriptor;
+    }
+
+    cache.missCount.incrementAndGet();
+    // Not using computeIfAbsent since specializing a descriptor specializes the descriptors it
+    // refers to, which might recursively update the map.
+    T newSpecializedDescriptor = specializer.get();
+    cache.specializedDescriptorByKey.putIfAbsent(
+        new Key(descriptor, ImmutableMap.copyOf(parameterization)), newSpecializedDescriptor);
+    return newSpecializedDescriptor;
+  }
+
+  /** A descriptor, compared by identity since they are interned, and a parameterization. */
+  private static final class Key {
+    private final Object descriptor;
+    private final Map<TypeVariable, TypeDescriptor> parameterization;
+    private final int hashCode;
+
+    private Key(Object descriptor, Map<TypeVariable, TypeDescriptor> parameterization) {
+      this.descriptor = descriptor;
+      this.parameterization = parameterization;
+      this.hashCode = 31 * System.identityHashCode(descriptor) + parameterization.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return descriptor == other.descriptor && parameterization.equals(other.parameterization);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.j2cl.common.ThreadLocalInterner;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.visitor.Processor;
 import com.google.j2cl.common.visitor.Visitable;
 import com.google.j2cl.transpiler.ast.TypeDescriptors.BootstrapType;
@@ -845,7 +846,7 @@ public abstract class TypeDeclaration
 
   // TODO(b/340930928): This is a temporary hack since JsFunction is not supported in Wasm.
   private static final ThreadLocal<Boolean> ignoreJsFunctionAnnotations =
-      ThreadLocal.withInitial(() -> false);
+      TransferableThreadLocal.withInitial(() -> false);
 
   public static void setIgnoreJsFunctionAnnotations() {
     ignoreJsFunctionAnnotations.set(true);
@@ -858,7 +859,7 @@ public abstract class TypeDeclaration
   // TypeDeclaration)
   // - The supertype of JsEnums is not modified (it is still Enum, not changed to Object).
   private static final ThreadLocal<Boolean> implementWasmJsEnumSemantics =
-      ThreadLocal.withInitial(() -> false);
+      TransferableThreadLocal.withInitial(() -> false);
 
   public static void setImplementWasmJsEnumSemantics() {
     implementWasmJsEnumSemantics.set(true);
@@ -284,8 +284,12 @@ public abstract class TypeDescriptor implements Comparable<TypeDescriptor>, HasR
 
   public TypeDescriptor specializeTypeVariables(
       Map<TypeVariable, TypeDescriptor> replacementTypeArgumentByTypeVariable) {
-    return specializeTypeVariables(
-        TypeDescriptors.mappingFunctionFromMap(replacementTypeArgumentByTypeVariable));
+    return SpecializationCache.get(
+        this,
+        replacementTypeArgumentByTypeVariable,
+        () ->
+            specializeTypeVariables(
+                TypeDescriptors.mappingFunctionFromMap(replacementTypeArgumentByTypeVariable)));
   }
 
   /** Replaces all occurrences of a type variable for the type specified by the mapping function. */
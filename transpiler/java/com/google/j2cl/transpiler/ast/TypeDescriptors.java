@@ -30,6 +30,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.j2cl.common.InternalCompilerError;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.transpiler.ast.TypeDeclaration.Kind;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
@@ -201,7 +202,8 @@ public class TypeDescriptors {
   private final BiMap<PrimitiveTypeDescriptor, DeclaredTypeDescriptor> boxedTypeByPrimitiveType =
       HashBiMap.create();
 
-  private static final ThreadLocal<TypeDescriptors> typeDescriptors = new ThreadLocal<>();
+  private static final ThreadLocal<TypeDescriptors> typeDescriptors =
+      new TransferableThreadLocal<>();
 
   private static void set(TypeDescriptors typeDescriptors) {
     checkState(
@@ -210,6 +212,22 @@ public class TypeDescriptors {
     TypeDescriptors.typeDescriptors.set(typeDescriptors);
   }
 
+  /**
+   * Makes the well known type descriptors built for a previous compilation the ones of the current
+   * compilation; they can only be used by one compilation at a time.
+   */
+  public static void reuse(TypeDescriptors typeDescriptors) {
+    set(typeDescriptors);
+  }
+
+  /**
+   * Removes the well known type descriptors of the current thread once the compilation that used
+   * them is done, so that a later compilation on the same thread can initialize its own.
+   */
+  public static void clear() {
+    typeDescriptors.remove();
+  }
+
   public static TypeDescriptors get() {
     checkState(isInitialized(), "TypeDescriptors must be initialized before access.");
     return typeDescriptors.get();
@@ -258,6 +258,7 @@ public abstract class TypeVariable extends TypeDescriptor implements HasName {
     return getName();
   }
 
+  @Memoized
   @Override
   public String getUniqueId() {
     String prefix;
@@ -450,7 +451,11 @@ public abstract class TypeVariable extends TypeDescriptor implements HasName {
     }
 
     public static Builder from(TypeVariable typeVariable) {
-      return typeVariable.toBuilder();
+      // Derived variables share the bound of the original one instead of invoking the frontend
+      // factory again, so that a bound that was already resolved is never recomputed.
+      return typeVariable
+          .toBuilder()
+          .setUpperBoundTypeDescriptorFactory(typeVariable::getUpperBoundTypeDescriptor);
     }
   }
 }
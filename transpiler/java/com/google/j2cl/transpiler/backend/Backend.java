@@ -17,6 +17,7 @@ package com.google.j2cl.transpiler.backend;
 
 import com.google.common.collect.ImmutableList;
 import com.google.j2cl.common.Problems;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.backend.closure.OutputGeneratorStage;
 import com.google.j2cl.transpiler.backend.kotlin.KotlinGeneratorStage;
@@ -90,6 +91,8 @@ import com.google.j2cl.transpiler.passes.InsertWideningPrimitiveConversions;
 import com.google.j2cl.transpiler.passes.InsertWideningPrimitiveConversionsJ2kt;
 import com.google.j2cl.transpiler.passes.J2ktRestrictionsChecker;
 import com.google.j2cl.transpiler.passes.JsInteropRestrictionsChecker;
+import com.google.j2cl.transpiler.passes.LibraryNormalizationPass;
+import com.google.j2cl.transpiler.passes.LocalRewritePass;
 import com.google.j2cl.transpiler.passes.MakeVariablesFinal;
 import com.google.j2cl.transpiler.passes.MoveNestedClassesToTop;
 import com.google.j2cl.transpiler.passes.NormalizationPass;
@@ -187,21 +190,52 @@ import com.google.j2cl.transpiler.passes.VerifyParamAndArgCounts;
 import com.google.j2cl.transpiler.passes.VerifyReferenceScoping;
 import com.google.j2cl.transpiler.passes.VerifySingleAstReference;
 import java.util.function.Supplier;
+import javax.annotation.Nullable;
 
 /** Drives the backend to generate outputs. */
 public enum Backend {
   CLOSURE {
     @Override
     public void generateOutputs(BackendOptions options, Library library, Problems problems) {
-      new OutputGeneratorStage(
-              options.getNativeSources(),
-              options.getOutput(),
-              options.getLibraryInfoOutput(),
-              options.getEmitReadableLibraryInfo(),
-              options.getEmitReadableSourceMap(),
-              options.getGenerateKytheIndexingMetadata(),
-              problems)
-          .generateOutputs(library);
+      createOutputGeneratorStage(options, problems).generateOutputs(library);
+    }
+
+    @Override
+    public CompilationUnitOutputGenerator createCompilationUnitOutputGenerator(
+        BackendOptions options, Problems problems) {
+      OutputGeneratorStage outputGeneratorStage = createOutputGeneratorStage(options, problems);
+      return new CompilationUnitOutputGenerator() {
+        @Override
+        public void generateOutputs(CompilationUnit compilationUnit) {
+          outputGeneratorStage.generateOutputs(compilationUnit);
+        }
+
+        @Override
+        public void finishOutputs() {
+          outputGeneratorStage.finishOutputs();
+        }
+      };
+    }
+
+    private OutputGeneratorStage createOutputGeneratorStage(
+        BackendOptions options, Problems problems) {
+      return new OutputGeneratorStage(
+          options.getNativeSources(),
+          options.getOutput(),
+          options.getLibraryInfoOutput(),
+          options.getEmitReadableLibraryInfo(),
+          options.getEmitReadableSourceMap(),
+          options.getGenerateKytheIndexingMetadata(),
+          options.getCompilationUnitOutputCache(),
+          options.getOutputParallelism(),
+          problems);
+    }
+
+    @Override
+    public boolean canReuseCompilationUnitOutputs(BackendOptions options) {
+      // OptimizeAutoValue is the only pass that makes the output of a unit depend on the
+      // implementation of others.
+      return !options.getOptimizeAutoValue();
     }
 
     @Override
@@ -249,7 +283,8 @@ public enum Backend {
           // Compute bridge methods before optimizing autovalue, since inlining the autovalue
           // classes requires inlining the bridges as well.
           AddBridgeMethods::new,
-          () -> new OptimizeAutoValue(options.getOptimizeAutoValue()),
+          LibraryNormalizationPass.factory(
+              () -> new OptimizeAutoValue(options.getOptimizeAutoValue())),
           OptimizeKotlinCompanions::new,
 
           // Default constructors and explicit super calls should be synthesized first.
@@ -279,8 +314,8 @@ public enum Backend {
 
           // Statement/Expression normalizations
           NormalizeArrayLiterals::new,
-          NormalizeShifts::new,
-          NormalizeStaticMemberQualifiers::new,
+          LocalRewritePass.factory(NormalizeShifts::new),
+          LocalRewritePass.factory(NormalizeStaticMemberQualifiers::new),
           // Runs after NormalizeStaticMemberQualifiersPass.
           DevirtualizeMethodCalls::new,
           NormalizeControlStatements::new,
@@ -297,8 +332,8 @@ public enum Backend {
           InsertWideningPrimitiveConversions::new,
           NormalizeLongs::new,
           InsertIntegerCoercions::new,
-          InsertBitwiseOperatorBooleanCoercions::new,
-          NormalizeJsFunctionPropertyInvocations::new,
+          LocalRewritePass.factory(InsertBitwiseOperatorBooleanCoercions::new),
+          LocalRewritePass.factory(NormalizeJsFunctionPropertyInvocations::new),
           // Run before other passes that normalize JsEnum expressions, but after all the normal
           // Java semantic conversions.
           InsertJsEnumBoxingAndUnboxingConversions::new,
@@ -311,8 +346,8 @@ public enum Backend {
           ImplementInstanceInitialization::new,
           NormalizeConstructors::new,
           NormalizeCasts::new,
-          NormalizeInstanceOfs::new,
-          NormalizeEquality::new,
+          LocalRewritePass.factory(NormalizeInstanceOfs::new),
+          LocalRewritePass.factory(NormalizeEquality::new),
           NormalizeStaticNativeMemberReferences::new,
           InsertJsFunctionImplementationConversionCasts::new,
 
@@ -326,8 +361,8 @@ public enum Backend {
           // related passes.
           NormalizeJsVarargs::new,
           NormalizeArrayCreations::new,
-          InsertExceptionConversions::new,
-          NormalizeLiterals::new,
+          LocalRewritePass.factory(InsertExceptionConversions::new),
+          LocalRewritePass.factory(NormalizeLiterals::new),
 
           // TODO(b/72652198): remove the temporary fix once switch to JSCompiler's type
           // checker.
@@ -447,8 +482,8 @@ public enum Backend {
           RemoveNameFromJsEnums::new,
           NormalizeOverlayMembers::new,
           NormalizeInstanceCompileTimeConstants::new,
-          () -> new NormalizeShifts(/* narrowAllToInt= */ false),
-          NormalizeStaticMemberQualifiers::new,
+          LocalRewritePass.factory(() -> new NormalizeShifts(/* narrowAllToInt= */ false)),
+          LocalRewritePass.factory(NormalizeStaticMemberQualifiers::new),
           NormalizeMultiExpressions::new,
           // needs to run before ImplementSystemGetProperty
           () -> new ImplementAssertStatements(/* useWasmDebugFlag= */ true),
@@ -461,7 +496,7 @@ public enum Backend {
           NormalizeSwitchStatements::new,
           // Propagate constants needs to run after NormalizeSwitchStatements since it introduces
           // field references to constant fields.
-          PropagateConstants::new,
+          LibraryNormalizationPass.factory(PropagateConstants::new),
           StaticallyEvaluateStringConcatenation::new,
           StaticallyEvaluateStringComparison::new,
           () -> new InsertStringConversions(/* skipPrimitivesAndNonNullableString= */ false),
@@ -481,7 +516,7 @@ public enum Backend {
           NormalizeInstantiationThroughFactoryMethods::new,
           ImplementStaticInitializationViaConditionChecks::new,
           ImplementClassMetadataViaGetters::new,
-          ImplementStringCompileTimeConstants::new,
+          LibraryNormalizationPass.factory(ImplementStringCompileTimeConstants::new),
           NormalizeArrayCreationsWasm::new,
           InsertCastOnArrayAccess::new,
 
@@ -497,12 +532,13 @@ public enum Backend {
           // extracted. After extracting qualifiers, we must again normalize multi-expressions.
           ExtractNonIdempotentExpressions::new,
           NormalizeMultiExpressions::new,
-          () -> new AddEntryPointBridgesWasm(options.getWasmEntryPointPatterns()),
+          LibraryNormalizationPass.factory(
+              () -> new AddEntryPointBridgesWasm(options.getWasmEntryPointPatterns())),
           ImplementFinallyViaControlFlow::new,
 
           // Needs to run at the end as the types in the ast will be invalid after the pass.
           ImplementArraysAsClasses::new,
-          InsertExceptionConversions::new,
+          LocalRewritePass.factory(InsertExceptionConversions::new),
           InsertExternConversionsWasm::new,
           RemoveCustomIsInstanceMethods::new,
           RemoveNonreferencedNativeMethods::new,
@@ -597,8 +633,8 @@ public enum Backend {
           RemoveNameFromJsEnums::new,
           NormalizeOverlayMembers::new,
           NormalizeInstanceCompileTimeConstants::new,
-          () -> new NormalizeShifts(/* narrowAllToInt= */ false),
-          NormalizeStaticMemberQualifiers::new,
+          LocalRewritePass.factory(() -> new NormalizeShifts(/* narrowAllToInt= */ false)),
+          LocalRewritePass.factory(NormalizeStaticMemberQualifiers::new),
           NormalizeMultiExpressions::new,
 
           // Rewrite operations that do not have direct support in wasm into ones that have.
@@ -648,7 +684,7 @@ public enum Backend {
 
           // Needs to run at the end as the types in the ast will be invalid after the pass.
           ImplementArraysAsClasses::new,
-          InsertExceptionConversions::new,
+          LocalRewritePass.factory(InsertExceptionConversions::new),
           InsertExternConversionsWasm::new,
           RemoveCustomIsInstanceMethods::new,
           RemoveNonreferencedNativeMethods::new,
@@ -681,6 +717,22 @@ public enum Backend {
       new KotlinGeneratorStage(options.getOutput(), problems).generateOutputs(library);
     }
 
+    @Override
+    public CompilationUnitOutputGenerator createCompilationUnitOutputGenerator(
+        BackendOptions options, Problems problems) {
+      KotlinGeneratorStage kotlinGeneratorStage =
+          new KotlinGeneratorStage(options.getOutput(), problems);
+      return new CompilationUnitOutputGenerator() {
+        @Override
+        public void generateOutputs(CompilationUnit compilationUnit) {
+          kotlinGeneratorStage.generateOutputs(compilationUnit);
+        }
+
+        @Override
+        public void finishOutputs() {}
+      };
+    }
+
     @Override
     public ImmutableList<Supplier<NormalizationPass>> getDesugaringPassFactories() {
       return ImmutableList.of(
@@ -722,7 +774,7 @@ public enum Backend {
           // Must run after NormalizeForEachIterable and benefits from running
           // after MakeVariablesFinal.
           NormalizeForEachStatementJ2kt::new,
-          NormalizeStaticMemberQualifiers::new,
+          LocalRewritePass.factory(NormalizeStaticMemberQualifiers::new),
           () -> new VariableDeclarationHoister(/* allowDeclarationsInExpressions= */ true),
           NormalizeMultiExpressions::new,
           () -> new ExpandCompoundAssignments(/* expandAll= */ true),
@@ -741,7 +793,7 @@ public enum Backend {
           NormalizeForStatements::new,
           NormalizeSwitchStatementsJ2kt::new,
           NormalizeLabeledStatements::new,
-          () -> new NormalizeShifts(/* narrowAllToInt= */ true),
+          LocalRewritePass.factory(() -> new NormalizeShifts(/* narrowAllToInt= */ true)),
           NormalizeNumberLiterals::new,
           NormalizePrimitiveCastsJ2kt::new,
           ImplementBitLevelOperatorsJ2kt::new,
@@ -792,6 +844,24 @@ public enum Backend {
 
   public abstract void generateOutputs(BackendOptions options, Library library, Problems problems);
 
+  /**
+   * Returns a generator that emits the outputs one compilation unit at a time, or null if the
+   * backend needs the whole library to generate its outputs.
+   */
+  @Nullable
+  public CompilationUnitOutputGenerator createCompilationUnitOutputGenerator(
+      BackendOptions options, Problems problems) {
+    return null;
+  }
+
+  /**
+   * Whether the outputs of each compilation unit only depend on the unit and the API of the types
+   * it references, so that they can be reused across compilations.
+   */
+  public boolean canReuseCompilationUnitOutputs(BackendOptions options) {
+    return false;
+  }
+
   public boolean isWasm() {
     return false;
   }
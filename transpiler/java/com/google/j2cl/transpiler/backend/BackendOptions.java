@@ -20,6 +20,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.j2cl.common.EntryPointPattern;
 import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
 import java.nio.file.Path;
 import javax.annotation.Nullable;
 
@@ -50,4 +51,9 @@ public interface BackendOptions {
   boolean getGenerateKytheIndexingMetadata();
 
   boolean isNullMarkedSupported();
+
+  int getOutputParallelism();
+
+  @Nullable
+  CompilationUnitOutputCache getCompilationUnitOutputCache();
 }
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend;
+
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+
+/**
+ * Generates the outputs of a library one compilation unit at a time, so that each unit can be
+ * released as soon as its outputs are generated.
+ */
+public interface CompilationUnitOutputGenerator {
+
+  /** Generates the outputs of a normalized compilation unit. */
+  void generateOutputs(CompilationUnit compilationUnit);
+
+  /** Generates the outputs that cover the whole library, once all the units have been generated. */
+  void finishOutputs();
+}
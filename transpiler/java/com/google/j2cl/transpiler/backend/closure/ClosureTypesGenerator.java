@@ -21,6 +21,9 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 import static java.util.stream.Collectors.joining;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
@@ -338,7 +341,9 @@ class ClosureTypesGenerator {
   }
 
   public static ClosureType maybeGetStandardClosureType(TypeDeclaration typeDeclaration) {
-    return closureTypeByTypeDeclaration.get().get(typeDeclaration);
+    return closureTypeByTypeDeclarationByTypeDescriptors
+        .getUnchecked(TypeDescriptors.get())
+        .get(typeDeclaration);
   }
 
   private static ClosureType withNullability(ClosureType type, boolean nullable) {
@@ -631,32 +636,31 @@ class ClosureTypesGenerator {
           .build();
 
   /**
-   * Map from typed eclarations that are mapped into closure native types to the corresponding type
+   * Map from type declarations that are mapped into closure native types to the corresponding type,
+   * for each set of well known type descriptors.
+   *
+   * <p>The maps are shared by all the threads that generate code for the same compilation and are
+   * released together with the well known type descriptors they were created from.
    */
-  private static final ThreadLocal<Map<TypeDeclaration, ClosureType>> closureTypeByTypeDeclaration =
-      ThreadLocal.withInitial(
-          () -> {
-            ImmutableMap.Builder<TypeDeclaration, ClosureType> builder =
-                ImmutableMap.<TypeDeclaration, ClosureType>builder()
-                    .put(
-                        TypeDescriptors.get().javaLangObject.getTypeDeclaration(), ANY.toNullable())
-                    .put(
-                        TypeDescriptors.get().javaLangString.getTypeDeclaration(),
-                        STRING.toNullable())
-                    .put(
-                        TypeDescriptors.get().javaLangDouble.getTypeDeclaration(),
-                        NUMBER.toNullable())
-                    .put(
-                        TypeDescriptors.get().javaLangBoolean.getTypeDeclaration(),
-                        BOOLEAN.toNullable())
-                    .put(
-                        TypeDescriptors.get().javaLangVoid.getTypeDeclaration(), VOID.toNullable());
-            DeclaredTypeDescriptor nothing = TypeDescriptors.get().kotlinNothing;
-            if (nothing != null) {
-              builder.put(
-                  TypeDescriptors.get().kotlinNothing.getTypeDeclaration(),
-                  UNKNOWN.toNonNullable());
-            }
-            return builder.build();
-          });
+  private static final LoadingCache<TypeDescriptors, ImmutableMap<TypeDeclaration, ClosureType>>
+      closureTypeByTypeDeclarationByTypeDescriptors =
+          CacheBuilder.newBuilder()
+              .weakKeys()
+              .build(CacheLoader.from(ClosureTypesGenerator::createClosureTypeByTypeDeclaration));
+
+  private static ImmutableMap<TypeDeclaration, ClosureType> createClosureTypeByTypeDeclaration(
+      TypeDescriptors typeDescriptors) {
+    ImmutableMap.Builder<TypeDeclaration, ClosureType> builder =
+        ImmutableMap.<TypeDeclaration, ClosureType>builder()
+            .put(typeDescriptors.javaLangObject.getTypeDeclaration(), ANY.toNullable())
+            .put(typeDescriptors.javaLangString.getTypeDeclaration(), STRING.toNullable())
+            .put(typeDescriptors.javaLangDouble.getTypeDeclaration(), NUMBER.toNullable())
+            .put(typeDescriptors.javaLangBoolean.getTypeDeclaration(), BOOLEAN.toNullable())
+            .put(typeDescriptors.javaLangVoid.getTypeDeclaration(), VOID.toNullable());
+    DeclaredTypeDescriptor nothing = typeDescriptors.kotlinNothing;
+    if (nothing != null) {
+      builder.put(nothing.getTypeDeclaration(), UNKNOWN.toNonNullable());
+    }
+    return builder.buildOrThrow();
+  }
 }
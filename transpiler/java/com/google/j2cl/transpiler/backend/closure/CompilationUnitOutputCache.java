@@ -0,0 +1,450 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.closure;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+import com.google.j2cl.common.OutputUtils.InMemoryOutput;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SourcePosition;
+import com.google.j2cl.common.SourceUtils;
+import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.transpiler.ast.AbstractVisitor;
+import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Expression;
+import com.google.j2cl.transpiler.ast.FieldDescriptor;
+import com.google.j2cl.transpiler.ast.IntersectionTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Library;
+import com.google.j2cl.transpiler.ast.Member;
+import com.google.j2cl.transpiler.ast.MemberDescriptor;
+import com.google.j2cl.transpiler.ast.Method;
+import com.google.j2cl.transpiler.ast.MethodDescriptor;
+import com.google.j2cl.transpiler.ast.Type;
+import com.google.j2cl.transpiler.ast.TypeDeclaration;
+import com.google.j2cl.transpiler.ast.TypeDescriptor;
+import com.google.j2cl.transpiler.ast.TypeVariable;
+import com.google.j2cl.transpiler.ast.UnionTypeDescriptor;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the outputs generated for each compilation unit across the compilations done by the same
+ * worker, so that the units whose inputs did not change are neither normalized nor generated again.
+ *
+ * <p>The outputs of a unit are keyed by its target path and contents, the digest of everything else
+ * that determines the output of the library (the classpath, the native sources and the options),
+ * and the API of the other units of the library that it references. The API of a unit is
+ * approximated by its source without the method bodies, which covers signatures, supertypes,
+ * annotations and constant initializers. The target path is used instead of the path the unit was
+ * read from since sources from archives are extracted to a different directory every time.
+ *
+ * <p>The problems reported at a source position in a unit while it is normalized and generated are
+ * cached with its outputs and reported again when the outputs are reused. Units whose file name is
+ * shared with another unit of the library are only cached if no such problems were reported, since
+ * problems identify their file by name only.
+ *
+ * <p>An instance holds the keys of a single compilation and is shared by the transpiler, that only
+ * normalizes the units that need to be generated, and {@link OutputGeneratorStage}, that replays
+ * the outputs of the other units.
+ */
+public final class CompilationUnitOutputCache {
+
+  // The maximum size of the cached outputs in megabytes.
+  private static final long CACHE_SIZE =
+      Long.parseLong(System.getProperty("j2cl.compilationunitoutputcachesize", "512"));
+
+  private static final Cache<String, CachedOutputs> cachedOutputsByKey =
+      CacheBuilder.newBuilder()
+          .maximumWeight(CACHE_SIZE << 20)
+          .weigher((String key, CachedOutputs cachedOutputs) -> cachedOutputs.weight)
+          .recordStats()
+          .build();
+
+  /** The outputs generated for a compilation unit. */
+  static final class CachedOutputs {
+    private final InMemoryOutput output;
+    private final LibraryInfo libraryInfo;
+    private final Problems problems;
+    private final int weight;
+
+    private CachedOutputs(InMemoryOutput output, LibraryInfo libraryInfo, Problems problems) {
+      this.output = output;
+      this.libraryInfo = libraryInfo;
+      this.problems = problems;
+      this.weight =
+          Ints.saturatedCast(output.getByteCount() + libraryInfo.getSerializedSize());
+    }
+
+    InMemoryOutput getOutput() {
+      return output;
+    }
+
+    LibraryInfo getLibraryInfo() {
+      return libraryInfo;
+    }
+
+    /** Returns the problems that were reported for the unit when the outputs were generated. */
+    Problems getProblems() {
+      return problems;
+    }
+  }
+
+  private final Map<CompilationUnit, String> keyByCompilationUnit = new HashMap<>();
+  private final Map<CompilationUnit, CachedOutputs> cachedOutputsByCompilationUnit =
+      new HashMap<>();
+  private final Set<String> ambiguousFileNames = new HashSet<>();
+
+  public static CompilationUnitOutputCache create() {
+    return new CompilationUnitOutputCache();
+  }
+
+  private CompilationUnitOutputCache() {}
+
+  /** Returns the statistics of the lookups done by all the compilations in this process. */
+  public static CacheStats getStats() {
+    return cachedOutputsByKey.stats();
+  }
+
+  /**
+   * Computes the keys of the compilation units of {@code library}, which must not have been
+   * desugared nor normalized yet, and looks up their outputs.
+   *
+   * @param environmentDigest the digest of all the inputs other than the sources of the library
+   *     that determine its output
+   * @param sources the sources the library was parsed from, which give the target path of the
+   *     units
+   */
+  public void lookUp(Library library, String environmentDigest, Collection<FileInfo> sources) {
+    Map<String, String> targetPathBySourcePath = new HashMap<>();
+    for (FileInfo fileInfo : sources) {
+      targetPathBySourcePath.put(fileInfo.sourcePath(), fileInfo.targetPath());
+    }
+    Map<String, CompilationUnit> compilationUnitByTypeName = new HashMap<>();
+    Set<String> fileNames = new HashSet<>();
+    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+      if (compilationUnit.isSynthetic()) {
+        continue;
+      }
+      String fileName = getFileName(compilationUnit);
+      if (!fileNames.add(fileName)) {
+        ambiguousFileNames.add(fileName);
+      }
+      compilationUnit
+          .streamTypes()
+          .forEach(
+              t ->
+                  compilationUnitByTypeName.put(
+                      t.getDeclaration().getQualifiedBinaryName(), compilationUnit));
+    }
+
+    Map<CompilationUnit, String> apiDigestByCompilationUnit = new HashMap<>();
+    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+      if (compilationUnit.isSynthetic()) {
+        continue;
+      }
+      String key =
+          computeKey(
+              compilationUnit,
+              environmentDigest,
+              targetPathBySourcePath,
+              compilationUnitByTypeName,
+              apiDigestByCompilationUnit);
+      if (key == null) {
+        continue;
+      }
+      keyByCompilationUnit.put(compilationUnit, key);
+      CachedOutputs cachedOutputs = cachedOutputsByKey.getIfPresent(key);
+      if (cachedOutputs != null) {
+        cachedOutputsByCompilationUnit.put(compilationUnit, cachedOutputs);
+      }
+    }
+  }
+
+  /** Returns the number of compilation units whose outputs were found by {@link #lookUp}. */
+  public int getHitCount() {
+    return cachedOutputsByCompilationUnit.size();
+  }
+
+  /** Returns the number of cacheable compilation units whose outputs were not found. */
+  public int getMissCount() {
+    return keyByCompilationUnit.size() - cachedOutputsByCompilationUnit.size();
+  }
+
+  /** Returns the compilation units of {@code library} whose outputs need to be generated. */
+  public ImmutableList<CompilationUnit> getCompilationUnitsToGenerate(Library library) {
+    return library.getCompilationUnits().stream()
+        .filter(c -> !cachedOutputsByCompilationUnit.containsKey(c))
+        .collect(toImmutableList());
+  }
+
+  /** Returns the outputs of a previous compilation for {@code compilationUnit}, if any. */
+  @Nullable
+  CachedOutputs getCachedOutputs(CompilationUnit compilationUnit) {
+    return cachedOutputsByCompilationUnit.get(compilationUnit);
+  }
+
+  /** Whether the outputs generated for {@code compilationUnit} can be cached. */
+  boolean isCacheable(CompilationUnit compilationUnit) {
+    return keyByCompilationUnit.containsKey(compilationUnit);
+  }
+
+  /**
+   * Caches the outputs generated for {@code compilationUnit} together with the problems reported
+   * for it so far in {@code problems}.
+   */
+  void put(
+      CompilationUnit compilationUnit,
+      InMemoryOutput output,
+      LibraryInfo libraryInfo,
+      Problems problems) {
+    Problems compilationUnitProblems = problems.getProblemsInFile(compilationUnit.getFilePath());
+    if (compilationUnitProblems.hasProblems()
+        && ambiguousFileNames.contains(getFileName(compilationUnit))) {
+      // The problems might have been reported for another unit with the same file name.
+      return;
+    }
+    cachedOutputsByKey.put(
+        keyByCompilationUnit.get(compilationUnit),
+        new CachedOutputs(output, libraryInfo, compilationUnitProblems));
+  }
+
+  private static String getFileName(CompilationUnit compilationUnit) {
+    String filePath = compilationUnit.getFilePath();
+    return filePath.substring(filePath.lastIndexOf('/') + 1);
+  }
+
+  @Nullable
+  private static String computeKey(
+      CompilationUnit compilationUnit,
+      String environmentDigest,
+      Map<String, String> targetPathBySourcePath,
+      Map<String, CompilationUnit> compilationUnitByTypeName,
+      Map<CompilationUnit, String> apiDigestByCompilationUnit) {
+    String content = readContent(compilationUnit);
+    if (content == null) {
+      return null;
+    }
+    Hasher hasher =
+        Hashing.sha256()
+            .newHasher()
+            .putString(environmentDigest, UTF_8)
+            .putString(getTargetPath(compilationUnit, targetPathBySourcePath), UTF_8)
+            .putString(content, UTF_8);
+
+    // Sort the referenced units so that the key does not depend on the order of the references.
+    Map<String, CompilationUnit> referencedCompilationUnitByPath = new TreeMap<>();
+    for (String typeName : collectReferencedTypeNames(compilationUnit, compilationUnitByTypeName)) {
+      CompilationUnit referencedCompilationUnit = compilationUnitByTypeName.get(typeName);
+      if (referencedCompilationUnit != compilationUnit) {
+        referencedCompilationUnitByPath.put(
+            getTargetPath(referencedCompilationUnit, targetPathBySourcePath),
+            referencedCompilationUnit);
+      }
+    }
+    for (Map.Entry<String, CompilationUnit> entry : referencedCompilationUnitByPath.entrySet()) {
+      String apiDigest =
+          apiDigestByCompilationUnit.computeIfAbsent(
+              entry.getValue(), CompilationUnitOutputCache::computeApiDigest);
+      if (apiDigest.isEmpty()) {
+        return null;
+      }
+      hasher.putString(entry.getKey(), UTF_8).putString(apiDigest, UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns the path of {@code compilationUnit} in the library, which unlike the path it was read
+   * from does not change from one compilation to the next.
+   */
+  private static String getTargetPath(
+      CompilationUnit compilationUnit, Map<String, String> targetPathBySourcePath) {
+    String filePath = compilationUnit.getFilePath();
+    // The frontend might already identify the unit by its target path.
+    return targetPathBySourcePath.getOrDefault(filePath, filePath);
+  }
+
+  /**
+   * Returns the names of the types of the library that {@code compilationUnit} depends on, i.e. the
+   * types it references together with their supertypes and enclosing types.
+   */
+  private static Set<String> collectReferencedTypeNames(
+      CompilationUnit compilationUnit, Map<String, CompilationUnit> compilationUnitByTypeName) {
+    Deque<TypeDeclaration> pendingTypeDeclarations = new ArrayDeque<>();
+    Set<TypeDescriptor> seenTypeDescriptors = new HashSet<>();
+    Set<String> referencedTypeNames = new HashSet<>();
+
+    class TypeReferenceCollector {
+      void collect(@Nullable TypeDescriptor typeDescriptor) {
+        if (typeDescriptor == null || !seenTypeDescriptors.add(typeDescriptor)) {
+          return;
+        }
+        if (typeDescriptor instanceof DeclaredTypeDescriptor) {
+          DeclaredTypeDescriptor declaredTypeDescriptor = (DeclaredTypeDescriptor) typeDescriptor;
+          collect(declaredTypeDescriptor.getTypeDeclaration());
+          declaredTypeDescriptor.getTypeArgumentDescriptors().forEach(this::collect);
+        } else if (typeDescriptor instanceof ArrayTypeDescriptor) {
+          collect(((ArrayTypeDescriptor) typeDescriptor).getComponentTypeDescriptor());
+        } else if (typeDescriptor instanceof TypeVariable) {
+          TypeVariable typeVariable = (TypeVariable) typeDescriptor;
+          collect(typeVariable.getUpperBoundTypeDescriptor());
+          collect(typeVariable.getLowerBoundTypeDescriptor());
+        } else if (typeDescriptor instanceof IntersectionTypeDescriptor) {
+          ((IntersectionTypeDescriptor) typeDescriptor)
+              .getIntersectionTypeDescriptors()
+              .forEach(this::collect);
+        } else if (typeDescriptor instanceof UnionTypeDescriptor) {
+          ((UnionTypeDescriptor) typeDescriptor).getUnionTypeDescriptors().forEach(this::collect);
+        }
+      }
+
+      void collect(@Nullable TypeDeclaration typeDeclaration) {
+        if (typeDeclaration == null) {
+          return;
+        }
+        String typeName = typeDeclaration.getQualifiedBinaryName();
+        // Types in the classpath are accounted for by the environment digest.
+        if (compilationUnitByTypeName.containsKey(typeName)
+            && referencedTypeNames.add(typeName)) {
+          pendingTypeDeclarations.add(typeDeclaration);
+        }
+      }
+
+      void collect(MemberDescriptor memberDescriptor) {
+        collect(memberDescriptor.getEnclosingTypeDescriptor());
+        if (memberDescriptor instanceof MethodDescriptor) {
+          MethodDescriptor methodDescriptor = (MethodDescriptor) memberDescriptor;
+          collect(methodDescriptor.getReturnTypeDescriptor());
+          methodDescriptor.getParameterTypeDescriptors().forEach(this::collect);
+        } else if (memberDescriptor instanceof FieldDescriptor) {
+          collect(((FieldDescriptor) memberDescriptor).getTypeDescriptor());
+        }
+      }
+    }
+
+    TypeReferenceCollector collector = new TypeReferenceCollector();
+    compilationUnit.accept(
+        new AbstractVisitor() {
+          @Override
+          public void exitType(Type type) {
+            collector.collect(type.getDeclaration());
+          }
+
+          @Override
+          public void exitExpression(Expression expression) {
+            collector.collect(expression.getTypeDescriptor());
+          }
+
+          @Override
+          public void exitTypeDescriptor(TypeDescriptor typeDescriptor) {
+            collector.collect(typeDescriptor);
+          }
+
+          @Override
+          public void exitMemberDescriptor(MemberDescriptor memberDescriptor) {
+            collector.collect(memberDescriptor);
+          }
+        });
+
+    // The outputs also depend on the supertypes of the referenced types, e.g. for bridges.
+    while (!pendingTypeDeclarations.isEmpty()) {
+      TypeDeclaration typeDeclaration = pendingTypeDeclarations.remove();
+      collector.collect(typeDeclaration.getSuperTypeDescriptor());
+      typeDeclaration.getInterfaceTypeDescriptors().forEach(collector::collect);
+      collector.collect(typeDeclaration.getEnclosingTypeDeclaration());
+    }
+    return referencedTypeNames;
+  }
+
+  /**
+   * Returns the digest of the source of {@code compilationUnit} without its method bodies, or the
+   * empty string if the source cannot be read.
+   */
+  private static String computeApiDigest(CompilationUnit compilationUnit) {
+    String content = readContent(compilationUnit);
+    if (content == null) {
+      return "";
+    }
+
+    // Collect the ranges of the method bodies, sorted by start so that nested bodies (e.g. in local
+    // classes) are covered by the enclosing one.
+    List<int[]> bodyRanges = new ArrayList<>();
+    compilationUnit
+        .streamTypes()
+        .flatMap(t -> t.getMembers().stream())
+        .filter(Member::isMethod)
+        .map(Method.class::cast)
+        // Methods without a body in the source are given the position of the whole declaration.
+        .filter(m -> !m.isAbstract() && !m.isNative())
+        .map(m -> m.getBody().getSourcePosition())
+        .filter(position -> isWithin(content, position))
+        .forEach(
+            position ->
+                bodyRanges.add(new int[] {position.getStartOffset(), position.getEndOffset()}));
+    bodyRanges.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+    Hasher hasher = Hashing.sha256().newHasher();
+    int position = 0;
+    for (int[] bodyRange : bodyRanges) {
+      if (bodyRange[0] < position) {
+        // Nested in a range that was already skipped.
+        continue;
+      }
+      hasher.putString(content.subSequence(position, bodyRange[0]), UTF_8);
+      position = bodyRange[1];
+    }
+    hasher.putString(content.subSequence(position, content.length()), UTF_8);
+    return hasher.hash().toString();
+  }
+
+  private static boolean isWithin(String content, SourcePosition position) {
+    return position != SourcePosition.NONE
+        && 0 <= position.getStartOffset()
+        && position.getStartOffset() < position.getEndOffset()
+        && position.getEndOffset() <= content.length();
+  }
+
+  @Nullable
+  private static String readContent(CompilationUnit compilationUnit) {
+    try {
+      return SourceUtils.asByteSource(compilationUnit.getFilePath()).asCharSource(UTF_8).read();
+    } catch (IOException e) {
+      // Let the unit be generated; it is just not cached.
+      return null;
+    }
+  }
+}
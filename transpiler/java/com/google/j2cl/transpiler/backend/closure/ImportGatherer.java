@@ -31,6 +31,7 @@ import com.google.j2cl.transpiler.ast.FieldAccess;
 import com.google.j2cl.transpiler.ast.FieldDeclarationStatement;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
 import com.google.j2cl.transpiler.ast.FunctionExpression;
+import com.google.j2cl.transpiler.ast.FusedVisitor;
 import com.google.j2cl.transpiler.ast.InstanceOfExpression;
 import com.google.j2cl.transpiler.ast.IntersectionTypeDescriptor;
 import com.google.j2cl.transpiler.ast.JavaScriptConstructorReference;
@@ -63,7 +64,19 @@ import java.util.Set;
 class ImportGatherer extends AbstractVisitor {
 
   public static List<Import> gatherImports(Type type) {
-    return new ImportGatherer().doGatherImports(type);
+    ImportGatherer importGatherer = new ImportGatherer();
+    type.accept(importGatherer);
+    return importGatherer.createImports();
+  }
+
+  /**
+   * Gathers the imports of {@code type} running {@code visitor} in the same traversal, so that other
+   * information needed for the output can be collected without walking the type again.
+   */
+  public static List<Import> gatherImports(Type type, AbstractVisitor visitor) {
+    ImportGatherer importGatherer = new ImportGatherer();
+    type.accept(new FusedVisitor(ImmutableList.of(importGatherer, visitor)));
+    return importGatherer.createImports();
   }
 
   // TODO(b/80201427): We should also include TypeVariables on name recording.
@@ -390,10 +403,7 @@ class ImportGatherer extends AbstractVisitor {
         TypeDescriptors.createGlobalNativeTypeDescriptor(topScopeQualifier).getTypeDeclaration());
   }
 
-  private ImmutableList<Import> doGatherImports(Type type) {
-    // Collect type references.
-    type.accept(this);
-
+  private ImmutableList<Import> createImports() {
     return categoryForTypeDeclaration.entrySet().stream()
         .map(entry -> createImport(entry.getKey(), entry.getValue()))
         .sorted()
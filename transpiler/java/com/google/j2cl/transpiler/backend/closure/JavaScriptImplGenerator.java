@@ -23,7 +23,6 @@ import static java.util.stream.Collectors.joining;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
-import com.google.j2cl.common.FilePosition;
 import com.google.j2cl.common.InternalCompilerError;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.SourcePosition;
@@ -477,18 +476,12 @@ public class JavaScriptImplGenerator extends JavaScriptGenerator {
         // Only map the trimmed section of the line.
         sourceBuilder.emitWithMapping(
             SourcePosition.newBuilder()
-                .setStartFilePosition(
-                    FilePosition.newBuilder()
-                        .setLine(nativeSourceLine)
-                        .setColumn(firstNonWhitespaceColumn)
-                        .setByteOffset(currentByteOffset + firstNonWhitespaceColumn)
-                        .build())
-                .setEndFilePosition(
-                    FilePosition.newBuilder()
-                        .setLine(nativeSourceLine)
-                        .setColumn(trimmedLine.length())
-                        .setByteOffset(currentByteOffset + trimmedLine.length())
-                        .build())
+                .setStartPosition(
+                    nativeSourceLine,
+                    firstNonWhitespaceColumn,
+                    currentByteOffset + firstNonWhitespaceColumn)
+                .setEndPosition(
+                    nativeSourceLine, trimmedLine.length(), currentByteOffset + trimmedLine.length())
                 .setFilePath(nativeSource.getRelativeFilePath())
                 .setName(type.getDeclaration().getQualifiedBinaryName() + ".<native>")
                 .build(),
@@ -20,7 +20,6 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
-import com.google.common.io.MoreFiles;
 import com.google.j2cl.common.OutputUtils;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
@@ -30,12 +29,12 @@ import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Type;
 import com.google.j2cl.transpiler.ast.TypeDeclaration;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class NativeJavaScriptFileResolver {
 
@@ -47,7 +46,7 @@ final class NativeJavaScriptFileResolver {
     for (FileInfo file : files) {
       checkArgument(file.sourcePath().endsWith(NativeJavaScriptFile.NATIVE_EXTENSION));
       try {
-        String content = MoreFiles.asCharSource(Paths.get(file.sourcePath()), UTF_8).read();
+        String content = SourceUtils.asByteSource(file.sourcePath()).asCharSource(UTF_8).read();
         NativeJavaScriptFile nativeFile = new NativeJavaScriptFile(file.targetPath(), content);
         byRelativePath.put(nativeFile.getRelativePathWithoutExtension(), nativeFile);
 
@@ -71,7 +70,8 @@ final class NativeJavaScriptFileResolver {
   private final Map<String, NativeJavaScriptFile> byRelativePath;
   private final Map<String, NativeJavaScriptFile> byFullyQualifiedName;
   private final Problems problems;
-  private final Set<NativeJavaScriptFile> usedFiles = new HashSet<>();
+  // Files are matched concurrently when outputs are generated in parallel.
+  private final Set<NativeJavaScriptFile> usedFiles = ConcurrentHashMap.newKeySet();
 
   private NativeJavaScriptFileResolver(
       Map<String, NativeJavaScriptFile> byRelativePath,
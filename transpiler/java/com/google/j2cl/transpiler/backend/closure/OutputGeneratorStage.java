@@ -17,21 +17,33 @@ package com.google.j2cl.transpiler.backend.closure;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.OutputUtils;
+import com.google.j2cl.common.OutputUtils.InMemoryOutput;
 import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.Problems;
-import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.LazyDescriptorResolver;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.ast.Type;
 import com.google.j2cl.transpiler.ast.TypeDeclaration;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache.CachedOutputs;
+import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfo;
 import com.google.j2cl.transpiler.backend.libraryinfo.LibraryInfoBuilder;
-import java.io.IOException;
+import com.google.j2cl.transpiler.backend.libraryinfo.MemberReferenceCollector;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 
 /**
@@ -47,6 +59,10 @@ public class OutputGeneratorStage {
   private final boolean shouldGenerateReadableSourceMaps;
   private final boolean shouldGenerateReadableLibraryInfo;
   private final boolean generateKytheIndexingMetadata;
+  @Nullable private final CompilationUnitOutputCache outputCache;
+  private final int parallelism;
+  private final NativeJavaScriptFileResolver nativeJavaScriptFileResolver;
+  private final LibraryInfoBuilder libraryInfoBuilder = new LibraryInfoBuilder();
 
   public OutputGeneratorStage(
       List<FileInfo> nativeJavaScriptFiles,
@@ -55,6 +71,8 @@ public class OutputGeneratorStage {
       boolean shouldGenerateReadableLibraryInfo,
       boolean shouldGenerateReadableSourceMaps,
       boolean generateKytheIndexingMetadata,
+      @Nullable CompilationUnitOutputCache outputCache,
+      int parallelism,
       Problems problems) {
     this.nativeJavaScriptFiles = nativeJavaScriptFiles;
     this.output = output;
@@ -62,107 +80,176 @@ public class OutputGeneratorStage {
     this.shouldGenerateReadableLibraryInfo = shouldGenerateReadableLibraryInfo;
     this.shouldGenerateReadableSourceMaps = shouldGenerateReadableSourceMaps;
     this.generateKytheIndexingMetadata = generateKytheIndexingMetadata;
+    this.outputCache = outputCache;
+    this.parallelism = parallelism;
     this.problems = problems;
+    this.nativeJavaScriptFileResolver =
+        NativeJavaScriptFileResolver.create(nativeJavaScriptFiles, problems);
   }
 
   public void generateOutputs(Library library) {
+    if (parallelism > 1) {
+      generateOutputsInParallel(library);
+    } else {
+      for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
+        generateOutputs(compilationUnit);
+      }
+    }
+    finishOutputs();
+  }
 
-    // The map must be ordered because it will be iterated over later and if it was not ordered then
-    // our output would be unstable. Actually this one can't actually destabilize output but since
-    // it's being safely iterated over now it's best to guard against it being unsafely iterated
-    // over in the future.
-    NativeJavaScriptFileResolver nativeJavaScriptFileResolver =
-        NativeJavaScriptFileResolver.create(nativeJavaScriptFiles, problems);
-    LibraryInfoBuilder libraryInfoBuilder = new LibraryInfoBuilder();
-
-    for (CompilationUnit compilationUnit : library.getCompilationUnits()) {
-      for (Type type : compilationUnit.getTypes()) {
-        List<Import> imports = ImportGatherer.gatherImports(type);
-        JavaScriptImplGenerator jsImplGenerator =
-            new JavaScriptImplGenerator(problems, type, imports);
-
-        String typeRelativePath = getPackageRelativePath(type.getDeclaration());
-
-        NativeJavaScriptFile matchingNativeFile =
-            compilationUnit.isSynthetic()
-                ? null
-                : nativeJavaScriptFileResolver.getMatchingNativeFile(compilationUnit, type);
-
-        if (matchingNativeFile != null) {
-          jsImplGenerator.setNativeSource(matchingNativeFile);
-
-          // Native JsTypes are mere references to external JavaScript types, adding native code
-          // through native.js files does not make sense. Non-native JsEnums on the other hand are
-          // emitted by J2CL but are not JavaScript classes, "native.js" files are not allowed in
-          // this case to avoid surprises.
-          TypeDeclaration typeDeclaration = type.getUnderlyingTypeDeclaration();
-          if (typeDeclaration.isNative() || typeDeclaration.isJsEnum()) {
-            problems.error(
-                "%s '%s' does not support having a '.native.js' file.",
-                typeDeclaration.isJsEnum() ? "JsEnum" : "Native JsType",
-                typeDeclaration.getReadableDescription());
+  /**
+   * Generates the outputs of the compilation units concurrently.
+   *
+   * <p>The outputs, library info and problems of each unit are generated separately and then added
+   * in the order of the units, which makes them identical to the ones of a sequential run. Only a
+   * window of units ahead of the one being added is generated at any time, so that the outputs
+   * held in memory stay bounded regardless of the size of the library.
+   */
+  private void generateOutputsInParallel(Library library) {
+    // Lazy descriptor properties are backed by frontend state that is not thread safe.
+    LazyDescriptorResolver.resolveReachableDescriptors(library);
+
+    List<CompilationUnit> compilationUnits = library.getCompilationUnits();
+    // Twice the number of threads keeps the pool busy while a unit is being added.
+    int window = parallelism * 2;
+    // The pool threads need to see the same compilation state as the calling thread.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    ExecutorService executorService = Executors.newFixedThreadPool(parallelism);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      GeneratedOutputs[] generatedOutputsByUnit = new GeneratedOutputs[compilationUnits.size()];
+      for (int i = 0; i < compilationUnits.size(); i++) {
+        while (results.size() < Math.min(compilationUnits.size(), i + window)) {
+          int index = results.size();
+          CompilationUnit compilationUnit = compilationUnits.get(index);
+          if (outputCache != null && outputCache.getCachedOutputs(compilationUnit) != null) {
+            // Cached outputs are added as in a sequential run.
+            results.add(null);
             continue;
           }
-
-          // Copy native js file to output.
-          output.write(matchingNativeFile.getRelativeFilePath(), matchingNativeFile.getContent());
+          results.add(
+              executorService.submit(
+                  () ->
+                      snapshot.runWith(
+                          () ->
+                              generatedOutputsByUnit[index] =
+                                  generateOutputsSeparately(compilationUnit))));
         }
 
-        String javaScriptImplementationSource = jsImplGenerator.renderOutput();
-
-        JavaScriptHeaderGenerator jsHeaderGenerator =
-            new JavaScriptHeaderGenerator(problems, type, imports);
-        String javaScriptHeaderSource = jsHeaderGenerator.renderOutput();
-
-        if (generateKytheIndexingMetadata) {
-          // Inline metadata so that Kythe can create edges between these files and the Java source
-          // file.
-          javaScriptHeaderSource +=
-              renderKytheIndexingMetadata(jsHeaderGenerator.getSourceMappings());
-          javaScriptImplementationSource +=
-              renderKytheIndexingMetadata(jsImplGenerator.getSourceMappings());
-        } else {
-          String sourceMap = renderSourceMap(type, jsImplGenerator.getSourceMappings());
-
-          if (sourceMap != null) {
-            javaScriptImplementationSource +=
-                String.format(
-                    "%n//# sourceMappingURL=%s\n",
-                    type.getDeclaration().getSimpleBinaryName() + SOURCE_MAP_SUFFIX);
-            output.write(typeRelativePath + SOURCE_MAP_SUFFIX, sourceMap);
-          }
+        Future<?> result = results.get(i);
+        if (result == null) {
+          generateOutputs(compilationUnits.get(i));
+          continue;
         }
-
-        if (shouldGenerateReadableSourceMaps && !compilationUnit.isSynthetic()) {
-          outputReadableSourceMap(
-              compilationUnit,
-              type,
-              javaScriptImplementationSource,
-              jsImplGenerator.getSourceMappings(),
-              matchingNativeFile);
+        try {
+          Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new AssertionError(e.getCause());
         }
+        addGeneratedOutputs(compilationUnits.get(i), generatedOutputsByUnit[i]);
+        // Release the outputs as soon as they are written.
+        generatedOutputsByUnit[i] = null;
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /** Generates the outputs of a compilation unit without adding them to the library outputs. */
+  private GeneratedOutputs generateOutputsSeparately(CompilationUnit compilationUnit) {
+    Problems compilationUnitProblems = new Problems();
+    InMemoryOutput compilationUnitOutput = new InMemoryOutput(compilationUnitProblems);
+    LibraryInfoBuilder compilationUnitLibraryInfoBuilder = new LibraryInfoBuilder();
+    try {
+      generateOutputs(
+          compilationUnit,
+          compilationUnitOutput,
+          compilationUnitLibraryInfoBuilder,
+          compilationUnitProblems);
+    } catch (Problems.Exit e) {
+      // The problem is reported when the outputs are added.
+      return new GeneratedOutputs(null, null, compilationUnitProblems);
+    }
+    compilationUnitOutput.close();
+    return new GeneratedOutputs(
+        compilationUnitOutput, compilationUnitLibraryInfoBuilder.build(), compilationUnitProblems);
+  }
 
-        String implRelativePath = typeRelativePath + jsImplGenerator.getSuffix();
-        output.write(implRelativePath, javaScriptImplementationSource);
+  private void addGeneratedOutputs(
+      CompilationUnit compilationUnit, GeneratedOutputs generatedOutputs) {
+    problems.addAll(generatedOutputs.problems);
+    if (generatedOutputs.output == null) {
+      // Generation was aborted by a fatal problem.
+      problems.abortIfHasErrors();
+    }
+    if (outputCache != null
+        && outputCache.isCacheable(compilationUnit)
+        && !problems.hasErrors()) {
+      outputCache.put(
+          compilationUnit, generatedOutputs.output, generatedOutputs.libraryInfo, problems);
+    }
+    generatedOutputs.output.writeTo(output);
+    libraryInfoBuilder.addLibraryInfo(generatedOutputs.libraryInfo);
+  }
 
-        String headerRelativePath = typeRelativePath + jsHeaderGenerator.getSuffix();
-        output.write(headerRelativePath, javaScriptHeaderSource);
+  /** The outputs generated for a compilation unit on a pool thread. */
+  private static final class GeneratedOutputs {
+    @Nullable private final InMemoryOutput output;
+    @Nullable private final LibraryInfo libraryInfo;
+    private final Problems problems;
+
+    private GeneratedOutputs(
+        @Nullable InMemoryOutput output, @Nullable LibraryInfo libraryInfo, Problems problems) {
+      this.output = output;
+      this.libraryInfo = libraryInfo;
+      this.problems = problems;
+    }
+  }
 
-        if (libraryInfoOutputPath != null || shouldGenerateReadableLibraryInfo) {
-          libraryInfoBuilder.addType(
-              type,
-              headerRelativePath,
-              implRelativePath,
-              jsImplGenerator.getOutputSourceInfoByMember());
-        }
-      }
+  /**
+   * Generates the outputs of a compilation unit. The unit is not referenced afterwards, so that it
+   * can be released right away.
+   */
+  public void generateOutputs(CompilationUnit compilationUnit) {
+    CachedOutputs cachedOutputs =
+        outputCache == null ? null : outputCache.getCachedOutputs(compilationUnit);
+    if (cachedOutputs != null) {
+      // The unit was not normalized, but its types are enough to account for the native files
+      // that its outputs include.
+      compilationUnit
+          .streamTypes()
+          .forEach(t -> nativeJavaScriptFileResolver.getMatchingNativeFile(compilationUnit, t));
+      problems.addAll(cachedOutputs.getProblems());
+      cachedOutputs.getOutput().writeTo(output);
+      libraryInfoBuilder.addLibraryInfo(cachedOutputs.getLibraryInfo());
+      return;
+    }
 
-      if (!generateKytheIndexingMetadata && !compilationUnit.isSynthetic()) {
-        // Copy java sources to output.
-        output.copyFile(compilationUnit.getFilePath(), compilationUnit.getPackageRelativePath());
-      }
+    if (outputCache == null || !outputCache.isCacheable(compilationUnit)) {
+      generateOutputs(compilationUnit, output, libraryInfoBuilder, problems);
+      return;
     }
 
+    // Generate the outputs of the unit separately so that they can be reused by later
+    // compilations.
+    InMemoryOutput compilationUnitOutput = new InMemoryOutput(problems);
+    LibraryInfoBuilder compilationUnitLibraryInfoBuilder = new LibraryInfoBuilder();
+    generateOutputs(
+        compilationUnit, compilationUnitOutput, compilationUnitLibraryInfoBuilder, problems);
+    compilationUnitOutput.close();
+    LibraryInfo compilationUnitLibraryInfo = compilationUnitLibraryInfoBuilder.build();
+    if (!problems.hasErrors()) {
+      outputCache.put(
+          compilationUnit, compilationUnitOutput, compilationUnitLibraryInfo, problems);
+    }
+    compilationUnitOutput.writeTo(output);
+    libraryInfoBuilder.addLibraryInfo(compilationUnitLibraryInfo);
+  }
+
+  /** Generates the outputs that cover the whole library, once all the units have been generated. */
+  public void finishOutputs() {
     if (shouldGenerateReadableLibraryInfo) {
       output.write("library_info_debug.json", libraryInfoBuilder.toJson(problems));
     }
@@ -175,6 +262,119 @@ public class OutputGeneratorStage {
     nativeJavaScriptFileResolver.checkAllFilesUsed();
   }
 
+  private void generateOutputs(
+      CompilationUnit compilationUnit,
+      Output output,
+      LibraryInfoBuilder libraryInfoBuilder,
+      Problems problems) {
+    boolean shouldGenerateLibraryInfo =
+        libraryInfoOutputPath != null || shouldGenerateReadableLibraryInfo;
+    // Reuses the encoding buffers for the source maps of all the types in the unit.
+    SourceMapGeneratorStage sourceMapGenerator = new SourceMapGeneratorStage();
+    for (Type type : compilationUnit.getTypes()) {
+      // The references needed for the library info are collected in the same traversal as the
+      // imports.
+      MemberReferenceCollector memberReferences =
+          shouldGenerateLibraryInfo ? new MemberReferenceCollector() : null;
+      List<Import> imports =
+          memberReferences == null
+              ? ImportGatherer.gatherImports(type)
+              : ImportGatherer.gatherImports(type, memberReferences);
+      JavaScriptImplGenerator jsImplGenerator =
+          new JavaScriptImplGenerator(problems, type, imports);
+
+      String typeRelativePath = getPackageRelativePath(type.getDeclaration());
+
+      NativeJavaScriptFile matchingNativeFile =
+          compilationUnit.isSynthetic()
+              ? null
+              : nativeJavaScriptFileResolver.getMatchingNativeFile(compilationUnit, type);
+
+      if (matchingNativeFile != null) {
+        jsImplGenerator.setNativeSource(matchingNativeFile);
+
+        // Native JsTypes are mere references to external JavaScript types, adding native code
+        // through native.js files does not make sense. Non-native JsEnums on the other hand are
+        // emitted by J2CL but are not JavaScript classes, "native.js" files are not allowed in
+        // this case to avoid surprises.
+        TypeDeclaration typeDeclaration = type.getUnderlyingTypeDeclaration();
+        if (typeDeclaration.isNative() || typeDeclaration.isJsEnum()) {
+          problems.error(
+              "%s '%s' does not support having a '.native.js' file.",
+              typeDeclaration.isJsEnum() ? "JsEnum" : "Native JsType",
+              typeDeclaration.getReadableDescription());
+          continue;
+        }
+
+        // Copy native js file to output.
+        output.write(matchingNativeFile.getRelativeFilePath(), matchingNativeFile.getContent());
+      }
+
+      String javaScriptImplementationSource = jsImplGenerator.renderOutput();
+
+      JavaScriptHeaderGenerator jsHeaderGenerator =
+          new JavaScriptHeaderGenerator(problems, type, imports);
+      String javaScriptHeaderSource = jsHeaderGenerator.renderOutput();
+
+      // Trailing comments are written after the generated sources rather than appended to them,
+      // which would copy the sources once more.
+      String javaScriptHeaderTrailer = "";
+      String javaScriptImplementationTrailer = "";
+      if (generateKytheIndexingMetadata) {
+        // Inline metadata so that Kythe can create edges between these files and the Java source
+        // file.
+        javaScriptHeaderTrailer =
+            renderKytheIndexingMetadata(jsHeaderGenerator.getSourceMappings());
+        javaScriptImplementationTrailer =
+            renderKytheIndexingMetadata(jsImplGenerator.getSourceMappings());
+      } else {
+        String sourceMap =
+            sourceMapGenerator.renderSourceMap(
+                type.getDeclaration().getSimpleBinaryName() + JavaScriptImplGenerator.FILE_SUFFIX,
+                jsImplGenerator.getSourceMappings());
+        javaScriptImplementationTrailer =
+            String.format(
+                "%n//# sourceMappingURL=%s\n",
+                type.getDeclaration().getSimpleBinaryName() + SOURCE_MAP_SUFFIX);
+        output.write(typeRelativePath + SOURCE_MAP_SUFFIX, sourceMap);
+      }
+
+      if (shouldGenerateReadableSourceMaps && !compilationUnit.isSynthetic()) {
+        outputReadableSourceMap(
+            compilationUnit,
+            type,
+            javaScriptImplementationSource + javaScriptImplementationTrailer,
+            jsImplGenerator.getSourceMappings(),
+            matchingNativeFile,
+            output,
+            problems);
+      }
+
+      String implRelativePath = typeRelativePath + jsImplGenerator.getSuffix();
+      output.write(
+          implRelativePath,
+          ImmutableList.of(javaScriptImplementationSource, javaScriptImplementationTrailer));
+
+      String headerRelativePath = typeRelativePath + jsHeaderGenerator.getSuffix();
+      output.write(
+          headerRelativePath, ImmutableList.of(javaScriptHeaderSource, javaScriptHeaderTrailer));
+
+      if (shouldGenerateLibraryInfo) {
+        libraryInfoBuilder.addType(
+            type,
+            headerRelativePath,
+            implRelativePath,
+            jsImplGenerator.getOutputSourceInfoByMember(),
+            memberReferences);
+      }
+    }
+
+    if (!generateKytheIndexingMetadata && !compilationUnit.isSynthetic()) {
+      // Copy java sources to output.
+      output.copyFile(compilationUnit.getFilePath(), compilationUnit.getPackageRelativePath());
+    }
+  }
+
   private static final String SOURCE_MAP_SUFFIX = ".js.map";
 
   private static final String READABLE_MAPPINGS_SUFFIX = ".js.mappings";
@@ -189,10 +389,10 @@ public class OutputGeneratorStage {
       SourcePosition javaScriptSourcePosition = entry.getKey();
 
       metadata.addAnchorAnchor(
-          javaSourcePosition.getStartFilePosition().getByteOffset(),
-          javaSourcePosition.getEndFilePosition().getByteOffset(),
-          javaScriptSourcePosition.getStartFilePosition().getByteOffset(),
-          javaScriptSourcePosition.getEndFilePosition().getByteOffset(),
+          javaSourcePosition.getStartOffset(),
+          javaSourcePosition.getEndOffset(),
+          javaScriptSourcePosition.getStartOffset(),
+          javaScriptSourcePosition.getEndOffset(),
           null, // sourceCorpus
           javaSourcePosition.getFilePath(),
           null // sourceRoot
@@ -202,24 +402,14 @@ public class OutputGeneratorStage {
     return String.format("%n// Kythe Indexing Metadata:%n// %s", metadata.toJson());
   }
 
-  @Nullable
-  private String renderSourceMap(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition) {
-    try {
-      return SourceMapGeneratorStage.generateSourceMaps(
-          type, javaSourcePositionByOutputSourcePosition);
-    } catch (IOException e) {
-      problems.fatal(FatalError.CANNOT_WRITE_FILE, e.toString());
-      return null;
-    }
-  }
-
   private void outputReadableSourceMap(
       CompilationUnit j2clUnit,
       Type type,
       String javaScriptImplementationFileContents,
       Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition,
-      NativeJavaScriptFile nativeJavaScriptFile) {
+      NativeJavaScriptFile nativeJavaScriptFile,
+      Output output,
+      Problems problems) {
     checkArgument(
         !j2clUnit.isSynthetic(), "Cannot generate sourcemap for synthetic CompilationUnit");
     String readableOutput =
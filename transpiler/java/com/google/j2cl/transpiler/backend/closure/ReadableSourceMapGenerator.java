@@ -16,6 +16,7 @@
 package com.google.j2cl.transpiler.backend.closure;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
@@ -23,9 +24,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourcePosition;
+import com.google.j2cl.common.SourceUtils;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -89,7 +90,7 @@ public final class ReadableSourceMapGenerator {
     try {
       contentsByFileNameBuilder.put(
           new File(j2clUnitFilePath).getName(),
-          java.nio.file.Files.readAllLines(Paths.get(j2clUnitFilePath)));
+          SourceUtils.asByteSource(j2clUnitFilePath).asCharSource(UTF_8).readLines());
     } catch (IOException e) {
       problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
     }
@@ -98,11 +99,11 @@ public final class ReadableSourceMapGenerator {
 
   private static String extract(
       SourcePosition sourcePosition, List<String> lines, boolean condense) {
-    int startLine = sourcePosition.getStartFilePosition().getLine();
-    int endLine = sourcePosition.getEndFilePosition().getLine();
+    int startLine = sourcePosition.getStartLine();
+    int endLine = sourcePosition.getEndLine();
     String fragment = lines.get(startLine);
-    int endColumn = sourcePosition.getEndFilePosition().getColumn();
-    int startColumn = sourcePosition.getStartFilePosition().getColumn();
+    int endColumn = sourcePosition.getEndColumn();
+    int startColumn = sourcePosition.getStartColumn();
     if (endLine != startLine || endColumn == -1) {
       StringBuilder content =
           new StringBuilder(trimTrailingWhitespace(fragment.substring(startColumn)));
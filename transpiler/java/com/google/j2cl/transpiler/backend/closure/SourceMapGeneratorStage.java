@@ -15,56 +15,271 @@
  */
 package com.google.j2cl.transpiler.backend.closure;
 
-import com.google.debugging.sourcemap.FilePosition;
-import com.google.debugging.sourcemap.SourceMapFormat;
-import com.google.debugging.sourcemap.SourceMapGenerator;
-import com.google.debugging.sourcemap.SourceMapGeneratorFactory;
 import com.google.j2cl.common.SourcePosition;
-import com.google.j2cl.transpiler.ast.Type;
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-/** Generates the source maps. */
+/**
+ * Generates the source maps.
+ *
+ * <p>The mappings are encoded in the V3 format straight from the positions recorded while emitting
+ * the source, which is sorted by output position, producing the same segments as Closure's
+ * {@code SourceMapGeneratorV3}. Nested mappings are resolved as in Closure: the region of a mapping
+ * that is not covered by its children is attributed to the mapping itself. The buffers used for
+ * encoding are kept across calls so that the generator can be reused for all the types of a
+ * compilation unit.
+ */
 public final class SourceMapGeneratorStage {
 
-  public static String generateSourceMaps(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition)
-      throws IOException {
-    return renderSourceMapToString(type, javaSourcePositionByOutputSourcePosition);
+  private static final char[] BASE64_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  /** Mapping from a region of the output to its originating Java position. */
+  private static class Mapping {
+    final SourcePosition javaSourcePosition;
+    final int startLine;
+    final int startColumn;
+    final int endLine;
+    final int endColumn;
+
+    Mapping(SourcePosition javaSourcePosition, SourcePosition outputSourcePosition) {
+      this.javaSourcePosition = javaSourcePosition;
+      this.startLine = outputSourcePosition.getStartLine();
+      this.startColumn = outputSourcePosition.getStartColumn();
+      this.endLine = outputSourcePosition.getEndLine();
+      this.endColumn = outputSourcePosition.getEndColumn();
+    }
   }
 
-  private static String renderSourceMapToString(
-      Type type, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition)
-      throws IOException {
-    SourceMapGenerator sourceMapGenerator =
-        SourceMapGeneratorFactory.getInstance(SourceMapFormat.V3);
+  private final StringBuilder mappings = new StringBuilder();
+  private final StringBuilder sourceMap = new StringBuilder();
+  private final Deque<Mapping> enclosingMappings = new ArrayDeque<>();
+  private final Map<String, Integer> sourceIndexByFileName = new HashMap<>();
+  private final StringBuilder sources = new StringBuilder();
+  private final Map<String, Integer> nameIndexByName = new HashMap<>();
+  private final StringBuilder names = new StringBuilder();
+
+  // Position in the output up to which the mappings have been encoded.
+  private int line;
+  private int column;
+
+  // State of the last encoded segment; the fields of a segment are relative to it.
+  private int previousLine;
+  private int previousColumn;
+  private int previousSourceIndex;
+  private int previousJavaLine;
+  private int previousJavaColumn;
+  private int previousNameIndex;
+
+  // Last output line covered by a mapping that was encoded.
+  private int maxLine;
+
+  /**
+   * Renders the source map of the output {@code file} from the Java positions keyed by the output
+   * positions they map, which need to be sorted by output position.
+   */
+  public String renderSourceMap(
+      String file, Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition) {
+    reset();
     for (Entry<SourcePosition, SourcePosition> entry :
         javaSourcePositionByOutputSourcePosition.entrySet()) {
       SourcePosition javaSourcePosition = entry.getValue();
-      SourcePosition javaScriptSourcePosition = entry.getKey();
-
-      sourceMapGenerator.addMapping(
-          javaSourcePosition.getFileName(),
-          javaSourcePosition.getName(),
-          toFilePosition(javaSourcePosition.getStartFilePosition()),
-          toFilePosition(javaScriptSourcePosition.getStartFilePosition()),
-          toFilePosition(javaScriptSourcePosition.getEndFilePosition()));
+      if (javaSourcePosition.getFileName() == null || javaSourcePosition.getStartLine() < 0) {
+        continue;
+      }
+      addMapping(new Mapping(javaSourcePosition, entry.getKey()));
+    }
+    // Close the mappings that are still open.
+    while (!enclosingMappings.isEmpty()) {
+      Mapping mapping = enclosingMappings.pop();
+      encodeUntil(mapping, mapping.endLine, mapping.endColumn);
     }
-    StringBuilder sb = new StringBuilder();
-    String typeName = type.getDeclaration().getSimpleBinaryName();
-    sourceMapGenerator.appendTo(sb, typeName + JavaScriptImplGenerator.FILE_SUFFIX);
-    return sb.toString();
+    dropLinesAfterMaxLine();
+    mappings.append(';');
+
+    sourceMap
+        .append("{\n\"version\":3,\n\"file\":")
+        .append(quote(file))
+        .append(",\n\"lineCount\":")
+        .append(maxLine + 1)
+        .append(",\n\"mappings\":\"")
+        .append(mappings)
+        .append("\",\n\"sources\":[")
+        .append(sources)
+        .append("],\n\"names\":[")
+        .append(names)
+        .append("]\n}\n");
+    return sourceMap.toString();
+  }
+
+  private void reset() {
+    mappings.setLength(0);
+    sourceMap.setLength(0);
+    enclosingMappings.clear();
+    sourceIndexByFileName.clear();
+    sources.setLength(0);
+    nameIndexByName.clear();
+    names.setLength(0);
+    line = 0;
+    column = 0;
+    previousLine = -1;
+    previousColumn = 0;
+    previousSourceIndex = 0;
+    previousJavaLine = 0;
+    previousJavaColumn = 0;
+    previousNameIndex = 0;
+    maxLine = 0;
+  }
+
+  private void addMapping(Mapping mapping) {
+    // Close the enclosing mappings that end before this one starts, encoding what remains of them.
+    while (!enclosingMappings.isEmpty() && !isEnclosing(enclosingMappings.peek(), mapping)) {
+      Mapping enclosingMapping = enclosingMappings.pop();
+      encodeUntil(enclosingMapping, enclosingMapping.endLine, enclosingMapping.endColumn);
+    }
+    // The region between the previous mapping and this one belongs to the enclosing mapping, if
+    // any, and is unmapped otherwise.
+    encodeUntil(enclosingMappings.peek(), mapping.startLine, mapping.startColumn);
+    enclosingMappings.push(mapping);
+  }
+
+  /** Whether {@code mapping} starts before or where {@code enclosingMapping} ends. */
+  private static boolean isEnclosing(Mapping enclosingMapping, Mapping mapping) {
+    return mapping.startLine < enclosingMapping.endLine
+        || (mapping.startLine == enclosingMapping.endLine
+            && mapping.startColumn <= enclosingMapping.endColumn);
   }
 
   /**
-   * Converts a j2cl File Position to a JsCompiler sourcemap File Position.
-   *
-   * @return JsCompiler sourcemap File Position
+   * Encodes the region from the current position up to the given one as mapped by {@code mapping},
+   * or as unmapped if {@code mapping} is null. Positions that were already passed are ignored.
    */
-  private static FilePosition toFilePosition(com.google.j2cl.common.FilePosition j2clFilePosition) {
-    return new FilePosition(j2clFilePosition.getLine(), j2clFilePosition.getColumn());
+  private void encodeUntil(Mapping mapping, int nextLine, int nextColumn) {
+    if (line > nextLine || (line == nextLine && column >= nextColumn)) {
+      return;
+    }
+    if (previousLine == line) {
+      mappings.append(',');
+    } else {
+      // Output columns are relative to the previous segment on the same line only.
+      previousColumn = 0;
+    }
+    encodeSegment(mapping);
+    previousLine = line;
+    if (mapping != null) {
+      maxLine = Math.max(maxLine, mapping.endLine);
+    }
+    for (int i = line; i < nextLine; i++) {
+      mappings.append(';');
+    }
+    line = nextLine;
+    column = nextColumn;
   }
 
-  private SourceMapGeneratorStage() {}
+  /**
+   * Drops the unmapped regions encoded after the last line of the mappings, keeping only the
+   * terminator of that line, like Closure does.
+   */
+  private void dropLinesAfterMaxLine() {
+    int remainingLines = maxLine + 1;
+    for (int i = 0; i < mappings.length(); i++) {
+      if (mappings.charAt(i) == ';' && --remainingLines == 0) {
+        mappings.setLength(i + 1);
+        return;
+      }
+    }
+  }
+
+  private void encodeSegment(Mapping mapping) {
+    appendVlq(column - previousColumn);
+    previousColumn = column;
+    if (mapping == null) {
+      return;
+    }
+
+    SourcePosition javaSourcePosition = mapping.javaSourcePosition;
+    int sourceIndex = getSourceIndex(javaSourcePosition.getFileName());
+    appendVlq(sourceIndex - previousSourceIndex);
+    previousSourceIndex = sourceIndex;
+
+    appendVlq(javaSourcePosition.getStartLine() - previousJavaLine);
+    previousJavaLine = javaSourcePosition.getStartLine();
+
+    appendVlq(javaSourcePosition.getStartColumn() - previousJavaColumn);
+    previousJavaColumn = javaSourcePosition.getStartColumn();
+
+    String name = javaSourcePosition.getName();
+    if (name != null) {
+      int nameIndex = getNameIndex(name);
+      appendVlq(nameIndex - previousNameIndex);
+      previousNameIndex = nameIndex;
+    }
+  }
+
+  private int getSourceIndex(String fileName) {
+    Integer index = sourceIndexByFileName.get(fileName);
+    if (index == null) {
+      index = sourceIndexByFileName.size();
+      sourceIndexByFileName.put(fileName, index);
+      if (index > 0) {
+        sources.append(',');
+      }
+      sources.append(quote(fileName));
+    }
+    return index;
+  }
+
+  private int getNameIndex(String name) {
+    Integer index = nameIndexByName.get(name);
+    if (index == null) {
+      index = nameIndexByName.size();
+      nameIndexByName.put(name, index);
+      if (index > 0) {
+        names.append(',');
+      }
+      names.append(quote(name));
+    }
+    return index;
+  }
+
+  /** Appends {@code value} as a base64 VLQ, with the sign in the least significant bit. */
+  private void appendVlq(int value) {
+    int vlq = value < 0 ? ((-value) << 1) | 1 : value << 1;
+    do {
+      int digit = vlq & 0x1f;
+      vlq >>>= 5;
+      if (vlq != 0) {
+        digit |= 0x20;
+      }
+      mappings.append(BASE64_DIGITS[digit]);
+    } while (vlq != 0);
+  }
+
+  private static String quote(String value) {
+    StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"').toString();
+  }
 }
@@ -18,10 +18,9 @@ package com.google.j2cl.transpiler.backend.common;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.j2cl.common.FilePosition;
+import com.google.j2cl.common.OutputUtils.Output;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.MemberDescriptor;
 import java.util.ArrayList;
@@ -43,6 +42,7 @@ public class SourceBuilder {
   private static final String LINE_SEPARATOR = String.valueOf(LINE_SEPARATOR_CHAR);
   private static final String INDENT = " ";
   private static final int SINGLE_STRING_THRESHOLD = 1_000_000;
+  private static final SourcePosition EOF_POSITION = SourcePosition.create(0, 0, 0, 0, 0, 0);
 
   private int currentLine = 0;
   private int currentColumn = 0;
@@ -88,16 +88,15 @@ public class SourceBuilder {
   }
 
   private SourcePosition emit(Runnable codeEmitter) {
-    FilePosition startPosition = getCurrentPosition();
+    int startLine = currentLine;
+    int startColumn = currentColumn;
+    int startLength = currentLength;
     codeEmitter.run();
-    FilePosition endPosition = getCurrentPosition();
-    if (endPosition.equals(startPosition)) {
+    if (currentLength == startLength) {
       return SourcePosition.NONE;
     }
-    return SourcePosition.newBuilder()
-        .setStartFilePosition(startPosition)
-        .setEndFilePosition(endPosition)
-        .build();
+    return SourcePosition.create(
+        startLine, startColumn, startLength, currentLine, currentColumn, currentLength);
   }
 
   /**
@@ -110,14 +109,7 @@ public class SourceBuilder {
     // TODO(stalcup): switch to generator.setFileLength() when that becomes possible.
     // Emit eof marker
     if (sb.length() != 0 || !outputs.isEmpty()) {
-      emitWithMapping(
-          SourcePosition.newBuilder()
-              .setStartFilePosition(
-                  FilePosition.newBuilder().setLine(0).setColumn(0).setByteOffset(0).build())
-              .setEndFilePosition(
-                  FilePosition.newBuilder().setLine(0).setColumn(0).setByteOffset(0).build())
-              .build(),
-          () -> {});
+      emitWithMapping(EOF_POSITION, () -> {});
     }
     if (sb.length() > 0) {
       outputs.add(sb.toString());
@@ -144,25 +136,33 @@ public class SourceBuilder {
 
   public void append(String source) {
     checkState(!finished);
-    if (source.isEmpty()) {
+    int sourceLength = source.length();
+    if (sourceLength == 0) {
       return;
     }
-    String indentedSource =
-        source.replace(LINE_SEPARATOR, LINE_SEPARATOR + INDENT.repeat(currentIndentation));
 
     if (sb.length() > SINGLE_STRING_THRESHOLD) {
       outputs.add(sb.toString());
       sb.setLength(0);
     }
 
-    sb.append(indentedSource);
-    currentLength += indentedSource.length();
-    currentLine += CharMatcher.is(LINE_SEPARATOR_CHAR).countIn(indentedSource);
-    int newLineSeparatorIndex = indentedSource.lastIndexOf(LINE_SEPARATOR);
-    currentColumn =
-        newLineSeparatorIndex == -1
-            ? currentColumn + indentedSource.length()
-            : indentedSource.length() - newLineSeparatorIndex - 1;
+    // Copy the source directly into the buffer, indenting the lines that it starts, and update the
+    // position as the source is copied to avoid scanning it again.
+    int startLength = sb.length();
+    int lineStart = 0;
+    int lineSeparatorIndex;
+    while ((lineSeparatorIndex = source.indexOf(LINE_SEPARATOR_CHAR, lineStart)) != -1) {
+      sb.append(source, lineStart, lineSeparatorIndex + 1);
+      for (int i = 0; i < currentIndentation; i++) {
+        sb.append(INDENT);
+      }
+      currentLine++;
+      currentColumn = currentIndentation * INDENT.length();
+      lineStart = lineSeparatorIndex + 1;
+    }
+    sb.append(source, lineStart, sourceLength);
+    currentColumn += sourceLength - lineStart;
+    currentLength += sb.length() - startLength;
   }
 
   public void appendLines(String... lines) {
@@ -194,7 +194,22 @@ public class SourceBuilder {
   }
 
   public String build() {
-    return String.join("", buildToList());
+    ImmutableList<String> chunks = buildToList();
+    // Avoid copying the source when it fits in a single chunk, which is the common case.
+    return chunks.size() == 1 ? chunks.get(0) : String.join("", chunks);
+  }
+
+  /**
+   * Writes the source to {@code path} in {@code output}. The chunks the source was built in are
+   * handed to the output as they are, without joining them into a single string first.
+   */
+  public void writeTo(Output output, String path) {
+    output.write(path, buildToList());
+  }
+
+  /** Returns whether nothing has been emitted so far. */
+  public boolean isEmpty() {
+    return currentLength == 0;
   }
 
   /**
@@ -236,12 +251,4 @@ public class SourceBuilder {
     }
     append(")");
   }
-
-  private FilePosition getCurrentPosition() {
-    return FilePosition.newBuilder()
-        .setLine(currentLine)
-        .setColumn(currentColumn)
-        .setByteOffset(currentLength)
-        .build();
-  }
 }
@@ -42,7 +42,7 @@ class KotlinGeneratorStage(private val output: OutputUtils.Output, private val p
   }
 
   /** Generate all outputs for a compilation unit. */
-  private fun generateOutputs(compilationUnit: CompilationUnit) {
+  fun generateOutputs(compilationUnit: CompilationUnit) {
     generateKtOutputs(compilationUnit)
     generateObjCOutputs(compilationUnit)
   }
@@ -25,15 +25,15 @@ import com.google.common.collect.Sets;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
 import com.google.j2cl.common.SourcePosition;
-import com.google.j2cl.transpiler.ast.AbstractVisitor;
 import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
+import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.FieldAccess;
 import com.google.j2cl.transpiler.ast.FieldDeclarationStatement;
 import com.google.j2cl.transpiler.ast.FieldDescriptor;
-import com.google.j2cl.transpiler.ast.Invocation;
 import com.google.j2cl.transpiler.ast.JavaScriptConstructorReference;
 import com.google.j2cl.transpiler.ast.Member;
 import com.google.j2cl.transpiler.ast.MemberDescriptor;
+import com.google.j2cl.transpiler.ast.MemberReference;
 import com.google.j2cl.transpiler.ast.MethodCall;
 import com.google.j2cl.transpiler.ast.MethodDescriptor;
 import com.google.j2cl.transpiler.ast.Statement;
@@ -45,6 +45,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -56,11 +57,16 @@ public final class LibraryInfoBuilder {
   private final LibraryInfo.Builder libraryInfo = LibraryInfo.newBuilder();
   private final Map<String, Integer> types = new HashMap<>();
 
+  /**
+   * Adds a type given the references collected from it by a {@link MemberReferenceCollector},
+   * which lets the caller collect them while traversing the type for other purposes.
+   */
   public void addType(
       Type type,
       String headerFilePath,
       String implFilePath,
-      Map<MemberDescriptor, SourcePosition> outputSourceInfoByMember) {
+      Map<MemberDescriptor, SourcePosition> outputSourceInfoByMember,
+      MemberReferenceCollector memberReferences) {
 
     if (!isPrunableType(type.getTypeDescriptor())) {
       return;
@@ -125,7 +131,8 @@ public final class LibraryInfoBuilder {
               getMemberId(memberDescriptor),
               m -> createMemberInfo(memberDescriptor, outputSourceInfoByMember));
 
-      collectReferencedTypesAndMethodInvocations(member, builder);
+      collectReferencedTypesAndMethodInvocations(
+          member, memberReferences.getReferences(member), builder);
     }
 
     if (type.isOptimizedEnum()) {
@@ -144,22 +151,19 @@ public final class LibraryInfoBuilder {
 
         String fieldId = getMemberId(fieldDeclarationStatement.getFieldDescriptor());
 
-        fieldDeclarationStatement.accept(
-            new AbstractVisitor() {
-              @Override
-              public void exitMethodCall(MethodCall methodCall) {
-                if (isJsAccessible(methodCall.getTarget())) {
-                  // We don't record access to js accessible fields since they are never pruned.
-                  return;
-                }
-                // We only expect static Method Invocation at that point.
-                checkState(methodCall.getTarget().isStatic());
-
-                memberInfoBuilders
-                    .get(fieldId)
-                    .addInvokedMethods(createMethodInvocation(methodCall.getTarget()));
-              }
-            });
+        for (MethodCall methodCall :
+            memberReferences.getMethodCalls(fieldDeclarationStatement)) {
+          if (isJsAccessible(methodCall.getTarget())) {
+            // We don't record access to js accessible fields since they are never pruned.
+            continue;
+          }
+          // We only expect static Method Invocation at that point.
+          checkState(methodCall.getTarget().isStatic());
+
+          memberInfoBuilders
+              .get(fieldId)
+              .addInvokedMethods(createMethodInvocation(methodCall.getTarget()));
+        }
       }
     }
 
@@ -191,9 +195,9 @@ public final class LibraryInfoBuilder {
     if (position != null) {
       memberInfoBuilder.setPosition(
           com.google.j2cl.transpiler.backend.libraryinfo.SourcePosition.newBuilder()
-              .setStart(position.getStartFilePosition().getLine())
+              .setStart(position.getStartLine())
               // For the minifier, end position is exclusive.
-              .setEnd(position.getEndFilePosition().getLine() + 1)
+              .setEnd(position.getEndLine() + 1)
               .build());
     }
 
@@ -201,7 +205,7 @@ public final class LibraryInfoBuilder {
   }
 
   private void collectReferencedTypesAndMethodInvocations(
-      Member member, MemberInfo.Builder memberInfoBuilder) {
+      Member member, List<Expression> references, MemberInfo.Builder memberInfoBuilder) {
     // Setters and getters share the same member info for rta purposes but are traversed separately
     // so when collecting references for the current member, a member info might already have
     // been constructed for the corresponding accessor and its information is passed in the
@@ -223,106 +227,143 @@ public final class LibraryInfoBuilder {
     // separately record them as referenced types.
     Set<Integer> typesReferencedViaStaticMemberReferences = new HashSet<>();
 
-    member.accept(
-        new AbstractVisitor() {
-          @Override
-          public void exitJavaScriptConstructorReference(JavaScriptConstructorReference node) {
-            DeclaredTypeDescriptor referencedType =
-                node.getReferencedTypeDeclaration().toRawTypeDescriptor();
+    for (Expression reference : references) {
+      if (reference instanceof JavaScriptConstructorReference) {
+        DeclaredTypeDescriptor referencedType =
+            ((JavaScriptConstructorReference) reference)
+                .getReferencedTypeDeclaration()
+                .toRawTypeDescriptor();
+        if (shouldRecordTypeReference(member, referencedType)) {
+          // In Javascript a Class is statically referenced by using its constructor function.
+          explicitlyReferencedTypes.add(getTypeId(referencedType));
+        }
+        continue;
+      }
 
-            if (!isPrunableType(referencedType)) {
-              return;
-            }
+      MemberDescriptor target = ((MemberReference) reference).getTarget();
+      boolean shouldRecord =
+          reference instanceof FieldAccess
+              ? shouldRecordFieldAccess((FieldDescriptor) target)
+              : shouldRecordInvocation(member, (MethodDescriptor) target);
+      if (!shouldRecord) {
+        continue;
+      }
 
-            if (isJsAccessible(referencedType)) {
-              return;
-            }
+      invokedMethods.add(createMethodInvocation(target));
+      if (!target.isInstanceMember()) {
+        typesReferencedViaStaticMemberReferences.add(
+            getTypeId(target.getEnclosingTypeDescriptor()));
+      }
+    }
 
-            // No need to record references to parent or itself since they will be live regardless.
-            if (member.getDescriptor().getEnclosingTypeDescriptor().isSubtypeOf(referencedType)) {
-              return;
-            }
+    memberInfoBuilder
+        .clearReferencedTypes()
+        .clearInvokedMethods()
+        .addAllInvokedMethods(invokedMethods)
+        // Record only the explicit type references without the implicit ones which are redundant.
+        .addAllReferencedTypes(
+            Sets.difference(explicitlyReferencedTypes, typesReferencedViaStaticMemberReferences));
+  }
 
-            // In Javascript a Class is statically referenced by using its constructor function.
-            explicitlyReferencedTypes.add(getTypeId(referencedType));
-          }
+  private static boolean shouldRecordTypeReference(
+      Member member, DeclaredTypeDescriptor referencedType) {
+    if (!isPrunableType(referencedType)) {
+      return false;
+    }
 
-          @Override
-          public void exitFieldAccess(FieldAccess node) {
-            FieldDescriptor target = node.getTarget();
+    if (isJsAccessible(referencedType)) {
+      return false;
+    }
 
-            if (!isPrunableType(target.getEnclosingTypeDescriptor())) {
-              return;
-            }
+    // No need to record references to parent or itself since they will be live regardless.
+    return !member.getDescriptor().getEnclosingTypeDescriptor().isSubtypeOf(referencedType);
+  }
 
-            if (isJsAccessible(target)) {
-              // We don't record access to js accessible fields since they are never pruned.
-              return;
-            }
+  private static boolean shouldRecordFieldAccess(FieldDescriptor target) {
+    if (!isPrunableType(target.getEnclosingTypeDescriptor())) {
+      return false;
+    }
 
-            if (!mayTriggerClinit(target)) {
-              return;
-            }
+    if (isJsAccessible(target)) {
+      // We don't record access to js accessible fields since they are never pruned.
+      return false;
+    }
 
-            // Register static FieldAccess as getter/setter invocations. We are conservative here
-            // because getter and setter functions have the same name: i.e. the name of the field.
-            // If a field is accessed, we visit both getter and setter.
-            addInvokedMethod(target);
-          }
+    // Register static FieldAccess as getter/setter invocations. We are conservative here
+    // because getter and setter functions have the same name: i.e. the name of the field.
+    // If a field is accessed, we visit both getter and setter.
+    return mayTriggerClinit(target);
+  }
 
-          @Override
-          public void exitInvocation(Invocation node) {
-            MethodDescriptor target = node.getTarget();
-
-            if (!isPrunableType(target.getEnclosingTypeDescriptor())) {
-              return;
-            }
-
-            if (isJsAccessible(target)) {
-              // We don't record call to js accessible methods since they are never pruned.
-              return;
-            }
-
-            if (target.getOrigin().isSyntheticInstanceOfSupportMember()) {
-              // Don't record calls to synthetic instance of support members since these are not
-              // kept in the library info.
-              // NOTE: Explicit calls to `$isInstance` are part of the translation of the
-              // 'instanceof' operator; and because static calls have the type as a qualifier, the
-              // type will be considered referenced.
-              return;
-            }
-            // Only record a $clinit call if it is from a clinit itself. All other clinit calls are
-            // from the entry points of the class and doesn't need recording since RapidTypeAnalyser
-            // will make the clinit alive when it arrives to an entry point.
-            if (target.getName().equals("$clinit")
-                && !member.getDescriptor().getName().equals("$clinit")) {
-              return;
-            }
-
-            // TODO(b/34928687): Remove after $loadmodule moved the AST.
-            if (target.getName().equals("$loadModules")) {
-              return;
-            }
-
-            addInvokedMethod(target);
-          }
+  private static boolean shouldRecordInvocation(Member member, MethodDescriptor target) {
+    if (!isPrunableType(target.getEnclosingTypeDescriptor())) {
+      return false;
+    }
 
-          private void addInvokedMethod(MemberDescriptor target) {
-            invokedMethods.add(createMethodInvocation(target));
-            if (!target.isInstanceMember()) {
-              typesReferencedViaStaticMemberReferences.add(
-                  getTypeId(target.getEnclosingTypeDescriptor()));
-            }
-          }
-        });
+    if (isJsAccessible(target)) {
+      // We don't record call to js accessible methods since they are never pruned.
+      return false;
+    }
 
-    memberInfoBuilder
-        .clearReferencedTypes()
-        .clearInvokedMethods()
-        .addAllInvokedMethods(invokedMethods)
-        // Record only the explicit type references without the implicit ones which are redundant.
-        .addAllReferencedTypes(
-            Sets.difference(explicitlyReferencedTypes, typesReferencedViaStaticMemberReferences));
+    if (target.getOrigin().isSyntheticInstanceOfSupportMember()) {
+      // Don't record calls to synthetic instance of support members since these are not
+      // kept in the library info.
+      // NOTE: Explicit calls to `$isInstance` are part of the translation of the
+      // 'instanceof' operator; and because static calls have the type as a qualifier, the
+      // type will be considered referenced.
+      return false;
+    }
+    // Only record a $clinit call if it is from a clinit itself. All other clinit calls are
+    // from the entry points of the class and doesn't need recording since RapidTypeAnalyser
+    // will make the clinit alive when it arrives to an entry point.
+    if (target.getName().equals("$clinit")
+        && !member.getDescriptor().getName().equals("$clinit")) {
+      return false;
+    }
+
+    // TODO(b/34928687): Remove after $loadmodule moved the AST.
+    return !target.getName().equals("$loadModules");
+  }
+
+  /**
+   * Adds the types of a library info built separately, e.g. for a single compilation unit.
+   *
+   * <p>Adding the library infos built for each compilation unit in order results in the same library
+   * info as adding all the types to a single builder.
+   */
+  public void addLibraryInfo(LibraryInfo other) {
+    // Map the type ids of the other library info in order of their first appearance, which is how
+    // they would have been assigned had the types been added here.
+    int[] typeIds = new int[other.getTypeNamesCount()];
+    for (int i = NULL_TYPE + 1; i < typeIds.length; i++) {
+      typeIds[i] = getTypeId(other.getTypeNames(i));
+    }
+
+    for (TypeInfo typeInfo : other.getTypesList()) {
+      TypeInfo.Builder typeInfoBuilder =
+          typeInfo.toBuilder()
+              .setTypeId(typeIds[typeInfo.getTypeId()])
+              .setExtendsType(typeIds[typeInfo.getExtendsType()])
+              .clearImplementsTypes()
+              .clearMembers();
+      for (int implementsType : typeInfo.getImplementsTypesList()) {
+        typeInfoBuilder.addImplementsTypes(typeIds[implementsType]);
+      }
+      for (MemberInfo memberInfo : typeInfo.getMembersList()) {
+        MemberInfo.Builder memberInfoBuilder =
+            memberInfo.toBuilder().clearInvokedMethods().clearReferencedTypes();
+        for (MethodInvocation methodInvocation : memberInfo.getInvokedMethodsList()) {
+          memberInfoBuilder.addInvokedMethods(
+              methodInvocation.toBuilder()
+                  .setEnclosingType(typeIds[methodInvocation.getEnclosingType()]));
+        }
+        for (int referencedType : memberInfo.getReferencedTypesList()) {
+          memberInfoBuilder.addReferencedTypes(typeIds[referencedType]);
+        }
+        typeInfoBuilder.addMembers(memberInfoBuilder);
+      }
+      libraryInfo.addTypes(typeInfoBuilder);
+    }
   }
 
   private MethodInvocation createMethodInvocation(MemberDescriptor memberDescriptor) {
@@ -333,11 +374,15 @@ public final class LibraryInfoBuilder {
   }
 
   private int getTypeId(DeclaredTypeDescriptor typeDescriptor) {
+    return getTypeId(typeDescriptor.getQualifiedJsName());
+  }
+
+  private int getTypeId(String qualifiedJsName) {
     // Note that the IDs start from '1' to reserve '0' for NULL_TYPE.
-    return types.computeIfAbsent(typeDescriptor.getQualifiedJsName(), x -> types.size() + 1);
+    return types.computeIfAbsent(qualifiedJsName, x -> types.size() + 1);
   }
 
-  private LibraryInfo build() {
+  public LibraryInfo build() {
     libraryInfo.clearTypeNames();
     String[] typeMap = new String[types.size() + 1];
     typeMap[NULL_TYPE] = "<no-type>";
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.j2cl.transpiler.backend.libraryinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.ast.AbstractVisitor;
+import com.google.j2cl.transpiler.ast.Expression;
+import com.google.j2cl.transpiler.ast.FieldAccess;
+import com.google.j2cl.transpiler.ast.FieldDeclarationStatement;
+import com.google.j2cl.transpiler.ast.Invocation;
+import com.google.j2cl.transpiler.ast.JavaScriptConstructorReference;
+import com.google.j2cl.transpiler.ast.Member;
+import com.google.j2cl.transpiler.ast.MethodCall;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the references that make up the call graph of a type, i.e. the constructor references,
+ * field accesses and invocations in each member, and the method calls that initialize the constants
+ * of optimized enums.
+ *
+ * <p>The references are recorded in traversal order so that {@link LibraryInfoBuilder} produces the
+ * same library info as when it walked each member itself. Being a plain visitor, the collector can
+ * share a traversal of the type with other visitors through {@code FusedVisitor}, e.g. with the
+ * import gathering of the closure backend.
+ */
+public final class MemberReferenceCollector extends AbstractVisitor {
+
+  private final Map<Member, List<Expression>> referencesByMember = new IdentityHashMap<>();
+  private final Map<FieldDeclarationStatement, List<MethodCall>>
+      methodCallsByEnumConstantDeclaration = new IdentityHashMap<>();
+  private FieldDeclarationStatement currentEnumConstantDeclaration;
+
+  @Override
+  public boolean enterFieldDeclarationStatement(
+      FieldDeclarationStatement fieldDeclarationStatement) {
+    if (getCurrentMember() == null
+        && fieldDeclarationStatement.getFieldDescriptor().isEnumConstant()) {
+      currentEnumConstantDeclaration = fieldDeclarationStatement;
+    }
+    return true;
+  }
+
+  @Override
+  public void exitFieldDeclarationStatement(FieldDeclarationStatement fieldDeclarationStatement) {
+    if (currentEnumConstantDeclaration == fieldDeclarationStatement) {
+      currentEnumConstantDeclaration = null;
+    }
+  }
+
+  @Override
+  public void exitJavaScriptConstructorReference(JavaScriptConstructorReference node) {
+    addReference(node);
+  }
+
+  @Override
+  public void exitFieldAccess(FieldAccess node) {
+    addReference(node);
+  }
+
+  @Override
+  public void exitInvocation(Invocation node) {
+    if (getCurrentMember() == null) {
+      if (currentEnumConstantDeclaration != null && node instanceof MethodCall) {
+        methodCallsByEnumConstantDeclaration
+            .computeIfAbsent(currentEnumConstantDeclaration, s -> new ArrayList<>())
+            .add((MethodCall) node);
+      }
+      return;
+    }
+    addReference(node);
+  }
+
+  private void addReference(Expression reference) {
+    Member member = getCurrentMember();
+    if (member == null) {
+      return;
+    }
+    referencesByMember.computeIfAbsent(member, m -> new ArrayList<>()).add(reference);
+  }
+
+  /**
+   * Returns the constructor references, field accesses and invocations in {@code member}, in
+   * traversal order.
+   */
+  List<Expression> getReferences(Member member) {
+    return referencesByMember.getOrDefault(member, ImmutableList.of());
+  }
+
+  /** Returns the method calls in the declaration of an enum constant, in traversal order. */
+  List<MethodCall> getMethodCalls(FieldDeclarationStatement enumConstantDeclaration) {
+    return methodCallsByEnumConstantDeclaration.getOrDefault(
+        enumConstantDeclaration, ImmutableList.of());
+  }
+}
@@ -26,7 +26,6 @@ import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.AbstractVisitor;
 import com.google.j2cl.transpiler.ast.AstUtils;
 import com.google.j2cl.transpiler.ast.Block;
-import com.google.j2cl.transpiler.ast.BooleanLiteral;
 import com.google.j2cl.transpiler.ast.BreakStatement;
 import com.google.j2cl.transpiler.ast.CatchClause;
 import com.google.j2cl.transpiler.ast.ContinueStatement;
@@ -519,7 +518,7 @@ final class StatementTranspiler {
 
       private void renderConditionalBranch(
           SourcePosition sourcePosition, Expression condition, int target) {
-        if (condition.equals(BooleanLiteral.get(false))) {
+        if (condition.isBooleanFalse()) {
           // Do not emit the conditional exit if it will never be taken. This covers cases like:
           //    while (true) { ... }
           // Removing this condition in these cases brings the Wasm verifier to be inline with
@@ -593,8 +592,8 @@ final class StatementTranspiler {
               sourcePosition.getPackageRelativePath(),
               // Lines and column are zero based, but DevTools expects lines to be 1-based and
               // columns to be zero based.
-              sourcePosition.getStartFilePosition().getLine() + 1,
-              sourcePosition.getStartFilePosition().getColumn()));
+              sourcePosition.getStartLine() + 1,
+              sourcePosition.getStartColumn()));
     }
   }
 
@@ -161,21 +161,25 @@ public class WasmGeneratorStage {
   }
 
   public String emitToString(Consumer<WasmConstructsGenerator> emitter) {
+    return emit(emitter).build();
+  }
+
+  private void emitToFile(String filename, Consumer<WasmConstructsGenerator> emitter) {
+    SourceBuilder builder = emit(emitter);
+    if (builder.isEmpty()) {
+      return;
+    }
+    builder.writeTo(output, filename);
+  }
+
+  private SourceBuilder emit(Consumer<WasmConstructsGenerator> emitter) {
     SourceBuilder builder = new SourceBuilder();
     WasmConstructsGenerator generator =
         new WasmConstructsGenerator(environment, builder, sourceMappingPathPrefix);
 
     emitter.accept(generator);
 
-    return builder.build();
-  }
-
-  private void emitToFile(String filename, Consumer<WasmConstructsGenerator> emitter) {
-    String content = emitToString(emitter);
-    if (content.isEmpty()) {
-      return;
-    }
-    output.write(filename, content);
+    return builder;
   }
 
   public static void generateMonolithicOutput(
@@ -237,7 +241,7 @@ public class WasmGeneratorStage {
 
     builder.newLine();
     builder.append(")");
-    output.write("module.wat", builder.buildToList());
+    builder.writeTo(output, "module.wat");
     emitNameMappingFile(library, output);
   }
 
@@ -284,7 +288,7 @@ public class WasmGeneratorStage {
         new WasmConstructsGenerator(environment, builder, sourceMappingPathPrefix);
 
     methods.forEach(generator::renderMethod);
-    output.write("contents.wat", builder.buildToList());
+    builder.writeTo(output, "contents.wat");
   }
 
   private List<ArrayTypeDescriptor> collectUsedNativeArrayTypes(Library library) {
@@ -343,7 +347,7 @@ public class WasmGeneratorStage {
   private void emitNameMappingFile(List<Method> methods, Output output) {
     SourceBuilder builder = new SourceBuilder();
     methods.forEach(m -> emitMethodMapping(m, builder));
-    output.write("namemap", builder.build());
+    builder.writeTo(output, "namemap");
   }
 
   private void emitMethodMapping(Method method, SourceBuilder builder) {
@@ -41,6 +41,12 @@ public enum Frontend {
     public boolean isJavaFrontend() {
       return true;
     }
+
+    @Override
+    public boolean supportsSourcesInArchives() {
+      // The batch parsing API of JDT can only read sources from disk.
+      return false;
+    }
   },
   JAVAC {
     @Override
@@ -48,10 +54,20 @@ public enum Frontend {
       return new JavacParser(problems).parseFiles(options);
     }
 
+    @Override
+    public void release() {
+      JavacParser.releasePooledTask();
+    }
+
     @Override
     public boolean isJavaFrontend() {
       return true;
     }
+
+    @Override
+    public boolean supportsSourcesInArchives() {
+      return true;
+    }
   },
   KOTLIN {
     @Override
@@ -79,9 +95,26 @@ public enum Frontend {
     public boolean isJavaFrontend() {
       return false;
     }
+
+    @Override
+    public boolean supportsSourcesInArchives() {
+      return false;
+    }
   };
 
   public abstract Library parse(FrontendOptions options, Problems problems);
 
   public abstract boolean isJavaFrontend();
+
+  /**
+   * Releases the resources that the frontend keeps for the compilation running in the current
+   * thread; the descriptors created by the frontend can't be completed afterwards.
+   */
+  public void release() {}
+
+  /**
+   * Whether the frontend can read sources directly from the source jars, i.e. without them being
+   * extracted to disk first.
+   */
+  public abstract boolean supportsSourcesInArchives();
 }
@@ -16,6 +16,7 @@
 package com.google.j2cl.transpiler.frontend.common;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.j2cl.common.SourceUtils.FileInfo;
 import javax.annotation.Nullable;
 
@@ -28,6 +29,12 @@ public interface FrontendOptions {
 
   ImmutableList<String> getClasspaths();
 
+  /**
+   * Content digests for the inputs keyed by path; might not contain digests for all or any of the
+   * inputs.
+   */
+  ImmutableMap<String, String> getInputDigestsByPath();
+
   boolean getGenerateKytheIndexingMetadata();
 
   boolean isNullMarkedSupported();
@@ -35,4 +42,7 @@ public interface FrontendOptions {
   ImmutableList<String> getKotlincOptions();
 
   ImmutableList<String> getForbiddenAnnotations();
+
+  /** The number of threads used to parse the sources; only honored by the JDT frontend. */
+  int getParsingParallelism();
 }
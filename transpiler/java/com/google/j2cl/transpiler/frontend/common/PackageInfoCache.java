@@ -17,17 +17,30 @@ package com.google.j2cl.transpiler.frontend.common;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.common.ZipFiles;
 import com.google.j2objc.annotations.ObjectiveCName;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import javax.annotation.Nullable;
@@ -91,19 +104,48 @@ public class PackageInfoCache {
   }
 
   public static void init(List<String> classPathEntries, Problems problems) {
+    init(classPathEntries, ImmutableMap.of(), problems);
+  }
+
+  /**
+   * Initializes the cache for the current thread, reusing the package reports for the class path
+   * entries that were already indexed.
+   *
+   * <p>Entries are identified by their content digests if available, or by their path, size and
+   * modification time otherwise.
+   */
+  public static void init(
+      List<String> classPathEntries, Map<String, String> digestsByPath, Problems problems) {
     checkState(
         packageInfoCacheStorage.get() == null,
         "PackageInfoCache should only be initialized once per thread.");
 
-    packageInfoCacheStorage.set(new PackageInfoCache(classPathEntries, problems));
+    packageInfoCacheStorage.set(new PackageInfoCache(classPathEntries, digestsByPath, problems));
+  }
+
+  /**
+   * Removes the cache of the current thread once the compilation that used it is done, so that a
+   * later compilation on the same thread can initialize its own.
+   */
+  public static void clear() {
+    packageInfoCacheStorage.remove();
   }
 
+  private static final int CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.packageinfocachesize", "5000"));
+
+  /** Package reports of already indexed class path entries, shared by all compilations. */
+  private static final Cache<String, ImmutableMap<String, PackageReport>>
+      packageReportByPackageNameByEntryKey =
+          CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
   private final Map<String, PackageReport> packageReportByTypeName = new HashMap<>();
   private final Problems problems;
 
-  private PackageInfoCache(List<String> classPathEntries, Problems problems) {
+  private PackageInfoCache(
+      List<String> classPathEntries, Map<String, String> digestsByPath, Problems problems) {
     this.problems = problems;
-    indexPackageInfo(classPathEntries);
+    indexPackageInfo(classPathEntries, digestsByPath);
   }
 
   /**
@@ -141,21 +183,67 @@ public class PackageInfoCache {
     return packageReportByTypeName.getOrDefault(packagePath, DEFAULT_PACKAGE_REPORT);
   }
 
-  private void indexPackageInfo(List<String> classPathEntries) {
-    for (String classPathEntry : classPathEntries) {
-      try (ZipFile zipFile = new ZipFile(classPathEntry)) {
-        for (ZipEntry entry : ZipFiles.entries(zipFile)) {
-          if (entry.getName().endsWith("package-info.class")) {
-            recordPackageInfo(zipFile.getInputStream(entry));
-          }
+  private void indexPackageInfo(List<String> classPathEntries, Map<String, String> digestsByPath) {
+    // Index the entries in parallel but apply the results in class path order, since the entries
+    // that come later take precedence. The common pool threads need the state of this thread, e.g.
+    // to report their output to the right worker request.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    ImmutableList<ImmutableMap<String, PackageReport>> packageReportsByClassPathEntry =
+        classPathEntries.parallelStream()
+            .map(e -> snapshot.callWith(() -> getPackageReports(e, digestsByPath.get(e))))
+            .collect(toImmutableList());
+    packageReportsByClassPathEntry.forEach(packageReportByTypeName::putAll);
+  }
+
+  private ImmutableMap<String, PackageReport> getPackageReports(
+      String classPathEntry, @Nullable String digest) {
+    String entryKey = getEntryKey(classPathEntry, digest);
+    if (entryKey == null) {
+      return indexClassPathEntry(classPathEntry);
+    }
+    try {
+      return packageReportByPackageNameByEntryKey.get(
+          entryKey, () -> indexClassPathEntry(classPathEntry));
+    } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    }
+  }
+
+  @Nullable
+  private static String getEntryKey(String classPathEntry, @Nullable String digest) {
+    if (digest != null) {
+      // Entries with the same contents have the same package reports regardless of where they
+      // are.
+      return "digest:" + digest;
+    }
+    try {
+      BasicFileAttributes attributes =
+          Files.readAttributes(Paths.get(classPathEntry), BasicFileAttributes.class);
+      return String.format(
+          "path:%s:%d:%s", classPathEntry, attributes.size(), attributes.lastModifiedTime());
+    } catch (IOException e) {
+      // Let the indexing report the problem.
+      return null;
+    }
+  }
+
+  private ImmutableMap<String, PackageReport> indexClassPathEntry(String classPathEntry) {
+    Map<String, PackageReport> packageReportByPackageName = new HashMap<>();
+    try (ZipFile zipFile = new ZipFile(classPathEntry)) {
+      for (ZipEntry entry : ZipFiles.entries(zipFile)) {
+        if (entry.getName().endsWith("package-info.class")) {
+          recordPackageInfo(zipFile.getInputStream(entry), packageReportByPackageName);
         }
-      } catch (IOException e) {
-        problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
       }
+    } catch (IOException e) {
+      problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
     }
+    return ImmutableMap.copyOf(packageReportByPackageName);
   }
 
-  private void recordPackageInfo(InputStream packageInfoStream) {
+  private void recordPackageInfo(
+      InputStream packageInfoStream, Map<String, PackageReport> packageReportByPackageName) {
     var annotations = new HashMap<String, String>();
     // Prefill with known annotations so we can use it to avoid traversing unrelated annotations.
     annotations.put(JsPackage.class.getName(), null);
@@ -188,7 +276,7 @@ public class PackageInfoCache {
       var reader = new ClassReader(packageInfoStream);
       reader.accept(visitor, ClassReader.SKIP_CODE);
       var packageName = reader.getClassName().replace("/package-info", "").replace('/', '.');
-      packageReportByTypeName.put(
+      packageReportByPackageName.put(
           packageName,
           PackageReport.newBuilder()
               .setJsNamespace(getAnnotation(annotations, JsPackage.class))
@@ -28,6 +28,8 @@ import com.sun.source.util.TreeScanner;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
+import javax.tools.JavaFileObject;
 
 /**
  * A visitor that finds all the classes, methods and fields marked with a given annotation, e.g.
@@ -40,7 +42,9 @@ public final class AnnotatedNodeCollector {
    * nodes are returned in order based on the position on the file and won't overlap.
    */
   public static Set<String> filesWithAnnotation(
-      List<CompilationUnitTree> compilationUnits, String annotationName) {
+      List<CompilationUnitTree> compilationUnits,
+      String annotationName,
+      Function<JavaFileObject, String> filePathBySourceFile) {
     Set<String> filenames = new LinkedHashSet<>();
     for (CompilationUnitTree compilationUnit : compilationUnits) {
       compilationUnit.accept(
@@ -79,7 +83,7 @@ public final class AnnotatedNodeCollector {
                 List<? extends AnnotationTree> annotations) {
               if (annotations.stream()
                   .anyMatch(a -> getLastComponent(a.getAnnotationType()).equals(annotationName))) {
-                filenames.add(compilationUnit.getSourceFile().getName());
+                filenames.add(filePathBySourceFile.apply(compilationUnit.getSourceFile()));
               }
             }
           },
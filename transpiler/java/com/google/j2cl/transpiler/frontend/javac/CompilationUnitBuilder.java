@@ -23,7 +23,6 @@ import static java.util.stream.Collectors.toCollection;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
-import com.google.j2cl.common.FilePosition;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.ArrayAccess;
 import com.google.j2cl.transpiler.ast.ArrayCreationReference;
@@ -150,17 +149,20 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import javax.annotation.Nullable;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Name;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.ExecutableType;
+import javax.tools.JavaFileObject;
 
 /** Creates a J2CL Java AST from the AST provided by JavaC. */
 @SuppressWarnings("ASTHelpersSuggestions")
 public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
   private final JavaEnvironment environment;
+  private final Function<JavaFileObject, String> filePathBySourceFile;
   private final Map<VariableElement, Variable> variableByVariableElement = new HashMap<>();
   // Keeps track of labels that are currently in scope. Even though labels cannot have the
   // same name if they are nested in the same method body, labels with the same name could
@@ -169,8 +171,10 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
   private final Map<String, Deque<Label>> labelsInScope = new HashMap<>();
   private JCCompilationUnit javacUnit;
 
-  private CompilationUnitBuilder(JavaEnvironment environment) {
+  private CompilationUnitBuilder(
+      JavaEnvironment environment, Function<JavaFileObject, String> filePathBySourceFile) {
     this.environment = environment;
+    this.filePathBySourceFile = filePathBySourceFile;
   }
 
   /**
@@ -641,22 +645,12 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
     int endLine = javacUnit.getLineMap().getLineNumber(endCharacterPosition) - 1;
     int endColumn = javacUnit.getLineMap().getColumnNumber(endCharacterPosition) - 1;
     return SourcePosition.newBuilder()
-        .setFilePath(javacUnit.getSourceFile().getName())
+        .setFilePath(getCurrentCompilationUnit().getFilePath())
         .setPackageRelativePath(getCurrentCompilationUnit().getPackageRelativePath())
         .setName(name)
-        .setStartFilePosition(
-            FilePosition.newBuilder()
-                .setLine(startLine)
-                .setColumn(startColumn)
-                .setByteOffset(startCharacterPosition)
-                .build())
-        .setEndFilePosition(
-            FilePosition.newBuilder()
-                .setLine(endLine)
-                // TODO(b/92372836): Document which character this should point to
-                .setColumn(endColumn)
-                .setByteOffset(endCharacterPosition + 1)
-                .build())
+        .setStartPosition(startLine, startColumn, startCharacterPosition)
+        // TODO(b/92372836): Document which character the end column should point to
+        .setEndPosition(endLine, endColumn, endCharacterPosition + 1)
         .build();
   }
 
@@ -1287,7 +1281,8 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
 
   private CompilationUnit build(JCCompilationUnit javacUnit) {
     this.javacUnit = javacUnit;
-    if (javacUnit.getSourceFile().getName().endsWith("package-info.java")
+    String filePath = filePathBySourceFile.apply(javacUnit.getSourceFile());
+    if (filePath.endsWith("package-info.java")
         && javacUnit.getPackage() != null) {
       String packageName = javacUnit.getPackageName().toString();
       String packageJsNamespace = getPackageJsNamespace(javacUnit);
@@ -1302,7 +1297,7 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
     }
     setCurrentCompilationUnit(
         CompilationUnit.createForFile(
-            javacUnit.getSourceFile().getName(),
+            filePath,
             javacUnit.getPackageName() == null ? "" : javacUnit.getPackageName().toString()));
     for (JCTree tree : javacUnit.getTypeDecls()) {
       if (tree instanceof JCClassDecl) {
@@ -1313,13 +1308,16 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
   }
 
   public static ImmutableList<CompilationUnit> build(
-      List<CompilationUnitTree> compilationUnits, JavaEnvironment javaEnvironment) {
+      List<CompilationUnitTree> compilationUnits,
+      JavaEnvironment javaEnvironment,
+      Function<JavaFileObject, String> filePathBySourceFile) {
 
-    CompilationUnitBuilder compilationUnitBuilder = new CompilationUnitBuilder(javaEnvironment);
+    CompilationUnitBuilder compilationUnitBuilder =
+        new CompilationUnitBuilder(javaEnvironment, filePathBySourceFile);
 
     // Ensure that all source package-info classes come before all other classes so that the
     // freshness of the PackageInfoCache can be trusted.
-    sortPackageInfoFirst(compilationUnits);
+    sortPackageInfoFirst(compilationUnits, filePathBySourceFile);
 
     return compilationUnits.stream()
         .map(JCCompilationUnit.class::cast)
@@ -1347,14 +1345,16 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
         .anyMatch(a -> Nullability.isNullMarkedAnnotation(AnnotationUtils.getAnnotationName(a)));
   }
 
-  private static void sortPackageInfoFirst(List<CompilationUnitTree> compilationUnits) {
+  private static void sortPackageInfoFirst(
+      List<CompilationUnitTree> compilationUnits,
+      Function<JavaFileObject, String> filePathBySourceFile) {
     // Ensure that all source package-info classes come before all other classes so that the
     // freshness of the PackageInfoCache can be trusted.
     Collections.sort(
         compilationUnits,
         (thisCompilationUnit, thatCompilationUnit) -> {
-          String thisFilePath = thisCompilationUnit.getSourceFile().getName();
-          String thatFilePath = thatCompilationUnit.getSourceFile().getName();
+          String thisFilePath = filePathBySourceFile.apply(thisCompilationUnit.getSourceFile());
+          String thatFilePath = filePathBySourceFile.apply(thatCompilationUnit.getSourceFile());
           boolean thisIsPackageInfo = thisFilePath.endsWith("package-info.java");
           boolean thatIsPackageInfo = thatFilePath.endsWith("package-info.java");
           return ComparisonChain.start()
@@ -17,11 +17,18 @@ package com.google.j2cl.transpiler.frontend.javac;
 
 import static java.util.stream.Collectors.toList;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.SourceUtils;
 import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.TransferableThreadLocal;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Library;
 import com.google.j2cl.transpiler.ast.TypeDescriptors;
@@ -29,15 +36,30 @@ import com.google.j2cl.transpiler.frontend.common.FrontendOptions;
 import com.google.j2cl.transpiler.frontend.common.PackageInfoCache;
 import com.sun.source.tree.CompilationUnitTree;
 import com.sun.tools.javac.api.JavacTaskImpl;
+import com.sun.tools.javac.api.JavacTaskPool;
 import com.sun.tools.javac.file.JavacFileManager;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.annotation.Nullable;
 import javax.tools.Diagnostic;
 import javax.tools.Diagnostic.Kind;
@@ -52,8 +74,48 @@ import javax.tools.ToolProvider;
  * into compilation unit.
  */
 public class JavacParser {
+  /**
+   * The number of javac contexts that a persistent worker keeps to be reused by later requests with
+   * the same classpath; 0 disables the reuse.
+   */
+  private static final int CONTEXT_POOL_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.javaccontextpoolsize", "0"));
+
+  // TODO(b/143213486): Figure out how to make the pipeline work with the module system.
+  private static final ImmutableList<String> JAVAC_OPTIONS =
+      ImmutableList.of(
+          "--patch-module",
+          "java.base=.",
+          // Allow JRE classes are allowed to depend on the jsinterop annotations
+          "--add-reads",
+          "java.base=ALL-UNNAMED");
+
+  private static final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+
+  /**
+   * Reuses the symbols completed from the classpath by previous requests.
+   *
+   * <p>Contexts where java.base has been patched are never reused, so pooled tasks don't patch it;
+   * this only makes a difference for sources in java.base packages, which fail to compile in a
+   * pooled task and are then compiled again in a fresh one.
+   */
+  @Nullable
+  private static final JavacTaskPool taskPool =
+      CONTEXT_POOL_SIZE > 0 ? new JavacTaskPool(CONTEXT_POOL_SIZE) : null;
+
+  /** Threads that keep the pooled tasks valid while their compilations are running. */
+  private static final ExecutorService pooledTaskExecutor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("javac-task-%d").build());
+
+  /** Releases the pooled task used by the compilation running in the current thread, if any. */
+  private static final ThreadLocal<Runnable> pooledTaskReleaser = new ThreadLocal<>();
+
   private final Problems problems;
 
+  /** The paths of the sources as provided in their {@link FileInfo}s, keyed by file object URI. */
+  private final Map<URI, String> filePathByUri = new HashMap<>();
+
   public JavacParser(Problems problems) {
     this.problems = problems;
   }
@@ -62,59 +124,239 @@ public class JavacParser {
   @Nullable
   public Library parseFiles(FrontendOptions options) {
     // Records information about package-info files supplied as byte code.
-    PackageInfoCache.init(options.getClasspaths(), problems);
+    PackageInfoCache.init(options.getClasspaths(), options.getInputDigestsByPath(), problems);
 
     ImmutableList<FileInfo> filePaths = options.getSources();
     if (filePaths.isEmpty()) {
       return Library.newEmpty();
     }
 
-    // The map must be ordered because it will be iterated over later and if it was not ordered then
-    // our output would be unstable
-    final Map<String, String> targetPathBySourcePath =
-        filePaths.stream().collect(Collectors.toMap(FileInfo::sourcePath, FileInfo::targetPath));
-
+    // Zip file systems for the archives whose entries are read in place.
+    Map<String, FileSystem> fileSystemByArchivePath = new HashMap<>();
     try {
-      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      List<Path> paths = getPaths(filePaths, fileSystemByArchivePath);
+      if (taskPool != null) {
+        Library library = parseFilesWithPooledTask(options, paths);
+        if (library != null) {
+          return library;
+        }
+      }
+
       DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-      JavacFileManager fileManager =
-          (JavacFileManager)
-              compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
-      List<File> searchpath = options.getClasspaths().stream().map(File::new).collect(toList());
-      fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, searchpath);
-      fileManager.setLocation(StandardLocation.CLASS_PATH, searchpath);
+      JavacFileManager fileManager = createFileManager(options, diagnostics);
       JavacTaskImpl task =
           (JavacTaskImpl)
               compiler.getTask(
                   null,
                   fileManager,
                   diagnostics,
-                  // TODO(b/143213486): Figure out how to make the pipeline work with the module
-                  // system.
-                  ImmutableList.of(
-                      "--patch-module",
-                      "java.base=.",
-                      // Allow JRE classes are allowed to depend on the jsinterop annotations
-                      "--add-reads",
-                      "java.base=ALL-UNNAMED"),
+                  JAVAC_OPTIONS,
                   null,
-                  fileManager.getJavaFileObjectsFromFiles(
-                      targetPathBySourcePath.keySet().stream().map(File::new).collect(toList())));
+                  fileManager.getJavaFileObjectsFromPaths(paths));
       List<CompilationUnitTree> javacCompilationUnits = Lists.newArrayList(task.parse());
       task.analyze();
       reportErrors(diagnostics, javacCompilationUnits, options.getForbiddenAnnotations());
       problems.abortIfHasErrors();
-
-      JavaEnvironment javaEnvironment =
-          new JavaEnvironment(task.getContext(), TypeDescriptors.getWellKnownTypeNames());
-
-      ImmutableList<CompilationUnit> compilationUnits =
-          CompilationUnitBuilder.build(javacCompilationUnits, javaEnvironment);
-      return Library.newBuilder().setCompilationUnits(compilationUnits).build();
+      return buildLibrary(task, javacCompilationUnits);
     } catch (IOException e) {
       problems.fatal(FatalError.valueOf(e.getMessage()));
       return null;
+    } finally {
+      for (FileSystem fileSystem : fileSystemByArchivePath.values()) {
+        try {
+          fileSystem.close();
+        } catch (IOException e) {
+          problems.fatal(FatalError.CANNOT_CLOSE_ZIP, e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses the sources in a task whose context might have been used by a previous request, and
+   * returns null if javac reports errors so that they are reported as in a fresh task.
+   *
+   * <p>The task stays valid, and is not returned to the pool, until {@link #releasePooledTask} is
+   * called since the descriptors are completed lazily from the javac symbols.
+   */
+  @Nullable
+  private Library parseFilesWithPooledTask(FrontendOptions options, List<Path> paths)
+      throws IOException {
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavacFileManager fileManager = createFileManager(options, diagnostics);
+    Iterable<? extends JavaFileObject> sources = fileManager.getJavaFileObjectsFromPaths(paths);
+    // The pool reuses contexts by options, make the classpath part of them. Options for annotation
+    // processors are ignored by javac itself.
+    ImmutableList<String> javacOptions =
+        ImmutableList.of("-Aj2cl.classpath=" + getClasspathDigest(options));
+
+    CompletableFuture<AnalyzedTask> analyzedTaskFuture = new CompletableFuture<>();
+    CountDownLatch compilationFinished = new CountDownLatch(1);
+    // The pooled threads outlive the compilation, so they get its state explicitly.
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    pooledTaskExecutor.execute(
+        () ->
+            snapshot.runWith(
+                () -> {
+                  try {
+                    taskPool.getTask(
+                        null,
+                        fileManager,
+                        diagnostics,
+                        javacOptions,
+                        null,
+                        sources,
+                        task -> {
+                          JavacTaskImpl javacTask = (JavacTaskImpl) task;
+                          List<CompilationUnitTree> javacCompilationUnits =
+                              Lists.newArrayList(javacTask.parse());
+                          javacTask.analyze();
+                          analyzedTaskFuture.complete(
+                              new AnalyzedTask(javacTask, javacCompilationUnits));
+                          Uninterruptibles.awaitUninterruptibly(compilationFinished);
+                          return null;
+                        });
+                  } catch (Throwable t) {
+                    // A task that fails is not returned to the pool.
+                    analyzedTaskFuture.completeExceptionally(t);
+                  }
+                }));
+
+    boolean keepTask = false;
+    try {
+      AnalyzedTask analyzedTask = getAnalyzedTask(analyzedTaskFuture);
+      if (diagnostics.getDiagnostics().stream().anyMatch(d -> d.getKind() == Kind.ERROR)) {
+        return null;
+      }
+      reportErrors(
+          diagnostics, analyzedTask.javacCompilationUnits, options.getForbiddenAnnotations());
+      problems.abortIfHasErrors();
+      Library library = buildLibrary(analyzedTask.task, analyzedTask.javacCompilationUnits);
+      pooledTaskReleaser.set(compilationFinished::countDown);
+      keepTask = true;
+      return library;
+    } finally {
+      if (!keepTask) {
+        compilationFinished.countDown();
+      }
+    }
+  }
+
+  /**
+   * Returns the task used by the compilation running in the current thread to the pool; it is
+   * invalid afterwards.
+   */
+  public static void releasePooledTask() {
+    Runnable releaser = pooledTaskReleaser.get();
+    if (releaser != null) {
+      pooledTaskReleaser.remove();
+      releaser.run();
+    }
+  }
+
+  private static AnalyzedTask getAnalyzedTask(Future<AnalyzedTask> analyzedTaskFuture)
+      throws IOException {
+    try {
+      return Uninterruptibles.getUninterruptibly(analyzedTaskFuture);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UncheckedIOException) {
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      }
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new AssertionError(e.getCause());
+    }
+  }
+
+  /** A javac task and the compilation units it has analyzed. */
+  private static final class AnalyzedTask {
+    private final JavacTaskImpl task;
+    private final List<CompilationUnitTree> javacCompilationUnits;
+
+    private AnalyzedTask(JavacTaskImpl task, List<CompilationUnitTree> javacCompilationUnits) {
+      this.task = task;
+      this.javacCompilationUnits = javacCompilationUnits;
+    }
+  }
+
+  private static JavacFileManager createFileManager(
+      FrontendOptions options, DiagnosticCollector<JavaFileObject> diagnostics) throws IOException {
+    JavacFileManager fileManager =
+        (JavacFileManager)
+            compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+    List<File> searchpath = options.getClasspaths().stream().map(File::new).collect(toList());
+    fileManager.setLocation(StandardLocation.PLATFORM_CLASS_PATH, searchpath);
+    fileManager.setLocation(StandardLocation.CLASS_PATH, searchpath);
+    return fileManager;
+  }
+
+  /**
+   * Returns a digest of the classpath entries and their contents, or of their size and
+   * modification time if their digest is not known.
+   */
+  private static String getClasspathDigest(FrontendOptions options) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (String classpathEntry : options.getClasspaths()) {
+      hasher.putString(classpathEntry, StandardCharsets.UTF_8).putByte((byte) 0);
+      String digest = options.getInputDigestsByPath().get(classpathEntry);
+      if (digest != null) {
+        hasher.putString(digest, StandardCharsets.UTF_8);
+      } else {
+        File file = new File(classpathEntry);
+        hasher.putLong(file.length()).putLong(file.lastModified());
+      }
+      hasher.putByte((byte) 0);
     }
+    return hasher.hash().toString();
+  }
+
+  private Library buildLibrary(JavacTaskImpl task, List<CompilationUnitTree> javacCompilationUnits) {
+    JavaEnvironment javaEnvironment =
+        new JavaEnvironment(task.getContext(), TypeDescriptors.getWellKnownTypeNames());
+
+    ImmutableList<CompilationUnit> compilationUnits =
+        CompilationUnitBuilder.build(javacCompilationUnits, javaEnvironment, this::getFilePath);
+    return Library.newBuilder().setCompilationUnits(compilationUnits).build();
+  }
+
+  /**
+   * Returns the paths to the sources, opening a zip file system for each archive that contains
+   * sources that are read in place.
+   */
+  private List<Path> getPaths(
+      Collection<FileInfo> sources, Map<String, FileSystem> fileSystemByArchivePath) {
+    List<Path> paths = new ArrayList<>();
+    for (FileInfo source : sources) {
+      String sourcePath = source.sourcePath();
+      if (!SourceUtils.isArchiveEntryPath(sourcePath)) {
+        paths.add(Paths.get(sourcePath));
+        continue;
+      }
+      String archivePath = SourceUtils.getArchivePath(sourcePath);
+      FileSystem fileSystem = fileSystemByArchivePath.get(archivePath);
+      if (fileSystem == null) {
+        try {
+          fileSystem = FileSystems.newFileSystem(Paths.get(archivePath), (ClassLoader) null);
+        } catch (IOException e) {
+          problems.fatal(FatalError.CANNOT_OPEN_FILE, e.toString());
+          return null;
+        }
+        fileSystemByArchivePath.put(archivePath, fileSystem);
+      }
+      Path path = fileSystem.getPath("/", SourceUtils.getEntryName(sourcePath));
+      // The file objects for the entry only know the path inside the zip file system.
+      filePathByUri.put(path.toUri(), sourcePath);
+      paths.add(path);
+    }
+    return paths;
+  }
+
+  /**
+   * Returns the path of a source file in the form it was provided, i.e. as an archive entry path
+   * for sources that are read in place.
+   */
+  private String getFilePath(JavaFileObject sourceFile) {
+    String filePath = filePathByUri.get(sourceFile.toUri());
+    return filePath != null ? filePath : sourceFile.getName();
   }
 
   private void reportErrors(
@@ -125,7 +367,8 @@ public class JavacParser {
     // error since these should have been stripped by the build system already.
     for (String forbiddenAnnotation : forbiddenAnnotations) {
       Set<String> filesWithGwtIncompatible =
-          AnnotatedNodeCollector.filesWithAnnotation(javacCompilationUnits, forbiddenAnnotation);
+          AnnotatedNodeCollector.filesWithAnnotation(
+              javacCompilationUnits, forbiddenAnnotation, this::getFilePath);
       if (!filesWithGwtIncompatible.isEmpty()) {
         // TODO(rluble): retrieve the line number where the annotation is found.
         problems.fatal(
@@ -139,7 +382,7 @@ public class JavacParser {
       if (diagnostic.getKind() == Kind.ERROR) {
         problems.error(
             (int) diagnostic.getLineNumber(),
-            diagnostic.getSource().getName(),
+            getFilePath(diagnostic.getSource()),
             "%s",
             diagnostic.getMessage(Locale.US));
       }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.frontend.jdt;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.sun.management.UnixOperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps classpath jars open for the lifetime of the worker.
+ *
+ * <p>JDT opens every classpath jar for each parse and closes it afterwards, so every request pays
+ * for reading and decoding the central directory of each jar again. The JDK shares the decoded
+ * central directory among all the {@link ZipFile} instances that are open on the same unmodified
+ * file, so keeping one instance open makes the reopening done by JDT cheap. A jar that is
+ * modified gets a new key in the JDK and is reopened here as well.
+ *
+ * <p>Every open jar holds a file handle, so only the most recently used jars are kept open, up to a
+ * small fraction of the handles that the process can open. Jars are closed when they are evicted.
+ */
+final class ClasspathJarCache {
+
+  private static final int MAX_CACHE_SIZE = 256;
+
+  private static final ClasspathJarCache instance =
+      new ClasspathJarCache(Integer.getInteger("j2cl.classpathcachesize", getDefaultCacheSize()));
+
+  private final int cacheSize;
+  private final Cache<String, OpenJar> openJarByPath;
+
+  @VisibleForTesting
+  ClasspathJarCache(int cacheSize) {
+    this.cacheSize = cacheSize;
+    this.openJarByPath =
+        CacheBuilder.newBuilder()
+            // A single segment evicts the least recently used jar of the whole cache instead of the
+            // one of a segment; the cache is only accessed once per classpath entry and request.
+            .concurrencyLevel(1)
+            .maximumSize(cacheSize)
+            .removalListener(ClasspathJarCache::closeJar)
+            .build();
+  }
+
+  /** Returns the number of jars to keep open, leaving most file handles to the compilation. */
+  private static int getDefaultCacheSize() {
+    OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    if (operatingSystem instanceof UnixOperatingSystemMXBean) {
+      long maxFileDescriptors =
+          ((UnixOperatingSystemMXBean) operatingSystem).getMaxFileDescriptorCount();
+      return (int) Math.min(MAX_CACHE_SIZE, maxFileDescriptors / 8);
+    }
+    return MAX_CACHE_SIZE;
+  }
+
+  /** Hit and miss counts for the entries of a classpath. */
+  static final class Stats {
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    int getHits() {
+      return hits.get();
+    }
+
+    int getMisses() {
+      return misses.get();
+    }
+  }
+
+  /** Makes sure that the jars in the classpath are kept open. */
+  static Stats retain(Iterable<String> classpathEntries) {
+    return instance.retainJars(classpathEntries);
+  }
+
+  @VisibleForTesting
+  Stats retainJars(Iterable<String> classpathEntries) {
+    Stats stats = new Stats();
+    if (cacheSize == 0) {
+      return stats;
+    }
+    for (String classpathEntry : classpathEntries) {
+      if (!classpathEntry.endsWith(".jar") && !classpathEntry.endsWith(".zip")) {
+        continue;
+      }
+      Path path = Paths.get(classpathEntry);
+      FileTime lastModified;
+      try {
+        lastModified = Files.getLastModifiedTime(path);
+      } catch (IOException e) {
+        // Let JDT report the problem if the entry is needed at all.
+        continue;
+      }
+      openJarByPath
+          .asMap()
+          .compute(
+              classpathEntry,
+              (p, openJar) -> {
+                if (openJar != null && openJar.lastModified.equals(lastModified)) {
+                  stats.hits.incrementAndGet();
+                  return openJar;
+                }
+                stats.misses.incrementAndGet();
+                if (openJar != null) {
+                  openJar.close();
+                }
+                return OpenJar.open(path, lastModified);
+              });
+    }
+    return stats;
+  }
+
+  /** Returns the jar kept open for {@code path}, or null if there is none. */
+  @VisibleForTesting
+  @Nullable
+  ZipFile getOpenJar(String path) {
+    OpenJar openJar = openJarByPath.getIfPresent(path);
+    return openJar == null ? null : openJar.zipFile;
+  }
+
+  private static void closeJar(RemovalNotification<String, OpenJar> notification) {
+    // Replaced entries are closed when replaced, since a hit also counts as a replacement.
+    if (notification.getCause() != RemovalCause.REPLACED) {
+      notification.getValue().close();
+    }
+  }
+
+  private static final class OpenJar {
+    private final FileTime lastModified;
+    private final ZipFile zipFile;
+
+    private OpenJar(FileTime lastModified, ZipFile zipFile) {
+      this.lastModified = lastModified;
+      this.zipFile = zipFile;
+    }
+
+    private static OpenJar open(Path path, FileTime lastModified) {
+      try {
+        return new OpenJar(lastModified, new ZipFile(path.toFile()));
+      } catch (IOException e) {
+        // Not a valid jar; leave it to JDT to deal with it.
+        return null;
+      }
+    }
+
+    private void close() {
+      try {
+        zipFile.close();
+      } catch (IOException e) {
+        // Nothing to do, the jar is not in use anymore.
+      }
+    }
+  }
+}
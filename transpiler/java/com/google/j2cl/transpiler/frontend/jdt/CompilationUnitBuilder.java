@@ -26,7 +26,6 @@ import static java.util.stream.Collectors.toList;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.j2cl.common.FilePosition;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.SourcePosition;
 import com.google.j2cl.transpiler.ast.ArrayAccess;
@@ -665,19 +664,9 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
           .setFilePath(getCurrentCompilationUnit().getFilePath())
           .setPackageRelativePath(getCurrentCompilationUnit().getPackageRelativePath())
           .setName(name)
-          .setStartFilePosition(
-              FilePosition.newBuilder()
-                  .setLine(startLine)
-                  .setColumn(startColumn)
-                  .setByteOffset(startCharacterPosition)
-                  .build())
-          .setEndFilePosition(
-              FilePosition.newBuilder()
-                  .setLine(endLine)
-                  // TODO(b/92372836): Document which character this should point to
-                  .setColumn(endColumn)
-                  .setByteOffset(endCharacterPosition + 1)
-                  .build())
+          .setStartPosition(startLine, startColumn, startCharacterPosition)
+          // TODO(b/92372836): Document which character the end column should point to
+          .setEndPosition(endLine, endColumn, endCharacterPosition + 1)
           .build();
     }
 
@@ -1427,14 +1416,15 @@ public class CompilationUnitBuilder extends AbstractCompilationUnitBuilder {
   }
 
   public static List<CompilationUnit> build(FrontendOptions options, Problems problems) {
-    PackageInfoCache.init(options.getClasspaths(), problems);
+    PackageInfoCache.init(options.getClasspaths(), options.getInputDigestsByPath(), problems);
     JdtParser jdtParser = new JdtParser(options.getClasspaths(), problems);
     CompilationUnitsAndTypeBindings compilationUnitsAndTypeBindings =
         jdtParser.parseFiles(
             options.getSources(),
             options.getGenerateKytheIndexingMetadata(),
             options.getForbiddenAnnotations(),
-            TypeDescriptors.getWellKnownTypeNames());
+            TypeDescriptors.getWellKnownTypeNames(),
+            options.getParsingParallelism());
     problems.abortIfHasErrors();
 
     JdtEnvironment environment =
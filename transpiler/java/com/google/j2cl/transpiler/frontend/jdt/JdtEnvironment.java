@@ -26,6 +26,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Streams;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.j2cl.common.InternalCompilerError;
 import com.google.j2cl.common.SourcePosition;
@@ -63,6 +64,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -107,9 +109,22 @@ public class JdtEnvironment {
    */
   @CanIgnoreReturnValue
   public JdtEnvironment(JdtParser jdtParser, Collection<String> wellKnownTypesBinaryNames) {
+    this(jdtParser.resolveBindings(wellKnownTypesBinaryNames));
+  }
+
+  /**
+   * Creates a JdtEnvironment that initializes the well known type descriptors from bindings that
+   * have been resolved together with others by the caller; bindings for types that are not well
+   * known are ignored.
+   */
+  public JdtEnvironment(Iterable<ITypeBinding> typeBindings) {
     PackageInfoCache.init(ImmutableList.of(), null);
     this.packageAnnotationsResolver = PackageAnnotationsResolver.create(Stream.of());
-    this.initWellKnownTypes(jdtParser.resolveBindings(wellKnownTypesBinaryNames));
+    Set<String> wellKnownTypeNames = TypeDescriptors.getWellKnownTypeNames();
+    this.initWellKnownTypes(
+        Streams.stream(typeBindings)
+            .filter(t -> wellKnownTypeNames.contains(t.getBinaryName()))
+            .collect(toImmutableList()));
   }
 
   public JdtEnvironment(PackageAnnotationsResolver packageAnnotationsResolver) {
@@ -15,12 +15,26 @@
  */
 package com.google.j2cl.transpiler.frontend.jdt;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.common.math.IntMath;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.j2cl.common.Problems;
 import com.google.j2cl.common.Problems.FatalError;
+import com.google.j2cl.common.SourceUtils;
 import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.common.TransferableThreadLocal;
+import java.io.IOException;
+import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +42,10 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import org.eclipse.jdt.core.BindingKey;
@@ -47,6 +65,8 @@ import org.eclipse.jdt.core.dom.ITypeBinding;
 public class JdtParser {
   private static final String JAVA_VERSION = JavaCore.VERSION_11;
   private static final int AST_JLS_VERSION = AST.JLS11;
+  private static final boolean REPORT_CLASSPATH_CACHE_STATS =
+      Boolean.getBoolean("j2cl.reportclasspathcachestats");
 
   private final Problems problems;
   private final Map<String, String> compilerOptions = new HashMap<>();
@@ -60,6 +80,14 @@ public class JdtParser {
 
     this.classpathEntries = ImmutableList.copyOf(classpathEntries);
     this.problems = problems;
+
+    // Keep the classpath jars open so that JDT does not need to read them from scratch when the
+    // same jars are used by subsequent requests in a persistent worker.
+    ClasspathJarCache.Stats stats = ClasspathJarCache.retain(this.classpathEntries);
+    if (REPORT_CLASSPATH_CACHE_STATS) {
+      problems.info(
+          "Classpath jar cache: %d hit(s), %d miss(es).", stats.getHits(), stats.getMisses());
+    }
   }
 
   /** Returns a map from file paths to compilation units after JDT parsing. */
@@ -68,9 +96,181 @@ public class JdtParser {
       boolean useTargetPath,
       List<String> forbiddenAnnotations,
       Collection<String> binaryNamesToResolve) {
+    return parseFiles(
+        filePaths, useTargetPath, forbiddenAnnotations, binaryNamesToResolve, /* parallelism= */ 1);
+  }
+
+  /**
+   * Returns a map from file paths to compilation units after JDT parsing, where the files are
+   * parsed in up to {@code parallelism} batches concurrently.
+   *
+   * <p>Each batch sees the files of the other batches through a source path that contains exactly
+   * the files being parsed, so batching is only possible when the relative path of every file is
+   * known. Types from other batches are resolved from their declarations only, the bodies of their
+   * methods are not parsed. If any batch reports an error, the files are parsed again in a single
+   * batch so that the reported errors are exactly those of a sequential parse.
+   */
+  public CompilationUnitsAndTypeBindings parseFiles(
+      List<FileInfo> filePaths,
+      boolean useTargetPath,
+      List<String> forbiddenAnnotations,
+      Collection<String> binaryNamesToResolve,
+      int parallelism) {
+    if (parallelism > 1 && filePaths.size() > 1) {
+      Path sourcePath = createSourcePath(filePaths);
+      if (sourcePath != null) {
+        try {
+          CompilationUnitsAndTypeBindings compilationUnitsAndTypeBindings =
+              parseFilesInBatches(
+                  filePaths,
+                  useTargetPath,
+                  forbiddenAnnotations,
+                  binaryNamesToResolve,
+                  parallelism,
+                  ImmutableList.of(sourcePath.toString()));
+          if (compilationUnitsAndTypeBindings != null) {
+            return compilationUnitsAndTypeBindings;
+          }
+        } finally {
+          deleteSourcePath(sourcePath);
+        }
+      }
+    }
+    return parseFiles(
+        filePaths,
+        useTargetPath,
+        forbiddenAnnotations,
+        binaryNamesToResolve,
+        ImmutableList.of(),
+        problems);
+  }
+
+  /**
+   * Parses contiguous slices of the files concurrently and merges the results in the order of the
+   * files; returns null if any of the batches had errors.
+   */
+  @Nullable
+  private CompilationUnitsAndTypeBindings parseFilesInBatches(
+      List<FileInfo> filePaths,
+      boolean useTargetPath,
+      List<String> forbiddenAnnotations,
+      Collection<String> binaryNamesToResolve,
+      int parallelism,
+      ImmutableList<String> sourcepathEntries) {
+    List<List<FileInfo>> batches =
+        Lists.partition(filePaths, IntMath.divide(filePaths.size(), parallelism, RoundingMode.UP));
+    ExecutorService executorService = Executors.newFixedThreadPool(batches.size());
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+    try {
+      List<Future<CompilationUnitsAndTypeBindings>> results = new ArrayList<>();
+      List<Problems> problemsByBatch = new ArrayList<>();
+      for (int i = 0; i < batches.size(); i++) {
+        List<FileInfo> batch = batches.get(i);
+        // The requested bindings are only resolved once, in the first batch.
+        Collection<String> batchBinaryNamesToResolve =
+            i == 0 ? binaryNamesToResolve : ImmutableList.of();
+        Problems batchProblems = new Problems();
+        problemsByBatch.add(batchProblems);
+        results.add(
+            executorService.submit(
+                () ->
+                    snapshot.callWith(
+                        () ->
+                            parseFiles(
+                                batch,
+                                useTargetPath,
+                                forbiddenAnnotations,
+                                batchBinaryNamesToResolve,
+                                sourcepathEntries,
+                                batchProblems))));
+      }
+
+      Map<String, CompilationUnit> compilationUnitsByFilePath = new LinkedHashMap<>();
+      List<ITypeBinding> wellKnownTypeBindings = new ArrayList<>();
+      boolean hasErrors = false;
+      for (int i = 0; i < batches.size(); i++) {
+        CompilationUnitsAndTypeBindings batchResult;
+        try {
+          batchResult = Uninterruptibles.getUninterruptibly(results.get(i));
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Problems.Exit) {
+            hasErrors = true;
+            continue;
+          }
+          Throwables.throwIfUnchecked(e.getCause());
+          throw new AssertionError(e.getCause());
+        }
+        hasErrors |= problemsByBatch.get(i).hasErrors();
+        compilationUnitsByFilePath.putAll(batchResult.getCompilationUnitsByFilePath());
+        wellKnownTypeBindings.addAll(batchResult.getTypeBindings());
+      }
+      return hasErrors
+          ? null
+          : new CompilationUnitsAndTypeBindings(compilationUnitsByFilePath, wellKnownTypeBindings);
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns a directory that links each file at its relative path, or null if the relative path of
+   * a file is not known or the links could not be created.
+   *
+   * <p>Unlike the directories the files come from, the directory does not contain any other source
+   * files, so types that are not part of the compilation are not resolved from source by batches.
+   */
+  @Nullable
+  private static Path createSourcePath(List<FileInfo> filePaths) {
+    for (FileInfo fileInfo : filePaths) {
+      String sourcePath = fileInfo.sourcePath();
+      String targetPath = fileInfo.targetPath();
+      if (SourceUtils.isArchiveEntryPath(sourcePath)
+          || targetPath.startsWith("/")
+          || targetPath.contains("..")
+          || !sourcePath.endsWith("/" + targetPath)) {
+        return null;
+      }
+    }
+
+    Path sourcePathDirectory = null;
+    try {
+      sourcePathDirectory = Files.createTempDirectory("j2cl_sourcepath");
+      for (FileInfo fileInfo : filePaths) {
+        Path link = sourcePathDirectory.resolve(fileInfo.targetPath());
+        if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+          // The same relative path is declared twice; only the first one is visible to batches.
+          continue;
+        }
+        Files.createDirectories(link.getParent());
+        Files.createSymbolicLink(link, Paths.get(fileInfo.sourcePath()).toAbsolutePath());
+      }
+      return sourcePathDirectory;
+    } catch (IOException | UnsupportedOperationException e) {
+      if (sourcePathDirectory != null) {
+        deleteSourcePath(sourcePathDirectory);
+      }
+      return null;
+    }
+  }
+
+  private static void deleteSourcePath(Path sourcePathDirectory) {
+    try {
+      MoreFiles.deleteRecursively(sourcePathDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    } catch (IOException e) {
+      // The directory only contains links in a temporary location, leaving it behind is harmless.
+    }
+  }
+
+  private CompilationUnitsAndTypeBindings parseFiles(
+      List<FileInfo> filePaths,
+      boolean useTargetPath,
+      List<String> forbiddenAnnotations,
+      Collection<String> binaryNamesToResolve,
+      List<String> sourcepathEntries,
+      Problems problems) {
 
     // Parse and create a compilation unit for every file.
-    ASTParser parser = newASTParser();
+    ASTParser parser = newASTParser(sourcepathEntries);
 
     // The map must be ordered because it will be iterated over later and if it was not ordered then
     // our output would be unstable
@@ -83,7 +283,7 @@ public class JdtParser {
         new FileASTRequestor() {
           @Override
           public void acceptAST(String filePath, CompilationUnit compilationUnit) {
-            if (compilationHasErrors(filePath, compilationUnit, forbiddenAnnotations)) {
+            if (compilationHasErrors(filePath, compilationUnit, forbiddenAnnotations, problems)) {
               return;
             }
             String filePathKey = filePath;
@@ -131,7 +331,7 @@ public class JdtParser {
     return Iterables.getOnlyElement(bindings, null);
   }
 
-  private ASTParser newASTParser() {
+  private ASTParser newASTParser(List<String> sourcepathEntries) {
     ASTParser parser = ASTParser.newParser(AST_JLS_VERSION);
 
     parser.setCompilerOptions(compilerOptions);
@@ -140,18 +340,21 @@ public class JdtParser {
     // annotation is not fully resolved due to missing dependencies.
     parser.setBindingsRecovery(true);
     parser.setEnvironment(
-        Iterables.toArray(classpathEntries, String.class), new String[0], new String[0], false);
+        Iterables.toArray(classpathEntries, String.class),
+        sourcepathEntries.toArray(new String[0]),
+        getEncodings(sourcepathEntries.size()),
+        false);
     return parser;
   }
 
-  private String[] getEncodings(int length) {
+  private static String[] getEncodings(int length) {
     String[] encodings = new String[length];
     Arrays.fill(encodings, StandardCharsets.UTF_8.name());
     return encodings;
   }
 
-  private boolean compilationHasErrors(
-      String filename, CompilationUnit unit, List<String> forbiddenAnnotations) {
+  private static boolean compilationHasErrors(
+      String filename, CompilationUnit unit, List<String> forbiddenAnnotations, Problems problems) {
     boolean hasErrors = false;
     // Here we check for instances of @GwtIncompatible in the ast. If that is the case, we throw an
     // error since these should have been stripped by the build system already.
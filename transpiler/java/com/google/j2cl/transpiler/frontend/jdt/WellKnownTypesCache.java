@@ -0,0 +1,139 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.frontend.jdt;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.transpiler.ast.TypeDescriptors;
+import com.google.j2cl.transpiler.frontend.common.PackageInfoCache;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the well known type descriptors resolved from a classpath for the lifetime of the worker.
+ *
+ * <p>Resolving the well known types requires a full JDT parse over the classpath, which tools that
+ * only need the well known types to synthesize code would otherwise pay for on every request. The
+ * descriptors are completed lazily from the JDT bindings they were created from, which are not
+ * thread safe; hence an entry is only used by one request at a time and concurrent requests with
+ * the same classpath resolve their own.
+ *
+ * <p>Only classpaths made of jars are cached, since the modification time of a jar reflects the
+ * changes to its contents.
+ */
+public final class WellKnownTypesCache {
+
+  private static final int CACHE_SIZE =
+      Integer.parseInt(System.getProperty("j2cl.wellknowntypescachesize", "4"));
+
+  private static final Cache<ImmutableList<String>, Entry> entryByClasspath =
+      CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+  /**
+   * Initializes the well known type descriptors for the current thread, reusing the ones resolved
+   * by a previous request on the same unmodified classpath if possible.
+   *
+   * <p>The returned lease needs to be closed once the descriptors are no longer used, which removes
+   * them from the current thread and makes them available to later requests.
+   */
+  public static Lease initWellKnownTypes(List<String> classpathEntries, Problems problems) {
+    ImmutableList<String> classpath = ImmutableList.copyOf(classpathEntries);
+    ImmutableList<FileTime> lastModifiedTimes = getLastModifiedTimes(classpath);
+    if (lastModifiedTimes == null) {
+      resolveWellKnownTypes(classpath, problems);
+      return new Lease(null, null);
+    }
+
+    Entry entry = entryByClasspath.asMap().remove(classpath);
+    if (entry != null && entry.lastModifiedTimes.equals(lastModifiedTimes)) {
+      TypeDescriptors.reuse(entry.typeDescriptors);
+    } else {
+      entry = new Entry(lastModifiedTimes, resolveWellKnownTypes(classpath, problems));
+    }
+    return new Lease(classpath, entry);
+  }
+
+  private static TypeDescriptors resolveWellKnownTypes(
+      ImmutableList<String> classpath, Problems problems) {
+    new JdtEnvironment(new JdtParser(classpath, problems), TypeDescriptors.getWellKnownTypeNames());
+    return TypeDescriptors.get();
+  }
+
+  /**
+   * Returns the modification times of the classpath entries, or null if the classpath can not be
+   * cached.
+   */
+  @Nullable
+  private static ImmutableList<FileTime> getLastModifiedTimes(ImmutableList<String> classpath) {
+    if (CACHE_SIZE == 0) {
+      return null;
+    }
+    ImmutableList.Builder<FileTime> lastModifiedTimes = ImmutableList.builder();
+    for (String classpathEntry : classpath) {
+      if (!classpathEntry.endsWith(".jar") && !classpathEntry.endsWith(".zip")) {
+        return null;
+      }
+      try {
+        lastModifiedTimes.add(Files.getLastModifiedTime(Paths.get(classpathEntry)));
+      } catch (IOException e) {
+        // Let JDT report the problem if the entry is needed at all.
+        return null;
+      }
+    }
+    return lastModifiedTimes.build();
+  }
+
+  /** The use of cached well known type descriptors by a request. */
+  public static final class Lease implements AutoCloseable {
+    @Nullable private final ImmutableList<String> classpath;
+    @Nullable private Entry entry;
+
+    private Lease(@Nullable ImmutableList<String> classpath, @Nullable Entry entry) {
+      this.classpath = classpath;
+      this.entry = entry;
+    }
+
+    @Override
+    public void close() {
+      // Persistent workers process requests on the same thread, which would otherwise still see
+      // the descriptors and the package info of this request.
+      TypeDescriptors.clear();
+      PackageInfoCache.clear();
+      if (entry != null) {
+        entryByClasspath.put(classpath, entry);
+        entry = null;
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final ImmutableList<FileTime> lastModifiedTimes;
+    private final TypeDescriptors typeDescriptors;
+
+    private Entry(ImmutableList<FileTime> lastModifiedTimes, TypeDescriptors typeDescriptors) {
+      this.lastModifiedTimes = lastModifiedTimes;
+      this.typeDescriptors = typeDescriptors;
+    }
+  }
+
+  private WellKnownTypesCache() {}
+}
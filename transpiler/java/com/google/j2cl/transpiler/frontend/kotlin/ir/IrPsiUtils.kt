@@ -17,7 +17,6 @@
 
 package com.google.j2cl.transpiler.frontend.kotlin.ir
 
-import com.google.j2cl.common.FilePosition
 import com.google.j2cl.common.SourcePosition
 import com.intellij.psi.PsiElement
 import com.intellij.psi.PsiNameIdentifierOwner
@@ -90,19 +89,7 @@ private fun SourceRangeInfo.toSourcePosition(name: String? = null): SourcePositi
   return SourcePosition.newBuilder()
     .setFilePath(filePath)
     .setName(name)
-    .setStartFilePosition(
-      FilePosition.newBuilder()
-        .setLine(startLineNumber)
-        .setColumn(startColumnNumber)
-        .setByteOffset(startOffset)
-        .build()
-    )
-    .setEndFilePosition(
-      FilePosition.newBuilder()
-        .setLine(endLineNumber)
-        .setColumn(endColumnNumber)
-        .setByteOffset(endOffset)
-        .build()
-    )
+    .setStartPosition(startLineNumber, startColumnNumber, startOffset)
+    .setEndPosition(endLineNumber, endColumnNumber, endOffset)
     .build()
 }
@@ -17,7 +17,6 @@ package com.google.j2cl.transpiler.passes;
 
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.CatchClause;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.MethodCall;
 import com.google.j2cl.transpiler.ast.Node;
 import com.google.j2cl.transpiler.ast.RuntimeMethods;
@@ -52,51 +51,50 @@ import com.google.j2cl.transpiler.ast.VariableDeclarationExpression;
  * the browser dev tools (doesn't work well with custom error objects) and callers from JavaScript
  * side.
  */
-public class InsertExceptionConversions extends NormalizationPass {
+public class InsertExceptionConversions extends LocalRewritePass {
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Node rewriteCatchClause(CatchClause catchClause) {
-            Variable jsExceptionVariable =
-                Variable.newBuilder()
-                    .setName("__$jsexc")
-                    .setTypeDescriptor(TypeDescriptors.get().nativeObject)
-                    .build();
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Node rewriteCatchClause(CatchClause catchClause) {
+        Variable jsExceptionVariable =
+            Variable.newBuilder()
+                .setName("__$jsexc")
+                .setTypeDescriptor(TypeDescriptors.get().nativeObject)
+                .build();
 
-            CatchClause newCatchClause =
-                CatchClause.newBuilder()
-                    .setExceptionVariable(jsExceptionVariable)
-                    .setBody(catchClause.getBody())
-                    .build();
+        CatchClause newCatchClause =
+            CatchClause.newBuilder()
+                .setExceptionVariable(jsExceptionVariable)
+                .setBody(catchClause.getBody())
+                .build();
 
-            if (!catchClause.getBody().isNoop()) {
-              MethodCall toJavaCall =
-                  RuntimeMethods.createExceptionsMethodCall(
-                      "toJava", jsExceptionVariable.createReference());
-              Variable javaExceptionVariable = catchClause.getExceptionVariable();
-              VariableDeclarationExpression declaration =
-                  VariableDeclarationExpression.newBuilder()
-                      .addVariableDeclaration(javaExceptionVariable, toJavaCall)
-                      .build();
-              newCatchClause
-                  .getBody()
-                  .getStatements()
-                  .add(0, declaration.makeStatement(catchClause.getBody().getSourcePosition()));
-            }
-            return newCatchClause;
-          }
+        if (!catchClause.getBody().isNoop()) {
+          MethodCall toJavaCall =
+              RuntimeMethods.createExceptionsMethodCall(
+                  "toJava", jsExceptionVariable.createReference());
+          Variable javaExceptionVariable = catchClause.getExceptionVariable();
+          VariableDeclarationExpression declaration =
+              VariableDeclarationExpression.newBuilder()
+                  .addVariableDeclaration(javaExceptionVariable, toJavaCall)
+                  .build();
+          newCatchClause
+              .getBody()
+              .getStatements()
+              .add(0, declaration.makeStatement(catchClause.getBody().getSourcePosition()));
+        }
+        return newCatchClause;
+      }
 
-          @Override
-          public Node rewriteThrowStatement(ThrowStatement throwStatement) {
+      @Override
+      public Node rewriteThrowStatement(ThrowStatement throwStatement) {
 
-            MethodCall toJsCall =
-                RuntimeMethods.createExceptionsMethodCall("toJs", throwStatement.getExpression());
+        MethodCall toJsCall =
+            RuntimeMethods.createExceptionsMethodCall("toJs", throwStatement.getExpression());
 
-            return ThrowStatement.Builder.from(throwStatement).setExpression(toJsCall).build();
-          }
-        });
+        return ThrowStatement.Builder.from(throwStatement).setExpression(toJsCall).build();
+      }
+    };
   }
 
 }
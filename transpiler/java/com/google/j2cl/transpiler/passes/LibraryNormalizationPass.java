@@ -16,9 +16,40 @@
 package com.google.j2cl.transpiler.passes;
 
 import com.google.j2cl.transpiler.ast.Library;
+import java.util.function.Supplier;
 
-/** The base class for passes that operate on the whole library at once. */
+/**
+ * The base class for passes that operate on the whole library at once.
+ *
+ * <p>The factories of these passes are created through {@link #factory} so that the passes can be
+ * scheduled without creating them.
+ */
 public abstract class LibraryNormalizationPass extends NormalizationPass {
+
+  /** Returns a factory that is known to create passes that operate on the whole library. */
+  public static Supplier<NormalizationPass> factory(
+      Supplier<? extends LibraryNormalizationPass> passFactory) {
+    return new Factory(passFactory);
+  }
+
+  /** Returns whether the passes created by {@code passFactory} operate on the whole library. */
+  public static boolean isLibraryPassFactory(Supplier<NormalizationPass> passFactory) {
+    return passFactory instanceof Factory;
+  }
+
+  private static final class Factory implements Supplier<NormalizationPass> {
+    private final Supplier<? extends LibraryNormalizationPass> passFactory;
+
+    private Factory(Supplier<? extends LibraryNormalizationPass> passFactory) {
+      this.passFactory = passFactory;
+    }
+
+    @Override
+    public LibraryNormalizationPass get() {
+      return passFactory.get();
+    }
+  }
+
   public final void execute(Library library) {
     applyTo(library);
   }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.passes;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.transpiler.ast.AbstractRewriter;
+import com.google.j2cl.transpiler.ast.CompilationUnit;
+import com.google.j2cl.transpiler.ast.FusedRewriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A pass that consists of a single rewriter whose rewrites are local to the node being rewritten.
+ *
+ * <p>The rewrite of a node can only depend on the node and on its children, and the rewriter does
+ * not look at the parents of the node nor decide which subtrees to skip. Consecutive passes of this
+ * kind can then be run together in a single traversal of the compilation unit, where each node is
+ * rewritten by all the passes in order before moving on to the next node.
+ *
+ * <p>The factories of these passes are created through {@link #factory}, which is what marks them
+ * as candidates for fusion.
+ *
+ * <p>Note that when passes are fused, the nodes that a pass creates inside of a replacement are not
+ * seen by the passes that follow; only the replacement itself is.
+ */
+public abstract class LocalRewritePass extends NormalizationPass {
+
+  /** Creates the rewriter that implements the pass. */
+  abstract AbstractRewriter createRewriter();
+
+  @Override
+  public final void applyTo(CompilationUnit compilationUnit) {
+    compilationUnit.accept(createRewriter());
+  }
+
+  /**
+   * Returns a factory that is known to create local rewrite passes, so that consecutive passes can
+   * be fused without creating them.
+   */
+  public static Supplier<NormalizationPass> factory(
+      Supplier<? extends LocalRewritePass> passFactory) {
+    return new Factory(passFactory);
+  }
+
+  /**
+   * Replaces each run of consecutive local rewrite passes by a single pass that runs all of them in
+   * one traversal.
+   */
+  public static ImmutableList<Supplier<NormalizationPass>> fuseConsecutivePasses(
+      ImmutableList<Supplier<NormalizationPass>> passFactories) {
+    ImmutableList.Builder<Supplier<NormalizationPass>> fusedPassFactories =
+        ImmutableList.builder();
+    List<Factory> localRewritePassFactories = new ArrayList<>();
+    for (Supplier<NormalizationPass> passFactory : passFactories) {
+      if (passFactory instanceof Factory) {
+        localRewritePassFactories.add((Factory) passFactory);
+        continue;
+      }
+      addFused(fusedPassFactories, localRewritePassFactories);
+      fusedPassFactories.add(passFactory);
+    }
+    addFused(fusedPassFactories, localRewritePassFactories);
+    return fusedPassFactories.build();
+  }
+
+  private static void addFused(
+      ImmutableList.Builder<Supplier<NormalizationPass>> fusedPassFactories,
+      List<Factory> localRewritePassFactories) {
+    if (localRewritePassFactories.size() == 1) {
+      fusedPassFactories.add(localRewritePassFactories.get(0));
+    } else if (localRewritePassFactories.size() > 1) {
+      ImmutableList<Factory> componentFactories = ImmutableList.copyOf(localRewritePassFactories);
+      fusedPassFactories.add(
+          () ->
+              new FusedLocalRewritePass(
+                  componentFactories.stream().map(Factory::get).collect(toImmutableList())));
+    }
+    localRewritePassFactories.clear();
+  }
+
+  private static final class Factory implements Supplier<NormalizationPass> {
+    private final Supplier<? extends LocalRewritePass> passFactory;
+
+    private Factory(Supplier<? extends LocalRewritePass> passFactory) {
+      this.passFactory = passFactory;
+    }
+
+    @Override
+    public LocalRewritePass get() {
+      return passFactory.get();
+    }
+  }
+
+  /** Runs a sequence of local rewrite passes in a single traversal. */
+  private static final class FusedLocalRewritePass extends NormalizationPass {
+    private final ImmutableList<LocalRewritePass> passes;
+
+    private FusedLocalRewritePass(ImmutableList<LocalRewritePass> passes) {
+      this.passes = passes;
+    }
+
+    @Override
+    public void applyTo(CompilationUnit compilationUnit) {
+      for (LocalRewritePass pass : passes) {
+        pass.setProblems(getProblems());
+        pass.setCompilationUnit(compilationUnit);
+      }
+      compilationUnit.accept(
+          new FusedRewriter(
+              passes.stream().map(LocalRewritePass::createRewriter).collect(toImmutableList())));
+      for (LocalRewritePass pass : passes) {
+        pass.setCompilationUnit(null);
+      }
+    }
+  }
+}
@@ -53,6 +53,10 @@ public abstract class NormalizationPass {
     return currentCompilationUnit;
   }
 
+  final void setCompilationUnit(CompilationUnit compilationUnit) {
+    currentCompilationUnit = compilationUnit;
+  }
+
   public void applyTo(CompilationUnit compilationUnit) {
     compilationUnit.streamTypes().forEach(this::applyTo);
   }
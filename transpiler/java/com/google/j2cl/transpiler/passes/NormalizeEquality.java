@@ -18,41 +18,39 @@ package com.google.j2cl.transpiler.passes;
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.BinaryExpression;
 import com.google.j2cl.transpiler.ast.BinaryOperator;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.MethodCall;
 import com.google.j2cl.transpiler.ast.RuntimeMethods;
 
 /** Replaces object == object expressions with Equality.$same(object, object) calls. */
-public class NormalizeEquality extends NormalizationPass {
+public class NormalizeEquality extends LocalRewritePass {
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
-            // Don't rewrite non-equality expressions.
-            if (binaryExpression.getOperator() != BinaryOperator.EQUALS
-                && binaryExpression.getOperator() != BinaryOperator.NOT_EQUALS) {
-              return binaryExpression;
-            }
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
+        // Don't rewrite non-equality expressions.
+        if (binaryExpression.getOperator() != BinaryOperator.EQUALS
+            && binaryExpression.getOperator() != BinaryOperator.NOT_EQUALS) {
+          return binaryExpression;
+        }
 
-            // Don't rewrite primitive comparisons since '==' and '!=' are already good enough.
-            if (binaryExpression.getLeftOperand().getTypeDescriptor().isPrimitive()
-                || binaryExpression.getRightOperand().getTypeDescriptor().isPrimitive()) {
-              return binaryExpression;
-            }
+        // Don't rewrite primitive comparisons since '==' and '!=' are already good enough.
+        if (binaryExpression.getLeftOperand().getTypeDescriptor().isPrimitive()
+            || binaryExpression.getRightOperand().getTypeDescriptor().isPrimitive()) {
+          return binaryExpression;
+        }
 
-            // Rewrite object - object comparisons to avoid JS implicit conversions and still treat
-            // null and undefined as equivalent.
-            MethodCall sameCall =
-                RuntimeMethods.createEqualityMethodCall(
-                    "$same", binaryExpression.getLeftOperand(), binaryExpression.getRightOperand());
-            if (binaryExpression.getOperator() == BinaryOperator.NOT_EQUALS) {
-              return sameCall.prefixNot();
-            }
-            return sameCall;
-          }
-        });
+        // Rewrite object - object comparisons to avoid JS implicit conversions and still treat
+        // null and undefined as equivalent.
+        MethodCall sameCall =
+            RuntimeMethods.createEqualityMethodCall(
+                "$same", binaryExpression.getLeftOperand(), binaryExpression.getRightOperand());
+        if (binaryExpression.getOperator() == BinaryOperator.NOT_EQUALS) {
+          return sameCall.prefixNot();
+        }
+        return sameCall;
+      }
+    };
   }
 }
@@ -19,7 +19,6 @@ import static com.google.common.base.Preconditions.checkState;
 
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.ArrayTypeDescriptor;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.DeclaredTypeDescriptor;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.InstanceOfExpression;
@@ -31,26 +30,25 @@ import com.google.j2cl.transpiler.ast.RuntimeMethods;
 import com.google.j2cl.transpiler.ast.TypeDescriptor;
 
 /** Replaces instanceof expression with corresponding $isInstance method call. */
-public class NormalizeInstanceOfs extends NormalizationPass {
+public class NormalizeInstanceOfs extends LocalRewritePass {
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Node rewriteInstanceOfExpression(InstanceOfExpression expression) {
-            Expression subject = expression.getExpression();
-            // Replace trivial instanceof expression with a null check.
-            if (subject.getTypeDescriptor().isAssignableTo(expression.getTestTypeDescriptor())) {
-              return subject.infixNotEqualsNull();
-            }
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Node rewriteInstanceOfExpression(InstanceOfExpression expression) {
+        Expression subject = expression.getExpression();
+        // Replace trivial instanceof expression with a null check.
+        if (subject.getTypeDescriptor().isAssignableTo(expression.getTestTypeDescriptor())) {
+          return subject.infixNotEqualsNull();
+        }
 
-            if (expression.getTestTypeDescriptor().isArray()) {
-              return rewriteArrayInstanceOfExpression(expression);
-            } else {
-              return rewriteRegularInstanceOfExpression(expression);
-            }
-          }
-        });
+        if (expression.getTestTypeDescriptor().isArray()) {
+          return rewriteArrayInstanceOfExpression(expression);
+        } else {
+          return rewriteRegularInstanceOfExpression(expression);
+        }
+      }
+    };
   }
 
   private static Node rewriteRegularInstanceOfExpression(
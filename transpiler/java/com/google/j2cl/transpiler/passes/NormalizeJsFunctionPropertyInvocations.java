@@ -17,7 +17,6 @@ package com.google.j2cl.transpiler.passes;
 
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.ArrayAccess;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.ConditionalExpression;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.FieldAccess;
@@ -63,38 +62,37 @@ import com.google.j2cl.transpiler.ast.VariableDeclarationExpression;
  *
  * which will prevent accidental capture of {@code this}.
  */
-public class NormalizeJsFunctionPropertyInvocations extends NormalizationPass {
+public class NormalizeJsFunctionPropertyInvocations extends LocalRewritePass {
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Node rewriteMethodCall(MethodCall methodCall) {
-            MethodDescriptor targetMethod = methodCall.getTarget();
-            Expression qualifier = methodCall.getQualifier();
-            if (!targetMethod.getEnclosingTypeDescriptor().isJsFunctionInterface()
-                || !doesQualifierCaptureInstance(qualifier)) {
-              return methodCall;
-            }
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Node rewriteMethodCall(MethodCall methodCall) {
+        MethodDescriptor targetMethod = methodCall.getTarget();
+        Expression qualifier = methodCall.getQualifier();
+        if (!targetMethod.getEnclosingTypeDescriptor().isJsFunctionInterface()
+            || !doesQualifierCaptureInstance(qualifier)) {
+          return methodCall;
+        }
 
-            Variable qualifierVariable =
-                Variable.newBuilder()
-                    .setFinal(true)
-                    .setName("$function")
-                    .setTypeDescriptor(qualifier.getTypeDescriptor())
-                    .build();
-            return MultiExpression.newBuilder()
-                .setExpressions(
-                    // Declare the temporary variable and initialize to the evaluated qualifier.
-                    VariableDeclarationExpression.newBuilder()
-                        .addVariableDeclaration(qualifierVariable, qualifier)
-                        .build(),
-                    MethodCall.Builder.from(methodCall)
-                        .setQualifier(qualifierVariable.createReference())
-                        .build())
+        Variable qualifierVariable =
+            Variable.newBuilder()
+                .setFinal(true)
+                .setName("$function")
+                .setTypeDescriptor(qualifier.getTypeDescriptor())
                 .build();
-          }
-        });
+        return MultiExpression.newBuilder()
+            .setExpressions(
+                // Declare the temporary variable and initialize to the evaluated qualifier.
+                VariableDeclarationExpression.newBuilder()
+                    .addVariableDeclaration(qualifierVariable, qualifier)
+                    .build(),
+                MethodCall.Builder.from(methodCall)
+                    .setQualifier(qualifierVariable.createReference())
+                    .build())
+            .build();
+      }
+    };
   }
 
   /**
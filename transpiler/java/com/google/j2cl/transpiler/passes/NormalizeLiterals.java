@@ -17,45 +17,43 @@ package com.google.j2cl.transpiler.passes;
 
 import com.google.j2cl.common.StringUtils;
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.NumberLiteral;
 import com.google.j2cl.transpiler.ast.RuntimeMethods;
 import com.google.j2cl.transpiler.ast.TypeDescriptors;
 
 /** Replaces literals that are required to be emulated. */
-public class NormalizeLiterals extends NormalizationPass {
+public class NormalizeLiterals extends LocalRewritePass {
 
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
-            if (TypeDescriptors.isPrimitiveLong(numberLiteral.getTypeDescriptor())) {
-              long longValue = numberLiteral.getValue().longValue();
-              int intValue = numberLiteral.getValue().intValue();
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
+        if (TypeDescriptors.isPrimitiveLong(numberLiteral.getTypeDescriptor())) {
+          long longValue = numberLiteral.getValue().longValue();
+          int intValue = numberLiteral.getValue().intValue();
 
-              if (longValue == intValue) {
-                return RuntimeMethods.createNativeLongMethodCall(
-                    "fromInt", NumberLiteral.fromInt(intValue));
-              } else {
-                long lowOrderBits = longValue << 32 >> 32;
-                long highOrderBits = longValue >> 32;
-                return RuntimeMethods.createNativeLongMethodCall(
-                        "fromBits",
-                        NumberLiteral.fromInt((int) lowOrderBits),
-                        NumberLiteral.fromInt((int) highOrderBits))
-                    .withComment(String.valueOf(longValue));
-              }
-            } else if (TypeDescriptors.isPrimitiveChar(numberLiteral.getTypeDescriptor())) {
-              return numberLiteral.withComment(
-                  "'" + StringUtils.escapeAsWtf16(numberLiteral.getValue().intValue()) + "'");
-
-            } else {
-              return numberLiteral;
-            }
+          if (longValue == intValue) {
+            return RuntimeMethods.createNativeLongMethodCall(
+                "fromInt", NumberLiteral.fromInt(intValue));
+          } else {
+            long lowOrderBits = longValue << 32 >> 32;
+            long highOrderBits = longValue >> 32;
+            return RuntimeMethods.createNativeLongMethodCall(
+                    "fromBits",
+                    NumberLiteral.fromInt((int) lowOrderBits),
+                    NumberLiteral.fromInt((int) highOrderBits))
+                .withComment(String.valueOf(longValue));
           }
-        });
+        } else if (TypeDescriptors.isPrimitiveChar(numberLiteral.getTypeDescriptor())) {
+          return numberLiteral.withComment(
+              "'" + StringUtils.escapeAsWtf16(numberLiteral.getValue().intValue()) + "'");
+
+        } else {
+          return numberLiteral;
+        }
+      }
+    };
   }
 }
@@ -18,13 +18,12 @@ package com.google.j2cl.transpiler.passes;
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.BinaryExpression;
 import com.google.j2cl.transpiler.ast.CastExpression;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.PrimitiveTypes;
 import com.google.j2cl.transpiler.ast.TypeDescriptor;
 
 /** Normalize shift arithmetic operations to have correct type of operands. */
-public class NormalizeShifts extends NormalizationPass {
+public class NormalizeShifts extends LocalRewritePass {
 
   private final boolean narrowAllToInt;
 
@@ -37,29 +36,28 @@ public class NormalizeShifts extends NormalizationPass {
   }
 
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
-            if (!binaryExpression.getOperator().isShiftOperator()) {
-              return binaryExpression;
-            }
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
+        if (!binaryExpression.getOperator().isShiftOperator()) {
+          return binaryExpression;
+        }
 
-            // Closure expects 'int' for shift operations while Wasm expects type of lhs.
-            // We achieve necessary widening/narrowing operations by adding implicit casts here.
-            Expression rightOperand =
-                castTo(
-                    binaryExpression.getRightOperand(),
-                    narrowAllToInt
-                        ? PrimitiveTypes.INT
-                        : binaryExpression.getLeftOperand().getTypeDescriptor().toUnboxedType());
+        // Closure expects 'int' for shift operations while Wasm expects type of lhs.
+        // We achieve necessary widening/narrowing operations by adding implicit casts here.
+        Expression rightOperand =
+            castTo(
+                binaryExpression.getRightOperand(),
+                narrowAllToInt
+                    ? PrimitiveTypes.INT
+                    : binaryExpression.getLeftOperand().getTypeDescriptor().toUnboxedType());
 
-            return BinaryExpression.Builder.from(binaryExpression)
-                .setRightOperand(rightOperand)
-                .build();
-          }
-        });
+        return BinaryExpression.Builder.from(binaryExpression)
+            .setRightOperand(rightOperand)
+            .build();
+      }
+    };
   }
 
   private static Expression castTo(Expression expression, TypeDescriptor toTypeDescriptor) {
@@ -16,7 +16,6 @@
 package com.google.j2cl.transpiler.passes;
 
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
-import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.Expression;
 import com.google.j2cl.transpiler.ast.MemberReference;
 import com.google.j2cl.transpiler.ast.MultiExpression;
@@ -26,28 +25,27 @@ import com.google.j2cl.transpiler.ast.MultiExpression;
  * to a multiexpression "(instance, SomeClass.staticField)" or (instance, SomeClass.staticMethod())"
  * since J2CL keeps the invariant that static member accesses are never qualified by an expression.
  */
-public class NormalizeStaticMemberQualifiers extends NormalizationPass {
+public class NormalizeStaticMemberQualifiers extends LocalRewritePass {
   @Override
-  public void applyTo(CompilationUnit compilationUnit) {
-    compilationUnit.accept(
-        new AbstractRewriter() {
-          @Override
-          public Expression rewriteMemberReference(MemberReference memberReference) {
-            // If this is a static member referece, split the evaluation of the qualifier to
-            // preserve
-            // potential side effects.
-            if (isStaticMemberReferenceWithInstanceQualifier(memberReference)) {
-              MultiExpression.Builder multiExpressionBuilder = new MultiExpression.Builder();
-              if (memberReference.getQualifier().hasSideEffects()) {
-                multiExpressionBuilder.addExpressions(memberReference.getQualifier());
-              }
-              multiExpressionBuilder.addExpressions(
-                  MemberReference.Builder.from(memberReference).setQualifier(null).build());
-              return multiExpressionBuilder.build();
-            }
-            return memberReference;
+  AbstractRewriter createRewriter() {
+    return new AbstractRewriter() {
+      @Override
+      public Expression rewriteMemberReference(MemberReference memberReference) {
+        // If this is a static member referece, split the evaluation of the qualifier to
+        // preserve
+        // potential side effects.
+        if (isStaticMemberReferenceWithInstanceQualifier(memberReference)) {
+          MultiExpression.Builder multiExpressionBuilder = new MultiExpression.Builder();
+          if (memberReference.getQualifier().hasSideEffects()) {
+            multiExpressionBuilder.addExpressions(memberReference.getQualifier());
           }
-        });
+          multiExpressionBuilder.addExpressions(
+              MemberReference.Builder.from(memberReference).setQualifier(null).build());
+          return multiExpressionBuilder.build();
+        }
+        return memberReference;
+      }
+    };
   }
 
   /*** Returns true if a member reference to a static member is qualified by an expression.  */
@@ -18,7 +18,6 @@ package com.google.j2cl.transpiler.passes;
 import com.google.j2cl.transpiler.ast.AbstractRewriter;
 import com.google.j2cl.transpiler.ast.BinaryExpression;
 import com.google.j2cl.transpiler.ast.BinaryOperator;
-import com.google.j2cl.transpiler.ast.BooleanLiteral;
 import com.google.j2cl.transpiler.ast.CompilationUnit;
 import com.google.j2cl.transpiler.ast.ConditionalExpression;
 import com.google.j2cl.transpiler.ast.Node;
@@ -38,7 +37,7 @@ public class RecoverShortcutBooleanOperator extends NormalizationPass {
         new AbstractRewriter() {
           @Override
           public Node rewriteConditionalExpression(ConditionalExpression conditionalExpression) {
-            if (conditionalExpression.getTrueExpression() == BooleanLiteral.get(true)) {
+            if (conditionalExpression.getTrueExpression().isBooleanTrue()) {
               return BinaryExpression.newBuilder()
                   .setOperator(BinaryOperator.CONDITIONAL_OR)
                   .setLeftOperand(conditionalExpression.getConditionExpression())
@@ -46,7 +45,7 @@ public class RecoverShortcutBooleanOperator extends NormalizationPass {
                   .build();
             }
 
-            if (conditionalExpression.getFalseExpression() == BooleanLiteral.get(false)) {
+            if (conditionalExpression.getFalseExpression().isBooleanFalse()) {
               return BinaryExpression.newBuilder()
                   .setOperator(BinaryOperator.CONDITIONAL_AND)
                   .setLeftOperand(conditionalExpression.getConditionExpression())
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ProblemsTest {
+
+  @Test
+  public void testGetProblemsInFile() {
+    Problems problems = new Problems();
+    problems.warning(position("/a/java/com/example/Foo.java"), "first");
+    problems.warning("without position");
+    problems.error(3, "/a/java/com/example/Bar.java", "other file");
+    problems.error(2, "/b/java/com/example/Foo.java", "same name");
+    problems.warning(position("/a/java/com/example/FooBar.java"), "longer name");
+
+    Problems problemsInFile = problems.getProblemsInFile("/a/java/com/example/Foo.java");
+
+    assertThat(problemsInFile.getMessages())
+        .containsExactly("Warning:Foo.java:1: first", "Error:Foo.java:2: same name")
+        .inOrder();
+
+    // Replaying the problems does not report them twice.
+    problems.addAll(problemsInFile);
+    assertThat(problems.getMessages()).hasSize(5);
+  }
+
+  private static SourcePosition position(String filePath) {
+    return SourcePosition.newBuilder()
+        .setFilePath(filePath)
+        .setStartPosition(0, 0, 0)
+        .setEndPosition(0, 1, 1)
+        .build();
+  }
+}
@@ -65,4 +65,14 @@ public final class SourceUtilsTest {
       assertThat(SourceUtils.getJavaPath(JAVA_PATHS_BAD[i])).isEqualTo(JAVA_PATHS_BAD[i]);
     }
   }
+
+  @Test
+  public void testArchiveEntryPath() {
+    String path = SourceUtils.getArchiveEntryPath("foo/bar.srcjar", "com/google/foo/Foo.java");
+    assertThat(SourceUtils.isArchiveEntryPath(path)).isTrue();
+    assertThat(SourceUtils.getArchivePath(path)).isEqualTo("foo/bar.srcjar");
+    assertThat(SourceUtils.getEntryName(path)).isEqualTo("com/google/foo/Foo.java");
+    assertThat(SourceUtils.isArchiveEntryPath("foo/bar/Foo.java")).isFalse();
+    assertThat(SourceUtils.isArchiveEntryPath("foo/bar!/Foo.java")).isFalse();
+  }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class StreamingZipWriterTest {
+  private static final FileTime LAST_MODIFIED = FileTime.fromMillis(1_700_000_000_000L);
+
+  private ExecutorService executorService;
+  private Path output;
+
+  @Before
+  public void setUp() throws IOException {
+    executorService = Executors.newFixedThreadPool(4);
+    output = Files.createTempDirectory("streaming_zip_writer_test").resolve("output.zip");
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    try (StreamingZipWriter writer = newWriter(/* maxBufferedBytes= */ 1 << 20)) {
+      add(writer, "com/example/B.js", "b");
+      add(writer, "com/example/A.js", "a".repeat(10_000));
+      add(writer, "Top.js", "top");
+      add(writer, "com/other/C.js", "");
+    }
+
+    assertThat(readZip())
+        .containsExactly(
+            "Top.js", "top",
+            "com/", "",
+            "com/example/", "",
+            "com/example/A.js", "a".repeat(10_000),
+            "com/example/B.js", "b",
+            "com/other/", "",
+            "com/other/C.js", "")
+        .inOrder();
+    try (ZipFile zipFile = new ZipFile(output.toFile())) {
+      ZipEntry entry = zipFile.getEntry("com/example/A.js");
+      assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+      assertThat(entry.getLastModifiedTime().toMillis()).isEqualTo(LAST_MODIFIED.toMillis());
+      assertThat(zipFile.getEntry("com/").isDirectory()).isTrue();
+    }
+  }
+
+  @Test
+  public void testReplacedEntry() throws IOException {
+    try (StreamingZipWriter writer = newWriter(/* maxBufferedBytes= */ 1 << 20)) {
+      add(writer, "A.js", "first");
+      add(writer, "B.js", "b");
+      add(writer, "A.js", "second");
+    }
+
+    assertThat(readZip()).containsExactly("A.js", "second", "B.js", "b").inOrder();
+  }
+
+  @Test
+  public void testSpilledEntries() throws IOException {
+    Map<String, String> contentByName = new LinkedHashMap<>();
+    for (int i = 0; i < 100; i++) {
+      contentByName.put(String.format("Entry%03d.js", i), "content " + i + "\n".repeat(i));
+    }
+
+    // Only a few entries fit in the memory budget, the rest are spilled to disk.
+    try (StreamingZipWriter writer = newWriter(/* maxBufferedBytes= */ 64)) {
+      contentByName.forEach((name, content) -> add(writer, name, content));
+      // Replaced entries that were spilled are not written either.
+      add(writer, "Entry000.js", "replaced");
+    }
+
+    contentByName.put("Entry000.js", "replaced");
+    assertThat(readZip()).containsExactlyEntriesIn(contentByName).inOrder();
+  }
+
+  @Test
+  public void testZip64() throws IOException {
+    // More entries than fit in the entry count of the end of central directory record.
+    int entryCount = 0x10000 + 10;
+    try (StreamingZipWriter writer = newWriter(/* maxBufferedBytes= */ 1 << 20)) {
+      for (int i = 0; i < entryCount; i++) {
+        add(writer, String.format("Entry%06d.js", i), String.valueOf(i));
+      }
+    }
+
+    Map<String, String> contentByName = readZip();
+    assertThat(contentByName).hasSize(entryCount);
+    assertThat(contentByName.get("Entry000000.js")).isEqualTo("0");
+    assertThat(contentByName.get(String.format("Entry%06d.js", entryCount - 1)))
+        .isEqualTo(String.valueOf(entryCount - 1));
+  }
+
+  private StreamingZipWriter newWriter(long maxBufferedBytes) {
+    return new StreamingZipWriter(
+        output, executorService, /* maxPendingEntries= */ 8, maxBufferedBytes, LAST_MODIFIED);
+  }
+
+  private static void add(StreamingZipWriter writer, String name, String content) {
+    writer.add(name, LAST_MODIFIED, outputStream -> outputStream.write(content.getBytes(UTF_8)));
+  }
+
+  /** Returns the contents of the entries of the output in the order they are in the zip. */
+  private Map<String, String> readZip() throws IOException {
+    Map<String, String> contentByName = new LinkedHashMap<>();
+    try (ZipFile zipFile = new ZipFile(output.toFile())) {
+      List<ZipEntry> entries = new ArrayList<>();
+      for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); ) {
+        entries.add(e.nextElement());
+      }
+      for (ZipEntry entry : entries) {
+        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+          contentByName.put(
+              entry.getName(), new String(ByteStreams.toByteArray(inputStream), UTF_8));
+        }
+      }
+    }
+    return contentByName;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class TransferableThreadLocalTest {
+  private static final TransferableThreadLocal<String> compilationState =
+      new TransferableThreadLocal<>();
+  private static final TransferableThreadLocal<String> context =
+      TransferableThreadLocal.forContext();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    compilationState.remove();
+    context.remove();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testCaptureCarriesAllValues() throws Exception {
+    compilationState.set("compilation");
+    context.set("context");
+
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+
+    assertThat(getOnOtherThread(snapshot, compilationState)).isEqualTo("compilation");
+    assertThat(getOnOtherThread(snapshot, context)).isEqualTo("context");
+  }
+
+  @Test
+  public void testCaptureContextCarriesOnlyContextValues() throws Exception {
+    compilationState.set("compilation");
+    context.set("context");
+
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.captureContext();
+
+    assertThat(getOnOtherThread(snapshot, compilationState)).isNull();
+    assertThat(getOnOtherThread(snapshot, context)).isEqualTo("context");
+  }
+
+  @Test
+  public void testPreviousValuesAreRestored() {
+    context.set("context");
+    TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.captureContext();
+    context.set("other");
+    compilationState.set("compilation");
+
+    snapshot.runWith(() -> assertThat(context.get()).isEqualTo("context"));
+
+    assertThat(context.get()).isEqualTo("other");
+    assertThat(compilationState.get()).isEqualTo("compilation");
+  }
+
+  private <T> T getOnOtherThread(
+      TransferableThreadLocal.Snapshot snapshot, TransferableThreadLocal<T> threadLocal)
+      throws Exception {
+    return executor.submit(snapshot.wrap(threadLocal::get)).get();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.io.ByteSource;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ZipFilesTest {
+  private ExecutorService executorService;
+  private Path archive;
+
+  @Before
+  public void setUp() throws IOException {
+    executorService = Executors.newSingleThreadExecutor();
+    archive = Files.createTempDirectory("zip_files_test").resolve("sources.srcjar");
+    try (OutputStream out = Files.newOutputStream(archive);
+        ZipOutputStream zipOut = new ZipOutputStream(out)) {
+      zipOut.putNextEntry(new ZipEntry("a/A.java"));
+      zipOut.write("class A {}".getBytes(UTF_8));
+      zipOut.putNextEntry(new ZipEntry("a/B.java"));
+      zipOut.write("class B {}".getBytes(UTF_8));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testArchiveIsOpenedForEachRead() throws Exception {
+    ByteSource source = ZipFiles.asByteSource(archive.toFile(), "a/A.java");
+    assertThat(source.asCharSource(UTF_8).read()).isEqualTo("class A {}");
+
+    Files.delete(archive);
+
+    assertThrows(IOException.class, source::read);
+  }
+
+  @Test
+  public void testOpenArchivesAreKeptOpenUntilClosed() throws Exception {
+    ByteSource sourceA = ZipFiles.asByteSource(archive.toFile(), "a/A.java");
+    ByteSource sourceB = ZipFiles.asByteSource(archive.toFile(), "a/B.java");
+    try (ZipFiles.OpenArchives openArchives = ZipFiles.openArchives()) {
+      assertThat(sourceA.asCharSource(UTF_8).read()).isEqualTo("class A {}");
+
+      // The archive that is kept open can still be read, also from the threads of the compilation.
+      Files.delete(archive);
+      TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+      assertThat(
+              executorService
+                  .submit(snapshot.wrap(() -> sourceB.asCharSource(UTF_8).read()))
+                  .get())
+          .isEqualTo("class B {}");
+      assertThrows(
+          FileNotFoundException.class,
+          () -> ZipFiles.asByteSource(archive.toFile(), "a/C.java").read());
+    }
+
+    assertThrows(IOException.class, sourceA::read);
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.common.bazel;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.TransferableThreadLocal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.kohsuke.args4j.Option;
+
+@RunWith(JUnit4.class)
+public final class BazelWorkerTest {
+
+  /** Makes both requests wait for each other, so that they are processed at the same time. */
+  private static final CyclicBarrier bothRequestsInFlight = new CyclicBarrier(2);
+
+  /** A pool whose thread already exists when the requests are processed, and is shared by both. */
+  private static final ExecutorService sharedExecutor = Executors.newSingleThreadExecutor();
+
+  /** A worker that writes output from its own thread and from a shared helper thread. */
+  static final class TestWorker extends BazelWorker {
+    @Option(name = "-name")
+    String name;
+
+    @Override
+    protected void run(Problems problems) {
+      try {
+        bothRequestsInFlight.await(10, SECONDS);
+        System.err.println("request thread of " + name);
+        TransferableThreadLocal.Snapshot snapshot = TransferableThreadLocal.capture();
+        sharedExecutor
+            .submit(() -> snapshot.runWith(() -> System.out.println("helper thread of " + name)))
+            .get();
+        // Wait for the other request to use the helper thread too before finishing.
+        bothRequestsInFlight.await(10, SECONDS);
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+      problems.warning("warning of %s", name);
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsGetTheirOwnOutput() throws Exception {
+    // Start the thread of the shared pool before any request is processed.
+    sharedExecutor.submit(() -> {}).get();
+
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
+    newRequest(1, "first").writeDelimitedTo(requests);
+    newRequest(2, "second").writeDelimitedTo(requests);
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+
+    InputStream originalIn = System.in;
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    try {
+      System.setIn(new ByteArrayInputStream(requests.toByteArray()));
+      System.setOut(new PrintStream(responses, true));
+      BazelWorker.start(new String[] {"--persistent_worker"}, TestWorker::new);
+    } finally {
+      System.setIn(originalIn);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+
+    Map<Integer, WorkResponse> responseByRequestId = new HashMap<>();
+    InputStream responsesIn = new ByteArrayInputStream(responses.toByteArray());
+    for (int i = 0; i < 2; i++) {
+      WorkResponse response = WorkResponse.parseDelimitedFrom(responsesIn);
+      responseByRequestId.put(response.getRequestId(), response);
+    }
+    assertThat(WorkResponse.parseDelimitedFrom(responsesIn)).isNull();
+    assertThat(responseByRequestId.keySet()).containsExactly(1, 2);
+
+    assertResponse(responseByRequestId.get(1), "first", "second");
+    assertResponse(responseByRequestId.get(2), "second", "first");
+  }
+
+  private static void assertResponse(WorkResponse response, String name, String otherName) {
+    assertThat(response.getExitCode()).isEqualTo(0);
+    assertThat(response.getOutput()).contains("request thread of " + name);
+    assertThat(response.getOutput()).contains("helper thread of " + name);
+    assertThat(response.getOutput()).contains("warning of " + name);
+    assertThat(response.getOutput()).doesNotContain(otherName);
+  }
+
+  private static WorkRequest newRequest(int requestId, String name) {
+    return WorkRequest.newBuilder()
+        .setRequestId(requestId)
+        .addArguments("-name")
+        .addArguments(name)
+        .build();
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that transpiling libraries concurrently in a multiplexed worker gives the same outputs as
+ * transpiling them one at a time.
+ */
+@RunWith(JUnit4.class)
+public final class BazelJ2clBuilderTest {
+  private static final String JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle_deploy.jar";
+  private static final String WASM_JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle-j2wasm_deploy.jar";
+  private static final int LIBRARY_COUNT = 4;
+
+  private Path tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("builder_test");
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      Path packageDir = Files.createDirectories(getSourceDir(i).resolve("lib" + i));
+      Files.writeString(
+          packageDir.resolve("Shape.java"),
+          String.join(
+              "\n",
+              "package lib" + i + ";",
+              "public interface Shape {",
+              "  double area();",
+              "}"));
+      Files.writeString(
+          packageDir.resolve("Circle.java"),
+          String.join(
+              "\n",
+              "package lib" + i + ";",
+              "import java.util.ArrayList;",
+              "import java.util.List;",
+              "public class Circle implements Shape {",
+              "  private final double radius;",
+              "  public Circle(double radius) { this.radius = radius; }",
+              "  @Override public double area() { return Math.PI * radius * radius + " + i + "; }",
+              "  public static List<Shape> circles(int count) {",
+              "    List<Shape> circles = new ArrayList<>();",
+              "    for (int i = 0; i < count; i++) { circles.add(new Circle(i)); }",
+              "    return circles;",
+              "  }",
+              "}"));
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsWithJdt() throws Exception {
+    assertConcurrentOutputsAreSameAsSequential("JDT", "CLOSURE", "js/lib%d/Circle.impl.java.js");
+  }
+
+  @Test
+  public void testConcurrentRequestsWithJavac() throws Exception {
+    assertConcurrentOutputsAreSameAsSequential("JAVAC", "CLOSURE", "js/lib%d/Circle.impl.java.js");
+  }
+
+  @Test
+  public void testConcurrentRequestsWithWasm() throws Exception {
+    assertConcurrentOutputsAreSameAsSequential("JDT", "WASM", "js/module.wat");
+  }
+
+  private void assertConcurrentOutputsAreSameAsSequential(
+      String frontend, String backend, String expectedOutputPattern) throws Exception {
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      // Request id 0 is processed by the main thread, like a singleplex worker does.
+      WorkResponse response =
+          runInPersistentWorker(newRequest(0, i, "sequential", frontend, backend)).get(0);
+      assertWithMessage(response.getOutput()).that(response.getExitCode()).isEqualTo(0);
+    }
+
+    List<WorkRequest> requests = new ArrayList<>();
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      requests.add(newRequest(i + 1, i, "concurrent", frontend, backend));
+    }
+    Map<Integer, WorkResponse> responseByRequestId = new HashMap<>();
+    for (WorkResponse response : runInPersistentWorker(requests.toArray(new WorkRequest[0]))) {
+      responseByRequestId.put(response.getRequestId(), response);
+    }
+    assertThat(responseByRequestId).hasSize(LIBRARY_COUNT);
+
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      WorkResponse response = responseByRequestId.get(i + 1);
+      assertWithMessage(response.getOutput()).that(response.getExitCode()).isEqualTo(0);
+      Map<String, String> expectedContentByPath = readFiles(getOutputDir("sequential", i));
+      assertThat(expectedContentByPath).containsKey(String.format(expectedOutputPattern, i));
+      assertThat(readFiles(getOutputDir("concurrent", i)))
+          .containsExactlyEntriesIn(expectedContentByPath);
+    }
+  }
+
+  private WorkRequest newRequest(
+      int requestId, int library, String run, String frontend, String backend)
+      throws IOException {
+    Path outputDir = Files.createDirectories(getOutputDir(run, library));
+    List<String> sources = new ArrayList<>();
+    try (Stream<Path> paths = Files.walk(getSourceDir(library))) {
+      paths
+          .map(Path::toString)
+          .filter(p -> p.endsWith(".java"))
+          .sorted()
+          .forEach(sources::add);
+    }
+    boolean isWasm = backend.equals("WASM");
+    return WorkRequest.newBuilder()
+        .setRequestId(requestId)
+        .addArguments("-classpath")
+        .addArguments(isWasm ? WASM_JRE_PATH : JRE_PATH)
+        .addArguments("-output")
+        .addArguments(outputDir.resolve("js").toString())
+        .addArguments("-libraryinfooutput")
+        .addArguments(outputDir.resolve("library_info.pb").toString())
+        .addArguments("-experimentalJavaFrontend")
+        .addArguments(frontend)
+        .addArguments("-experimentalBackend")
+        .addArguments(backend)
+        .addAllArguments(
+            isWasm
+                ? List.of("-experimentalGenerateWasmExport", "lib" + library + ".Circle#circles")
+                : List.of())
+        .addAllArguments(sources)
+        .build();
+  }
+
+  private Path getSourceDir(int library) {
+    return tempDir.resolve("src" + library);
+  }
+
+  private Path getOutputDir(String run, int library) {
+    return tempDir.resolve(run).resolve("lib" + library);
+  }
+
+  /** Runs the requests in a persistent worker and returns the responses in the order received. */
+  private static List<WorkResponse> runInPersistentWorker(WorkRequest... requests)
+      throws IOException {
+    ByteArrayOutputStream requestsOut = new ByteArrayOutputStream();
+    for (WorkRequest request : requests) {
+      request.writeDelimitedTo(requestsOut);
+    }
+    ByteArrayOutputStream responsesOut = new ByteArrayOutputStream();
+
+    InputStream originalIn = System.in;
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    try {
+      System.setIn(new ByteArrayInputStream(requestsOut.toByteArray()));
+      System.setOut(new PrintStream(responsesOut, true));
+      BazelJ2clBuilder.main(new String[] {"--persistent_worker"});
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    } finally {
+      System.setIn(originalIn);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+
+    List<WorkResponse> responses = new ArrayList<>();
+    InputStream responsesIn = new ByteArrayInputStream(responsesOut.toByteArray());
+    for (WorkResponse response = WorkResponse.parseDelimitedFrom(responsesIn);
+        response != null;
+        response = WorkResponse.parseDelimitedFrom(responsesIn)) {
+      responses.add(response);
+    }
+    return responses;
+  }
+
+  /** Returns the contents of the files under {@code dir} by their relative path. */
+  private static Map<String, String> readFiles(Path dir) throws IOException {
+    Map<String, String> contentByPath = new TreeMap<>();
+    try (Stream<Path> paths = Files.walk(dir)) {
+      for (Path path : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator) {
+        // Decoded byte by byte, so that binary outputs are compared exactly.
+        contentByPath.put(
+            dir.relativize(path).toString(), new String(Files.readAllBytes(path), ISO_8859_1));
+      }
+    }
+    return contentByPath;
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import com.google.j2cl.transpiler.backend.wasm.SharedSnippet;
+import com.google.j2cl.transpiler.backend.wasm.StringLiteralInfo;
+import com.google.j2cl.transpiler.backend.wasm.Summary;
+import com.google.j2cl.transpiler.backend.wasm.SystemPropertyInfo;
+import com.google.j2cl.transpiler.backend.wasm.TypeInfo;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that bundling incrementally in a worker gives the same result as bundling from scratch. */
+@RunWith(JUnit4.class)
+public final class BazelJ2wasmBundlerTest {
+  private static final String JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle-j2wasm_deploy.jar";
+
+  private Path tempDir;
+  private Path libraryInput;
+  private final List<Path> inputs = new ArrayList<>();
+  private final List<String> defines = new ArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("bundler_test");
+    libraryInput = createInput("library", newLibrarySummary().build());
+    inputs.add(createInput("base", newBaseSummary()));
+    inputs.add(libraryInput);
+  }
+
+  @Test
+  public void testTypeChange() throws Exception {
+    // Make test.Main implement test.Shape, which changes the itables.
+    assertIncrementalBundleIsSameAsClean(
+        s -> s.setTypes(0, s.getTypes(0).toBuilder().addImplementsTypes(3)));
+  }
+
+  @Test
+  public void testStringLiteralChange() throws Exception {
+    assertIncrementalBundleIsSameAsClean(
+        s -> s.setStringLiterals(0, s.getStringLiterals(0).toBuilder().setContent("changed")));
+  }
+
+  @Test
+  public void testSnippetChange() throws Exception {
+    assertIncrementalBundleIsSameAsClean(
+        s ->
+            s.addTypeSnippets(newSnippet("$test.Added", "(type $test.Added (struct))"))
+                .setGlobalSnippets(0, newSnippet("$test.global", "(global $test.global i32 1)")));
+  }
+
+  @Test
+  public void testNoChange() throws Exception {
+    assertIncrementalBundleIsSameAsClean(s -> s);
+  }
+
+  @Test
+  public void testInputAdded() throws Exception {
+    // The summaries can not be matched with the previous ones, so the application is relinked.
+    assertIncrementalBundleIsSameAsClean(
+        () ->
+            inputs.add(
+                createInput(
+                    "extra",
+                    Summary.newBuilder()
+                        .addTypeNames("")
+                        .addTypeNames("test.Extra")
+                        .addTypes(TypeInfo.newBuilder().setTypeId(1))
+                        .addStringLiterals(
+                            StringLiteralInfo.newBuilder()
+                                .setContent("extra")
+                                .setEnclosingTypeName("test.Extra")
+                                .setMethodName("$getString_extra"))
+                        .addJsImportRequires("extra.imports")
+                        .build())));
+  }
+
+  @Test
+  public void testDefineChange() throws Exception {
+    // The value of the referenced property is synthesized, so the application is relinked.
+    assertIncrementalBundleIsSameAsClean(
+        () -> {
+          defines.add("-define");
+          defines.add("test.property=changed");
+        });
+  }
+
+  /**
+   * Bundles the application, changes the summary of the library and then checks that bundling
+   * again incrementally gives the same output as bundling the changed application from scratch.
+   */
+  private void assertIncrementalBundleIsSameAsClean(UnaryOperator<Summary.Builder> change)
+      throws Exception {
+    assertIncrementalBundleIsSameAsClean(
+        () -> writeSummary(libraryInput, change.apply(newLibrarySummary()).build()));
+  }
+
+  /** A change to the application between two bundles. */
+  private interface ApplicationChange {
+    void apply() throws IOException;
+  }
+
+  /**
+   * Bundles the application, changes it and then checks that bundling again incrementally gives
+   * the same output as bundling the changed application from scratch.
+   */
+  private void assertIncrementalBundleIsSameAsClean(ApplicationChange change) throws Exception {
+    Path incrementalOutput = tempDir.resolve("incremental");
+    bundle(incrementalOutput, /* incremental= */ true);
+
+    change.apply();
+    bundle(incrementalOutput, /* incremental= */ true);
+
+    Path cleanOutput = tempDir.resolve("clean");
+    bundle(cleanOutput, /* incremental= */ false);
+
+    assertSameContents(incrementalOutput.resolve("module.wat"), cleanOutput.resolve("module.wat"));
+    assertSameContents(incrementalOutput.resolve("imports.js"), cleanOutput.resolve("imports.js"));
+  }
+
+  private Path createInput(String name, Summary summary) throws IOException {
+    Path input = Files.createDirectories(tempDir.resolve(name));
+    Files.writeString(input.resolve("types.wat"), "(type $" + name + ".types (struct))\n");
+    Files.writeString(input.resolve("imports.wat"), ";; imports of " + name + "\n");
+    Files.writeString(input.resolve("contents.wat"), ";; contents of " + name + "\n");
+    writeSummary(input, summary);
+    return input;
+  }
+
+  private static void writeSummary(Path input, Summary summary) throws IOException {
+    Path summaryPath = input.resolve("summary.binpb");
+    FileTime previousLastModified =
+        Files.exists(summaryPath) ? Files.getLastModifiedTime(summaryPath) : null;
+    Files.write(summaryPath, summary.toByteArray());
+    if (previousLastModified != null) {
+      // Make sure that the worker sees the change even with a coarse timestamp resolution.
+      Files.setLastModifiedTime(
+          summaryPath, FileTime.fromMillis(previousLastModified.toMillis() + 10_000));
+    }
+  }
+
+  private static Summary newBaseSummary() {
+    return Summary.newBuilder()
+        // The first type name is not used; type id 0 means no type.
+        .addTypeNames("")
+        .addTypeNames("java.lang.Object")
+        .addTypes(TypeInfo.newBuilder().setTypeId(1))
+        .addJsImportRequires("base.imports")
+        .build();
+  }
+
+  private static Summary.Builder newLibrarySummary() {
+    return Summary.newBuilder()
+        .addTypeNames("")
+        .addTypeNames("java.lang.Object")
+        .addTypeNames("test.Main")
+        .addTypeNames("test.Shape")
+        .addTypeNames("test.Circle")
+        .addInterfaces(TypeInfo.newBuilder().setTypeId(3))
+        .addTypes(TypeInfo.newBuilder().setTypeId(2).setExtendsType(1))
+        .addTypes(TypeInfo.newBuilder().setTypeId(4).setExtendsType(1).addImplementsTypes(3))
+        .addStringLiterals(
+            StringLiteralInfo.newBuilder()
+                .setContent("hello")
+                .setEnclosingTypeName("test.Main")
+                .setMethodName("$getString_hello"))
+        .addSystemProperties(SystemPropertyInfo.newBuilder().setPropertyKey("test.property"))
+        .addTypeSnippets(newSnippet("$test.Array", "(type $test.Array (array i32))"))
+        .addGlobalSnippets(newSnippet("$test.global", "(global $test.global i32 0)"))
+        .addJsImportSnippets(newSnippet("test.log", "'test.log': console.log,"));
+  }
+
+  private static SharedSnippet newSnippet(String key, String snippet) {
+    return SharedSnippet.newBuilder().setKey(key).setSnippet(snippet).build();
+  }
+
+  private void bundle(Path output, boolean incremental) throws IOException {
+    Files.createDirectories(output);
+    List<String> args = new ArrayList<>();
+    args.add("-output");
+    args.add(output.resolve("module.wat").toString());
+    args.add("-jsimports");
+    args.add(output.resolve("imports.js").toString());
+    args.add("-classpath");
+    args.add(JRE_PATH);
+    args.addAll(defines);
+    if (incremental) {
+      args.add("-incremental");
+    }
+    inputs.forEach(i -> args.add(i.toString()));
+
+    WorkResponse response = runInPersistentWorker(args);
+    assertWithMessage(response.getOutput()).that(response.getExitCode()).isEqualTo(0);
+  }
+
+  /** Runs the request in a persistent worker, which keeps the state of the bundler across runs. */
+  private static WorkResponse runInPersistentWorker(List<String> args) throws IOException {
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    WorkRequest.newBuilder().addAllArguments(args).build().writeDelimitedTo(request);
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+    InputStream originalIn = System.in;
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    try {
+      System.setIn(new ByteArrayInputStream(request.toByteArray()));
+      System.setOut(new PrintStream(response, true));
+      BazelJ2wasmBundler.main(new String[] {"--persistent_worker"});
+    } catch (Exception e) {
+      throw new AssertionError(e);
+    } finally {
+      System.setIn(originalIn);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+    return WorkResponse.parseDelimitedFrom(new ByteArrayInputStream(response.toByteArray()));
+  }
+
+  private static void assertSameContents(Path actual, Path expected) throws IOException {
+    assertThat(Files.readString(actual, UTF_8)).isEqualTo(Files.readString(expected, UTF_8));
+  }
+}
@@ -17,12 +17,15 @@ package com.google.j2cl.transpiler;
 
 import static com.google.j2cl.transpiler.TranspilerTester.newTester;
 import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaults;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 import junit.framework.TestCase;
 
 /** End to end test for command line invocations. */
@@ -134,6 +137,28 @@ public class CommandLineInvocationTest extends TestCase {
         .assertTranspileSucceeds();
   }
 
+  public void testSrcjarEntriesKeepTheirPathWithJavac() throws IOException {
+    Path srcjar = Files.createTempDirectory("srcjar").resolve("sources.srcjar");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(srcjar))) {
+      out.putNextEntry(new ZipEntry("com/example/Foo.java"));
+      out.write("package com.example; public class Foo {}".getBytes(UTF_8));
+      out.closeEntry();
+    }
+    // The entries are read in place by the javac frontend; their paths should still be the ones
+    // derived from the srcjar path as given, whether it is absolute or relative.
+    Path relativeSrcjar = Paths.get("").toAbsolutePath().relativize(srcjar);
+    for (Path srcjarPath : new Path[] {srcjar, relativeSrcjar}) {
+      Path profileOutput = Files.createTempFile("profile", ".json");
+      newTesterWithDefaults()
+          .addArgs("-frontend", "javac", "-profileOutput", profileOutput.toString())
+          .addArgs(srcjarPath.toString())
+          .assertTranspileSucceeds();
+
+      String trace = new String(Files.readAllBytes(profileOutput), UTF_8);
+      assertTrue(trace, trace.contains("\"name\":\"" + srcjarPath + "!/com/example/Foo.java\""));
+    }
+  }
+
   // TODO(b/158564515): Enable when the bug is fixed.
   public void disabled_testNativeJsInSameDirSourceInDifferentSourceJar() {
     newTesterWithDefaults()
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaults;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Ascii;
+import com.google.common.cache.CacheStats;
+import com.google.j2cl.transpiler.TranspilerTester.TranspileResult;
+import com.google.j2cl.transpiler.backend.closure.CompilationUnitOutputCache;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/** Tests for reusing the outputs of compilation units across compilations in the same process. */
+public class CompilationUnitOutputCacheTest extends TestCase {
+
+  private Path sourceRoot;
+  // The outputs are cached for the whole process, so each test uses its own package.
+  private String packageName;
+  private CacheStats lastStats;
+
+  @Override
+  protected void setUp() throws IOException {
+    sourceRoot = Files.createTempDirectory("output_cache_test").resolve("java");
+    packageName = "com.example." + Ascii.toLowerCase(getName());
+    writeSource("Callee", "public class Callee {", "  public static int get() { return 1; }", "}");
+    writeSource("Caller", "public class Caller {", "  int value = Callee.get();", "}");
+    writeSource("Unrelated", "public class Unrelated {", "  String name = \"unrelated\";", "}");
+  }
+
+  public void testMissThenHit() throws Exception {
+    TranspileResult cold = transpile(/* incremental= */ true);
+    assertThat(lastStats.missCount()).isEqualTo(3);
+    assertThat(lastStats.hitCount()).isEqualTo(0);
+
+    TranspileResult warm = transpile(/* incremental= */ true);
+    assertThat(lastStats.missCount()).isEqualTo(0);
+    assertThat(lastStats.hitCount()).isEqualTo(3);
+
+    warm.assertOutputFilesAreSame(cold);
+    assertThat(warm.getProblems().getMessages())
+        .containsExactlyElementsIn(cold.getProblems().getMessages());
+  }
+
+  public void testBodyChangeOnlyInvalidatesChangedUnit() throws Exception {
+    transpile(/* incremental= */ true);
+
+    writeSource("Callee", "public class Callee {", "  public static int get() { return 2; }", "}");
+    TranspileResult warm = transpile(/* incremental= */ true);
+    // Callee changed, but its API did not so Caller and Unrelated are reused.
+    assertThat(lastStats.missCount()).isEqualTo(1);
+    assertThat(lastStats.hitCount()).isEqualTo(2);
+
+    warm.assertOutputFilesAreSame(transpile(/* incremental= */ false));
+  }
+
+  public void testApiChangeInvalidatesDependentUnits() throws Exception {
+    transpile(/* incremental= */ true);
+
+    // Caller did not change, but the call depends on the signature of the method it calls.
+    writeSource(
+        "Callee", "public class Callee {", "  public static int get(int... i) { return 1; }", "}");
+    TranspileResult warm = transpile(/* incremental= */ true);
+    assertThat(lastStats.missCount()).isEqualTo(2);
+    assertThat(lastStats.hitCount()).isEqualTo(1);
+
+    warm.assertOutputFilesAreSame(transpile(/* incremental= */ false));
+  }
+
+  public void testSourcesFromArchivesAreReused() throws Exception {
+    // The sources of a srcjar are extracted to a new directory by every compilation.
+    TranspileResult cold = transpileSrcJar();
+    assertThat(lastStats.missCount()).isEqualTo(3);
+    assertThat(lastStats.hitCount()).isEqualTo(0);
+
+    TranspileResult warm = transpileSrcJar();
+    assertThat(lastStats.missCount()).isEqualTo(0);
+    assertThat(lastStats.hitCount()).isEqualTo(3);
+
+    warm.assertOutputFilesAreSame(cold);
+  }
+
+  private void writeSource(String name, String... lines) throws IOException {
+    Path path = sourceRoot.resolve(getPackagePath() + name + ".java");
+    Files.createDirectories(path.getParent());
+    List<String> content = new ArrayList<>();
+    content.add("package " + packageName + ";");
+    content.addAll(List.of(lines));
+    Files.write(path, content, UTF_8);
+  }
+
+  private TranspileResult transpile(boolean incremental) throws IOException {
+    List<String> args = new ArrayList<>();
+    try (var paths = Files.walk(sourceRoot)) {
+      paths
+          .map(Path::toString)
+          .filter(p -> p.endsWith(".java"))
+          .sorted()
+          .forEach(args::add);
+    }
+    if (incremental) {
+      args.add("-incrementalOutputs");
+    }
+    return transpile(newTester().addArgs(args));
+  }
+
+  private TranspileResult transpileSrcJar() throws IOException {
+    TranspilerTester tester = newTester().addArgs("-incrementalOutputs");
+    List<Path> sources;
+    try (var paths = Files.walk(sourceRoot)) {
+      sources = paths.filter(p -> p.toString().endsWith(".java")).collect(toImmutableList());
+    }
+    for (Path source : sources) {
+      tester.addFileToZipFile(
+          "sources.srcjar",
+          sourceRoot.relativize(source).toString(),
+          Files.readAllLines(source, UTF_8).toArray(new String[0]));
+    }
+    return transpile(tester);
+  }
+
+  private static TranspilerTester newTester() {
+    // The outputs are only reused without the AutoValue optimization, which is off in the worker.
+    return newTesterWithDefaults().addArgs("-optimizeautovalue", "false");
+  }
+
+  /** Transpiles and records the cache lookups done by the compilation in {@link #lastStats}. */
+  private TranspileResult transpile(TranspilerTester tester) {
+    CacheStats statsBefore = CompilationUnitOutputCache.getStats();
+    TranspileResult result = tester.assertTranspileSucceeds().assertNoWarnings();
+    lastStats = CompilationUnitOutputCache.getStats().minus(statsBefore);
+    return result;
+  }
+
+  private String getPackagePath() {
+    return packageName.replace('.', '/') + "/";
+  }
+}
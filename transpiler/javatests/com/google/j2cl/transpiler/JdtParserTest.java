@@ -0,0 +1,145 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.common.SourceUtils;
+import com.google.j2cl.common.SourceUtils.FileInfo;
+import com.google.j2cl.transpiler.frontend.jdt.CompilationUnitsAndTypeBindings;
+import com.google.j2cl.transpiler.frontend.jdt.JdtParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.ITypeBinding;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that parsing sources in concurrent batches is indistinguishable from a single batch. */
+@RunWith(JUnit4.class)
+public final class JdtParserTest {
+  private static final String JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle_deploy.jar";
+
+  private Path javaRoot;
+
+  @Before
+  public void setUp() throws IOException {
+    javaRoot = Files.createTempDirectory("jdt_parser_test").resolve("java");
+    // Each type refers to the next one so that every batch depends on the other batches.
+    addSource("A", "public class A { B b; }");
+    addSource("B", "class B { C c; java.util.List<D> ds; }");
+    addSource("C", "class C { D d; }");
+    addSource("D", "class D extends A { A a; }");
+    addSource("UsesUndeclared", "class UsesUndeclared { Undeclared u; }");
+    // Present in the same directory as the other sources but not part of the compilation.
+    addSource("Undeclared", "class Undeclared {}");
+  }
+
+  @Test
+  public void testBatchedParseResolvesSameTypes() throws IOException {
+    List<FileInfo> sources = getSources("A", "B", "C", "D");
+
+    ParseResult sequential = parse(sources, 1);
+    ParseResult batched = parse(sources, 2);
+
+    assertThat(sequential.errors).isEmpty();
+    assertThat(batched.errors).isEmpty();
+    assertThat(batched.fieldTypesByFilePath)
+        .containsExactlyEntriesIn(sequential.fieldTypesByFilePath)
+        .inOrder();
+  }
+
+  @Test
+  public void testBatchedParseDoesNotResolveUndeclaredSources() throws IOException {
+    List<FileInfo> sources = getSources("A", "B", "C", "D", "UsesUndeclared");
+
+    ParseResult sequential = parse(sources, 1);
+    ParseResult batched = parse(sources, 2);
+
+    assertThat(sequential.errors).isNotEmpty();
+    assertThat(batched.errors).containsExactlyElementsIn(sequential.errors).inOrder();
+    assertThat(batched.fieldTypesByFilePath)
+        .containsExactlyEntriesIn(sequential.fieldTypesByFilePath)
+        .inOrder();
+  }
+
+  private void addSource(String name, String body) throws IOException {
+    Path path = javaRoot.resolve("com/example/" + name + ".java");
+    Files.createDirectories(path.getParent());
+    Files.write(path, ("package com.example;\n" + body).getBytes(StandardCharsets.UTF_8));
+  }
+
+  private List<FileInfo> getSources(String... names) {
+    List<String> paths = new ArrayList<>();
+    for (String name : names) {
+      paths.add(javaRoot.resolve("com/example/" + name + ".java").toString());
+    }
+    return SourceUtils.getAllSources(paths, new Problems()).collect(toImmutableList());
+  }
+
+  private static ParseResult parse(List<FileInfo> sources, int parallelism) {
+    Problems problems = new Problems();
+    CompilationUnitsAndTypeBindings result =
+        new JdtParser(ImmutableList.of(JRE_PATH), problems)
+            .parseFiles(
+                sources,
+                /* useTargetPath= */ true,
+                /* forbiddenAnnotations= */ ImmutableList.of(),
+                /* binaryNamesToResolve= */ ImmutableList.of("java.lang.Object"),
+                parallelism);
+    return new ParseResult(result, problems);
+  }
+
+  /** The parts of a parse that are observable by the rest of the frontend. */
+  private static final class ParseResult {
+    private final Map<String, List<String>> fieldTypesByFilePath = new LinkedHashMap<>();
+    private final List<String> errors;
+
+    ParseResult(CompilationUnitsAndTypeBindings result, Problems problems) {
+      for (Map.Entry<String, CompilationUnit> entry :
+          result.getCompilationUnitsByFilePath().entrySet()) {
+        List<String> fieldTypes = new ArrayList<>();
+        entry
+            .getValue()
+            .accept(
+                new ASTVisitor() {
+                  @Override
+                  public boolean visit(FieldDeclaration fieldDeclaration) {
+                    ITypeBinding typeBinding = fieldDeclaration.getType().resolveBinding();
+                    fieldTypes.add(typeBinding == null ? "<unresolved>" : typeBinding.getKey());
+                    return false;
+                  }
+                });
+        fieldTypesByFilePath.put(entry.getKey(), fieldTypes);
+      }
+      this.errors = problems.getErrors();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.j2cl.transpiler.TranspilerTester.newTesterWithDefaults;
+
+import com.google.j2cl.transpiler.TranspilerTester.TranspileResult;
+import junit.framework.TestCase;
+
+/**
+ * Tests that running the normalization passes in parallel, fused or one unit at a time does not
+ * change the results.
+ */
+public class ParallelPassRunnerTest extends TestCase {
+
+  public void testOutputsMatchSequentialRun() throws Exception {
+    TranspileResult sequential = newTester("-passParallelism", "1").assertTranspileSucceeds();
+    TranspileResult parallel = newTester("-passParallelism", "4").assertTranspileSucceeds();
+
+    parallel.assertOutputFilesAreSame(sequential);
+    assertThat(parallel.getProblems().getMessages())
+        .containsExactlyElementsIn(sequential.getProblems().getMessages())
+        .inOrder();
+  }
+
+  public void testOutputsMatchSequentialRunWithFusedPasses() throws Exception {
+    TranspileResult sequential =
+        newTester("-passParallelism", "1", "-fusePasses").assertTranspileSucceeds();
+    TranspileResult parallel =
+        newTester("-passParallelism", "4", "-fusePasses").assertTranspileSucceeds();
+
+    parallel.assertOutputFilesAreSame(sequential);
+    assertThat(parallel.getProblems().getMessages())
+        .containsExactlyElementsIn(sequential.getProblems().getMessages())
+        .inOrder();
+  }
+
+  public void testOutputsMatchWithStreamedOutputs() throws Exception {
+    TranspileResult library = newTester().assertTranspileSucceeds();
+    TranspileResult streamed = newTester("-streamOutputs").assertTranspileSucceeds();
+
+    streamed.assertOutputFilesAreSame(library);
+    assertThat(streamed.getProblems().getMessages())
+        .containsExactlyElementsIn(library.getProblems().getMessages())
+        .inOrder();
+  }
+
+  public void testOutputsMatchWithStreamedOutputsAndFusedPasses() throws Exception {
+    TranspileResult library =
+        newTester("-passParallelism", "4", "-fusePasses").assertTranspileSucceeds();
+    TranspileResult streamed =
+        newTester("-passParallelism", "4", "-fusePasses", "-streamOutputs")
+            .assertTranspileSucceeds();
+
+    streamed.assertOutputFilesAreSame(library);
+    assertThat(streamed.getProblems().getMessages())
+        .containsExactlyElementsIn(library.getProblems().getMessages())
+        .inOrder();
+  }
+
+  /** Returns a tester for a library that exercises many of the normalization passes. */
+  private static TranspilerTester newTester(String... args) {
+    return newTesterWithDefaults()
+        .addArgs(args)
+        .addCompilationUnit(
+            "test.Shapes",
+            "import java.util.ArrayList;",
+            "import java.util.List;",
+            "import java.util.function.Supplier;",
+            "public class Shapes {",
+            "  enum Kind { CIRCLE, SQUARE { @Override double area(double s) { return s * s; } };",
+            "    double area(double r) { return Math.PI * r * r; }",
+            "  }",
+            "  interface Shape { double area(); default String name() { return \"shape\"; } }",
+            "  static final String PREFIX = \"shape:\" + 1;",
+            "  static List<Shape> shapes() {",
+            "    List<Shape> shapes = new ArrayList<>();",
+            "    for (Kind kind : Kind.values()) {",
+            "      double size = kind.ordinal() + 1;",
+            "      shapes.add(() -> kind.area(size));",
+            "    }",
+            "    shapes.add(new Shape() { public double area() { return 0; } });",
+            "    return shapes;",
+            "  }",
+            "  public static void main(String... args) {",
+            "    Supplier<List<Shape>> supplier = Shapes::shapes;",
+            "    long total = 0;",
+            "    for (Shape shape : supplier.get()) {",
+            "      total += (long) shape.area();",
+            "    }",
+            "    String s = PREFIX + total + (args.length > 0 ? args[0] : 'c');",
+            "    switch (s) { case \"a\": total >>>= 1; break; default: total++; }",
+            "  }",
+            "}")
+        .addCompilationUnit(
+            "test.Resources",
+            "public class Resources implements AutoCloseable {",
+            "  private int count;",
+            "  @Override public void close() {}",
+            "  int use() throws Exception {",
+            "    try (Resources r = new Resources()) {",
+            "      Integer boxed = r.count++;",
+            "      return boxed + new Inner().value();",
+            "    } catch (IllegalStateException | IllegalArgumentException e) {",
+            "      return -1;",
+            "    }",
+            "  }",
+            "  class Inner { int value() { return count; } }",
+            "}")
+        .addCompilationUnit(
+            "test.Generic",
+            "public class Generic<T extends Comparable<T>> {",
+            "  T max(T a, T b) { return a.compareTo(b) >= 0 ? a : b; }",
+            "  static <U extends Comparable<U>> U pick(Generic<U> g, U a, U b) {",
+            "    return g.max(a, b);",
+            "  }",
+            "  char next(char c) { return c++; }",
+            "  boolean or(boolean a, boolean b) { return a ? true : b; }",
+            "}");
+  }
+}
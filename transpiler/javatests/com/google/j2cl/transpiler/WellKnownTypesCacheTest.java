@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.transpiler.ast.TypeDescriptors;
+import com.google.j2cl.transpiler.frontend.jdt.WellKnownTypesCache;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that the well known types can be initialized by consecutive requests on the same thread,
+ * as a singleplex persistent worker does.
+ */
+@RunWith(JUnit4.class)
+public final class WellKnownTypesCacheTest {
+  private static final String JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle_deploy.jar";
+
+  @Test
+  public void testCachedTypesAreReusedOnTheSameThread() {
+    List<String> classpath = ImmutableList.of(JRE_PATH);
+
+    TypeDescriptors first = initAndRelease(classpath);
+    TypeDescriptors second = initAndRelease(classpath);
+
+    assertThat(second).isSameInstanceAs(first);
+  }
+
+  @Test
+  public void testUncachedTypesAreReleasedOnTheSameThread() throws IOException {
+    // Classpaths with directories are not cached.
+    List<String> classpath =
+        ImmutableList.of(
+            JRE_PATH, Files.createTempDirectory("well_known_types_cache_test").toString());
+
+    TypeDescriptors first = initAndRelease(classpath);
+    TypeDescriptors second = initAndRelease(classpath);
+
+    assertThat(second).isNotSameInstanceAs(first);
+  }
+
+  /** Initializes the well known types as a request would and returns them. */
+  private static TypeDescriptors initAndRelease(List<String> classpath) {
+    Problems problems = new Problems();
+    TypeDescriptors typeDescriptors;
+    try (WellKnownTypesCache.Lease lease =
+        WellKnownTypesCache.initWellKnownTypes(classpath, problems)) {
+      typeDescriptors = TypeDescriptors.get();
+      assertThat(typeDescriptors.javaLangObject.getQualifiedSourceName())
+          .isEqualTo("java.lang.Object");
+    }
+    assertThat(problems.getErrors()).isEmpty();
+    assertThat(TypeDescriptors.isInitialized()).isFalse();
+    return typeDescriptors;
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.ast;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.j2cl.common.Problems;
+import com.google.j2cl.transpiler.frontend.jdt.WellKnownTypesCache;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that fusing rewriters gives the same results as running them one after the other. */
+@RunWith(JUnit4.class)
+public final class FusedRewriterTest {
+  private static final String JRE_PATH =
+      "transpiler/javatests/com/google/j2cl/transpiler/jre_bundle_deploy.jar";
+
+  private WellKnownTypesCache.Lease wellKnownTypes;
+
+  @Before
+  public void setUp() {
+    // Binary expressions compute their type from the well known types.
+    wellKnownTypes =
+        WellKnownTypesCache.initWellKnownTypes(ImmutableList.of(JRE_PATH), new Problems());
+  }
+
+  @After
+  public void tearDown() {
+    wellKnownTypes.close();
+  }
+
+  @Test
+  public void testReplacementIsRewrittenByTheFollowingRewriters() {
+    // 3 is doubled and then incremented, not the other way around.
+    assertFusedIsSameAsSequential(() -> literal(3), "7", Twice::new, Increment::new);
+    assertFusedIsSameAsSequential(() -> literal(3), "8", Increment::new, Twice::new);
+  }
+
+  @Test
+  public void testReplacementOfADifferentKindIsRewrittenByTheFollowingRewriters() {
+    // The replacement is handed to the following rewriter by its runtime type.
+    assertFusedIsSameAsSequential(
+        () -> add(literal(0), literal(1)),
+        "(true + 2)",
+        ZeroToFalse::new,
+        Negate::new,
+        Increment::new);
+  }
+
+  @Test
+  public void testNodesAreRewrittenAfterTheirChildren() {
+    // The additions are folded after their operands have been incremented by both rewriters.
+    assertFusedIsSameAsSequential(
+        () -> add(literal(1), add(literal(2), literal(3))),
+        "9",
+        Increment::new,
+        FoldAdditions::new);
+  }
+
+  @Test
+  public void testSkippedSubtreeIsOnlyRewrittenByTheOtherRewriters() {
+    // Increment does not go into subtractions, but Twice does; Increment then resumes.
+    assertFusedIsSameAsSequential(
+        () -> add(subtract(literal(1), literal(2)), literal(3)),
+        "((2 - 4) + 8)",
+        () -> new Increment(/* skipSubtractions= */ true),
+        Twice::new);
+    assertFusedIsSameAsSequential(
+        () -> add(subtract(literal(1), literal(2)), literal(3)),
+        "((2 - 4) + 7)",
+        Twice::new,
+        () -> new Increment(/* skipSubtractions= */ true));
+  }
+
+  @Test
+  public void testSkippedSubtreeRootIsRewritten() {
+    // The root of a skipped subtree is still rewritten by the rewriter that skipped it, and its
+    // replacement by the rewriters that follow.
+    assertFusedIsSameAsSequential(
+        () -> add(subtract(literal(1), literal(2)), literal(3)),
+        "((2 + 3) + 4)",
+        SwapOutermostSubtractions::new,
+        Increment::new);
+    // Nodes nested in the skipped subtree are not rewritten even if they are of the same kind.
+    assertFusedIsSameAsSequential(
+        () -> subtract(subtract(literal(1), literal(2)), literal(3)),
+        "((2 - 3) + 4)",
+        SwapOutermostSubtractions::new,
+        Increment::new);
+  }
+
+  @Test
+  public void testSubtreeSkippedByAllRewritersIsNotVisited() {
+    List<Object> visited = new ArrayList<>();
+    assertFusedIsSameAsSequential(
+        () -> add(subtract(literal(1), literal(2)), literal(3)),
+        "((1 - 2) + 5)",
+        () -> new Increment(/* skipSubtractions= */ true),
+        () -> new Increment(/* skipSubtractions= */ true) {
+          @Override
+          public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
+            visited.add(numberLiteral.getValue());
+            return super.rewriteNumberLiteral(numberLiteral);
+          }
+        });
+    // The second rewriter only sees the literal outside of the subtraction, once when running
+    // sequentially and once when fused.
+    assertThat(visited).containsExactly(4, 4);
+  }
+
+  /**
+   * Rewrites the expression created by {@code expressionFactory} with the rewriters one after the
+   * other and with the fused rewriters, and checks that both give the expected result.
+   */
+  @SafeVarargs
+  private static void assertFusedIsSameAsSequential(
+      Supplier<Expression> expressionFactory,
+      String expected,
+      Supplier<? extends AbstractRewriter>... rewriterFactories) {
+    Expression sequential = expressionFactory.get();
+    for (Supplier<? extends AbstractRewriter> rewriterFactory : rewriterFactories) {
+      sequential = (Expression) sequential.rewrite(rewriterFactory.get());
+    }
+    assertThat(render(sequential)).isEqualTo(expected);
+
+    ImmutableList.Builder<AbstractRewriter> rewriters = ImmutableList.builder();
+    for (Supplier<? extends AbstractRewriter> rewriterFactory : rewriterFactories) {
+      rewriters.add(rewriterFactory.get());
+    }
+    Expression fused =
+        (Expression) expressionFactory.get().rewrite(new FusedRewriter(rewriters.build()));
+    assertThat(render(fused)).isEqualTo(expected);
+  }
+
+  private static NumberLiteral literal(int value) {
+    return NumberLiteral.fromInt(value);
+  }
+
+  private static BinaryExpression add(Expression left, Expression right) {
+    return binary(left, BinaryOperator.PLUS, right);
+  }
+
+  private static BinaryExpression subtract(Expression left, Expression right) {
+    return binary(left, BinaryOperator.MINUS, right);
+  }
+
+  private static BinaryExpression binary(
+      Expression left, BinaryOperator operator, Expression right) {
+    return BinaryExpression.newBuilder()
+        .setLeftOperand(left)
+        .setOperator(operator)
+        .setRightOperand(right)
+        .build();
+  }
+
+  private static String render(Expression expression) {
+    if (expression instanceof BinaryExpression) {
+      BinaryExpression binaryExpression = (BinaryExpression) expression;
+      return "("
+          + render(binaryExpression.getLeftOperand())
+          + " "
+          + binaryExpression.getOperator().getSymbol()
+          + " "
+          + render(binaryExpression.getRightOperand())
+          + ")";
+    }
+    if (expression instanceof NumberLiteral) {
+      return String.valueOf(((NumberLiteral) expression).getValue());
+    }
+    if (expression instanceof BooleanLiteral) {
+      return String.valueOf(((BooleanLiteral) expression).getValue());
+    }
+    throw new AssertionError(expression);
+  }
+
+  private static int valueOf(Expression expression) {
+    return ((NumberLiteral) expression).getValue().intValue();
+  }
+
+  /** Adds one to each integer literal, optionally without going into subtractions. */
+  private static class Increment extends AbstractRewriter {
+    private final boolean skipSubtractions;
+
+    Increment() {
+      this(/* skipSubtractions= */ false);
+    }
+
+    Increment(boolean skipSubtractions) {
+      this.skipSubtractions = skipSubtractions;
+    }
+
+    @Override
+    public boolean shouldProcessBinaryExpression(BinaryExpression binaryExpression) {
+      return !skipSubtractions || binaryExpression.getOperator() != BinaryOperator.MINUS;
+    }
+
+    @Override
+    public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
+      return literal(valueOf(numberLiteral) + 1);
+    }
+  }
+
+  /** Doubles each integer literal. */
+  private static class Twice extends AbstractRewriter {
+    @Override
+    public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
+      return literal(valueOf(numberLiteral) * 2);
+    }
+  }
+
+  /** Replaces the integer literal 0 by false. */
+  private static class ZeroToFalse extends AbstractRewriter {
+    @Override
+    public Expression rewriteNumberLiteral(NumberLiteral numberLiteral) {
+      return valueOf(numberLiteral) == 0 ? BooleanLiteral.get(false) : numberLiteral;
+    }
+  }
+
+  /** Negates each boolean literal. */
+  private static class Negate extends AbstractRewriter {
+    @Override
+    public Expression rewriteBooleanLiteral(BooleanLiteral booleanLiteral) {
+      return BooleanLiteral.get(!booleanLiteral.getValue());
+    }
+  }
+
+  /** Replaces additions of integer literals by their result. */
+  private static class FoldAdditions extends AbstractRewriter {
+    @Override
+    public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
+      if (binaryExpression.getOperator() != BinaryOperator.PLUS
+          || !(binaryExpression.getLeftOperand() instanceof NumberLiteral)
+          || !(binaryExpression.getRightOperand() instanceof NumberLiteral)) {
+        return binaryExpression;
+      }
+      return literal(
+          valueOf(binaryExpression.getLeftOperand()) + valueOf(binaryExpression.getRightOperand()));
+    }
+  }
+
+  /** Replaces subtractions that are not nested in other subtractions by additions. */
+  private static class SwapOutermostSubtractions extends AbstractRewriter {
+    @Override
+    public boolean shouldProcessBinaryExpression(BinaryExpression binaryExpression) {
+      return binaryExpression.getOperator() != BinaryOperator.MINUS;
+    }
+
+    @Override
+    public Expression rewriteBinaryExpression(BinaryExpression binaryExpression) {
+      if (binaryExpression.getOperator() != BinaryOperator.MINUS) {
+        return binaryExpression;
+      }
+      return add(binaryExpression.getLeftOperand(), binaryExpression.getRightOperand());
+    }
+  }
+}
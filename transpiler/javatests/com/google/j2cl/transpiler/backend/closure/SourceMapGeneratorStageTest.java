@@ -0,0 +1,212 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.backend.closure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.debugging.sourcemap.FilePosition;
+import com.google.debugging.sourcemap.SourceMapFormat;
+import com.google.debugging.sourcemap.SourceMapGenerator;
+import com.google.debugging.sourcemap.SourceMapGeneratorFactory;
+import com.google.j2cl.common.SourcePosition;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests that the source maps are encoded byte for byte as Closure's {@code SourceMapGeneratorV3}
+ * encodes them.
+ *
+ * <p>The mappings mirror the ones recorded for the readable sourcemap example: a type enclosing its
+ * members, members enclosing their statements, synthetic code without a Java position and regions
+ * that are entirely covered by nested mappings.
+ */
+@RunWith(JUnit4.class)
+public final class SourceMapGeneratorStageTest {
+  private static final String SOURCE = "sourcemap/SourceMap.java";
+  private static final String OTHER_SOURCE = "sourcemap/Other.java";
+
+  @Test
+  public void testNestedMappings() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            // class SourceMap {
+            .add(0, 0, 30, 1, SOURCE, 20, 13, "SourceMap")
+            // constructor() {
+            .add(2, 1, 6, 2, SOURCE, 20, 13, "constructor")
+            // super();
+            .add(3, 2, 3, 10, SOURCE, 20, 13, null)
+            // static m_method() {
+            .add(8, 1, 14, 2, SOURCE, 24, 16, "m_method")
+            // let i = 0;
+            .add(9, 2, 9, 12, SOURCE, 25, 4, null)
+            // i = i + 1 | 0;
+            .add(10, 2, 10, 16, SOURCE, 26, 4, null)
+            // i + 1
+            .add(10, 6, 10, 11, SOURCE, 26, 8, null)
+            // return i;
+            .add(12, 2, 12, 11, SOURCE, 28, 4, null)
+            // static $clinit() {
+            .add(20, 1, 25, 2, SOURCE, 20, 13, "$clinit")
+            .add(21, 2, 21, 30, SOURCE, 20, 13, null));
+  }
+
+  @Test
+  public void testMappingsCoveredByTheirChildren() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            .add(0, 0, 1, 9, SOURCE, 1, 0, "m")
+            // Covers the rest of the first line of its parent.
+            .add(0, 1, 0, 20, SOURCE, 2, 0, null)
+            .add(1, 0, 1, 5, SOURCE, 3, 0, null)
+            // Nested mappings that end at the same position as the enclosing ones.
+            .add(1, 5, 1, 9, SOURCE, 3, 5, null)
+            .add(1, 7, 1, 9, SOURCE, 3, 7, null));
+  }
+
+  @Test
+  public void testZeroLengthMappingsDoNotCountTowardsLineCount() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            .add(0, 0, 0, 10, SOURCE, 1, 0, null)
+            .add(1, 4, 1, 4, SOURCE, 2, 0, null)
+            // The last mappings do not cover any region of the output.
+            .add(5, 0, 5, 0, SOURCE, 3, 0, null)
+            .add(9, 2, 9, 2, SOURCE, 4, 0, null));
+  }
+
+  @Test
+  public void testZeroLengthMappingsBeforeOtherMappings() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            .add(0, 0, 0, 10, SOURCE, 1, 0, null)
+            .add(2, 0, 2, 0, SOURCE, 2, 0, null)
+            .add(3, 0, 3, 1, SOURCE, 3, 0, null));
+  }
+
+  @Test
+  public void testUnmappedJavaPositionsAreSkipped() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            .add(0, 0, 4, 1, SOURCE, 1, 0, "SourceMap")
+            // Synthetic code that is not associated with any Java position.
+            .add(1, 1, 1, 10, SourcePosition.NONE)
+            .add(2, 1, 2, 10, SOURCE, 2, 0, null)
+            .add(12, 0, 12, 4, SourcePosition.NONE));
+  }
+
+  @Test
+  public void testSourcesAndNames() throws IOException {
+    assertSameAsClosure(
+        new Mappings()
+            .add(0, 0, 0, 5, SOURCE, 100, 2, "m_first")
+            .add(0, 5, 0, 9, OTHER_SOURCE, 3, 120, "m_second")
+            .add(0, 9, 0, 12, SOURCE, 7, 0, "m_first")
+            .add(1, 0, 1, 3, "sourcemap/Quoted\"\\Name\u00e9.java", 0, 0, "$quoted\"name")
+            .add(1, 3, 1, 5, OTHER_SOURCE, 0, 0, "m_second")
+            // Large deltas need several base64 digits.
+            .add(70000, 100000, 70000, 100001, SOURCE, 90000, 4000, null));
+  }
+
+  @Test
+  public void testGeneratorIsReusable() throws IOException {
+    SourceMapGeneratorStage generator = new SourceMapGeneratorStage();
+    Mappings first =
+        new Mappings()
+            .add(0, 0, 3, 1, SOURCE, 1, 0, "SourceMap")
+            .add(1, 1, 1, 9, OTHER_SOURCE, 2, 0, "m_method");
+    Mappings second = new Mappings().add(0, 2, 0, 4, OTHER_SOURCE, 5, 3, null);
+
+    assertThat(first.render(generator)).isEqualTo(first.renderWithClosure());
+    assertThat(second.render(generator)).isEqualTo(second.renderWithClosure());
+    assertThat(first.render(generator)).isEqualTo(first.renderWithClosure());
+  }
+
+  private static void assertSameAsClosure(Mappings mappings) throws IOException {
+    assertThat(mappings.render(new SourceMapGeneratorStage()))
+        .isEqualTo(mappings.renderWithClosure());
+  }
+
+  /** Java positions keyed by the output positions they map, sorted by output position. */
+  private static final class Mappings {
+    private static final String FILE = "SourceMap.impl.java.js";
+
+    private final Map<SourcePosition, SourcePosition> javaSourcePositionByOutputSourcePosition =
+        new LinkedHashMap<>();
+
+    Mappings add(
+        int startLine,
+        int startColumn,
+        int endLine,
+        int endColumn,
+        String javaFilePath,
+        int javaLine,
+        int javaColumn,
+        String name) {
+      return add(
+          startLine,
+          startColumn,
+          endLine,
+          endColumn,
+          SourcePosition.newBuilder()
+              .setFilePath(javaFilePath)
+              .setStartPosition(javaLine, javaColumn, 0)
+              .setEndPosition(javaLine, javaColumn + 1, 1)
+              .setName(name)
+              .build());
+    }
+
+    Mappings add(
+        int startLine,
+        int startColumn,
+        int endLine,
+        int endColumn,
+        SourcePosition javaSourcePosition) {
+      javaSourcePositionByOutputSourcePosition.put(
+          SourcePosition.create(startLine, startColumn, 0, endLine, endColumn, 0),
+          javaSourcePosition);
+      return this;
+    }
+
+    String render(SourceMapGeneratorStage generator) {
+      return generator.renderSourceMap(FILE, javaSourcePositionByOutputSourcePosition);
+    }
+
+    String renderWithClosure() throws IOException {
+      SourceMapGenerator generator = SourceMapGeneratorFactory.getInstance(SourceMapFormat.V3);
+      for (Entry<SourcePosition, SourcePosition> entry :
+          javaSourcePositionByOutputSourcePosition.entrySet()) {
+        SourcePosition javaSourcePosition = entry.getValue();
+        SourcePosition outputSourcePosition = entry.getKey();
+        generator.addMapping(
+            javaSourcePosition.getFileName(),
+            javaSourcePosition.getName(),
+            new FilePosition(javaSourcePosition.getStartLine(), javaSourcePosition.getStartColumn()),
+            new FilePosition(
+                outputSourcePosition.getStartLine(), outputSourcePosition.getStartColumn()),
+            new FilePosition(
+                outputSourcePosition.getEndLine(), outputSourcePosition.getEndColumn()));
+      }
+      StringBuilder sb = new StringBuilder();
+      generator.appendTo(sb, FILE);
+      return sb.toString();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2024 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.j2cl.transpiler.frontend.jdt;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class ClasspathJarCacheTest {
+  private Path tempDir;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDir = Files.createTempDirectory("classpath_jar_cache_test");
+  }
+
+  @Test
+  public void testJarsAreKeptOpen() throws IOException {
+    String a = createJar("a.jar");
+    String b = createJar("b.jar");
+    ClasspathJarCache cache = new ClasspathJarCache(/* cacheSize= */ 10);
+
+    ClasspathJarCache.Stats stats = cache.retainJars(ImmutableList.of(a, b, "classes/dir"));
+    assertThat(stats.getHits()).isEqualTo(0);
+    assertThat(stats.getMisses()).isEqualTo(2);
+    ZipFile openJar = cache.getOpenJar(a);
+
+    stats = cache.retainJars(ImmutableList.of(a, b));
+    assertThat(stats.getHits()).isEqualTo(2);
+    assertThat(stats.getMisses()).isEqualTo(0);
+    assertThat(cache.getOpenJar(a)).isSameInstanceAs(openJar);
+    assertIsOpen(openJar);
+  }
+
+  @Test
+  public void testModifiedJarIsReopened() throws IOException {
+    String a = createJar("a.jar");
+    ClasspathJarCache cache = new ClasspathJarCache(/* cacheSize= */ 10);
+    cache.retainJars(ImmutableList.of(a));
+    ZipFile openJar = cache.getOpenJar(a);
+
+    Path path = Path.of(a);
+    Files.setLastModifiedTime(
+        path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 10_000));
+    ClasspathJarCache.Stats stats = cache.retainJars(ImmutableList.of(a));
+
+    assertThat(stats.getMisses()).isEqualTo(1);
+    assertIsClosed(openJar);
+    assertIsOpen(cache.getOpenJar(a));
+  }
+
+  @Test
+  public void testEvictedJarsAreClosed() throws IOException {
+    String a = createJar("a.jar");
+    String b = createJar("b.jar");
+    String c = createJar("c.jar");
+    ClasspathJarCache cache = new ClasspathJarCache(/* cacheSize= */ 2);
+    cache.retainJars(ImmutableList.of(a));
+    ZipFile openJar = cache.getOpenJar(a);
+    cache.retainJars(ImmutableList.of(b));
+
+    // a is the least recently used jar.
+    cache.retainJars(ImmutableList.of(c));
+
+    assertThat(cache.getOpenJar(a)).isNull();
+    assertIsClosed(openJar);
+    assertIsOpen(cache.getOpenJar(b));
+    assertIsOpen(cache.getOpenJar(c));
+  }
+
+  @Test
+  public void testDisabledCacheKeepsNothingOpen() throws IOException {
+    String a = createJar("a.jar");
+    ClasspathJarCache cache = new ClasspathJarCache(/* cacheSize= */ 0);
+
+    ClasspathJarCache.Stats stats = cache.retainJars(ImmutableList.of(a));
+
+    assertThat(stats.getMisses()).isEqualTo(0);
+    assertThat(cache.getOpenJar(a)).isNull();
+  }
+
+  private String createJar(String name) throws IOException {
+    Path jar = tempDir.resolve(name);
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+      out.putNextEntry(new ZipEntry("com/example/Foo.class"));
+      out.closeEntry();
+    }
+    return jar.toString();
+  }
+
+  private static void assertIsOpen(ZipFile zipFile) {
+    assertThat(zipFile.size()).isEqualTo(1);
+  }
+
+  private static void assertIsClosed(ZipFile zipFile) {
+    // ZipFile throws on any access once it is closed.
+    assertThrows(IllegalStateException.class, zipFile::size);
+  }
+}